@@ -0,0 +1,300 @@
+package trafficsim;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class BenchCompare diffs two JMH result files written with -rf json, usually from two
+ * commits, and flags each benchmark that got slower by more than a threshold and by more
+ * than the error of the two scores together.  the exit status is 1 if any did, so a
+ * script can stop on a regression.  the results are read with a small JSON reader of its
+ * own, JMH writes nothing the reader does not handle
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class BenchCompare {
+
+	private final String text;
+	private int pos = 0;
+
+	private BenchCompare(String text) {
+		this.text = text;
+	}
+
+	/*
+	 * print the usage message and quit
+	 */
+	private static void usage() {
+		System.out.println(""
+			+ "incorrect usage\n"
+			+ "expected: java BenchCompare base_results.json new_results.json [threshold_percent]");
+		System.exit(-1);
+	}
+
+	/*
+	 * read a JMH result file
+	 *		@param filename the file written by -rf json
+	 *		@return the primary metric of each run, by benchmark and parameters
+	 */
+	private static Map<String, Map<String, Object>> readResults(String filename) throws IOException {
+		String json = new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.UTF_8);
+		Object parsed = new BenchCompare(json).parseDocument();
+		if (!(parsed instanceof List)) {
+			throw new IOException(filename + " is not a list of JMH results");
+		}
+		Map<String, Map<String, Object>> results = new TreeMap<String, Map<String, Object>>();
+		for (Object item : (List<?>) parsed) {
+			Map<?, ?> run = (Map<?, ?>) item;
+			String key = shorten((String) run.get("benchmark"));
+			Object params = run.get("params");
+			if (params instanceof Map) {
+				StringBuilder b = new StringBuilder();
+				for (Map.Entry<?, ?> param : ((Map<?, ?>) params).entrySet()) {
+					b.append(b.length() == 0 ? " " : ",").append(param.getKey()).append('=').append(param.getValue());
+				}
+				key += b;
+			}
+			@SuppressWarnings("unchecked")
+			Map<String, Object> metric = (Map<String, Object>) run.get("primaryMetric");
+			metric.put("mode", run.get("mode"));
+			results.put(key, metric);
+		}
+		return results;
+	}
+
+	/*
+	 * drop the package from a benchmark name
+	 */
+	private static String shorten(String benchmark) {
+		int dot = benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1);
+		return dot < 0 ? benchmark : benchmark.substring(dot + 1);
+	}
+
+	/*
+	 * return a number from the results, JMH writes "NaN" as a string when it has no error
+	 */
+	private static double number(Object value) {
+		return value instanceof Double ? (Double) value : 0;
+	}
+
+	/**
+	 * main method for the comparison.
+	 * @param args the base results, the new results and the threshold
+	 */
+	public static void main(String[] args) {
+		double threshold = 5;
+		if (args.length != 2 && args.length != 3) {
+			usage();
+		}
+		try {
+			if (args.length == 3) {
+				threshold = Double.parseDouble(args[2]);
+			}
+		} catch (NumberFormatException nfe) {
+			usage();
+		}
+
+		Map<String, Map<String, Object>> base = null, head = null;
+		try {
+			base = readResults(args[0]);
+			head = readResults(args[1]);
+		} catch (IOException ioe) {
+			System.out.println(ioe.getMessage());
+			System.exit(-1);
+		} catch (RuntimeException re) {
+			System.out.println("could not read the results: " + re);
+			System.exit(-1);
+		}
+
+		int regressions = 0;
+		System.out.printf("%-80s %14s %14s %9s%n", "benchmark", "base", "new", "change");
+		for (Map.Entry<String, Map<String, Object>> entry : head.entrySet()) {
+			Map<String, Object> now = entry.getValue();
+			Map<String, Object> was = base.get(entry.getKey());
+			String unit = (String) now.get("scoreUnit");
+			if (was == null) {
+				System.out.printf("%-80s %14s %14.3f %9s  %s%n", entry.getKey(), "-", number(now.get("score")), "new", unit);
+				continue;
+			}
+			double before = number(was.get("score")), after = number(now.get("score"));
+			double change = before == 0 ? 0 : (after - before) / before * 100;
+
+			// throughput is better higher, every other mode is a time and better lower
+			double worse = "thrpt".equals(now.get("mode")) ? -change : change;
+			boolean regressed = worse > threshold
+				&& Math.abs(after - before) > number(was.get("scoreError")) + number(now.get("scoreError"));
+			if (regressed) {
+				regressions++;
+			}
+			System.out.printf("%-80s %14.3f %14.3f %+8.1f%%  %s%s%n", entry.getKey(), before, after, change, unit, regressed ? "  REGRESSION" : "");
+		}
+		for (String key : base.keySet()) {
+			if (!head.containsKey(key)) {
+				System.out.printf("%-80s %14.3f %14s %9s%n", key, number(base.get(key).get("score")), "-", "gone");
+			}
+		}
+		System.out.println(regressions + " regression" + (regressions == 1 ? "" : "s") + " over " + threshold + "%");
+		System.exit(regressions > 0 ? 1 : 0);
+	}
+
+	/*
+	 * parse the whole text as one JSON value
+	 */
+	private Object parseDocument() {
+		Object value = parseValue();
+		skipSpace();
+		if (pos != text.length()) {
+			throw error("trailing text");
+		}
+		return value;
+	}
+
+	private Object parseValue() {
+		skipSpace();
+		if (pos >= text.length()) {
+			throw error("unexpected end");
+		}
+		char c = text.charAt(pos);
+		if (c == '{') {
+			return parseObject();
+		} else if (c == '[') {
+			return parseArray();
+		} else if (c == '"') {
+			return parseString();
+		} else if (text.startsWith("true", pos)) {
+			pos += 4;
+			return Boolean.TRUE;
+		} else if (text.startsWith("false", pos)) {
+			pos += 5;
+			return Boolean.FALSE;
+		} else if (text.startsWith("null", pos)) {
+			pos += 4;
+			return null;
+		}
+		return parseNumber();
+	}
+
+	private Map<String, Object> parseObject() {
+		Map<String, Object> object = new LinkedHashMap<String, Object>();
+		pos++;
+		skipSpace();
+		if (peek() == '}') {
+			pos++;
+			return object;
+		}
+		while (true) {
+			skipSpace();
+			String key = parseString();
+			skipSpace();
+			expect(':');
+			object.put(key, parseValue());
+			skipSpace();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect('}');
+				return object;
+			}
+		}
+	}
+
+	private List<Object> parseArray() {
+		List<Object> array = new ArrayList<Object>();
+		pos++;
+		skipSpace();
+		if (peek() == ']') {
+			pos++;
+			return array;
+		}
+		while (true) {
+			array.add(parseValue());
+			skipSpace();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect(']');
+				return array;
+			}
+		}
+	}
+
+	private String parseString() {
+		expect('"');
+		StringBuilder b = new StringBuilder();
+		while (true) {
+			if (pos >= text.length()) {
+				throw error("unterminated string");
+			}
+			char c = text.charAt(pos++);
+			if (c == '"') {
+				return b.toString();
+			}
+			if (c != '\\') {
+				b.append(c);
+				continue;
+			}
+			char escape = text.charAt(pos++);
+			switch (escape) {
+				case 'n':
+					b.append('\n');
+					break;
+				case 't':
+					b.append('\t');
+					break;
+				case 'r':
+					b.append('\r');
+					break;
+				case 'b':
+					b.append('\b');
+					break;
+				case 'f':
+					b.append('\f');
+					break;
+				case 'u':
+					b.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+					pos += 4;
+					break;
+				default:
+					b.append(escape);
+			}
+		}
+	}
+
+	private Double parseNumber() {
+		int start = pos;
+		while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+			pos++;
+		}
+		if (start == pos) {
+			throw error("unexpected character");
+		}
+		return Double.valueOf(text.substring(start, pos));
+	}
+
+	private char peek() {
+		return pos < text.length() ? text.charAt(pos) : 0;
+	}
+
+	private void expect(char c) {
+		if (peek() != c) {
+			throw error("expected " + c);
+		}
+		pos++;
+	}
+
+	private void skipSpace() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at character " + pos);
+	}
+}
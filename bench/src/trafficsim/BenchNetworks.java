@@ -0,0 +1,216 @@
+package trafficsim;
+
+/**
+ * Class BenchNetworks builds the networks the benchmarks run on, in memory, so a suite can
+ * be run at any size without a file for each.  every network is laid out on a 40 unit
+ * lattice like the example networks, with the default queue capacity on every road
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class BenchNetworks {
+
+	protected final static double spacing = 40;
+	protected final static double arrivalRate = 30;
+
+	/*
+	 * return the side of the square that holds about a number of intersections
+	 *		@param size the number of intersections wanted
+	 *		@return the side, at least 3
+	 */
+	protected static int side(int size) {
+		return Math.max(3, (int) Math.round(Math.sqrt(size)));
+	}
+
+	/*
+	 * add an intersection to a network
+	 *		@return the index of the intersection
+	 */
+	private static int vertex(NetworkData network, double x, double y, double n) {
+		network.intersections.add(new SimpleIntersection(x, y, n));
+		return network.intersections.size() - 1;
+	}
+
+	/*
+	 * join two intersections with a road each way
+	 */
+	private static void link(NetworkData network, int a, int b) {
+		network.roads.add(new Road(a, b, TrafficSimulatorApp.defaultQueueSize));
+		network.roads.add(new Road(b, a, TrafficSimulatorApp.defaultQueueSize));
+	}
+
+	/*
+	 * set the screen size to hold every intersection
+	 */
+	private static NetworkData finish(NetworkData network) {
+		double maxX = 0, maxY = 0;
+		for (Intersection intersection : network.intersections) {
+			maxX = Math.max(maxX, intersection.getX());
+			maxY = Math.max(maxY, intersection.getY());
+		}
+		network.screenWidth = (int) (maxX + spacing);
+		network.screenHeight = (int) (maxY + spacing);
+		return network;
+	}
+
+	/*
+	 * a square grid of switching intersections, the kind of network the simulator is built
+	 * for.  every road leaving the edge of the grid ends in a bend and then a source, so all
+	 * three kinds of intersection are there
+	 *		@param size about how many switching intersections to make
+	 *		@return the network, to install()
+	 */
+	protected static NetworkData grid(int size) {
+		NetworkData network = new NetworkData();
+		int side = side(size);
+		int[][] at = new int[side][side];
+		for (int i = 0; i < side; i++) {
+			for (int j = 0; j < side; j++) {
+				at[i][j] = vertex(network, (i + 3) * spacing, (j + 3) * spacing, TrafficSimulatorApp.defaultSwitchingInterval);
+			}
+		}
+		for (int i = 0; i < side; i++) {
+			for (int j = 0; j < side; j++) {
+				if (i + 1 < side) {
+					link(network, at[i][j], at[i + 1][j]);
+				}
+				if (j + 1 < side) {
+					link(network, at[i][j], at[i][j + 1]);
+				}
+			}
+		}
+
+		// a spoke of bend and source off each side of the grid, so every edge vertex has four roads
+		for (int k = 0; k < side; k++) {
+			spoke(network, at[k][0], (k + 3) * spacing, 2 * spacing, 0, -spacing);
+			spoke(network, at[k][side - 1], (k + 3) * spacing, (side + 3) * spacing, 0, spacing);
+			spoke(network, at[0][k], 2 * spacing, (k + 3) * spacing, -spacing, 0);
+			spoke(network, at[side - 1][k], (side + 3) * spacing, (k + 3) * spacing, spacing, 0);
+		}
+		return finish(network);
+	}
+
+	/*
+	 * a bend and then a source leading away from a vertex.  the source is set off to one
+	 * side, so the bend is drawn as one
+	 *		@param from the vertex the spoke leaves
+	 *		@param x the x coordinate of the bend
+	 *		@param y the y coordinate of the bend
+	 *		@param dx how far past the bend the source is in x
+	 *		@param dy how far past the bend the source is in y
+	 */
+	private static void spoke(NetworkData network, int from, double x, double y, double dx, double dy) {
+		int bend = vertex(network, x, y, 0);
+		int source = vertex(network, x + dx + dy * 0.5, y + dy + dx * 0.5, arrivalRate);
+		link(network, from, bend);
+		link(network, bend, source);
+	}
+
+	/*
+	 * a grid of switching intersections with the edges wrapped around, so every intersection
+	 * has four roads in and a car never leaves the grid
+	 *		@param size about how many intersections to make
+	 */
+	protected static NetworkData torus(int size) {
+		NetworkData network = new NetworkData();
+		int side = side(size);
+		for (int i = 0; i < side; i++) {
+			for (int j = 0; j < side; j++) {
+				vertex(network, (i + 1) * spacing, (j + 1) * spacing, TrafficSimulatorApp.defaultSwitchingInterval);
+			}
+		}
+		for (int i = 0; i < side; i++) {
+			for (int j = 0; j < side; j++) {
+				link(network, i * side + j, ((i + 1) % side) * side + j);
+				link(network, i * side + j, i * side + (j + 1) % side);
+			}
+		}
+		return finish(network);
+	}
+
+	/*
+	 * a loop of bends, two roads in and two out of every intersection
+	 *		@param size the number of intersections
+	 */
+	protected static NetworkData ring(int size) {
+		NetworkData network = new NetworkData();
+		int count = Math.max(3, size);
+		double radius = count * spacing / (2 * Math.PI);
+		for (int k = 0; k < count; k++) {
+			double angle = 2 * Math.PI * k / count;
+			vertex(network, radius + spacing + radius * Math.cos(angle), radius + spacing + radius * Math.sin(angle), 0);
+		}
+		for (int k = 0; k < count; k++) {
+			link(network, k, (k + 1) % count);
+		}
+		return finish(network);
+	}
+
+	/*
+	 * pairs of sources joined to each other and nothing else
+	 *		@param size the number of intersections, two to a pair
+	 */
+	protected static NetworkData pairs(int size) {
+		NetworkData network = new NetworkData();
+		int count = Math.max(1, size / 2);
+		int columns = side(count);
+		for (int k = 0; k < count; k++) {
+			double x = (k % columns) * 3 * spacing + spacing;
+			double y = (k / columns) * spacing + spacing;
+			link(network, vertex(network, x, y, arrivalRate), vertex(network, x + 2 * spacing, y, arrivalRate));
+		}
+		return finish(network);
+	}
+
+	/*
+	 * parallel roads all pointing the same way, each between an intersection of its own
+	 *		@param count the number of roads
+	 *		@param angle the direction of the roads, in degrees anticlockwise from the x axis
+	 *		@param length the length of each road
+	 */
+	protected static NetworkData parallel(int count, double angle, double length) {
+		NetworkData network = new NetworkData();
+		double ux = Math.cos(Math.toRadians(angle));
+		double uy = Math.sin(Math.toRadians(angle));
+
+		// roads side by side across the direction they point
+		for (int k = 0; k < count; k++) {
+			double x = length + spacing - uy * spacing * k;
+			double y = length + spacing + ux * spacing * k;
+			int from = vertex(network, x, y, 0);
+			int to = vertex(network, x + ux * length, y + uy * length, 0);
+			network.roads.add(new Road(from, to, TrafficSimulatorApp.defaultQueueSize));
+		}
+		return finish(network);
+	}
+
+	/*
+	 * start from a clean simulator, set up the way the simulator's own main methods do
+	 */
+	protected static void initialize() {
+		TrafficSimulatorApp.initialize();
+		new ColorChooser();
+	}
+
+	/*
+	 * put a network in place of the one being simulated, with no vehicles, at tick 0
+	 */
+	protected static void install(NetworkData network) {
+		TrafficSimulatorApp.simTime = 0;
+		network.install();
+	}
+
+	/*
+	 * put a new vehicle part way along a road
+	 *		@param edge the road
+	 *		@param fraction how far along, from 0 at the start to 1 at the end
+	 *		@param seed the seed of the vehicle's random stream
+	 *		@return the vehicle
+	 */
+	protected static Vehicle place(int edge, double fraction, long seed) {
+		Vehicle v = TrafficSimulatorApp.vehicles.add(edge, seed);
+		Road r = TrafficSimulatorApp.roads.get(edge);
+		Intersection from = TrafficSimulatorApp.intersections.get(r.getFromVertex());
+		Intersection to = TrafficSimulatorApp.intersections.get(r.getToVertex());
+		v.setPosition(from.getX() + (to.getX() - from.getX()) * fraction, from.getY() + (to.getY() - from.getY()) * fraction);
+		return v;
+	}
+}
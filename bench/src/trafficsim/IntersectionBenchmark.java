@@ -0,0 +1,66 @@
+package trafficsim;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Class IntersectionBenchmark times SimpleIntersection.updateIntersection for each kind of
+ * intersection, on a network made of nothing but that kind: pairs of sources, a loop of
+ * bends, or a grid of switching intersections wrapped round on itself.  the cars are all
+ * waiting in the queues, and the RecirculatingEngine keeps them there, so every tick sees
+ * the same load.  the score is the time to update every intersection once
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntersectionBenchmark {
+
+	@Param({"source", "bend", "switching"})
+	public String kind;
+
+	@Param({"100", "10000"})
+	public int size;	// intersections
+
+	@Param({"1000", "100000"})
+	public int vehicles;
+
+	private Intersection[] intersections;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		BenchNetworks.initialize();
+		TrafficSimulatorApp.engine = new RecirculatingEngine();
+		if (kind.equals("source")) {
+			BenchNetworks.install(BenchNetworks.pairs(size));
+		} else if (kind.equals("bend")) {
+			BenchNetworks.install(BenchNetworks.ring(size));
+		} else if (kind.equals("switching")) {
+			BenchNetworks.install(BenchNetworks.torus(size));
+		} else {
+			throw new IllegalArgumentException("unknown kind " + kind);
+		}
+		int queued = RecirculatingEngine.fillQueues(vehicles);
+		if (queued < vehicles) {
+			System.out.println("only " + queued + " of " + vehicles + " cars fit in the queues");
+		}
+		intersections = TrafficSimulatorApp.intersections.toArray(new Intersection[0]);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		TrafficSimulatorApp.engine = null;
+	}
+
+	@Benchmark
+	public long updateIntersection() {
+		TrafficSimulatorApp.simTime++;
+		for (Intersection i : intersections) {
+			i.updateIntersection();
+		}
+		return TrafficSimulatorApp.throughput.sum();
+	}
+}
@@ -0,0 +1,90 @@
+package trafficsim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Class ParserBenchmark times SimFileHandler.readAndParseFile on a generated grid saved in
+ * each format: text, the binary network format, and a checkpoint.  only a checkpoint holds
+ * cars, so the vehicle count makes no difference to the other two.  the settings line each
+ * load prints is thrown away while the benchmark runs
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+	@Param({"text", "binary", "checkpoint"})
+	public String format;
+
+	@Param({"1000", "100000"})
+	public int size;	// switching intersections
+
+	@Param({"10000"})
+	public int vehicles;
+
+	private File file;
+	private PrintStream out;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		BenchNetworks.initialize();
+		BenchNetworks.install(BenchNetworks.grid(size));
+
+		String suffix;
+		if (format.equals("text")) {
+			suffix = ".net";
+		} else if (format.equals("binary")) {
+			suffix = NetworkFile.extension;
+		} else if (format.equals("checkpoint")) {
+			suffix = ".ckpt";
+		} else {
+			throw new IllegalArgumentException("unknown format " + format);
+		}
+		file = File.createTempFile("bench", suffix);
+		file.deleteOnExit();
+
+		if (format.equals("checkpoint")) {
+			int roads = TrafficSimulatorApp.roads.size();
+			for (int k = 0; k < vehicles; k++) {
+				Vehicle v = BenchNetworks.place(k % roads, 0.5, k);
+				if (k % 4 == 0) {
+					// some of the cars waiting, so the queues are saved as well
+					TrafficSimulatorApp.roads.get(k % roads).joinQueue(v);
+				}
+			}
+			Checkpoint.write(file.getPath(), Checkpoint.capture());
+		} else {
+			SimFileHandler.writeToOutput(file.getPath());
+		}
+
+		out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.setOut(out);
+		file.delete();
+	}
+
+	@Benchmark
+	public int readAndParseFile() {
+		if (!SimFileHandler.readAndParseFile(file.getPath())) {
+			throw new IllegalStateException(SimFileHandler.getLastError());
+		}
+		return TrafficSimulatorApp.roads.size();
+	}
+}
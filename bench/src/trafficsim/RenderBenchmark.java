@@ -0,0 +1,87 @@
+package trafficsim;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Class RenderBenchmark times DisplayPanel.paintComponent drawing a frame of a generated
+ * grid into an offscreen image, with no window.  close is the view at a zoom of 1 in the
+ * middle of the network, where the cars are drawn one by one, and fit is the whole network
+ * in view, which on a large network is far enough out that roads are colored by how full
+ * they are instead.  paint draws over the cached roads and intersections the way most
+ * frames do, paintAfterPan draws them again first, the way the frame after a pan or zoom does
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+
+	private final static int width = 1280, height = 800;
+
+	@Param({"close", "fit"})
+	public String view;
+
+	@Param({"100", "10000"})
+	public int size;	// switching intersections
+
+	@Param({"1000", "100000"})
+	public int vehicles;
+
+	private DisplayPanel panel;
+	private BufferedImage image;
+	private Graphics2D graphics;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		BenchNetworks.initialize();
+		BenchNetworks.install(BenchNetworks.grid(size));
+
+		// cars spread along every road, one in four of them waiting in line
+		int roads = TrafficSimulatorApp.roads.size();
+		for (int k = 0; k < vehicles; k++) {
+			Vehicle v = BenchNetworks.place(k % roads, (k / roads % 8 + 0.5) / 8, k);
+			if (k % 4 == 0) {
+				TrafficSimulatorApp.roads.get(k % roads).joinQueue(v);
+			}
+		}
+		TrafficSimulatorApp.frames.getWriteBuffer().capture();
+		TrafficSimulatorApp.frames.publish();
+		TrafficSimulatorApp.frames.acquire();
+
+		panel = new DisplayPanel();
+		panel.setSize(width, height);
+		DisplayPanel.setViewSize(width, height);
+		DisplayPanel.resetView();
+		if (view.equals("close")) {
+			DisplayPanel.zoomAt(width / 2, height / 2, 1 / DisplayPanel.getZoom());
+		} else if (!view.equals("fit")) {
+			throw new IllegalArgumentException("unknown view " + view);
+		}
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		graphics.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage paint() {
+		panel.paintComponent(graphics);
+		return image;
+	}
+
+	@Benchmark
+	public BufferedImage paintAfterPan() {
+		DisplayPanel.panBy(0, 0);
+		panel.paintComponent(graphics);
+		return image;
+	}
+}
@@ -0,0 +1,74 @@
+package trafficsim;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Class RoadQueueBenchmark times Road.joinQueue and Road.popVehicle with the lines held at
+ * a depth.  cycle pops the front car of every road and puts it at the back, so the depth
+ * never changes.  drainAndFill empties every line and fills it again, so it goes through
+ * every depth from the one set up down to empty
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoadQueueBenchmark {
+
+	@Param({"100", "10000"})
+	public int size;	// roads
+
+	@Param({"1000", "100000"})
+	public int vehicles;	// spread evenly over the roads, so the depth is vehicles / size
+
+	private Road[] roads;
+	private Vehicle[] popped;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		BenchNetworks.initialize();
+		int depth = Math.max(1, vehicles / size);
+
+		// roads long enough for the line, with a space spare so a cycle never finds one full
+		NetworkData network = BenchNetworks.parallel(size, 0, 2 * BenchNetworks.spacing);
+		for (int k = 0; k < size; k++) {
+			Road r = network.roads.get(k);
+			network.roads.set(k, new Road(r.getFromVertex(), r.getToVertex(), depth + 1));
+		}
+		BenchNetworks.install(network);
+
+		roads = TrafficSimulatorApp.roads.toArray(new Road[size]);
+		for (int k = 0; k < size * depth; k++) {
+			roads[k % size].joinQueue(TrafficSimulatorApp.vehicles.add(k % size, k));
+		}
+		popped = new Vehicle[depth];
+	}
+
+	@Benchmark
+	public int cycle() {
+		int total = 0;
+		for (Road r : roads) {
+			total += r.joinQueue(r.popVehicle());
+		}
+		return total;
+	}
+
+	@Benchmark
+	public int drainAndFill() {
+		int total = 0;
+		for (Road r : roads) {
+			int count = 0;
+			Vehicle v;
+			while ((v = r.popVehicle()) != null) {
+				popped[count++] = v;
+			}
+			for (int k = 0; k < count; k++) {
+				total += r.joinQueue(popped[k]);
+			}
+		}
+		return total;
+	}
+}
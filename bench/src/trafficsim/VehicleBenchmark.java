@@ -0,0 +1,77 @@
+package trafficsim;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Class VehicleBenchmark times Vehicle.updatePosition, moving every car one tick along
+ * roads that all point the same way.  the direction picks which of the eight cases the
+ * position update takes: the compass points between the axes and the diagonals, so ENE
+ * steps by x with both deltas positive, NNE steps by y with both positive, and so on round.
+ * a car that reaches the end of its road starts it again, which happens about once every
+ * thousand moves.  the score is the time to move every car once
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VehicleBenchmark {
+
+	private final static String[] directions = {"ENE", "NNE", "NNW", "WNW", "WSW", "SSW", "SSE", "ESE"};
+	private final static double roadLength = 1000;
+
+	@Param({"ENE", "NNE", "NNW", "WNW", "WSW", "SSW", "SSE", "ESE"})
+	public String direction;
+
+	@Param({"100", "10000"})
+	public int size;	// roads
+
+	@Param({"1000", "100000"})
+	public int vehicles;
+
+	private VehicleTable table;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		int octant = -1;
+		for (int k = 0; k < directions.length; k++) {
+			if (directions[k].equals(direction)) {
+				octant = k;
+			}
+		}
+		if (octant < 0) {
+			throw new IllegalArgumentException("unknown direction " + direction);
+		}
+
+		// 30 or 60 degrees into a quadrant, clear of the axes and the diagonals
+		BenchNetworks.initialize();
+		BenchNetworks.install(BenchNetworks.parallel(size, 30 + 90 * (octant / 2) + 30 * (octant % 2), roadLength));
+
+		// spread the cars evenly along the roads
+		int perRoad = (vehicles + size - 1) / size;
+		for (int k = 0; k < vehicles; k++) {
+			BenchNetworks.place(k % size, (k / size + 0.5) / perRoad * 0.95, k);
+		}
+		table = TrafficSimulatorApp.vehicles;
+	}
+
+	@Benchmark
+	public int updatePosition() {
+		int restarted = 0;
+		for (int slot = 0; slot < table.size(); slot++) {
+			Vehicle v = table.get(slot);
+			v.updatePosition();
+			if (v.isQueued()) {
+				// back to the start of the road, so the queue stays empty and the car keeps moving
+				int edge = v.getOnEdge();
+				TrafficSimulatorApp.roads.get(edge).popVehicle();
+				v.setEdge(edge);
+				restarted++;
+			}
+		}
+		return restarted;
+	}
+}
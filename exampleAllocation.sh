@@ -0,0 +1,7 @@
+#!/bin/bash
+
+# check the switching intersections allocate nothing once the run has settled, on the
+# sample network and on a generated one with a couple of thousand switching intersections
+java -cp build/classes trafficsim.TurningTableCheck test1.net || exit 1
+java -cp build/classes trafficsim.NetworkGenerator -seed 1 -sources 0.2 planar 2000 allocation.net || exit 1
+java -cp build/classes trafficsim.TurningTableCheck allocation.net
@@ -0,0 +1,3 @@
+#!/bin/bash
+
+java -cp build/classes trafficsim.BatchSimulator test1.net 100000
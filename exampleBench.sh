@@ -0,0 +1,7 @@
+#!/bin/bash
+
+# run the vehicle and queue benchmarks on the commit checked out, then compare the results
+# with those of an earlier run, given by its commit, e.g. ./exampleBench.sh f8c8ca4
+# the first run downloads JMH into bench/lib
+ant -f bench/build.xml run -Dbench.args="VehicleBenchmark RoadQueueBenchmark"
+ant -f bench/build.xml compare -Dbase=bench/results/$1.json -Dhead=bench/results/$(git describe --always --dirty).json
@@ -0,0 +1,9 @@
+#!/bin/bash
+
+# convert test1.net to the binary format and back, check a run gives the same results from either,
+# then time loading the two formats
+java -cp build/classes trafficsim.NetworkConverter test1.net test1.netb
+java -cp build/classes trafficsim.BatchSimulator test1.net 100000 | grep -v "elapsed\|^P[0-9]" > text.out
+java -cp build/classes trafficsim.BatchSimulator test1.netb 100000 | grep -v "elapsed\|^P[0-9]" > binary.out
+diff text.out binary.out && echo "text and binary networks match"
+java -cp build/classes trafficsim.LoaderBenchmark test1.net 20
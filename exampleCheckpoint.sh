@@ -0,0 +1,8 @@
+#!/bin/bash
+
+# run test1.net for 100000 ticks straight through, then again as 40000 ticks saved to a checkpoint
+# and 60000 more carried on from it in a fresh process, and check the two give the same results
+java -cp build/classes trafficsim.BatchSimulator test1.net 100000 | grep -v "elapsed\|restored" > straight.out
+java -cp build/classes trafficsim.BatchSimulator -checkpoint test1.ckpt -every 10000 test1.net 40000 > /dev/null
+java -cp build/classes trafficsim.BatchSimulator test1.ckpt 60000 | grep -v "elapsed\|restored" > resumed.out
+diff straight.out resumed.out && echo "resumed run matches the straight run"
@@ -0,0 +1,6 @@
+#!/bin/bash
+
+# run test1.net on 3 worker JVMs, then on 3 threads in one JVM, and check the results agree
+java -cp build/classes trafficsim.BatchSimulator -workers 3 test1.net 100000 | grep -v "elapsed\|^W[0-9]\|Per Worker\|hand-off" > distributed.out
+java -cp build/classes trafficsim.BatchSimulator -partitions 3 test1.net 100000 | grep -v "elapsed\|^P[0-9]\|Per Partition\|imbalance" > partitioned.out
+diff distributed.out partitioned.out && echo "distributed and single JVM runs match"
@@ -0,0 +1,7 @@
+#!/bin/bash
+
+# generate a planar network of ten thousand intersections with a source for every five,
+# convert it to the binary format and run it for a thousand ticks
+java -cp build/classes trafficsim.NetworkGenerator -seed 1 -sources 0.2 -rate 20:60 planar 10000 generated.net
+java -cp build/classes trafficsim.NetworkConverter generated.net generated.netb
+java -cp build/classes trafficsim.BatchSimulator generated.netb 1000
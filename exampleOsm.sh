@@ -0,0 +1,6 @@
+#!/bin/bash
+
+# import a one-way street joined by another one-way street, the importer makes the
+# merge a junction the simulator can run rather than a vertex that fails or eats cars
+java -cp build/classes trafficsim.OsmImporter oneway.osm oneway.net
+java -cp build/classes trafficsim.BatchSimulator oneway.net 5000
@@ -0,0 +1,8 @@
+#!/bin/bash
+
+# run test1.net with the tick profiler on, and the JMX agent listening on port 9010, so
+# the run can be watched in JConsole (jconsole localhost:9010, MBean trafficsim:TickProfiler)
+# the phase times are printed at the end of the run as well
+java -Dtrafficsim.profile=true -Dcom.sun.management.jmxremote.port=9010 \
+	-Dcom.sun.management.jmxremote.authenticate=false -Dcom.sun.management.jmxremote.ssl=false \
+	-cp build/classes trafficsim.BatchSimulator test1.net 200000
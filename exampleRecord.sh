@@ -0,0 +1,6 @@
+#!/bin/bash
+
+# record 20000 ticks of test1.net to a trajectory log, then open the log in the simulator
+# window to replay it: space plays, B reverses, F and S change speed, G jumps to a time
+java -cp build/classes trafficsim.BatchSimulator -record test1.trj test1.net 20000
+java -cp build/classes trafficsim.TrafficSimulatorApp test1.trj output.net
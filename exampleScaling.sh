@@ -0,0 +1,5 @@
+#!/bin/bash
+
+# sweep grids of a thousand to a hundred thousand intersections, empty and with two cars
+# a road, over 1, 2 and 4 threads, and write every run to scaling.csv
+java -Xmx4g -cp build/classes trafficsim.ScalingBenchmark -sizes 1000,10000,100000 -densities 0,2 -threads 1,2,4 scaling.csv
@@ -0,0 +1,127 @@
+package trafficsim;
+
+/**
+ * Class AdjacencyIndex keeps a compressed (CSR style) copy of which roads enter and leave
+ * each vertex, so the simulation never has to scan the whole road list to find them.
+ * the index must be rebuilt whenever vertices or edges are added or removed
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class AdjacencyIndex {
+
+	// inRoads[inOffsets[v] .. inOffsets[v + 1]) are the roads ending at vertex v, in road order
+	private static int[] inOffsets = new int[1];
+	private static int[] inRoads = new int[0];
+	// outRoads[outOffsets[v] .. outOffsets[v + 1]) are the roads starting at vertex v, in road order
+	private static int[] outOffsets = new int[1];
+	private static int[] outRoads = new int[0];
+	// bumped on every rebuild, so anything derived from the topology can tell it is stale
+	private static int version = 0;
+
+	/*
+	 * rebuild the index from the current intersection and road lists.  this also
+	 * refreshes the cached index of every intersection and road
+	 */
+	protected static void rebuild() {
+		int numVertices = TrafficSimulatorApp.intersections.size();
+		int numEdges = TrafficSimulatorApp.roads.size();
+
+		// refresh the cached list positions
+		for (int i = 0; i < numVertices; i++) {
+			TrafficSimulatorApp.intersections.get(i).setIndex(i);
+		}
+		for (int i = 0; i < numEdges; i++) {
+			TrafficSimulatorApp.roads.get(i).setIndex(i);
+		}
+
+		int[] newInOffsets = new int[numVertices + 1];
+		int[] newOutOffsets = new int[numVertices + 1];
+
+		// count the degree of each vertex, shifted by one so the prefix sum gives the start offsets
+		for (Road r : TrafficSimulatorApp.roads) {
+			if (isVertex(r.getToVertex(), numVertices)) {
+				newInOffsets[r.getToVertex() + 1]++;
+			}
+			if (isVertex(r.getFromVertex(), numVertices)) {
+				newOutOffsets[r.getFromVertex() + 1]++;
+			}
+		}
+		for (int v = 0; v < numVertices; v++) {
+			newInOffsets[v + 1] += newInOffsets[v];
+			newOutOffsets[v + 1] += newOutOffsets[v];
+		}
+
+		// fill the lists, walking the roads in order keeps each vertex list in road order
+		int[] newInRoads = new int[newInOffsets[numVertices]];
+		int[] newOutRoads = new int[newOutOffsets[numVertices]];
+		int[] inFill = new int[numVertices];
+		int[] outFill = new int[numVertices];
+		for (int i = 0; i < numEdges; i++) {
+			Road r = TrafficSimulatorApp.roads.get(i);
+			if (isVertex(r.getToVertex(), numVertices)) {
+				newInRoads[newInOffsets[r.getToVertex()] + inFill[r.getToVertex()]++] = i;
+			}
+			if (isVertex(r.getFromVertex(), numVertices)) {
+				newOutRoads[newOutOffsets[r.getFromVertex()] + outFill[r.getFromVertex()]++] = i;
+			}
+		}
+
+		inOffsets = newInOffsets;
+		inRoads = newInRoads;
+		outOffsets = newOutOffsets;
+		outRoads = newOutRoads;
+		version++;
+	}
+
+	/*
+	 * return the topology version.  this changes every time the network is edited or reloaded
+	 *		@return the current topology version
+	 */
+	public static int getVersion() {
+		return version;
+	}
+
+	/*
+	 * check that a road endpoint refers to an existing vertex
+	 */
+	private static boolean isVertex(int vertex, int numVertices) {
+		return vertex >= 0 && vertex < numVertices;
+	}
+
+	/*
+	 * return the in degree for a vertex
+	 *		@param vertex the index of the vertex
+	 *		@return the number of roads ending at the vertex
+	 */
+	public static int getInDegree(int vertex) {
+		return inOffsets[vertex + 1] - inOffsets[vertex];
+	}
+
+	/*
+	 * return the out degree for a vertex
+	 *		@param vertex the index of the vertex
+	 *		@return the number of roads starting at the vertex
+	 */
+	public static int getOutDegree(int vertex) {
+		return outOffsets[vertex + 1] - outOffsets[vertex];
+	}
+
+	/*
+	 * return one of the roads ending at a vertex
+	 *		@param vertex the index of the vertex
+	 *		@param k which of the in roads, counting from 0 in road order
+	 *		@return the index of the road
+	 */
+	public static int getInRoad(int vertex, int k) {
+		return inRoads[inOffsets[vertex] + k];
+	}
+
+	/*
+	 * return one of the roads starting at a vertex
+	 *		@param vertex the index of the vertex
+	 *		@param k which of the out roads, counting from 0 in road order
+	 *		@return the index of the road
+	 */
+	public static int getOutRoad(int vertex, int k) {
+		return outRoads[outOffsets[vertex] + k];
+	}
+}
@@ -0,0 +1,279 @@
+package trafficsim;
+
+import java.io.IOException;
+
+/**
+ * Class BatchSimulator runs a road network from the command line without opening a window.
+ * there is no frame interval and no repainting, so ticks are only bound by how fast
+ * the model itself can be advanced
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class BatchSimulator {
+
+	private static String inputFilename;
+	private static int ticks;
+	private static int threads = 1;
+	private static int partitions = 0;
+	private static int workers = 0;
+	private static boolean events = false;
+	private static boolean freeFlow = false;
+	private static String checkpointFilename;
+	private static int checkpointInterval = 0;
+	private static String recordFilename;
+
+	/*
+	 * print the usage message and quit
+	 */
+	private static void usage() {
+		System.out.println(""
+			+ "incorrect usage\n"
+			+ "expected: java BatchSimulator [options] roaddesc_file ticks\n"
+			+ "options:\n"
+			+ "  -threads n      number of worker threads, 1 runs the single threaded loop (default 1)\n"
+			+ "  -partitions k   split the network into k regions, each run by its own thread\n"
+			+ "  -workers k      split the network into k regions, each run by its own JVM\n"
+			+ "  -events         only update intersections with vehicles queued or timers due\n"
+			+ "  -freeflow       as -events, and move free flowing cars by schedule instead of every tick\n"
+			+ "  -seed n         master seed for every random stream (default " + TrafficSimulatorApp.randomSeed + ")\n"
+			+ "  -checkpoint f   save the run to f when it ends, give f as roaddesc_file to carry on from there\n"
+			+ "  -every n        with -checkpoint, also save it every n ticks while the run goes on\n"
+			+ "  -record f       record every tick to the log f, open f in the simulator window to replay it\n"
+			+ "-threads more than 1, -partitions, -workers, -events and -freeflow each pick an engine, give at most one");
+		System.exit(-1);
+	}
+
+	/*
+	 * check for proper caller usage and read the options
+	 *		@param args the arguments array passed to the program
+	 */
+	private static void parseArgs(String[] args) {
+		int i = 0;
+		try {
+			// options come first
+			while (i < args.length && args[i].startsWith("-")) {
+				if (args[i].equals("-threads") && i + 1 < args.length) {
+					threads = Integer.parseInt(args[i + 1]);
+					i += 2;
+				} else if (args[i].equals("-partitions") && i + 1 < args.length) {
+					partitions = Integer.parseInt(args[i + 1]);
+					if (partitions <= 0) {
+						usage();
+					}
+					i += 2;
+				} else if (args[i].equals("-workers") && i + 1 < args.length) {
+					workers = Integer.parseInt(args[i + 1]);
+					if (workers <= 0) {
+						usage();
+					}
+					i += 2;
+				} else if (args[i].equals("-events")) {
+					events = true;
+					i++;
+				} else if (args[i].equals("-freeflow")) {
+					freeFlow = true;
+					i++;
+				} else if (args[i].equals("-checkpoint") && i + 1 < args.length) {
+					checkpointFilename = args[i + 1];
+					i += 2;
+				} else if (args[i].equals("-every") && i + 1 < args.length) {
+					checkpointInterval = Integer.parseInt(args[i + 1]);
+					i += 2;
+				} else if (args[i].equals("-record") && i + 1 < args.length) {
+					recordFilename = args[i + 1];
+					i += 2;
+				} else if (args[i].equals("-seed") && i + 1 < args.length) {
+					TrafficSimulatorApp.randomSeed = Long.parseLong(args[i + 1]);
+					i += 2;
+				} else {
+					usage();
+				}
+			}
+
+			// then the two required arguments
+			if (args.length - i != 2) {
+				usage();
+			}
+			inputFilename = args[i];
+			ticks = Integer.parseInt(args[i + 1]);
+		} catch (NumberFormatException nfe) {
+			usage();
+		}
+		if (checkpointInterval < 0 || (checkpointInterval > 0 && checkpointFilename == null)) {
+			usage();
+		}
+
+		// the counts must be positive, and the engine options would silently override each other
+		if (ticks <= 0 || threads <= 0) {
+			usage();
+		}
+		int engines = (threads > 1 ? 1 : 0) + (partitions > 0 ? 1 : 0) + (workers > 0 ? 1 : 0) + (events ? 1 : 0) + (freeFlow ? 1 : 0);
+		if (engines > 1) {
+			usage();
+		}
+	}
+
+	/*
+	 * describe the engine the options picked, for the results
+	 *		@return the engine and its thread, region or worker count
+	 */
+	private static String describeEngine() {
+		if (workers > 0) {
+			return "distributed workers:" + workers;
+		} else if (freeFlow) {
+			return "freeflow";
+		} else if (events) {
+			return "events";
+		} else if (partitions > 0) {
+			return "partitioned partitions:" + partitions;
+		} else if (threads > 1) {
+			return "parallel threads:" + threads;
+		}
+		return "sequential";
+	}
+
+	/*
+	 * run some ticks.  while recording they are run one at a time, so each is recorded
+	 *		@param ticks the number of ticks to run
+	 */
+	private static void advance(int ticks) {
+		if (TrafficSimulatorApp.recorder == null) {
+			TrafficSimulatorApp.engine.run(ticks);
+			return;
+		}
+		for (int t = 0; t < ticks; t++) {
+			TrafficSimulatorApp.stepSimulation();
+		}
+	}
+
+	/*
+	 * run the simulation, saving a checkpoint every checkpointInterval ticks.  each one is
+	 * written out while the next stretch runs, after the one before it has finished
+	 *		@param ticks the number of ticks to run
+	 */
+	private static void runWithCheckpoints(int ticks) throws InterruptedException {
+		Thread writer = null;
+		int done = 0;
+		while (done < ticks) {
+			int stretch = Math.min(checkpointInterval, ticks - done);
+			advance(stretch);
+			done += stretch;
+			if (done < ticks) {
+				if (writer != null) {
+					writer.join();
+				}
+				writer = Checkpoint.save(checkpointFilename);
+			}
+		}
+		if (writer != null) {
+			writer.join();
+		}
+	}
+
+	/*
+	 * print the global results and the per vertex stats, matching what the control panel shows
+	 *		@param ticks the number of ticks that were simulated
+	 *		@param elapsedNanos the wall clock time taken to simulate them
+	 */
+	private static void printResults(int ticks, long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+
+		System.out.format("ticks:%d engine:%s elapsed:%.3fs ticks/sec:%.1f\n", ticks, describeEngine(), seconds, ticks / Math.max(seconds, 1e-9));
+		System.out.println("seed = " + TrafficSimulatorApp.randomSeed);
+		System.out.println("time = " + TrafficSimulatorApp.getSimTime());
+		System.out.println("Cars in sim = " + TrafficSimulatorApp.engine.getVehicleCount());
+		System.out.println("Wait = " + TrafficSimulatorApp.waitTime.sum());
+		System.out.println("In Sim = " + TrafficSimulatorApp.timeInSim.sum());
+		System.out.println("Cars = " + TrafficSimulatorApp.throughput.sum());
+		TripStatistics trips = TrafficSimulatorApp.trips;
+		System.out.println("Trip time = " + trips.getTripTime().summary());
+		System.out.println("Trip wait = " + trips.getWaitTime().summary());
+		System.out.println("Per Vertex: wait:cars");
+
+		// for each intersection
+		for (Intersection i : TrafficSimulatorApp.intersections) {
+			if (i.getInDegree() > 2) {
+				System.out.println("V" + i.getIndex() + " = " + i.getWaitTime() + ":" + i.getThroughput());
+			}
+		}
+
+		// and each source a trip started or ended at
+		System.out.println("Per Source: trips from:p50 trip:p50 wait, trips to:p50 trip:p50 wait");
+		for (int i : trips.getEndpoints()) {
+			TripHistogram fromTrip = trips.getTripTimeFrom(i), fromWait = trips.getWaitTimeFrom(i);
+			TripHistogram toTrip = trips.getTripTimeTo(i), toWait = trips.getWaitTimeTo(i);
+			System.out.println("S" + i + " = " + fromTrip.getCount() + ":" + fromTrip.getPercentile(0.5) + ":" + fromWait.getPercentile(0.5)
+				+ ", " + toTrip.getCount() + ":" + toTrip.getPercentile(0.5) + ":" + toWait.getPercentile(0.5));
+		}
+		TrafficSimulatorApp.engine.printStatistics(System.out);
+		TickProfiler.print(System.out);
+	}
+
+	/**
+	 * main method for the batch simulator.
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		// check usage
+		parseArgs(args);
+
+		// we never open a window, make sure nothing tries to
+		System.setProperty("java.awt.headless", "true");
+
+		if (workers > 0) {
+			TrafficSimulatorApp.engine = new DistributedEngine(workers, inputFilename);
+		} else if (freeFlow) {
+			TrafficSimulatorApp.engine = new FreeFlowEngine();
+		} else if (events) {
+			TrafficSimulatorApp.engine = new EventEngine();
+		} else if (partitions > 0) {
+			TrafficSimulatorApp.engine = new PartitionedEngine(partitions);
+		} else {
+			TrafficSimulatorApp.engine = SimulationEngine.create(threads);
+		}
+		TrafficSimulatorApp.initialize();
+		new ColorChooser();
+
+		// open our input file, load all its settings and set up the simulation
+		if (!SimFileHandler.readAndParseFile(inputFilename)) {
+			System.exit(-1);
+		}
+
+		if ((checkpointFilename != null || recordFilename != null) && !TrafficSimulatorApp.engine.canCheckpoint()) {
+			System.out.println((checkpointFilename != null ? "-checkpoint" : "-record") + " cannot be used with -partitions or -workers");
+			System.exit(-1);
+		}
+		if (recordFilename != null) {
+			try {
+				TrafficSimulatorApp.recorder = TrajectoryRecorder.start(recordFilename);
+			} catch (IOException ioe) {
+				System.out.println(recordFilename + ": " + ioe.getMessage());
+				System.exit(-1);
+			}
+		}
+
+		// run as fast as we can
+		TickProfiler.register();
+		long start = System.nanoTime();
+		long elapsed;
+		try {
+			if (checkpointInterval > 0) {
+				runWithCheckpoints(ticks);
+			} else {
+				advance(ticks);
+			}
+			elapsed = System.nanoTime() - start;
+			if (TrafficSimulatorApp.recorder != null) {
+				TrafficSimulatorApp.recorder.stop();
+			}
+			if (checkpointFilename != null) {
+				Checkpoint.save(checkpointFilename).join();
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		printResults(ticks, elapsed);
+		TrafficSimulatorApp.engine.shutdown();
+	}
+}
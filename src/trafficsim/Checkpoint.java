@@ -0,0 +1,280 @@
+package trafficsim;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Class Checkpoint saves the complete state of a run, and restores it in this process or a
+ * fresh one so the run carries on exactly as it would have.  a checkpoint holds the network,
+ * the global counters and seeds, the lights, timers and random stream of every intersection,
+ * every vehicle row in slot order, the line and free flowing cars of every road in order,
+ * and the trip statistics.
+ * saving only holds up the simulation while the state is copied into a buffer, the buffer is
+ * written out on a thread of its own.  like the binary network format it is little endian
+ *
+ *	header		int magic ("TSCK"), int formatVersion, int |V|, int |E|, int screenWidth, int screenHeight,
+ *				long randomSeed, long intersectionSeedState, int simTime, long waitTime, long timeInSim, long throughput
+ *	vertices	|V| x (double x, double y, double n, intersection state)
+ *	vehicles	the vehicle table state
+ *	edges		|E| x (int from, int to, int queueCapacity, road state)
+ *	trips		the trip statistics state
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class Checkpoint {
+
+	protected final static int magic = 0x4b435354;	// "TSCK" read as a little endian int
+	protected final static int formatVersion = 2;
+	protected final static String extension = ".ckpt";
+	private final static int headerBytes = 6 * 4 + 2 * 8 + 4 + 3 * 8;
+	private final static int vertexBytes = 3 * 8;
+	private final static int edgeBytes = 3 * 4;
+
+	// a checkpoint read from a file, not yet installed
+	private NetworkData network = new NetworkData();
+	private VehicleTable vehicles = new VehicleTable();
+	private long randomSeed;
+	private long intersectionSeedState;
+	private int simTime;
+	private long waitTime;
+	private long timeInSim;
+	private long throughput;
+	private TripStatistics trips = new TripStatistics();
+
+	/*
+	 * check whether a file is a checkpoint, by its first four bytes
+	 *		@param filename the name of the file
+	 *		@return true if the file starts with the checkpoint magic number
+	 */
+	protected static boolean isCheckpoint(String filename) {
+		return NetworkFile.readMagic(filename) == magic;
+	}
+
+	/*
+	 * copy the state of the run into a buffer.  the caller must own the model, holding the
+	 * simLock or being the thread that steps it
+	 *		@return the checkpoint, ready to be written
+	 *		@throws IllegalStateException if the engine keeps state outside the shared model
+	 */
+	protected static ByteBuffer capture() {
+		SimulationEngine engine = TrafficSimulatorApp.engine;
+		if (!engine.canCheckpoint()) {
+			throw new IllegalStateException("the " + engine.getClass().getSimpleName() + " keeps vehicles of its own and cannot be checkpointed");
+		}
+
+		long length = headerBytes + TrafficSimulatorApp.vehicles.getStateBytes() + TrafficSimulatorApp.trips.getStateBytes();
+		for (Intersection intersection : TrafficSimulatorApp.intersections) {
+			length += vertexBytes + intersection.getStateBytes();
+		}
+		for (Road r : TrafficSimulatorApp.roads) {
+			length += edgeBytes + r.getStateBytes();
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalStateException("a checkpoint of " + length + " bytes is too large");
+		}
+
+		ByteBuffer out = ByteBuffer.allocate((int) length);
+		out.order(ByteOrder.LITTLE_ENDIAN);
+		out.putInt(magic);
+		out.putInt(formatVersion);
+		out.putInt(TrafficSimulatorApp.intersections.size());
+		out.putInt(TrafficSimulatorApp.roads.size());
+		out.putInt(DisplayPanel.screenWidth);
+		out.putInt(DisplayPanel.screenHeight);
+		out.putLong(TrafficSimulatorApp.randomSeed);
+		out.putLong(TrafficSimulatorApp.getIntersectionSeedState());
+		out.putInt(TrafficSimulatorApp.simTime);
+		out.putLong(TrafficSimulatorApp.waitTime.sum());
+		out.putLong(TrafficSimulatorApp.timeInSim.sum());
+		out.putLong(TrafficSimulatorApp.throughput.sum());
+		for (Intersection intersection : TrafficSimulatorApp.intersections) {
+			out.putDouble(intersection.getX());
+			out.putDouble(intersection.getY());
+			out.putDouble(intersection.getN());
+			intersection.writeState(out);
+		}
+		TrafficSimulatorApp.vehicles.writeState(out);
+		for (Road r : TrafficSimulatorApp.roads) {
+			out.putInt(r.getFromVertex());
+			out.putInt(r.getToVertex());
+			out.putInt(r.getQueueCapacity());
+			r.writeState(out);
+		}
+		TrafficSimulatorApp.trips.writeState(out);
+		out.flip();
+		return out;
+	}
+
+	/*
+	 * capture the state of the run now, and write it out on a thread of its own while the
+	 * simulation carries on.  the caller must own the model, as for capture()
+	 *		@param filename the name of the file to write
+	 *		@return the thread writing the file, to wait for before writing the same file again
+	 *		@throws IllegalStateException if the engine keeps state outside the shared model
+	 */
+	protected static Thread save(final String filename) {
+		final ByteBuffer state = capture();
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					write(filename, state);
+				} catch (IOException ioe) {
+					System.out.println(filename + ": " + ioe.getMessage());
+				}
+			}
+		}, "checkpoint");
+		writer.start();
+		return writer;
+	}
+
+	/*
+	 * write a captured checkpoint.  it goes to a temporary file first, so a run stopped part
+	 * way through writing leaves the last complete checkpoint in place
+	 *		@param filename the name of the file to write
+	 *		@param state the checkpoint from capture()
+	 *		@throws IOException if the file cannot be written
+	 */
+	protected static void write(String filename, ByteBuffer state) throws IOException {
+		File target = new File(filename);
+		File temporary = new File(filename + ".tmp");
+		FileOutputStream out = new FileOutputStream(temporary);
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer buffer = state.duplicate();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		} finally {
+			out.close();
+		}
+		if (!temporary.renameTo(target)) {
+			target.delete();
+			if (!temporary.renameTo(target)) {
+				throw new IOException("could not replace " + filename);
+			}
+		}
+	}
+
+	/*
+	 * read a checkpoint, without touching the run in progress
+	 *		@param filename the name of the file to read
+	 *		@return the checkpoint, to install()
+	 *		@throws NetworkFormatException if the file cannot be read, is not a checkpoint this
+	 *				version understands, or cannot be carried on by the current engine
+	 */
+	protected static Checkpoint read(String filename) throws NetworkFormatException {
+		SimulationEngine engine = TrafficSimulatorApp.engine;
+		if (engine != null && !engine.canCheckpoint()) {
+			throw new NetworkFormatException(filename, 0, "the " + engine.getClass().getSimpleName() + " cannot carry on a checkpoint");
+		}
+		Checkpoint checkpoint = new Checkpoint();
+		try {
+			checkpoint.map(filename);
+		} catch (BufferUnderflowException bue) {
+			throw new NetworkFormatException(filename, 0, "checkpoint is truncated");
+		} catch (IOException ioe) {
+			throw new NetworkFormatException(filename, 0, ioe.getMessage());
+		}
+
+		// free flowing cars are only kept up to date by the free flow engine
+		boolean freeFlow = engine instanceof FreeFlowEngine;
+		if (checkpoint.vehicles.size() > 0 && checkpoint.vehicles.freeFlow != freeFlow) {
+			throw new NetworkFormatException(filename, 0, checkpoint.vehicles.freeFlow
+				? "checkpoint was written by the free flow engine and must be carried on by it"
+				: "checkpoint was not written by the free flow engine and cannot be carried on by it");
+		}
+		return checkpoint;
+	}
+
+	/*
+	 * map a checkpoint and copy it out
+	 */
+	private void map(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long length = channel.size();
+			if (length < headerBytes) {
+				throw new IOException("too short for a checkpoint header");
+			}
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("checkpoints over 2GB are not supported");
+			}
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			in.order(ByteOrder.LITTLE_ENDIAN);
+
+			if (in.getInt() != magic) {
+				throw new IOException("not a checkpoint");
+			}
+			int version = in.getInt();
+			if (version != formatVersion) {
+				throw new IOException("unsupported checkpoint version " + version);
+			}
+			int numVertices = in.getInt();
+			int numEdges = in.getInt();
+			network.screenWidth = in.getInt();
+			network.screenHeight = in.getInt();
+			randomSeed = in.getLong();
+			intersectionSeedState = in.getLong();
+			simTime = in.getInt();
+			waitTime = in.getLong();
+			timeInSim = in.getLong();
+			throughput = in.getLong();
+			if (numVertices < 0 || numEdges < 0) {
+				throw new IOException("bad counts of " + numVertices + " vertices and " + numEdges + " edges");
+			}
+
+			network.intersections.ensureCapacity(numVertices);
+			for (int i = 0; i < numVertices; i++) {
+				double x = in.getDouble();
+				double y = in.getDouble();
+				double n = in.getDouble();
+				SimpleIntersection intersection = new SimpleIntersection(x, y, n);
+				intersection.readState(in);
+				network.intersections.add(intersection);
+			}
+
+			vehicles.readState(in, numVertices, numEdges);
+
+			network.roads.ensureCapacity(numEdges);
+			for (int i = 0; i < numEdges; i++) {
+				int from = in.getInt();
+				int to = in.getInt();
+				int capacity = in.getInt();
+				if (from < 0 || from >= numVertices || to < 0 || to >= numVertices || capacity <= 0) {
+					throw new IOException("edge " + i + " (" + from + "," + to + "," + capacity + ") is out of range");
+				}
+				Road r = new Road(from, to, capacity);
+				r.readState(in, vehicles);
+				network.roads.add(r);
+			}
+			trips.readState(in, numVertices);
+			if (in.hasRemaining()) {
+				throw new IOException(in.remaining() + " bytes left over after the checkpoint");
+			}
+			SimFileHandler.printSettings(numVertices, numEdges, network.screenWidth, network.screenHeight);
+		} finally {
+			file.close();
+		}
+	}
+
+	/*
+	 * make this the run being simulated, from the tick it was saved at
+	 */
+	protected void install() {
+		network.install();
+		TrafficSimulatorApp.vehicles = vehicles;
+		TrafficSimulatorApp.randomSeed = randomSeed;
+		TrafficSimulatorApp.setIntersectionSeedState(intersectionSeedState);
+		TrafficSimulatorApp.simTime = simTime;
+		TrafficSimulatorApp.setCounters(waitTime, timeInSim, throughput);
+		TrafficSimulatorApp.trips.reset();
+		TrafficSimulatorApp.trips.merge(trips);
+		System.out.println("restored at time = " + simTime + " with " + vehicles.size() + " cars");
+	}
+}
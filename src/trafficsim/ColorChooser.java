@@ -2,7 +2,6 @@ package trafficsim;
 
 import java.util.ArrayList;
 import java.awt.Color;
-import java.util.Random;
 
 /**
  * Class ColorChooser is used to help with creating vehicles of random colors
@@ -11,7 +10,6 @@ import java.util.Random;
 public class ColorChooser {
 
 	private static ArrayList<Color> colors;
-	private static Random rng;
 
 	/*
 	 * ColorChooser constructor, add some colors to the list
@@ -48,14 +46,32 @@ public class ColorChooser {
 		colors.add(new Color(0xcc9900));  // gold
 		colors.add(new Color(0x666600));  // purple-blue
 		colors.add(new Color(0x006666));  // windows
-		rng = new Random(621062106210l);
 	}
 
 	/*
-	 * getRandomColor - get a random color.
-	 *		@return a randomly chosen color object
+	 * getColorIndex - pick the palette index for a new vehicle from its random seed, so the
+	 * color is repeatable and costs no shared random draw
+	 *		@param seed the seed of the vehicle's random stream
+	 *		@return an index into the palette
 	 */
-	public static Color getRandomColor() {
-		return colors.get(rng.nextInt(colors.size()));
+	public static int getColorIndex(long seed) {
+		return (int) ((RandomStream.mix(seed) >>> 1) % colors.size());
+	}
+
+	/*
+	 * getColor - look up a color in the palette
+	 *		@param index the palette index
+	 *		@return the color object at that index
+	 */
+	public static Color getColor(int index) {
+		return colors.get(index);
+	}
+
+	/*
+	 * getColorCount - return the number of colors in the palette
+	 *		@return the palette size
+	 */
+	public static int getColorCount() {
+		return colors.size();
 	}
 }
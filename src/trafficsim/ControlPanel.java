@@ -41,39 +41,75 @@ public class ControlPanel extends JPanel {
 	public void paintComponent(Graphics gr) {
 		super.paintComponent(gr);
 		Graphics2D gr2 = (Graphics2D) gr;
-		textX = DisplayPanel.screenWidth + 5;
+		SimSnapshot frame = TrafficSimulatorApp.frames.getShowing();
+		textX = DisplayPanel.viewWidth + 5;
 		textY = 15;
 
 		drawAndOffset(gr2, "Keys", 10);
 		drawAndOffset(gr2, "---------------------------", 10);
 		drawAndOffset(gr2, "(C)lear Selection", 15);
 		drawAndOffset(gr2, "(W)rite Outfile", 15);
+		drawAndOffset(gr2, "(K) save checkpoint", 15);
+		drawAndOffset(gr2, "(T) record start/stop", 15);
 		drawAndOffset(gr2, "(D)elete sel. vertex", 15);
 		drawAndOffset(gr2, "(R)eload from file", 15);
+		drawAndOffset(gr2, "(H)ome view", 15);
 		drawAndOffset(gr2, "SPC start/stop", 15);
 		drawAndOffset(gr2, "ESC to exit", 10);
 		drawAndOffset(gr2, "---------------------------", 10);
-		drawAndOffset(gr2, "LMB select/move", 15);
+		drawAndOffset(gr2, "LMB select/move/pick car", 15);
 		drawAndOffset(gr2, "MMB add vertex", 15);
 		drawAndOffset(gr2, "RMB connect to sel.", 15);
+		drawAndOffset(gr2, "LMB drag empty pan", 15);
+		drawAndOffset(gr2, "Ctrl+wheel zoom", 15);
+		ReplayPlayer player = TrafficSimulatorApp.replay;
+		if (player != null) {
+			drawAndOffset(gr2, "Replay", 10);
+			drawAndOffset(gr2, "---------------------------", 10);
+			drawAndOffset(gr2, "SPC play  B reverse", 15);
+			drawAndOffset(gr2, "F/S speed  G go to", 15);
+			drawAndOffset(gr2, ", . step back/on", 15);
+			drawAndOffset(gr2, player.getTick() + " of " + player.getLastTick(), 15);
+			drawAndOffset(gr2, (player.isPlaying() ? "playing " : "paused ") + (player.isReverse() ? "-" : "+") + player.getSpeed() + "x", 15);
+		} else if (TrafficSimulatorApp.recorder != null && TrafficSimulatorApp.recorder.isRecording()) {
+			drawAndOffset(gr2, "recording", 15);
+		}
 		drawAndOffset(gr2, "Stats", 10);
 		drawAndOffset(gr2, "---------------------------", 10);
 		drawAndOffset(gr2, "|V| = " + Integer.toString(TrafficSimulatorApp.intersections.size()), 15);
 		drawAndOffset(gr2, "|E| = " + Integer.toString(TrafficSimulatorApp.roads.size()), 15);
-		drawAndOffset(gr2, "|Cars| = " + Integer.toString(TrafficSimulatorApp.vehicles.size()), 15);
+		drawAndOffset(gr2, "|Cars| = " + Integer.toString(frame.vehicleCount), 15);
 		drawAndOffset(gr2, "Results", 10);
 		drawAndOffset(gr2, "---------------------------", 10);
-		drawAndOffset(gr2, "time = " + Integer.toString(TrafficSimulatorApp.getSimTime()) + " s", 15);
-		drawAndOffset(gr2, "Wait = " + Integer.toString(TrafficSimulatorApp.waitTime), 15);
-		drawAndOffset(gr2, "In Sim = " + Integer.toString(TrafficSimulatorApp.timeInSim), 15);
-		drawAndOffset(gr2, "Cars = " + Integer.toString(TrafficSimulatorApp.throughput), 15);
+		drawAndOffset(gr2, "time = " + Integer.toString(frame.simTime) + " s", 15);
+		drawAndOffset(gr2, "Wait = " + Long.toString(frame.waitTime), 15);
+		drawAndOffset(gr2, "In Sim = " + Long.toString(frame.timeInSim), 15);
+		drawAndOffset(gr2, "Cars = " + Long.toString(frame.throughput), 15);
+		if (frame.tripP50 >= 0) {
+			drawAndOffset(gr2, "Trip p50/p99 = " + frame.tripP50 + "/" + frame.tripP99, 15);
+			drawAndOffset(gr2, "Wait p50/p99 = " + frame.waitP50 + "/" + frame.waitP99, 15);
+		}
+		if (SimMouseInputHandler.selectedVehicle >= 0) {
+			drawAndOffset(gr2, "Car " + SimMouseInputHandler.selectedVehicle + ":", 15);
+			if (frame.pickedSlot >= 0 && frame.pickedEdge < TrafficSimulatorApp.roads.size()) {
+				Road r = TrafficSimulatorApp.roads.get(frame.pickedEdge);
+				drawAndOffset(gr2, " edge = " + frame.pickedEdge + " (" + r.getFromVertex() + "->" + r.getToVertex() + ")", 15);
+				if (frame.pickedCreated >= 0) {
+					// not known when replaying a log
+					drawAndOffset(gr2, " created = " + frame.pickedCreated, 15);
+					drawAndOffset(gr2, " wait = " + frame.pickedWaited, 15);
+				}
+			} else {
+				drawAndOffset(gr2, " left the network", 15);
+			}
+		}
 		drawAndOffset(gr2, "Per Vertex:", 15);
 		drawAndOffset(gr2, " wait:cars", 15);
 
 		// for each intersection
 		for (Intersection i : TrafficSimulatorApp.intersections) {
-			if (i.getInDegree() > 2) {
-				drawAndOffset(gr2, "V" + i.getIndex() + " = " + i.getWaitTime() + ":" + i.getThroughput(), 15);
+			if (i.getInDegree() > 2 && i.getIndex() < frame.vertexCount) {
+				drawAndOffset(gr2, "V" + i.getIndex() + " = " + frame.vertexWait[i.getIndex()] + ":" + frame.vertexThroughput[i.getIndex()], 15);
 			}
 		}
 	}
@@ -1,6 +1,8 @@
 package trafficsim;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import javax.swing.*;
 
 /**
@@ -13,14 +15,39 @@ public class DisplayPanel extends JPanel {
 	protected static Font smallFont;
 	protected static Font largeFont;
 	private static BasicStroke thinLine;
-	private static BasicStroke thickLine;
 	protected static int screenWidth;
 	protected static int screenHeight;
+	protected static int viewWidth;	// size of the panel, at most the size of the desktop
+	protected static int viewHeight;
 	protected final static int queueWidth = 24;
 	protected final static int queueHeight = 8;
 	protected final static int vertexRadius = 15;
 	protected final static int vehicleRadius = 4;
 	protected final static float roadWidth = 4f;
+	protected final static double lightLength = 20;	// length of the green stripe drawn at the end of a road with a green light
+	protected final static double minZoom = 1 / 64.0;
+	protected final static double maxZoom = 8;
+	protected final static double densityZoom = 0.35;	// below this, roads are colored by how full they are instead of drawing cars
+	protected final static double labelZoom = 0.5;	// below this, vertex ids and parameters are left out
+	private static double viewX = 0, viewY = 0;	// network coordinates of the lower left corner of the panel
+	private static double zoom = 1;	// pixels per network unit
+	private static boolean viewChanged = true;
+	private BufferedImage background;	// the roads and intersections in view, drawn once until the network or view changes
+	private static boolean backgroundValid = false;
+	private int backgroundVersion;	// the AdjacencyIndex version the background was drawn for
+	private int backgroundSelection;	// the selected vertex the background was drawn for
+	private SpatialGrid roadGrid = new SpatialGrid();	// roads by bounding box
+	private SpatialGrid vertexGrid = new SpatialGrid();	// intersections by the box around their circle
+	private int[] visibleRoads = new int[0];	// roads in view, found when the background is drawn
+	private int visibleRoadCount = 0;
+	private int[] visibleVertices = new int[0];
+	private int visibleVertexCount = 0;
+	private int[] seen = new int[0];	// the lookup each item was last found by, so boxes in several cells are taken once
+	private int lookup = 0;
+	private BasicStroke roadLine;	// road stroke, scaled with the zoom
+	private BufferedImage[] sprites = new BufferedImage[0];	// a pre-drawn vehicle for each palette color
+	private int spriteRadius = -1;	// the radius in pixels the sprites were drawn at
+	private static Color[] densityColors;	// green through yellow to red
 
 	/*
 	 * DisplayPanel constructor
@@ -34,16 +61,121 @@ public class DisplayPanel extends JPanel {
 		smallFont = new Font("Dialog", Font.PLAIN, 12);
 		largeFont = new Font("Dialog", Font.BOLD, 12);
 		thinLine = new BasicStroke(1f);
-		thickLine = new BasicStroke(roadWidth);
+		setBackground(Color.white);
+
+		densityColors = new Color[16];
+		for (int k = 0; k < densityColors.length; k++) {
+			float d = k / (float) (densityColors.length - 1);
+			densityColors[k] = new Color(Math.min(1f, 2 * d), Math.min(1f, 2 * (1 - d)), 0f);
+		}
+	}
+
+	/*
+	 * mark the cached roads and intersections as out of date.  topology changes, the selection
+	 * and the view are noticed on their own, this is for edits that move a vertex or change
+	 * its parameter.  only call on the event dispatch thread
+	 */
+	public static void invalidateBackground() {
+		backgroundValid = false;
+	}
+
+	/*
+	 * set the size of the panel
+	 *		@param width the width in pixels
+	 *		@param height the height in pixels
+	 */
+	public static void setViewSize(int width, int height) {
+		viewWidth = width;
+		viewHeight = height;
+		viewChanged = true;
+	}
+
+	/*
+	 * show the network the way it was laid out if it fits in the panel, otherwise
+	 * zoom out until the whole of it does
+	 */
+	public static void resetView() {
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (Intersection intersection : TrafficSimulatorApp.intersections) {
+			minX = Math.min(minX, intersection.getX());
+			minY = Math.min(minY, intersection.getY());
+			maxX = Math.max(maxX, intersection.getX());
+			maxY = Math.max(maxY, intersection.getY());
+		}
+		zoom = 1;
+		viewX = 0;
+		viewY = 0;
+		if (minX <= maxX && (minX < 0 || minY < 0 || maxX >= viewWidth || maxY >= viewHeight)) {
+			double margin = 2 * vertexRadius;
+			double width = maxX - minX + 2 * margin;
+			double height = maxY - minY + 2 * margin;
+			zoom = Math.max(minZoom, Math.min(maxZoom, Math.min(viewWidth / width, viewHeight / height)));
+			viewX = (minX + maxX) / 2 - viewWidth / 2.0 / zoom;
+			viewY = (minY + maxY) / 2 - viewHeight / 2.0 / zoom;
+		}
+		viewChanged = true;
+	}
+
+	/*
+	 * zoom in or out keeping the network point under a pixel where it is
+	 *		@param x the x pixel to zoom about
+	 *		@param y the y pixel to zoom about
+	 *		@param factor how much to multiply the zoom by
+	 */
+	public static void zoomAt(int x, int y, double factor) {
+		double worldX = toWorldX(x);
+		double worldY = toWorldY(y);
+		zoom = Math.max(minZoom, Math.min(maxZoom, zoom * factor));
+		viewX = worldX - x / zoom;
+		viewY = worldY - ((viewHeight - 1) - y) / zoom;
+		viewChanged = true;
+	}
+
+	/*
+	 * move the view with the mouse
+	 *		@param dx the pixels moved right
+	 *		@param dy the pixels moved down
+	 */
+	public static void panBy(int dx, int dy) {
+		viewX -= dx / zoom;
+		viewY += dy / zoom;
+		viewChanged = true;
+	}
+
+	/*
+	 * return the pixels per network unit
+	 */
+	public static double getZoom() {
+		return zoom;
 	}
 
 	/*
-	 * helper function to "map" values so that we can use the coordinates more comfortably
-	 *		@param y the original y offset as a double
-	 *		@return double value mapped to invert the y axis
+	 * map a network x coordinate to a pixel
 	 */
-	private double mapY(double y) {
-		return (screenHeight - 1) - y;
+	public static double toScreenX(double x) {
+		return (x - viewX) * zoom;
+	}
+
+	/*
+	 * map a network y coordinate to a pixel, inverting the y axis so the network
+	 * coordinates are "normal" i.e. like math graphs
+	 */
+	public static double toScreenY(double y) {
+		return (viewHeight - 1) - (y - viewY) * zoom;
+	}
+
+	/*
+	 * map a pixel back to a network x coordinate
+	 */
+	public static double toWorldX(int x) {
+		return viewX + x / zoom;
+	}
+
+	/*
+	 * map a pixel back to a network y coordinate
+	 */
+	public static double toWorldY(int y) {
+		return viewY + ((viewHeight - 1) - y) / zoom;
 	}
 
 	/*
@@ -52,33 +184,180 @@ public class DisplayPanel extends JPanel {
 	 *		@param r the road object we should draw
 	 */
 	private void drawRoad(Graphics2D gr2, Road r) {
-		gr2.setStroke(thickLine);
-		gr2.setColor(Color.black);
+		Intersection from = TrafficSimulatorApp.intersections.get(r.getFromVertex());
+		Intersection to = TrafficSimulatorApp.intersections.get(r.getToVertex());
+		gr2.drawLine((int) toScreenX(from.getX()), (int) toScreenY(from.getY()), (int) toScreenX(to.getX()), (int) toScreenY(to.getY()));
+	}
+
+	/*
+	 * return the pre-drawn image of a vehicle, drawing it the first time a color is used
+	 *		@param colorIndex the palette index of the vehicle color
+	 *		@param radius the radius of the vehicle in pixels
+	 *		@return the vehicle image, with a transparent corner
+	 */
+	private BufferedImage getSprite(int colorIndex, int radius) {
+		if (sprites.length != ColorChooser.getColorCount() || spriteRadius != radius) {
+			sprites = new BufferedImage[ColorChooser.getColorCount()];
+			spriteRadius = radius;
+		}
+		BufferedImage sprite = sprites[colorIndex];
+		if (sprite == null) {
+			sprite = createCompatibleImage(radius * 2 + 1, radius * 2 + 1, Transparency.BITMASK);
+			Graphics2D gr2 = sprite.createGraphics();
 
-		//draw the line, mapping coordinates to be "normal" i.e. like math graphs
-		gr2.drawLine((int) TrafficSimulatorApp.intersections.get(r.getFromVertex()).getX(), (int) mapY(TrafficSimulatorApp.intersections.get(r.getFromVertex()).getY()),
-					 (int) TrafficSimulatorApp.intersections.get(r.getToVertex()).getX(), (int) mapY(TrafficSimulatorApp.intersections.get(r.getToVertex()).getY()));
+			// fill the oval
+			gr2.setColor(ColorChooser.getColor(colorIndex));
+			gr2.fillOval(0, 0, radius * 2, radius * 2);
+
+			// draw the border/outline
+			gr2.setColor(Color.black);
+			gr2.setStroke(thinLine); // 1px width line
+			gr2.drawOval(0, 0, radius * 2, radius * 2);
+			gr2.dispose();
+			sprites[colorIndex] = sprite;
+		}
+		return sprite;
 	}
 
 	/*
-	 * draw a vehicle object to the display
-	 *		@param gr2 the graphics context to draw to
-	 *		@param v the vehicle object we should draw
+	 * make an image in the screen's own pixel format, so copying it to the screen needs no conversion
 	 */
-	private void drawVehicle(Graphics2D gr2, Vehicle v) {
-		int x, y;
-		// calculate the x and y values (to the center) adjusting the coordinates by the radius
-		x = (int) v.getVehicleX() - vehicleRadius;
-		y = (screenHeight - 1) - ((int) v.getVehicleY() + vehicleRadius);
+	private BufferedImage createCompatibleImage(int width, int height, int transparency) {
+		GraphicsConfiguration gc = getGraphicsConfiguration();
+		if (gc == null) {
+			return new BufferedImage(width, height, transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+		}
+		return gc.createCompatibleImage(width, height, transparency);
+	}
 
-		// fill the oval
-		gr2.setColor(v.getVehicleColor());
-		gr2.fillOval(x, y, vehicleRadius * 2, vehicleRadius * 2);
+	/*
+	 * sort the roads and intersections into grids, after the network has changed
+	 */
+	private void updateGrids() {
+		int roadCount = TrafficSimulatorApp.roads.size();
+		int vertexCount = TrafficSimulatorApp.intersections.size();
+		double[] minX = new double[Math.max(roadCount, vertexCount)];
+		double[] minY = new double[minX.length];
+		double[] maxX = new double[minX.length];
+		double[] maxY = new double[minX.length];
 
-		// draw the border/outline
+		double lowX = Double.MAX_VALUE, lowY = Double.MAX_VALUE, highX = -Double.MAX_VALUE, highY = -Double.MAX_VALUE;
+		for (int i = 0; i < vertexCount; i++) {
+			Intersection intersection = TrafficSimulatorApp.intersections.get(i);
+			minX[i] = intersection.getX() - vertexRadius;
+			minY[i] = intersection.getY() - vertexRadius;
+			maxX[i] = intersection.getX() + vertexRadius;
+			maxY[i] = intersection.getY() + vertexRadius;
+			lowX = Math.min(lowX, minX[i]);
+			lowY = Math.min(lowY, minY[i]);
+			highX = Math.max(highX, maxX[i]);
+			highY = Math.max(highY, maxY[i]);
+		}
+		if (lowX > highX) {
+			lowX = lowY = highX = highY = 0;
+		}
+		vertexGrid.setBounds(lowX, lowY, highX, highY, 32);
+		vertexGrid.fillBoxes(vertexCount, minX, minY, maxX, maxY);
+
+		for (int k = 0; k < roadCount; k++) {
+			Road r = TrafficSimulatorApp.roads.get(k);
+			Intersection from = TrafficSimulatorApp.intersections.get(r.getFromVertex());
+			Intersection to = TrafficSimulatorApp.intersections.get(r.getToVertex());
+			minX[k] = Math.min(from.getX(), to.getX());
+			minY[k] = Math.min(from.getY(), to.getY());
+			maxX[k] = Math.max(from.getX(), to.getX());
+			maxY[k] = Math.max(from.getY(), to.getY());
+		}
+		roadGrid.setBounds(lowX, lowY, highX, highY, 32);
+		roadGrid.fillBoxes(roadCount, minX, minY, maxX, maxY);
+
+		if (seen.length < minX.length) {
+			seen = new int[minX.length];
+			lookup = 0;
+		}
+		if (visibleRoads.length < roadCount) {
+			visibleRoads = new int[roadCount];
+		}
+		if (visibleVertices.length < vertexCount) {
+			visibleVertices = new int[vertexCount];
+		}
+	}
+
+	/*
+	 * find the items of a grid that lie in view, each only once
+	 *		@param grid the grid to look in
+	 *		@param found filled with the items found
+	 *		@return the number of items found
+	 */
+	private int findVisible(SpatialGrid grid, int[] found) {
+		if (++lookup == Integer.MAX_VALUE) {
+			Arrays.fill(seen, 0);
+			lookup = 1;
+		}
+		int c0 = grid.getColumn(toWorldX(0)), c1 = grid.getColumn(toWorldX(viewWidth));
+		int r0 = grid.getRow(toWorldY(viewHeight)), r1 = grid.getRow(toWorldY(0));
+		int[] items = grid.getItems();
+		int count = 0;
+		for (int r = r0; r <= r1; r++) {
+			// the cells of a row are next to each other in the item array
+			int end = grid.getCellEnd(c1, r);
+			for (int k = grid.getCellStart(c0, r); k < end; k++) {
+				int item = items[k];
+				if (seen[item] != lookup) {
+					seen[item] = lookup;
+					found[count++] = item;
+				}
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * draw the roads and intersections in view into the background image, if the network
+	 * or the view has changed since it was last drawn
+	 */
+	private void updateBackground() {
+		int width = Math.max(viewWidth, 1);
+		int height = Math.max(viewHeight, 1);
+		boolean networkChanged = !backgroundValid || backgroundVersion != AdjacencyIndex.getVersion();
+		if (background != null && !networkChanged && !viewChanged
+				&& background.getWidth() == width && background.getHeight() == height
+				&& backgroundSelection == SimMouseInputHandler.selectedVertex) {
+			return;
+		}
+		if (networkChanged) {
+			updateGrids();
+		}
+		if (background == null || background.getWidth() != width || background.getHeight() != height) {
+			background = createCompatibleImage(width, height, Transparency.OPAQUE);
+		}
+		roadLine = new BasicStroke((float) Math.max(1, roadWidth * zoom));
+
+		Graphics2D gr2 = background.createGraphics();
+		gr2.setColor(Color.white);
+		gr2.fillRect(0, 0, width, height);
+
+		// draw edges
+		gr2.setStroke(roadLine);
 		gr2.setColor(Color.black);
-		gr2.setStroke(thinLine); // 1px width line
-		gr2.drawOval(x, y, vehicleRadius * 2, vehicleRadius * 2);
+		visibleRoadCount = findVisible(roadGrid, visibleRoads);
+		for (int k = 0; k < visibleRoadCount; k++) {
+			// draw the road and its queue
+			drawRoad(gr2, TrafficSimulatorApp.roads.get(visibleRoads[k]));
+		}
+
+		// draw each intersection
+		visibleVertexCount = findVisible(vertexGrid, visibleVertices);
+		for (int k = 0; k < visibleVertexCount; k++) {
+			// repeat for each vertex
+			drawIntersection(gr2, TrafficSimulatorApp.intersections.get(visibleVertices[k]));
+		}
+		gr2.dispose();
+
+		backgroundValid = true;
+		viewChanged = false;
+		backgroundVersion = AdjacencyIndex.getVersion();
+		backgroundSelection = SimMouseInputHandler.selectedVertex;
 	}
 
 	/*
@@ -87,11 +366,12 @@ public class DisplayPanel extends JPanel {
 	 *		@param intersection the intersection object to draw
 	 */
 	private void drawIntersection(Graphics2D gr2, Intersection intersection) {
-		int x, y;
+		int x, y, radius;
 		double n;
 		// calculate the x and y values (to the center) adjusting the coordinates by the radius
-		x = (int) intersection.getX() - vertexRadius;
-		y = (int) mapY(intersection.getY() + vertexRadius);
+		radius = (int) Math.max(2, vertexRadius * zoom);
+		x = (int) toScreenX(intersection.getX()) - radius;
+		y = (int) toScreenY(intersection.getY()) - radius;
 		n = intersection.getN();
 
 		// fill the oval
@@ -108,22 +388,117 @@ public class DisplayPanel extends JPanel {
 			// for the "real" intersection vertices
 			gr2.setColor(Color.red);  // we want red vertices
 		}
-		gr2.fillOval(x, y, vertexRadius * 2, vertexRadius * 2);
+		gr2.fillOval(x, y, radius * 2, radius * 2);
 
-		// draw the vertex id's
 		gr2.setColor(Color.black);
-		gr2.setFont(smallFont);
-		gr2.drawString(Integer.toString(intersection.getIndex()), x, y);
+		if (zoom >= labelZoom) {
+			// draw the vertex id's
+			gr2.setFont(smallFont);
+			gr2.drawString(Integer.toString(intersection.getIndex()), x, y);
 
-		// draw the parameter if an intersection or a source vertex
-		if (intersection.getInDegree() != 2 && intersection.getOutDegree() != 2) {
-			gr2.setFont(largeFont);
-			gr2.drawString(Double.toString(n), x + 5, y + 20);
+			// draw the parameter if an intersection or a source vertex
+			if (intersection.getInDegree() != 2 && intersection.getOutDegree() != 2) {
+				gr2.setFont(largeFont);
+				gr2.drawString(Double.toString(n), x + 5, y + 20);
+			}
 		}
 
 		// draw the border/outline
 		gr2.setStroke(thinLine); // 1px width line
-		gr2.drawOval(x, y, vertexRadius * 2, vertexRadius * 2);
+		gr2.drawOval(x, y, radius * 2, radius * 2);
+	}
+
+	/*
+	 * color each road in view by how full it is, instead of drawing its cars
+	 *		@param gr2 the graphics context to draw to
+	 *		@param frame the snapshot to take the counts from
+	 */
+	private void drawDensity(Graphics2D gr2, SimSnapshot frame) {
+		gr2.setStroke(roadLine);
+		for (int k = 0; k < visibleRoadCount; k++) {
+			int index = visibleRoads[k];
+			if (index >= frame.roadCount || frame.roadVehicles[index] == 0) {
+				continue;
+			}
+			Road r = TrafficSimulatorApp.roads.get(index);
+			Intersection from = TrafficSimulatorApp.intersections.get(r.getFromVertex());
+			Intersection to = TrafficSimulatorApp.intersections.get(r.getToVertex());
+
+			// cars sit 9 apart in a queue, so that is as full as a road gets
+			double spaces = Math.max(1, Math.hypot(to.getX() - from.getX(), to.getY() - from.getY()) / 9);
+			double density = Math.min(1, frame.roadVehicles[index] / spaces);
+			gr2.setColor(densityColors[(int) (density * (densityColors.length - 1))]);
+			drawRoad(gr2, r);
+		}
+	}
+
+	/*
+	 * mark the green light at each intersection in view, as a stripe over the end of the
+	 * road it lets through
+	 *		@param gr2 the graphics context to draw to
+	 *		@param frame the snapshot to take the lights from
+	 */
+	private void drawLights(Graphics2D gr2, SimSnapshot frame) {
+		gr2.setColor(Color.green);
+		gr2.setStroke(roadLine);
+		for (int k = 0; k < visibleVertexCount; k++) {
+			int vertex = visibleVertices[k];
+			if (vertex >= frame.vertexCount) {
+				continue;
+			}
+			int green = frame.vertexGreen[vertex];
+			if (green < 0 || green >= frame.roadCount || green >= TrafficSimulatorApp.roads.size()) {
+				continue;
+			}
+			Road r = TrafficSimulatorApp.roads.get(green);
+			Intersection from = TrafficSimulatorApp.intersections.get(r.getFromVertex());
+			Intersection to = TrafficSimulatorApp.intersections.get(r.getToVertex());
+			double length = Math.hypot(to.getX() - from.getX(), to.getY() - from.getY());
+			if (length <= 0) {
+				continue;
+			}
+			// at most half the road, so the two ends of a short road stay apart
+			double t = Math.min(0.5, lightLength / length);
+			double x = to.getX() + (from.getX() - to.getX()) * t;
+			double y = to.getY() + (from.getY() - to.getY()) * t;
+			gr2.drawLine((int) toScreenX(x), (int) toScreenY(y), (int) toScreenX(to.getX()), (int) toScreenY(to.getY()));
+		}
+	}
+
+	/*
+	 * draw the cars in view
+	 *		@param gr2 the graphics context to draw to
+	 *		@param frame the snapshot to take the cars from
+	 */
+	private void drawVehicles(Graphics2D gr2, SimSnapshot frame) {
+		SpatialGrid grid = frame.vehicleGrid;
+		double margin = vehicleRadius;
+		int c0 = grid.getColumn(toWorldX(0) - margin), c1 = grid.getColumn(toWorldX(viewWidth) + margin);
+		int r0 = grid.getRow(toWorldY(viewHeight) - margin), r1 = grid.getRow(toWorldY(0) + margin);
+		int[] items = grid.getItems();
+		int radius = (int) Math.max(1, Math.round(vehicleRadius * zoom));
+
+		// each is a copy of a pre-drawn sprite, so there are no stroke or color changes per car
+		for (int r = r0; r <= r1; r++) {
+			// the cells of a row are next to each other in the item array
+			int end = grid.getCellEnd(c1, r);
+			for (int i = grid.getCellStart(c0, r); i < end; i++) {
+				int k = items[i];
+				// calculate the x and y values (to the center) adjusting the coordinates by the radius
+				int x = (int) toScreenX(frame.vehicleX[k]) - radius;
+				int y = (int) toScreenY(frame.vehicleY[k]) - radius;
+				gr2.drawImage(getSprite(frame.vehicleColor[k], radius), x, y, null);
+			}
+		}
+
+		// ring the car picked in the editor
+		if (frame.pickedSlot >= 0 && frame.pickedSlot < frame.vehicleCount) {
+			int x = (int) toScreenX(frame.vehicleX[frame.pickedSlot]);
+			int y = (int) toScreenY(frame.vehicleY[frame.pickedSlot]);
+			gr2.setColor(Color.magenta);
+			gr2.setStroke(thinLine);
+			gr2.drawOval(x - radius - 3, y - radius - 3, (radius + 3) * 2, (radius + 3) * 2);
+		}
 	}
 
 	/*
@@ -134,27 +509,19 @@ public class DisplayPanel extends JPanel {
 	public void paintComponent(Graphics gr) {
 		super.paintComponent(gr);
 		Graphics2D gr2 = (Graphics2D) gr;
-		int x0, y0, x1, y1;
 
-		//TODO: Move this call, no need to do it repeatedly..
-		setBackground(Color.white);
+		// the network is only edited on this thread, so the cached copy is redrawn here when it changes
+		updateBackground();
+		gr2.drawImage(background, 0, 0, null);
 
-		// draw edges
-		for (Road r : TrafficSimulatorApp.roads) {
-			// draw the road and its queue
-			drawRoad(gr2, r);
-		}
-
-		// draw each intersection
-		for (Intersection intersection : TrafficSimulatorApp.intersections) {
-			// repeat for each vertex
-			drawIntersection(gr2, intersection);
-		}
-
-		// draw vehicles
-		for (Vehicle vehicle : TrafficSimulatorApp.vehicles) {
-			// repeat for each vehicle
-			drawVehicle(gr2, vehicle);
+		// draw vehicles, from the last frame the simulation published rather than the live table.
+		// zoomed far out there are too many to make out, so show how full each road is instead
+		SimSnapshot frame = TrafficSimulatorApp.frames.getShowing();
+		if (zoom < densityZoom) {
+			drawDensity(gr2, frame);
+		} else {
+			drawLights(gr2, frame);
+			drawVehicles(gr2, frame);
 		}
 	}
 }
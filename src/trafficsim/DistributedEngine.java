@@ -0,0 +1,332 @@
+package trafficsim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class DistributedEngine is the coordinator of a simulation spread over several worker JVMs.
+ * it partitions the network with the NetworkPartitioner, starts one DistributedWorker process
+ * per region on this machine and talks to them over loopback TCP.
+ *
+ * every tick, each worker sends the coordinator its counters and one batch of the vehicles
+ * leaving its region, grouped by the region they enter.  once all the workers have reported,
+ * the coordinator sends each one the vehicles entering it, in worker order, and the next tick
+ * can start.  vehicles are passed in the same records and the same order as the HandoffQueues
+ * of the PartitionedEngine, so a run on k workers gives the same results as the
+ * PartitionedEngine with k regions.
+ *
+ * the coordinator keeps the global counters and, at the end of each run, the per intersection
+ * stats and the trip statistics of every worker, but it holds no vehicles itself
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class DistributedEngine extends SimulationEngine {
+
+	protected final static int opStop = 0;
+	protected final static int opRun = 1;
+	private final static int connectTimeout = 60000;	// ms to wait for the workers to start
+	private final static int stopTimeout = 10000;	// ms to wait for a worker to exit once told to stop
+	private final int workers;
+	private final String inputFilename;
+	private int preparedVersion = -1;
+	private Process[] processes;
+	private Thread reaper;	// shutdown hook killing the workers, if we die before shutdown is called
+	private DataInputStream[] in;
+	private DataOutputStream[] out;
+	private long[][] inbound;	// records entering each worker this tick
+	private int[] inboundCount;
+	private int vehicleCount = 0;
+	private long[] busyNanos;
+	private long[] handoffs;
+	private long messageBytes = 0;
+
+	/*
+	 * DistributedEngine constructor
+	 *		@param workers the number of worker processes, and regions
+	 *		@param inputFilename the network file, each worker loads it for itself
+	 */
+	public DistributedEngine(int workers, String inputFilename) {
+		this.workers = Math.max(1, workers);
+		this.inputFilename = new File(inputFilename).getAbsolutePath();
+	}
+
+	/*
+	 * partition the network and start the workers, the first time we run
+	 */
+	private void prepare() throws IOException {
+		if (preparedVersion == AdjacencyIndex.getVersion()) {
+			return;
+		}
+		if (processes != null) {
+			throw new IllegalStateException("the network cannot change under a distributed run");
+		}
+
+		int[] vertexPartition = NetworkPartitioner.partition(workers);
+		ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress());
+		server.setSoTimeout(connectTimeout);
+		try {
+			launchWorkers(server.getLocalPort());
+
+			in = new DataInputStream[workers];
+			out = new DataOutputStream[workers];
+			for (int w = 0; w < workers; w++) {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				DataInputStream socketIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				int id = socketIn.readInt();
+				in[id] = socketIn;
+				out[id] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			}
+		} finally {
+			server.close();
+		}
+
+		// tell each worker what it owns
+		for (int w = 0; w < workers; w++) {
+			out[w].writeInt(workers);
+			out[w].writeLong(TrafficSimulatorApp.randomSeed);
+			out[w].writeUTF(inputFilename);
+			out[w].writeInt(vertexPartition.length);
+			for (int p : vertexPartition) {
+				out[w].writeInt(p);
+			}
+			out[w].flush();
+		}
+
+		inbound = new long[workers][64 * HandoffQueue.recordWidth];
+		inboundCount = new int[workers];
+		busyNanos = new long[workers];
+		handoffs = new long[workers];
+		preparedVersion = AdjacencyIndex.getVersion();
+	}
+
+	/*
+	 * start the worker JVMs with the same java and classpath as this one.  extra JVM options,
+	 * a bigger heap say, can be passed in the trafficsim.workerOpts property
+	 *		@param port the loopback port the workers connect back to
+	 */
+	private void launchWorkers(int port) throws IOException {
+		processes = new Process[workers];
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		String opts = System.getProperty("trafficsim.workerOpts", "").trim();
+
+		for (int w = 0; w < workers; w++) {
+			List<String> command = new ArrayList<String>();
+			command.add(java);
+			if (opts.length() > 0) {
+				for (String opt : opts.split("\\s+")) {
+					command.add(opt);
+				}
+			}
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add("trafficsim.DistributedWorker");
+			command.add(Integer.toString(port));
+			command.add(Integer.toString(w));
+
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+			processes[w] = builder.start();
+		}
+
+		// don't leave workers behind if we die
+		final Process[] started = processes;
+		reaper = new Thread() {
+			@Override
+			public void run() {
+				for (Process p : started) {
+					p.destroy();
+				}
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(reaper);
+	}
+
+	/*
+	 * tell every worker to stop, close the connections and wait for the processes to exit,
+	 * killing any that do not
+	 */
+	@Override
+	public void shutdown() {
+		if (processes == null) {
+			return;
+		}
+		for (int w = 0; w < workers; w++) {
+			try {
+				if (out != null && out[w] != null) {
+					out[w].writeInt(opStop);
+					out[w].flush();
+					out[w].close();
+				}
+				if (in != null && in[w] != null) {
+					in[w].close();
+				}
+			} catch (IOException ioe) {
+				// the worker has gone already
+			}
+		}
+		for (Process p : processes) {
+			try {
+				if (!p.waitFor(stopTimeout, TimeUnit.MILLISECONDS)) {
+					p.destroy();
+					p.waitFor();
+				}
+			} catch (InterruptedException ie) {
+				p.destroy();
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			Runtime.getRuntime().removeShutdownHook(reaper);
+		} catch (IllegalStateException ise) {
+			// the JVM is shutting down, the hook is running or about to
+		}
+		processes = null;
+		in = null;
+		out = null;
+		reaper = null;
+		preparedVersion = -1;
+	}
+
+	/*
+	 * advance the simulation by a single tick
+	 */
+	@Override
+	public void tick() {
+		run(1);
+	}
+
+	/*
+	 * advance the simulation by a number of ticks on the workers, then gather their stats
+	 *		@param ticks the number of ticks to run
+	 */
+	@Override
+	public void run(int ticks) {
+		try {
+			prepare();
+			if (ticks <= 0) {
+				return;
+			}
+
+			for (int w = 0; w < workers; w++) {
+				out[w].writeInt(opRun);
+				out[w].writeInt(ticks);
+				out[w].flush();
+			}
+			for (int t = 0; t < ticks; t++) {
+				long started = TickProfiler.start();
+				TrafficSimulatorApp.simTime++;
+				exchange();
+				TickProfiler.tickDone(started);
+			}
+			gatherStatistics();
+		} catch (IOException ioe) {
+			throw new IllegalStateException("lost contact with a worker: " + ioe.getMessage(), ioe);
+		}
+	}
+
+	/*
+	 * collect the end of tick message from every worker and pass the crossing vehicles on
+	 */
+	private void exchange() throws IOException {
+		for (int w = 0; w < workers; w++) {
+			inboundCount[w] = 0;
+		}
+
+		// workers are read in order, so each region receives its vehicles in worker order
+		for (int from = 0; from < workers; from++) {
+			DataInputStream source = in[from];
+			TrafficSimulatorApp.timeInSim.add(source.readLong());
+			TrafficSimulatorApp.waitTime.add(source.readLong());
+			TrafficSimulatorApp.throughput.add(source.readLong());
+			for (int to = 0; to < workers; to++) {
+				int fields = source.readInt() * HandoffQueue.recordWidth;
+				if (inboundCount[to] + fields > inbound[to].length) {
+					long[] larger = new long[Math.max(inbound[to].length * 2, inboundCount[to] + fields)];
+					System.arraycopy(inbound[to], 0, larger, 0, inboundCount[to]);
+					inbound[to] = larger;
+				}
+				for (int k = 0; k < fields; k++) {
+					inbound[to][inboundCount[to]++] = source.readLong();
+				}
+				messageBytes += 4 + 8 * fields;
+			}
+		}
+
+		for (int to = 0; to < workers; to++) {
+			out[to].writeInt(inboundCount[to] / HandoffQueue.recordWidth);
+			for (int k = 0; k < inboundCount[to]; k++) {
+				out[to].writeLong(inbound[to][k]);
+			}
+			out[to].flush();
+		}
+	}
+
+	/*
+	 * read the end of run report from every worker, including its intersection stats, and
+	 * merge the trips each counted into ours
+	 */
+	private void gatherStatistics() throws IOException {
+		vehicleCount = 0;
+		for (int w = 0; w < workers; w++) {
+			vehicleCount += in[w].readInt();
+			busyNanos[w] = in[w].readLong();
+			handoffs[w] = in[w].readLong();
+			int owned = in[w].readInt();
+			for (int k = 0; k < owned; k++) {
+				Intersection i = TrafficSimulatorApp.intersections.get(in[w].readInt());
+				i.setWaitTime(in[w].readLong());
+				i.setThroughput(in[w].readLong());
+			}
+			byte[] trips = new byte[in[w].readInt()];
+			in[w].readFully(trips);
+			TripStatistics workerTrips = new TripStatistics();
+			workerTrips.readState(ByteBuffer.wrap(trips), TrafficSimulatorApp.intersections.size());
+			TrafficSimulatorApp.trips.merge(workerTrips);
+		}
+	}
+
+	/*
+	 * return the number of vehicles in the simulation as of the end of the last run
+	 */
+	@Override
+	public int getVehicleCount() {
+		return vehicleCount;
+	}
+
+	/*
+	 * the vehicles live in the worker processes
+	 */
+	@Override
+	public boolean canCheckpoint() {
+		return false;
+	}
+
+	/*
+	 * print the load carried by each worker
+	 *		@param out the stream to print to
+	 */
+	@Override
+	public void printStatistics(PrintStream out) {
+		if (busyNanos == null) {
+			return;
+		}
+		out.println("Per Worker: busy handoffs");
+		for (int w = 0; w < workers; w++) {
+			out.format("W%d = %.1fms %d\n", w, busyNanos[w] / 1e6, handoffs[w]);
+		}
+		out.println("hand-off traffic = " + messageBytes + " bytes");
+	}
+}
@@ -0,0 +1,265 @@
+package trafficsim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Class DistributedWorker is the process started by the DistributedEngine for one region of
+ * the network.  it loads the whole network, so roads and intersections keep the indices and
+ * random seeds they have everywhere else, but only updates the intersections it owns and only
+ * holds the vehicles riding roads into them
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class DistributedWorker {
+
+	private static int id;
+	private static int parts;
+	private static int[] vertexPartition;
+	private static int[] ownedIntersections;
+	private static HandoffQueue[] outbound;	// vehicles leaving for each other region
+	private static long[] pending = new long[64 * HandoffQueue.recordWidth];	// vehicles to add next tick
+	private static int pendingCount = 0;
+	private static long busyNanos = 0;
+	private static long handoffs = 0;
+
+	/*
+	 * the engine of a single region, sending vehicles bound for other regions to the outbound queues
+	 */
+	private static class WorkerEngine extends SimulationEngine {
+
+		private int[] roadPartition;
+
+		WorkerEngine() {
+			int numRoads = TrafficSimulatorApp.roads.size();
+			roadPartition = new int[numRoads];
+			for (int r = 0; r < numRoads; r++) {
+				roadPartition[r] = NetworkPartitioner.getRoadPartition(vertexPartition, r);
+			}
+		}
+
+		/*
+		 * run one tick of our region, simTime is kept in step by the worker loop
+		 */
+		@Override
+		public void tick() {
+			VehicleTable vehicles = TrafficSimulatorApp.vehicles;
+			long started = TickProfiler.start();
+
+			// take in the vehicles handed over during the last tick
+			for (int k = 0; k < pendingCount; k += HandoffQueue.recordWidth) {
+				vehicles.add((int) pending[k], (int) pending[k + 1], (int) pending[k + 2], (int) pending[k + 3], (int) pending[k + 4], pending[k + 5]);
+			}
+			pendingCount = 0;
+
+			countVehicleTime();
+
+			for (int slot = 0; slot < vehicles.size(); slot++) {
+				Road r = TrafficSimulatorApp.roads.get(vehicles.onEdge[slot]);
+				if (vehicles.updatePosition(slot, r.getQueueSize())) {
+					r.joinQueue(vehicles.get(slot));
+				}
+			}
+			long moved = TickProfiler.phase(TickProfiler.vehicles, started);
+
+			for (int i : ownedIntersections) {
+				TrafficSimulatorApp.intersections.get(i).updateIntersection();
+			}
+			TickProfiler.tickDone(started, TickProfiler.phase(TickProfiler.intersections, moved));
+		}
+
+		private void handOff(int edge, int createTime, int waitTime, int color, int origin, long randomState) {
+			if (!outbound[roadPartition[edge]].offer(edge, createTime, waitTime, color, origin, randomState)) {
+				throw new IllegalStateException("hand-off queue of worker " + id + " is full");
+			}
+			handoffs++;
+		}
+
+		@Override
+		protected void spawnVehicle(Intersection at, int edge, long seed) {
+			if (roadPartition[edge] == id) {
+				super.spawnVehicle(at, edge, seed);
+			} else {
+				handOff(edge, TrafficSimulatorApp.simTime, 0, ColorChooser.getColorIndex(seed), at.getIndex(), seed);
+			}
+		}
+
+		@Override
+		protected void routeVehicle(Intersection at, Vehicle v, int edge) {
+			if (roadPartition[edge] == id) {
+				super.routeVehicle(at, v, edge);
+			} else {
+				handOff(edge, v.getCreateTime(), v.getWaitTime(), v.getColorIndex(), v.getOrigin(), v.getRandomState());
+				TrafficSimulatorApp.vehicles.remove(v);
+			}
+		}
+	}
+
+	/*
+	 * read the region assignment sent by the coordinator and load the network
+	 *		@param in the stream from the coordinator
+	 */
+	private static void setUp(DataInputStream in) throws IOException {
+		parts = in.readInt();
+		TrafficSimulatorApp.randomSeed = in.readLong();
+		String inputFilename = in.readUTF();
+		vertexPartition = new int[in.readInt()];
+		for (int v = 0; v < vertexPartition.length; v++) {
+			vertexPartition[v] = in.readInt();
+		}
+
+		TrafficSimulatorApp.initialize();
+		new ColorChooser();
+		if (!SimFileHandler.readAndParseFile(inputFilename)) {
+			throw new IOException("worker " + id + " could not load " + inputFilename + ": " + SimFileHandler.getLastError());
+		}
+		if (TrafficSimulatorApp.intersections.size() != vertexPartition.length) {
+			throw new IOException("worker " + id + " loaded a different network from " + inputFilename);
+		}
+
+		int owned = 0;
+		for (int p : vertexPartition) {
+			if (p == id) {
+				owned++;
+			}
+		}
+		ownedIntersections = new int[owned];
+		owned = 0;
+		for (int v = 0; v < vertexPartition.length; v++) {
+			if (vertexPartition[v] == id) {
+				ownedIntersections[owned++] = v;
+			}
+		}
+
+		TrafficSimulatorApp.engine = new WorkerEngine();
+
+		// a road takes at most one new vehicle a tick, so the roads crossing each way bound the queues
+		int[] crossing = new int[parts];
+		for (Road r : TrafficSimulatorApp.roads) {
+			if (vertexPartition[r.getFromVertex()] == id) {
+				crossing[vertexPartition[r.getToVertex()]]++;
+			}
+		}
+		outbound = new HandoffQueue[parts];
+		for (int p = 0; p < parts; p++) {
+			outbound[p] = new HandoffQueue(Math.max(crossing[p], 1));
+		}
+	}
+
+	/*
+	 * send the counters and the outbound vehicles of the tick just run
+	 *		@param out the stream to the coordinator
+	 *		@param timeInSim,waitTime,throughput the counter values when the tick began
+	 */
+	private static void sendTick(DataOutputStream out, long timeInSim, long waitTime, long throughput) throws IOException {
+		out.writeLong(TrafficSimulatorApp.timeInSim.sum() - timeInSim);
+		out.writeLong(TrafficSimulatorApp.waitTime.sum() - waitTime);
+		out.writeLong(TrafficSimulatorApp.throughput.sum() - throughput);
+		for (int p = 0; p < parts; p++) {
+			HandoffQueue q = outbound[p];
+			out.writeInt((int) (q.getWriteCount() - q.getReadCount()));
+			while (q.getReadCount() < q.getWriteCount()) {
+				for (int field = 0; field < HandoffQueue.recordWidth; field++) {
+					out.writeLong(q.peek(field));
+				}
+				q.advance();
+			}
+		}
+		out.flush();
+	}
+
+	/*
+	 * read the vehicles entering our region, they join the simulation at the start of the next tick
+	 *		@param in the stream from the coordinator
+	 */
+	private static void receiveTick(DataInputStream in) throws IOException {
+		int fields = in.readInt() * HandoffQueue.recordWidth;
+		if (fields > pending.length) {
+			pending = new long[fields];
+		}
+		for (int k = 0; k < fields; k++) {
+			pending[k] = in.readLong();
+		}
+		pendingCount = fields;
+	}
+
+	/*
+	 * send the end of run report, our vehicle count, the stats of the intersections we own
+	 * and the trips that ended in our region since the last report
+	 *		@param out the stream to the coordinator
+	 */
+	private static void sendReport(DataOutputStream out) throws IOException {
+		out.writeInt(TrafficSimulatorApp.vehicles.size() + pendingCount / HandoffQueue.recordWidth);
+		out.writeLong(busyNanos);
+		out.writeLong(handoffs);
+		out.writeInt(ownedIntersections.length);
+		for (int i : ownedIntersections) {
+			Intersection intersection = TrafficSimulatorApp.intersections.get(i);
+			out.writeInt(i);
+			out.writeLong(intersection.getWaitTime());
+			out.writeLong(intersection.getThroughput());
+		}
+		long tripBytes = TrafficSimulatorApp.trips.getStateBytes();
+		if (tripBytes > Integer.MAX_VALUE) {
+			throw new IOException("worker " + id + " has " + tripBytes + " bytes of trip statistics to send");
+		}
+		ByteBuffer trips = ByteBuffer.allocate((int) tripBytes);
+		TrafficSimulatorApp.trips.writeState(trips);
+		TrafficSimulatorApp.trips.reset();
+		out.writeInt(trips.capacity());
+		out.write(trips.array());
+		out.flush();
+	}
+
+	/**
+	 * main method for a worker, started by the DistributedEngine.
+	 * @param args the coordinator port on the loopback interface, and the worker id
+	 */
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		// the coordinator prints the results, keep our chatter off its console
+		System.setOut(NullOutputStream.printStream);
+
+		int port = Integer.parseInt(args[0]);
+		id = Integer.parseInt(args[1]);
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		socket.setTcpNoDelay(true);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		out.writeInt(id);
+		out.flush();
+
+		try {
+			setUp(in);
+			// each worker is a JVM of its own, with a profiler of its own
+			TickProfiler.register();
+			while (in.readInt() == DistributedEngine.opRun) {
+				int ticks = in.readInt();
+				for (int t = 0; t < ticks; t++) {
+					long timeInSim = TrafficSimulatorApp.timeInSim.sum();
+					long waitTime = TrafficSimulatorApp.waitTime.sum();
+					long throughput = TrafficSimulatorApp.throughput.sum();
+
+					long started = System.nanoTime();
+					TrafficSimulatorApp.simTime++;
+					TrafficSimulatorApp.engine.tick();
+					busyNanos += System.nanoTime() - started;
+
+					sendTick(out, timeInSim, waitTime, throughput);
+					receiveTick(in);
+				}
+				sendReport(out);
+			}
+		} catch (EOFException eof) {
+			// the coordinator has gone, so are we
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package trafficsim;
+
+import java.io.PrintStream;
+import java.util.BitSet;
+
+/**
+ * Class EventEngine only updates the intersections that have something to do.  an
+ * intersection is awake while any of its queues holds a vehicle, and is woken when a
+ * vehicle joins one of its queues or when a timer event it scheduled comes due.  idle
+ * intersections are skipped, and are brought up to date with skipTo() when next woken.
+ *
+ * timer events (source arrivals) are kept in an EventQueue.  signal phase changes and the
+ * amber gap have no effect while an intersection is idle, so they are never scheduled,
+ * skipTo() replays them on waking.  when nothing is going on, run() jumps straight to the
+ * next event.  awake intersections are updated in index order, so the results are the
+ * same as the SequentialEngine
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class EventEngine extends SimulationEngine {
+
+	private int preparedVersion = -1;
+	protected BitSet awake = new BitSet();
+	private EventQueue timers = new EventQueue(0);
+	private long updates = 0;
+	private long eventsFired = 0;
+	private long ticksSkipped = 0;
+	private long ticksRun = 0;
+
+	/*
+	 * reset the schedule when the network changes, every intersection starts awake
+	 *		@return true if the network had changed
+	 */
+	protected boolean prepare() {
+		if (preparedVersion == AdjacencyIndex.getVersion()) {
+			return false;
+		}
+		int numIntersections = TrafficSimulatorApp.intersections.size();
+		awake.clear();
+		awake.set(0, numIntersections);
+		timers = new EventQueue(numIntersections);
+		preparedVersion = AdjacencyIndex.getVersion();
+		return true;
+	}
+
+	/*
+	 * add this tick's vehicle time to the global counters
+	 */
+	protected void countTime() {
+		countVehicleTime();
+	}
+
+	/*
+	 * move every vehicle, waking the intersections they queue at
+	 */
+	protected void moveVehicles() {
+		VehicleTable vehicles = TrafficSimulatorApp.vehicles;
+		for (int slot = 0; slot < vehicles.size(); slot++) {
+			Road r = TrafficSimulatorApp.roads.get(vehicles.onEdge[slot]);
+			if (vehicles.updatePosition(slot, r.getQueueSize())) {
+				r.joinQueue(vehicles.get(slot));
+				awake.set(r.getToVertex());
+			}
+		}
+	}
+
+	/*
+	 * called after an awake intersection has been updated, for engines that need to know
+	 *		@param index the index of the intersection
+	 */
+	protected void intersectionUpdated(int index) {
+	}
+
+	/*
+	 * return whether the coming ticks can be skipped up to the next event
+	 */
+	protected boolean isQuiet() {
+		return TrafficSimulatorApp.vehicles.size() == 0 && awake.isEmpty();
+	}
+
+	/*
+	 * return the tick of the next scheduled event
+	 *		@return the tick, or Integer.MAX_VALUE if none
+	 */
+	protected int getNextEventTick() {
+		return timers.getNextTick();
+	}
+
+	/*
+	 * account for quiet ticks that were skipped, an empty network accrues no time
+	 *		@param ticks the number of ticks skipped
+	 */
+	protected void skipTicks(int ticks) {
+	}
+
+	/*
+	 * advance the simulation by a single tick
+	 */
+	@Override
+	public void tick() {
+		prepare();
+		long started = TickProfiler.start();
+
+		TrafficSimulatorApp.simTime++;
+		ticksRun++;
+		countTime();
+		moveVehicles();
+		long moved = TickProfiler.phase(TickProfiler.vehicles, started);
+
+		// wake the intersections whose timers run out this tick
+		int index;
+		while ((index = timers.poll(TrafficSimulatorApp.simTime)) >= 0) {
+			awake.set(index);
+			eventsFired++;
+		}
+
+		// update the awake intersections in index order, putting the idle ones back to sleep
+		for (int i = awake.nextSetBit(0); i >= 0; i = awake.nextSetBit(i + 1)) {
+			Intersection intersection = TrafficSimulatorApp.intersections.get(i);
+			intersection.skipTo(TrafficSimulatorApp.simTime - 1);
+			intersection.updateIntersection();
+			updates++;
+			intersectionUpdated(i);
+			if (intersection.isIdle()) {
+				awake.clear(i);
+				timers.schedule(i, intersection.getNextTimerTick());
+			}
+		}
+		TickProfiler.tickDone(started, TickProfiler.phase(TickProfiler.intersections, moved));
+	}
+
+	/*
+	 * advance the simulation by a number of ticks, jumping over stretches where nothing happens
+	 *		@param ticks the number of ticks to run
+	 */
+	@Override
+	public void run(int ticks) {
+		prepare();
+		int end = TrafficSimulatorApp.simTime + ticks;
+		while (TrafficSimulatorApp.simTime < end) {
+			if (isQuiet()) {
+				int target = (int) Math.min((long) getNextEventTick() - 1, end);
+				if (target > TrafficSimulatorApp.simTime) {
+					skipTicks(target - TrafficSimulatorApp.simTime);
+					ticksSkipped += target - TrafficSimulatorApp.simTime;
+					TickProfiler.ticksSkipped(target - TrafficSimulatorApp.simTime);
+					TrafficSimulatorApp.simTime = target;
+					continue;
+				}
+			}
+			tick();
+		}
+	}
+
+	/*
+	 * print how much work the schedule saved
+	 *		@param out the stream to print to
+	 */
+	@Override
+	public void printStatistics(PrintStream out) {
+		int numIntersections = TrafficSimulatorApp.intersections.size();
+		out.println("intersection updates = " + updates + " of " + (ticksRun + ticksSkipped) * numIntersections);
+		out.println("timer events = " + eventsFired);
+		out.println("ticks skipped = " + ticksSkipped);
+	}
+}
@@ -0,0 +1,129 @@
+package trafficsim;
+
+/**
+ * Class EventQueue is a priority queue of timer events, at most one per id, ordered by
+ * tick and then id.  it is an indexed binary heap of longs, so moving an event to another
+ * tick is done in place and the heap never holds more entries than there are ids
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class EventQueue {
+
+	private long[] heap;	// (tick << 32) | id
+	private int heapSize = 0;
+	private int[] position;	// where each id sits in the heap, -1 if it has no event
+
+	/*
+	 * EventQueue constructor
+	 *		@param ids the number of ids, 0..ids-1, that can have events
+	 */
+	public EventQueue(int ids) {
+		heap = new long[Math.max(ids, 1)];
+		position = new int[ids];
+		for (int i = 0; i < ids; i++) {
+			position[i] = -1;
+		}
+	}
+
+	/*
+	 * set the event for an id, replacing any it had
+	 *		@param id the id the event is for
+	 *		@param tick the tick the event is due, -1 just cancels the current event
+	 */
+	public void schedule(int id, int tick) {
+		int k = position[id];
+		if (tick < 0) {
+			if (k >= 0) {
+				removeAt(k);
+			}
+			return;
+		}
+
+		long key = ((long) tick << 32) | id;
+		if (k < 0) {
+			k = heapSize++;
+		} else if (heap[k] == key) {
+			return;
+		}
+		heap[k] = key;
+		position[id] = k;
+		siftDown(siftUp(k));
+	}
+
+	/*
+	 * return the tick of the earliest event
+	 *		@return the tick, or Integer.MAX_VALUE if there are no events
+	 */
+	public int getNextTick() {
+		return heapSize > 0 ? (int) (heap[0] >>> 32) : Integer.MAX_VALUE;
+	}
+
+	/*
+	 * take the earliest event if it is due
+	 *		@param tick the current tick
+	 *		@return the id of the event, or -1 if no event is due by this tick
+	 */
+	public int poll(int tick) {
+		if (heapSize == 0 || (int) (heap[0] >>> 32) > tick) {
+			return -1;
+		}
+		int id = (int) heap[0];
+		removeAt(0);
+		return id;
+	}
+
+	/*
+	 * take the entry at a heap position out, filling the hole with the last entry
+	 */
+	private void removeAt(int k) {
+		position[(int) heap[k]] = -1;
+		heapSize--;
+		if (k == heapSize) {
+			return;
+		}
+		heap[k] = heap[heapSize];
+		position[(int) heap[k]] = k;
+		siftDown(siftUp(k));
+	}
+
+	/*
+	 * move the entry at k up while it is earlier than its parent
+	 *		@return the position it ends up in
+	 */
+	private int siftUp(int k) {
+		long key = heap[k];
+		while (k > 0) {
+			int parent = (k - 1) >> 1;
+			if (heap[parent] <= key) {
+				break;
+			}
+			heap[k] = heap[parent];
+			position[(int) heap[k]] = k;
+			k = parent;
+		}
+		heap[k] = key;
+		position[(int) key] = k;
+		return k;
+	}
+
+	/*
+	 * move the entry at k down while it is later than a child
+	 */
+	private void siftDown(int k) {
+		long key = heap[k];
+		int half = heapSize >> 1;
+		while (k < half) {
+			int child = 2 * k + 1;
+			if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+				child++;
+			}
+			if (key <= heap[child]) {
+				break;
+			}
+			heap[k] = heap[child];
+			position[(int) heap[k]] = k;
+			k = child;
+		}
+		heap[k] = key;
+		position[(int) key] = k;
+	}
+}
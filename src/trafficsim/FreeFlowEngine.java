@@ -0,0 +1,167 @@
+package trafficsim;
+
+import java.io.PrintStream;
+
+/**
+ * Class FreeFlowEngine is the EventEngine without the per tick walk over the vehicles.  a car
+ * on a free road moves at a fixed speed, so the tick it reaches the back of the line can be
+ * worked out when it enters the road.  each road keeps its moving cars in order of entry,
+ * and only the car nearest the end has an arrival event scheduled.  the event is worked out
+ * again whenever the line in front of it grows or shrinks.  positions of moving cars are
+ * interpolated from the tick they entered the road when something asks for them.
+ *
+ * cars reach the line in order down each road, rather than in table order as in the stepping
+ * engines, and the stop early distance is measured along the road, so results are close to
+ * but not the same as the SequentialEngine
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class FreeFlowEngine extends EventEngine {
+
+	private EventQueue arrivals = new EventQueue(0);	// ids are road indices
+	private int[] scheduledFor = new int[0];	// line length each road's arrival was worked out for
+	private int movingCount = 0;
+	private long arrivalEvents = 0;
+
+	/*
+	 * when the network changes, schedule the front car of every road again
+	 */
+	@Override
+	protected boolean prepare() {
+		if (!super.prepare()) {
+			return false;
+		}
+		TrafficSimulatorApp.vehicles.freeFlow = true;
+		arrivals = new EventQueue(TrafficSimulatorApp.roads.size());
+		scheduledFor = new int[TrafficSimulatorApp.roads.size()];
+		movingCount = 0;
+		for (Road r : TrafficSimulatorApp.roads) {
+			movingCount += r.getMovingCount();
+			scheduleArrival(r);
+		}
+		return true;
+	}
+
+	/*
+	 * schedule the arrival of the front car of a road, for the current length of the line
+	 */
+	private void scheduleArrival(Road r) {
+		Vehicle v = r.peekMoving();
+		if (v == null) {
+			arrivals.schedule(r.getIndex(), -1);
+			return;
+		}
+		scheduledFor[r.getIndex()] = r.getQueueSize();
+		int due = TrafficSimulatorApp.vehicles.stateTime[v.slot] + r.getArrivalSteps(r.getQueueSize());
+		arrivals.schedule(r.getIndex(), Math.max(due, TrafficSimulatorApp.simTime + 1));
+	}
+
+	/*
+	 * put a car at the start of a road
+	 */
+	private void enter(Vehicle v, Road r) {
+		TrafficSimulatorApp.vehicles.stateTime[v.slot] = TrafficSimulatorApp.simTime;
+		r.enterMoving(v);
+		movingCount++;
+		if (r.getMovingCount() == 1) {
+			scheduleArrival(r);
+		}
+	}
+
+	/*
+	 * only queued cars wait, and the moving ones are counted without looking at them
+	 */
+	@Override
+	protected void countTime() {
+		int size = TrafficSimulatorApp.vehicles.size();
+		TrafficSimulatorApp.timeInSim.add(size);
+		TrafficSimulatorApp.waitTime.add(size - movingCount);
+	}
+
+	/*
+	 * move the front cars that have reached the back of their line into it
+	 */
+	@Override
+	protected void moveVehicles() {
+		int edge;
+		while ((edge = arrivals.poll(TrafficSimulatorApp.simTime)) >= 0) {
+			arrivalEvents++;
+			Road r = TrafficSimulatorApp.roads.get(edge);
+			Vehicle v = r.peekMoving();
+
+			// the car behind may already be close enough to the longer line to join it too
+			while (v != null && TrafficSimulatorApp.vehicles.stateTime[v.slot] + r.getArrivalSteps(r.getQueueSize()) <= TrafficSimulatorApp.simTime) {
+				if (r.joinQueue(v) < 0) {
+					// the line is full, try again next tick
+					break;
+				}
+				TrafficSimulatorApp.vehicles.stateTime[v.slot] = TrafficSimulatorApp.simTime;
+				r.popMoving();
+				movingCount--;
+				awake.set(r.getToVertex());
+				v = r.peekMoving();
+			}
+			scheduleArrival(r);
+		}
+	}
+
+	/*
+	 * the intersection may have shortened the lines into it, so the cars on those roads reach them later
+	 */
+	@Override
+	protected void intersectionUpdated(int index) {
+		int inDegree = AdjacencyIndex.getInDegree(index);
+		for (int k = 0; k < inDegree; k++) {
+			Road r = TrafficSimulatorApp.roads.get(AdjacencyIndex.getInRoad(index, k));
+			if (r.getMovingCount() > 0 && r.getQueueSize() != scheduledFor[r.getIndex()]) {
+				scheduleArrival(r);
+			}
+		}
+	}
+
+	/*
+	 * with no line anywhere, nothing happens until the next arrival or timer
+	 */
+	@Override
+	protected boolean isQuiet() {
+		return awake.isEmpty();
+	}
+
+	@Override
+	protected int getNextEventTick() {
+		return Math.min(super.getNextEventTick(), arrivals.getNextTick());
+	}
+
+	/*
+	 * the moving cars spend the skipped ticks in the simulation, none of them waiting
+	 */
+	@Override
+	protected void skipTicks(int ticks) {
+		TrafficSimulatorApp.timeInSim.add((long) TrafficSimulatorApp.vehicles.size() * ticks);
+	}
+
+	@Override
+	protected void spawnVehicle(Intersection at, int edge, long seed) {
+		enter(TrafficSimulatorApp.vehicles.add(edge, seed), TrafficSimulatorApp.roads.get(edge));
+	}
+
+	@Override
+	protected void routeVehicle(Intersection at, Vehicle v, int edge) {
+		// the car has just left the line it joined at stateTime
+		TrafficSimulatorApp.vehicles.waitTime[v.slot] += TrafficSimulatorApp.simTime - TrafficSimulatorApp.vehicles.stateTime[v.slot];
+		v.setEdge(edge);
+		enter(v, TrafficSimulatorApp.roads.get(edge));
+	}
+
+	@Override
+	protected void retireVehicle(Intersection at, Vehicle v) {
+		// as for routeVehicle, so the trip is counted with the wait in the last line
+		TrafficSimulatorApp.vehicles.waitTime[v.slot] += TrafficSimulatorApp.simTime - TrafficSimulatorApp.vehicles.stateTime[v.slot];
+		super.retireVehicle(at, v);
+	}
+
+	@Override
+	public void printStatistics(PrintStream out) {
+		super.printStatistics(out);
+		out.println("arrival events = " + arrivalEvents);
+	}
+}
@@ -0,0 +1,78 @@
+package trafficsim;
+
+/**
+ * Class HandoffQueue is a bounded, lock-free, single producer single consumer queue of vehicle
+ * records, used to pass vehicles between threads (or, packed into messages, between processes).
+ * records are stored as primitive fields in a ring of longs, so handing a vehicle over allocates nothing
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class HandoffQueue {
+
+	protected final static int recordWidth = 6;	// edge, createTime, waitTime, color, origin, random stream state
+	private final long[] ring;
+	private final int mask;
+	private volatile long head = 0;	// next record to read, written by the consumer only
+	private volatile long tail = 0;	// next record to write, written by the producer only
+
+	/*
+	 * HandoffQueue constructor
+	 *		@param capacity the minimum number of records the queue must hold
+	 */
+	public HandoffQueue(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		ring = new long[size * recordWidth];
+		mask = size - 1;
+	}
+
+	/*
+	 * add a vehicle record, called by the producer thread
+	 *		@return false if the queue is full
+	 */
+	public boolean offer(int edge, int createTime, int waitTime, int color, int origin, long randomState) {
+		long t = tail;
+		if (t - head > mask) {
+			return false;
+		}
+		int base = (int) (t & mask) * recordWidth;
+		ring[base] = edge;
+		ring[base + 1] = createTime;
+		ring[base + 2] = waitTime;
+		ring[base + 3] = color;
+		ring[base + 4] = origin;
+		ring[base + 5] = randomState;
+		tail = t + 1;	// publishes the record
+		return true;
+	}
+
+	/*
+	 * return the number of records written so far, read by the consumer to decide how far to drain
+	 */
+	public long getWriteCount() {
+		return tail;
+	}
+
+	/*
+	 * return the number of records read so far
+	 */
+	public long getReadCount() {
+		return head;
+	}
+
+	/*
+	 * read one field of the record at the head of the queue, called by the consumer thread
+	 *		@param field 0..recordWidth-1
+	 */
+	public long peek(int field) {
+		return ring[(int) (head & mask) * recordWidth + field];
+	}
+
+	/*
+	 * drop the record at the head of the queue, called by the consumer thread
+	 */
+	public void advance() {
+		head = head + 1;
+	}
+}
@@ -0,0 +1,50 @@
+package trafficsim;
+
+/**
+ * Class HistogramBuckets is the bucket layout shared by the histograms.  values under
+ * 2^subBits have a bucket each, and every power of two above that is split into 2^subBits
+ * buckets of equal width, so a value is kept to within 1 part in 2^subBits however large it is
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class HistogramBuckets {
+
+	/*
+	 * return the number of buckets needed for values below a power of two
+	 *		@param maxBits the values counted are under 2^maxBits
+	 *		@param subBits the buckets to each power of two are 2^subBits
+	 *		@return the number of buckets
+	 */
+	public static int bucketCount(int maxBits, int subBits) {
+		return (maxBits - subBits + 1) << subBits;
+	}
+
+	/*
+	 * return the bucket of a value.  above 2^subBits the top subBits + 1 bits of the
+	 * value, its leading one and the subBits after it, pick the bucket within its power of two
+	 *		@param value the value, not negative
+	 *		@param subBits the buckets to each power of two are 2^subBits
+	 *		@return the bucket
+	 */
+	public static int bucket(long value, int subBits) {
+		if (value < (1 << subBits)) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value) - subBits;
+		return (exponent << subBits) + (int) (value >>> exponent);
+	}
+
+	/*
+	 * return the largest value that falls in a bucket
+	 *		@param bucket the bucket
+	 *		@param subBits the buckets to each power of two are 2^subBits
+	 *		@return the value
+	 */
+	public static long bucketTop(int bucket, int subBits) {
+		if (bucket < (1 << subBits)) {
+			return bucket;
+		}
+		int exponent = (bucket >>> subBits) - 1;
+		long mantissa = bucket - (exponent << subBits);
+		return ((mantissa + 1) << exponent) - 1;
+	}
+}
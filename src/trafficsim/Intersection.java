@@ -4,6 +4,8 @@
  */
 package trafficsim;
 
+import java.nio.ByteBuffer;
+
 /**
  *
  * @author Michael Scott <mkdsctt@gmail.com>
@@ -13,8 +15,11 @@ public abstract class Intersection {
 	private double x;  // the x coordinate for the center of the intersection
 	private double y;	 // the y coord
 	private double n;	 // n is the switching interval for the lights, avg interarrival time for source nodes
-	private int waitTime = 0;
-	private int throughput = 0;
+	// 64 bit so long runs do not wrap, only written by the thread updating us, like signalSwitches
+	private long waitTime = 0;
+	private long throughput = 0;
+	private long signalSwitches = 0;	// counted for the TickProfiler, only by the thread updating us
+	private int index = -1;	// position in the intersection list, kept by the AdjacencyIndex
 
 	public Intersection(double x, double y, double n) {
 		this.x = x;
@@ -27,13 +32,7 @@ public abstract class Intersection {
 	 *		@return integer value -- the in degree for the node/intersection
 	 */
 	public int getInDegree() {
-		int count = 0;
-		for (Road r : TrafficSimulatorApp.roads) {
-			if (r.getToVertex() == getIndex()) {
-				count++;
-			}
-		}
-		return count;
+		return AdjacencyIndex.getInDegree(index);
 	}
 
 	/*
@@ -41,13 +40,7 @@ public abstract class Intersection {
 	 *		@return integer value -- the out degree for the node/intersection
 	 */
 	public int getOutDegree() {
-		int count = 0;
-		for (Road r : TrafficSimulatorApp.roads) {
-			if (r.getFromVertex() == getIndex()) {
-				count++;
-			}
-		}
-		return count;
+		return AdjacencyIndex.getOutDegree(index);
 	}
 
 	/*
@@ -55,7 +48,15 @@ public abstract class Intersection {
 	 *		@return integer value -- the index of the node in the TrafficSimulatorApp list of nodes
 	 */
 	public int getIndex() {
-		return TrafficSimulatorApp.intersections.indexOf(this);
+		return index;
+	}
+
+	/*
+	 * set the cached index for the node, only the AdjacencyIndex should do this
+	 *		@param index the position of the node in the TrafficSimulatorApp list of nodes
+	 */
+	protected void setIndex(int index) {
+		this.index = index;
 	}
 
 	/*
@@ -106,22 +107,34 @@ public abstract class Intersection {
 		this.y = y;
 	}
 
-	public int getThroughput() {
+	public long getThroughput() {
 		return throughput;
 	}
 
-	public void setThroughput(int throughput) {
+	public void setThroughput(long throughput) {
 		this.throughput = throughput;
 	}
 
-	public int getWaitTime() {
+	public long getWaitTime() {
 		return waitTime;
 	}
 
-	public void setWaitTime(int waitTime) {
+	public void setWaitTime(long waitTime) {
 		this.waitTime = waitTime;
 	}
 
+	public long getSignalSwitches() {
+		return signalSwitches;
+	}
+
+	protected void countSignalSwitch() {
+		signalSwitches++;
+	}
+
+	public void resetSignalSwitches() {
+		signalSwitches = 0;
+	}
+
 	public void delete() {
 		// ensure that we have a selected vertex
 		if (SimMouseInputHandler.selectedVertex < 0) {
@@ -165,10 +178,72 @@ public abstract class Intersection {
 
 		// here we have removed all edges, now remove the vertex
 		TrafficSimulatorApp.intersections.remove(SimMouseInputHandler.selectedVertex);
+		AdjacencyIndex.rebuild();
 
 		// no selected vertex
 		SimMouseInputHandler.selectedVertex = -1;
 	}
 
+	/*
+	 * return whether the intersection can be left alone until a vehicle joins one of its
+	 * queues or its next timer event comes up.  intersections that don't know say no
+	 *		@return true if updating the intersection now would change nothing but its timers
+	 */
+	public boolean isIdle() {
+		return false;
+	}
+
+	/*
+	 * return the tick at which an idle intersection must next be updated
+	 *		@return the tick, or -1 if only a vehicle arriving can wake it
+	 */
+	public int getNextTimerTick() {
+		return -1;
+	}
+
+	/*
+	 * bring an idle intersection up to date, as if it had been updated every tick up to
+	 * and including the given one
+	 *		@param tick the last tick to account for
+	 */
+	public void skipTo(int tick) {
+	}
+
+	/*
+	 * return the road whose light is green, for recording and drawing.  intersections
+	 * without lights say none
+	 *		@return the index of the green in road, or -1 if no light is green
+	 */
+	public int getGreenRoad() {
+		return -1;
+	}
+
+	/*
+	 * return the size of the state written by writeState
+	 *		@return the number of bytes
+	 */
+	protected int getStateBytes() {
+		return 2 * 8;
+	}
+
+	/*
+	 * write the state that changes as the simulation runs, for a checkpoint.  subclasses
+	 * with state of their own write it after this
+	 *		@param out the buffer to write to
+	 */
+	protected void writeState(ByteBuffer out) {
+		out.putLong(waitTime);
+		out.putLong(throughput);
+	}
+
+	/*
+	 * read back the state written by writeState
+	 *		@param in the buffer to read from
+	 */
+	protected void readState(ByteBuffer in) {
+		waitTime = in.getLong();
+		throughput = in.getLong();
+	}
+
 	public abstract void updateIntersection();
 }
@@ -0,0 +1,110 @@
+package trafficsim;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class LatencyHistogram counts durations in buckets that grow with the value, 32 to each
+ * power of two, so every value is kept to within about 3% however large it is.  recording
+ * is an atomic increment of one bucket, with no locks and no allocation, and any thread may
+ * record or read at any time.  a reader sees each bucket as of some moment during its read
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class LatencyHistogram {
+
+	private static final int subBits = 5;
+	private static final int maxBits = 40;	// values are capped at 2^40 ns, about 18 minutes
+	private static final long maxValue = (1l << maxBits) - 1;
+	private static final int bucketCount = HistogramBuckets.bucketCount(maxBits, subBits);
+
+	private final AtomicLongArray counts = new AtomicLongArray(bucketCount);
+	private final AtomicLong total = new AtomicLong();	// sum of every value, for the mean
+	private final AtomicLong max = new AtomicLong();
+
+	/*
+	 * count a value
+	 *		@param value the duration in nanoseconds, negative values count as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		} else if (value > maxValue) {
+			value = maxValue;
+		}
+		counts.incrementAndGet(HistogramBuckets.bucket(value, subBits));
+		total.addAndGet(value);
+		long seen = max.get();
+		while (value > seen && !max.compareAndSet(seen, value)) {
+			seen = max.get();
+		}
+	}
+
+	/*
+	 * return the number of values counted
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int k = 0; k < bucketCount; k++) {
+			count += counts.get(k);
+		}
+		return count;
+	}
+
+	/*
+	 * return the mean of the values counted, 0 if there are none
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : total.get() / (double) count;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/*
+	 * return the value a fraction of the values counted are at or below
+	 *		@param fraction the fraction, 0.99 for the 99th percentile
+	 *		@return the top of the bucket the value falls in, 0 if nothing was counted
+	 */
+	public long getPercentile(double fraction) {
+		long[] snapshot = new long[bucketCount];
+		long count = 0;
+		for (int k = 0; k < bucketCount; k++) {
+			snapshot[k] = counts.get(k);
+			count += snapshot[k];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int k = 0; k < bucketCount; k++) {
+			seen += snapshot[k];
+			if (seen >= rank) {
+				return Math.min(HistogramBuckets.bucketTop(k, subBits), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/*
+	 * forget every value counted.  values counted while resetting may be kept or lost
+	 */
+	public void reset() {
+		for (int k = 0; k < bucketCount; k++) {
+			counts.set(k, 0);
+		}
+		total.set(0);
+		max.set(0);
+	}
+
+	/*
+	 * describe the values counted in microseconds
+	 *		@return the count, mean, 50th, 99th and 99.9th percentiles and the largest value
+	 */
+	public String summary() {
+		return String.format("n=%d mean=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+			getCount(), getMean() / 1e3, getPercentile(0.5) / 1e3, getPercentile(0.99) / 1e3, getPercentile(0.999) / 1e3, getMax() / 1e3);
+	}
+}
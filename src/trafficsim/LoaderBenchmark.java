@@ -0,0 +1,93 @@
+package trafficsim;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Class LoaderBenchmark times loading the same network from the text format and from the
+ * binary format.  the binary copy is written next to the text file, and the two are loaded
+ * in turn so both see the same state of the page cache and the JIT
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class LoaderBenchmark {
+
+	/*
+	 * print the usage message and quit
+	 */
+	private static void usage() {
+		System.out.println(""
+			+ "incorrect usage\n"
+			+ "expected: java LoaderBenchmark text_network_file [repetitions]");
+		System.exit(-1);
+	}
+
+	/*
+	 * load a network with the settings line silenced
+	 *		@return the time taken in nanoseconds
+	 */
+	private static long timeLoad(String filename) {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+		long start = System.nanoTime();
+		boolean loaded = SimFileHandler.readAndParseFile(filename);
+		long elapsed = System.nanoTime() - start;
+		System.setOut(out);
+		if (!loaded) {
+			System.out.println(SimFileHandler.getLastError());
+			System.exit(-1);
+		}
+		return elapsed;
+	}
+
+	/**
+	 * main method for the benchmark.
+	 * @param args the text network file and the number of times to load each format
+	 */
+	public static void main(String[] args) {
+		int repetitions = 10;
+		if (args.length != 1 && args.length != 2) {
+			usage();
+		}
+		try {
+			if (args.length == 2) {
+				repetitions = Integer.parseInt(args[1]);
+			}
+		} catch (NumberFormatException nfe) {
+			usage();
+		}
+		String textFile = args[0];
+		if (NetworkFile.isBinary(textFile)) {
+			usage();
+		}
+		String binaryFile = textFile + "b";
+		if (!binaryFile.endsWith(NetworkFile.extension)) {
+			binaryFile = textFile + NetworkFile.extension;
+		}
+
+		TrafficSimulatorApp.initialize();
+		timeLoad(textFile);
+		SimFileHandler.writeToOutput(binaryFile);
+		System.out.println("|V| = " + TrafficSimulatorApp.intersections.size() + "  |E| = " + TrafficSimulatorApp.roads.size());
+		System.out.println("text   " + new File(textFile).length() + " bytes, " + textFile);
+		System.out.println("binary " + new File(binaryFile).length() + " bytes, " + binaryFile);
+
+		long textBest = Long.MAX_VALUE, textTotal = 0;
+		long binaryBest = Long.MAX_VALUE, binaryTotal = 0;
+		for (int i = 0; i < repetitions; i++) {
+			long t = timeLoad(textFile);
+			textBest = Math.min(textBest, t);
+			textTotal += t;
+			t = timeLoad(binaryFile);
+			binaryBest = Math.min(binaryBest, t);
+			binaryTotal += t;
+		}
+		System.out.format("text   best %8.2f ms  mean %8.2f ms\n", textBest / 1e6, textTotal / 1e6 / repetitions);
+		System.out.format("binary best %8.2f ms  mean %8.2f ms\n", binaryBest / 1e6, binaryTotal / 1e6 / repetitions);
+		System.out.format("speedup %.1fx\n", (double) textBest / binaryBest);
+	}
+}
@@ -0,0 +1,116 @@
+package trafficsim;
+
+/**
+ * Class LongIntMap maps long keys to int values in two flat arrays, with open addressing
+ * and linear probing.  it holds millions of entries (OpenStreetMap node ids) in a fraction
+ * of the memory a HashMap of boxed keys and values would need, and makes no garbage
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class LongIntMap {
+
+	private static final long emptyKey = Long.MIN_VALUE;
+	private long[] keys;
+	private int[] values;
+	private int size = 0;
+
+	public LongIntMap() {
+		this(16);
+	}
+
+	/*
+	 * make an empty map
+	 *		@param expected the number of entries expected, so the table need not grow to hold them
+	 */
+	public LongIntMap(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		values = new int[capacity];
+		for (int k = 0; k < capacity; k++) {
+			keys[k] = emptyKey;
+		}
+	}
+
+	/*
+	 * return the table slot holding a key, or the empty slot it would go in
+	 */
+	private int find(long key) {
+		int mask = keys.length - 1;
+		int slot = (int) RandomStream.mix(key) & mask;
+		while (keys[slot] != emptyKey && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/*
+	 * return the value of a key
+	 *		@param key the key, anything but Long.MIN_VALUE
+	 *		@param missing what to return if the key is not in the map
+	 *		@return the value, or missing
+	 */
+	public int get(long key, int missing) {
+		int slot = find(key);
+		return keys[slot] == emptyKey ? missing : values[slot];
+	}
+
+	/*
+	 * set the value of a key, adding the key if it is not in the map
+	 *		@param key the key, anything but Long.MIN_VALUE
+	 *		@param value the value
+	 */
+	public void put(long key, int value) {
+		int slot = find(key);
+		if (keys[slot] == emptyKey) {
+			if ((size + 1) * 2 > keys.length) {
+				grow();
+				slot = find(key);
+			}
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] = value;
+	}
+
+	/*
+	 * return the value of a key, first adding it with the value size() if it is not in the
+	 * map.  this numbers keys densely in the order they are first seen
+	 *		@param key the key, anything but Long.MIN_VALUE
+	 *		@return the value
+	 */
+	public int number(long key) {
+		int slot = find(key);
+		if (keys[slot] != emptyKey) {
+			return values[slot];
+		}
+		int value = size;
+		put(key, value);
+		return value;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * double the table, putting every entry back
+	 */
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[keys.length];
+		for (int k = 0; k < keys.length; k++) {
+			keys[k] = emptyKey;
+		}
+		for (int k = 0; k < oldKeys.length; k++) {
+			if (oldKeys[k] != emptyKey) {
+				int slot = find(oldKeys[k]);
+				keys[slot] = oldKeys[k];
+				values[slot] = oldValues[k];
+			}
+		}
+	}
+}
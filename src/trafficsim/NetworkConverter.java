@@ -0,0 +1,39 @@
+package trafficsim;
+
+/**
+ * Class NetworkConverter converts road networks between the text format and the packed
+ * binary format.  the input format is recognized from the file itself, the output format
+ * from the extension of the output name (.netb for binary, anything else for text)
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class NetworkConverter {
+
+	/*
+	 * print the usage message and quit
+	 */
+	private static void usage() {
+		System.out.println(""
+			+ "incorrect usage\n"
+			+ "expected: java NetworkConverter input_file output_file\n"
+			+ "  output_file ending in " + NetworkFile.extension + " is written in the binary format, otherwise as text");
+		System.exit(-1);
+	}
+
+	/**
+	 * main method for the converter.
+	 * @param args the input and output file names
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			usage();
+		}
+
+		TrafficSimulatorApp.initialize();
+		if (!SimFileHandler.readAndParseFile(args[0])) {
+			System.exit(-1);
+		}
+		SimFileHandler.writeToOutput(args[1]);
+		System.out.println("wrote " + TrafficSimulatorApp.intersections.size() + " vertices and "
+			+ TrafficSimulatorApp.roads.size() + " edges to " + args[1]);
+	}
+}
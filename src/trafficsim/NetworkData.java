@@ -0,0 +1,33 @@
+package trafficsim;
+
+import java.util.ArrayList;
+
+/**
+ * Class NetworkData holds a network read from a file before it replaces the one being
+ * simulated, so a file that fails to load leaves the current network alone
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class NetworkData {
+
+	protected ArrayList<Intersection> intersections = new ArrayList<Intersection>();
+	protected ArrayList<Road> roads = new ArrayList<Road>();
+	protected int screenWidth;
+	protected int screenHeight;
+
+	/*
+	 * make this the network being simulated, dropping every vehicle of the old one
+	 */
+	protected void install() {
+		TrafficSimulatorApp.intersections.clear();
+		TrafficSimulatorApp.roads.clear();
+		TrafficSimulatorApp.vehicles.clear();
+		TrafficSimulatorApp.intersections.addAll(intersections);
+		TrafficSimulatorApp.roads.addAll(roads);
+		DisplayPanel.screenWidth = screenWidth;
+		DisplayPanel.screenHeight = screenHeight;
+
+		// index the new network so the simulation can find the roads at each vertex
+		AdjacencyIndex.rebuild();
+		VertexIndex.invalidate();
+	}
+}
@@ -0,0 +1,168 @@
+package trafficsim;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Class NetworkFile reads and writes road networks in the packed binary format.  the file is
+ * a header followed by two arrays of fixed size records, so loading it is a walk over a
+ * memory mapped buffer with no text to split or numbers to parse.  all values are little
+ * endian.
+ *
+ *	header		int magic ("TSNB"), int formatVersion, int |V|, int |E|, int screenWidth, int screenHeight
+ *	vertices	|V| x (double x, double y, double n)
+ *	edges		|E| x (int from, int to, int queueCapacity)
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class NetworkFile {
+
+	protected final static int magic = 0x424e5354;	// "TSNB" read as a little endian int
+	protected final static int formatVersion = 1;
+	protected final static String extension = ".netb";
+	private final static int headerBytes = 6 * 4;
+	private final static int vertexBytes = 3 * 8;
+	private final static int edgeBytes = 3 * 4;
+
+	/*
+	 * check whether a file is in the binary format, by its first four bytes
+	 *		@param filename the name of the file
+	 *		@return true if the file starts with the binary format magic number
+	 */
+	protected static boolean isBinary(String filename) {
+		return readMagic(filename) == magic;
+	}
+
+	/*
+	 * return the first four bytes of a file as a little endian int, to tell the formats apart
+	 *		@param filename the name of the file
+	 *		@return the int, or 0 if the file is missing or too short
+	 */
+	protected static int readMagic(String filename) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(filename));
+			return Integer.reverseBytes(in.readInt());
+		} catch (IOException ioe) {
+			// too short, or missing, in which case the text reader will complain
+			return 0;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException ioe) {
+				}
+			}
+		}
+	}
+
+	/*
+	 * read a binary network
+	 *		@param filename the name of the file to read
+	 *		@return the network read
+	 *		@throws NetworkFormatException if the file cannot be read or is not a network this version understands
+	 */
+	protected static NetworkData read(String filename) throws NetworkFormatException {
+		try {
+			return map(filename);
+		} catch (IOException ioe) {
+			throw new NetworkFormatException(filename, 0, ioe.getMessage());
+		}
+	}
+
+	/*
+	 * map a binary network and copy it out
+	 */
+	private static NetworkData map(String filename) throws IOException {
+		NetworkData network = new NetworkData();
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long length = channel.size();
+			if (length < headerBytes) {
+				throw new IOException(filename + ": too short for a network header");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			if (buffer.getInt() != magic) {
+				throw new IOException(filename + ": not a binary network file");
+			}
+			int version = buffer.getInt();
+			if (version != formatVersion) {
+				throw new IOException(filename + ": unsupported network format version " + version);
+			}
+			int numVertices = buffer.getInt();
+			int numEdges = buffer.getInt();
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			if (numVertices < 0 || numEdges < 0 || length != headerBytes + (long) numVertices * vertexBytes + (long) numEdges * edgeBytes) {
+				throw new IOException(filename + ": length does not match " + numVertices + " vertices and " + numEdges + " edges");
+			}
+			network.screenWidth = width;
+			network.screenHeight = height;
+
+			network.intersections.ensureCapacity(numVertices);
+			for (int i = 0; i < numVertices; i++) {
+				double x = buffer.getDouble();
+				double y = buffer.getDouble();
+				double n = buffer.getDouble();
+				network.intersections.add(new SimpleIntersection(x, y, n));
+			}
+
+			network.roads.ensureCapacity(numEdges);
+			for (int i = 0; i < numEdges; i++) {
+				int from = buffer.getInt();
+				int to = buffer.getInt();
+				int capacity = buffer.getInt();
+				if (from < 0 || from >= numVertices || to < 0 || to >= numVertices || capacity <= 0) {
+					throw new IOException(filename + ": edge " + i + " (" + from + "," + to + "," + capacity + ") is out of range");
+				}
+				network.roads.add(new Road(from, to, capacity));
+			}
+			SimFileHandler.printSettings(numVertices, numEdges, width, height);
+			return network;
+		} finally {
+			file.close();
+		}
+	}
+
+	/*
+	 * write the current network in the binary format
+	 *		@param filename the name of the file to write
+	 *		@throws IOException if the file cannot be written
+	 */
+	protected static void write(String filename) throws IOException {
+		int numVertices = TrafficSimulatorApp.intersections.size();
+		int numEdges = TrafficSimulatorApp.roads.size();
+		long length = headerBytes + (long) numVertices * vertexBytes + (long) numEdges * edgeBytes;
+
+		RandomAccessFile file = new RandomAccessFile(filename, "rw");
+		try {
+			file.setLength(length);
+			MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			buffer.putInt(magic);
+			buffer.putInt(formatVersion);
+			buffer.putInt(numVertices);
+			buffer.putInt(numEdges);
+			buffer.putInt(DisplayPanel.screenWidth);
+			buffer.putInt(DisplayPanel.screenHeight);
+			for (Intersection intersection : TrafficSimulatorApp.intersections) {
+				buffer.putDouble(intersection.getX());
+				buffer.putDouble(intersection.getY());
+				buffer.putDouble(intersection.getN());
+			}
+			for (Road r : TrafficSimulatorApp.roads) {
+				buffer.putInt(r.getFromVertex());
+				buffer.putInt(r.getToVertex());
+				buffer.putInt(r.getQueueCapacity());
+			}
+			buffer.force();
+		} finally {
+			file.close();
+		}
+	}
+}
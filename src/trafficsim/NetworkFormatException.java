@@ -0,0 +1,33 @@
+package trafficsim;
+
+/**
+ * Class NetworkFormatException is thrown when a network file cannot be loaded.  for text
+ * files it carries the number of the offending line, counting from 1
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class NetworkFormatException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+	private String filename;
+	private int line;	// 0 when the problem is not on a particular line
+
+	/*
+	 * NetworkFormatException constructor
+	 *		@param filename the file being loaded
+	 *		@param line the line the problem is on, 0 for none
+	 *		@param message what is wrong
+	 */
+	public NetworkFormatException(String filename, int line, String message) {
+		super(filename + (line > 0 ? ":" + line : "") + ": " + message);
+		this.filename = filename;
+		this.line = line;
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	public int getLine() {
+		return line;
+	}
+}
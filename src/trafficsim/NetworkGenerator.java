@@ -0,0 +1,559 @@
+package trafficsim;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Class NetworkGenerator writes synthetic road networks in the text format, for measuring
+ * how the engines scale from a handful of intersections to millions.  four layouts:
+ *
+ *	grid		a Manhattan grid, every block the same
+ *	radial		a ring city, rings of even spacing joined by roads towards the center
+ *	planar		a random planar graph: a jittered lattice triangulated cell by cell with the
+ *				Delaunay in-circle test, then thinned, keeping it connected
+ *	arterial	a grid of arterials every few blocks, with longer lights and longer queues,
+ *				over local streets thinned into T junctions and dead ends
+ *
+ * every road is two way.  the core is made of switching intersections (and the odd bend),
+ * then sources are hung off it as dead ends until there are the asked for number of sources
+ * per switching intersection, dead ends of the layout counting as sources.  sources go on
+ * the outside of the network first unless spread evenly.  arrival rates and light intervals
+ * are drawn from ranges, and the whole network follows from the seed.  the network is kept
+ * in primitive arrays and streamed out, so a million intersections need no Road objects
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class NetworkGenerator {
+
+	private final static double spacing = 40;	// length of a block
+	private final static double jitter = 0.3;	// how far a planar vertex may stray, in blocks
+	private final static int arterialBlocks = 4;	// blocks between arterials
+	private final static int arterialCapacity = 2 * TrafficSimulatorApp.defaultQueueSize;
+	private final static int maxVertices = 1 << 24;
+
+	private final RandomStream random;
+	private double[] x = new double[1 << 10], y = new double[1 << 10];
+	private double[] weight = new double[1 << 10];	// multiplies the light interval of a vertex
+	private int[] degree = new int[1 << 10];
+	private int vertexCount = 0;
+	private int[] from = new int[1 << 10], to = new int[1 << 10], capacity = new int[1 << 10];
+	private int edgeCount = 0;
+	private int[] parent;	// union-find forest over the vertices, while thinning
+
+	private NetworkGenerator(long seed) {
+		random = new RandomStream(seed);
+	}
+
+	/*
+	 * print the usage message and quit
+	 */
+	private static void usage() {
+		System.out.println(""
+			+ "incorrect usage\n"
+			+ "expected: java NetworkGenerator [options] grid|radial|planar|arterial intersections output_file\n"
+			+ "  intersections is the number of intersections in the core, before sources are added\n"
+			+ "options:\n"
+			+ "  -seed n         seed for the layout and the rates (default " + TrafficSimulatorApp.randomSeed + ")\n"
+			+ "  -sources r      sources per switching intersection (default 0.1)\n"
+			+ "  -spread         hang the sources anywhere, not on the outside first\n"
+			+ "  -rate a[:b]     vehicles per hour entering at each source, or a range (default 30)\n"
+			+ "  -interval a[:b] ticks each light stays green, or a range (default " + (int) TrafficSimulatorApp.defaultSwitchingInterval + ")\n"
+			+ "convert the output with NetworkConverter for the binary format");
+		System.exit(-1);
+	}
+
+	/*
+	 * read a value or a range a:b
+	 *		@return the low and high ends, the same for a single value
+	 */
+	private static double[] parseRange(String arg) {
+		int colon = arg.indexOf(':');
+		double low = Double.parseDouble(colon < 0 ? arg : arg.substring(0, colon));
+		double high = colon < 0 ? low : Double.parseDouble(arg.substring(colon + 1));
+		if (low < 0 || high < low) {
+			throw new NumberFormatException("bad range " + arg);
+		}
+		return new double[] {low, high};
+	}
+
+	/*
+	 * write a range back the way parseRange reads it
+	 */
+	private static String formatRange(double[] range) {
+		String low = range[0] == (long) range[0] ? Long.toString((long) range[0]) : Double.toString(range[0]);
+		String high = range[1] == (long) range[1] ? Long.toString((long) range[1]) : Double.toString(range[1]);
+		return range[0] == range[1] ? low : low + ":" + high;
+	}
+
+	/**
+	 * main method for the generator.
+	 * @param args the options, the layout, the number of intersections and the output file
+	 */
+	public static void main(String[] args) {
+		long seed = TrafficSimulatorApp.randomSeed;
+		double sources = 0.1;
+		boolean spread = false;
+		double[] rate = {30, 30};
+		double[] interval = {TrafficSimulatorApp.defaultSwitchingInterval, TrafficSimulatorApp.defaultSwitchingInterval};
+		String layout = null, filename = null;
+		int size = 0;
+		int i = 0;
+		try {
+			for (; i < args.length && args[i].startsWith("-"); i++) {
+				if (args[i].equals("-spread")) {
+					spread = true;
+				} else if (i + 1 >= args.length) {
+					usage();
+				} else if (args[i].equals("-seed")) {
+					seed = Long.parseLong(args[++i]);
+				} else if (args[i].equals("-sources")) {
+					sources = Double.parseDouble(args[++i]);
+				} else if (args[i].equals("-rate")) {
+					rate = parseRange(args[++i]);
+				} else if (args[i].equals("-interval")) {
+					interval = parseRange(args[++i]);
+				} else {
+					usage();
+				}
+			}
+			if (args.length - i != 3) {
+				usage();
+			}
+			layout = args[i];
+			size = Integer.parseInt(args[i + 1]);
+			filename = args[i + 2];
+		} catch (NumberFormatException nfe) {
+			usage();
+		}
+		if (size < 1 || size > maxVertices / 2 || sources < 0 || interval[0] < 1) {
+			usage();
+		}
+
+		long start = System.nanoTime();
+		NetworkGenerator generator = null;
+		try {
+			generator = generate(layout, size, seed, sources, spread, rate, interval, filename);
+		} catch (IOException ioe) {
+			System.out.println(ioe.getMessage());
+			System.exit(-1);
+		}
+		if (generator == null) {
+			usage();
+		}
+
+		int[] kinds = generator.countKinds();
+		System.out.println("wrote " + generator.vertexCount + " vertices (" + kinds[2] + " switching, " + kinds[1] + " bends, "
+			+ kinds[0] + " sources) and " + generator.edgeCount + " edges to " + filename
+			+ String.format(" in %.1fs", (System.nanoTime() - start) / 1e9));
+	}
+
+	/*
+	 * generate a network and write it to a file
+	 *		@param layout grid, radial, planar or arterial
+	 *		@param size the number of switching intersections
+	 *		@param seed the seed for every random choice
+	 *		@param sources the sources wanted per switching intersection
+	 *		@param spread true to hang the sources anywhere instead of on the outside
+	 *		@param rate the range of arrival rates at the sources
+	 *		@param interval the range of light intervals at the switching intersections
+	 *		@param filename the file to write
+	 *		@return the generator holding the network, or null if the layout is not known
+	 */
+	static NetworkGenerator generate(String layout, int size, long seed, double sources, boolean spread,
+			double[] rate, double[] interval, String filename) throws IOException {
+		NetworkGenerator generator = new NetworkGenerator(seed);
+		if (layout.equals("grid")) {
+			generator.grid(size);
+		} else if (layout.equals("radial")) {
+			generator.radial(size);
+		} else if (layout.equals("planar")) {
+			generator.planar(size);
+		} else if (layout.equals("arterial")) {
+			generator.arterial(size);
+		} else {
+			return null;
+		}
+		generator.addSources(sources, spread, layout.equals("radial"));
+		generator.write(filename, rate, interval, "generated by NetworkGenerator -seed " + seed + " -sources " + sources
+			+ " -rate " + formatRange(rate) + " -interval " + formatRange(interval)
+			+ (spread ? " -spread" : "") + " " + layout + " " + size);
+		return generator;
+	}
+
+	/*
+	 * add a vertex
+	 *		@return its index
+	 */
+	private int addVertex(double vx, double vy) {
+		if (vertexCount == x.length) {
+			int length = x.length * 2;
+			x = Arrays.copyOf(x, length);
+			y = Arrays.copyOf(y, length);
+			weight = Arrays.copyOf(weight, length);
+			degree = Arrays.copyOf(degree, length);
+		}
+		x[vertexCount] = vx;
+		y[vertexCount] = vy;
+		weight[vertexCount] = 1;
+		return vertexCount++;
+	}
+
+	/*
+	 * join two vertices with a road each way.  the two are added together, so at every
+	 * vertex the roads in and the roads out are in the same order, as bends expect
+	 */
+	private void link(int a, int b, int queueCapacity) {
+		if (edgeCount + 2 > from.length) {
+			int length = from.length * 2;
+			from = Arrays.copyOf(from, length);
+			to = Arrays.copyOf(to, length);
+			capacity = Arrays.copyOf(capacity, length);
+		}
+		from[edgeCount] = a;
+		to[edgeCount] = b;
+		capacity[edgeCount++] = queueCapacity;
+		from[edgeCount] = b;
+		to[edgeCount] = a;
+		capacity[edgeCount++] = queueCapacity;
+		degree[a]++;
+		degree[b]++;
+	}
+
+	/*
+	 * the root of a vertex in the union-find forest, halving the path on the way
+	 */
+	private int find(int v) {
+		while (parent[v] != v) {
+			parent[v] = parent[parent[v]];
+			v = parent[v];
+		}
+		return v;
+	}
+
+	/*
+	 * start thinning: every vertex on its own, then the roads already in joined up
+	 */
+	private void startThinning() {
+		parent = new int[vertexCount];
+		for (int v = 0; v < vertexCount; v++) {
+			parent[v] = v;
+		}
+		for (int e = 0; e < edgeCount; e += 2) {
+			parent[find(from[e])] = find(to[e]);
+		}
+	}
+
+	/*
+	 * link two vertices with some probability, or always if they are not yet joined by the
+	 * roads kept so far.  called after startThinning, once for every road that may go
+	 *		@return true if the road was kept
+	 */
+	private boolean maybeLink(int a, int b, double keep, int queueCapacity) {
+		int ra = find(a), rb = find(b);
+		if (ra == rb && random.nextDouble() >= keep) {
+			return false;
+		}
+		parent[ra] = rb;
+		link(a, b, queueCapacity);
+		return true;
+	}
+
+	/*
+	 * the rows and columns of the most square lattice with at least size points
+	 *		@return the columns, the rows follow from size
+	 */
+	private static int columns(int size) {
+		return (int) Math.ceil(Math.sqrt(size));
+	}
+
+	/*
+	 * a Manhattan grid, filled a row at a time so it has exactly size intersections
+	 */
+	private void grid(int size) {
+		int columns = columns(size);
+		for (int v = 0; v < size; v++) {
+			addVertex((v % columns) * spacing, (v / columns) * spacing);
+		}
+		for (int v = 0; v < size; v++) {
+			if (v % columns + 1 < columns && v + 1 < size) {
+				link(v, v + 1, TrafficSimulatorApp.defaultQueueSize);
+			}
+			if (v + columns < size) {
+				link(v, v + columns, TrafficSimulatorApp.defaultQueueSize);
+			}
+		}
+	}
+
+	/*
+	 * a ring city.  ring k is k blocks out and has a vertex about every block round it, each
+	 * joined to the nearest vertex on the ring inside, the first ring to the center.  the
+	 * last ring has the vertices left over, spread evenly round it
+	 */
+	private void radial(int size) {
+		addVertex(0, 0);
+		int innerStart = 0, innerCount = 1;
+		double innerOffset = 0;
+		for (int k = 1; vertexCount < size; k++) {
+			int count = Math.min(Math.max(6, (int) Math.round(2 * Math.PI * k)), size - vertexCount);
+			int ringStart = vertexCount;
+			double offset = random.nextDouble();	// each ring turned a little, so the roads in are not all in line
+			for (int j = 0; j < count; j++) {
+				double turn = (j + offset) / count;	// fraction of the way round
+				int v = addVertex(k * spacing * Math.cos(2 * Math.PI * turn), k * spacing * Math.sin(2 * Math.PI * turn));
+				if (j > 0) {
+					link(v - 1, v, TrafficSimulatorApp.defaultQueueSize);
+				}
+
+				// the nearest on the ring inside
+				int inner = (int) Math.round(turn * innerCount - innerOffset);
+				inner = ((inner % innerCount) + innerCount) % innerCount;
+				link(innerStart + inner, v, TrafficSimulatorApp.defaultQueueSize);
+			}
+			if (count > 2) {
+				link(ringStart + count - 1, ringStart, TrafficSimulatorApp.defaultQueueSize);
+			}
+			innerStart = ringStart;
+			innerCount = count;
+			innerOffset = offset;
+		}
+	}
+
+	/*
+	 * whether d lies inside the circle through a, b and c, taken anticlockwise
+	 */
+	private boolean inCircle(int a, int b, int c, int d) {
+		double adx = x[a] - x[d], ady = y[a] - y[d];
+		double bdx = x[b] - x[d], bdy = y[b] - y[d];
+		double cdx = x[c] - x[d], cdy = y[c] - y[d];
+		double det = (adx * adx + ady * ady) * (bdx * cdy - cdx * bdy)
+			- (bdx * bdx + bdy * bdy) * (adx * cdy - cdx * ady)
+			+ (cdx * cdx + cdy * cdy) * (adx * bdy - bdx * ady);
+		return det > 0;
+	}
+
+	/*
+	 * a random planar graph.  the points of a lattice are moved at random, each cell is cut
+	 * into two triangles along the diagonal the Delaunay in-circle test picks, then roads are
+	 * dropped at random as long as the graph stays connected, most of the diagonals and a
+	 * few of the sides, so the junctions are mostly three to five ways
+	 */
+	private void planar(int size) {
+		int columns = columns(size);
+		for (int v = 0; v < size; v++) {
+			addVertex((v % columns + jitter * (2 * random.nextDouble() - 1)) * spacing,
+				(v / columns + jitter * (2 * random.nextDouble() - 1)) * spacing);
+		}
+		startThinning();
+		for (int v = 0; v < size; v++) {
+			boolean right = v % columns + 1 < columns && v + 1 < size;
+			boolean up = v + columns < size;
+			if (right) {
+				maybeLink(v, v + 1, 0.9, TrafficSimulatorApp.defaultQueueSize);
+			}
+			if (up) {
+				maybeLink(v, v + columns, 0.9, TrafficSimulatorApp.defaultQueueSize);
+			}
+			if (right && v + columns + 1 < size) {
+				// the cell a, b, c, d anticlockwise from this corner
+				int a = v, b = v + 1, c = v + columns + 1, d = v + columns;
+				if (inCircle(a, b, c, d)) {
+					maybeLink(b, d, 0.4, TrafficSimulatorApp.defaultQueueSize);
+				} else {
+					maybeLink(a, c, 0.4, TrafficSimulatorApp.defaultQueueSize);
+				}
+			}
+		}
+		parent = null;
+	}
+
+	/*
+	 * a grid of arterials every few blocks over local streets.  the arterials are all kept,
+	 * and have longer queues, a crossing of two arterials holds each light twice as long and
+	 * a crossing of two local streets half as long.  local streets are thinned like the planar
+	 * graph, which leaves T junctions and the odd dead end
+	 */
+	private void arterial(int size) {
+		int columns = columns(size);
+		for (int v = 0; v < size; v++) {
+			int column = v % columns, row = v / columns;
+			addVertex(column * spacing, row * spacing);
+			boolean onColumn = column % arterialBlocks == 0, onRow = row % arterialBlocks == 0;
+			weight[v] = onColumn && onRow ? 2 : onColumn || onRow ? 1 : 0.5;
+		}
+
+		// the arterials first, so thinning knows what they join
+		for (int v = 0; v < size; v++) {
+			int column = v % columns, row = v / columns;
+			if (row % arterialBlocks == 0 && column + 1 < columns && v + 1 < size) {
+				link(v, v + 1, arterialCapacity);
+			}
+			if (column % arterialBlocks == 0 && v + columns < size) {
+				link(v, v + columns, arterialCapacity);
+			}
+		}
+		startThinning();
+		for (int v = 0; v < size; v++) {
+			int column = v % columns, row = v / columns;
+			if (row % arterialBlocks != 0 && column + 1 < columns && v + 1 < size) {
+				maybeLink(v, v + 1, 0.75, TrafficSimulatorApp.defaultQueueSize);
+			}
+			if (column % arterialBlocks != 0 && v + columns < size) {
+				maybeLink(v, v + columns, 0.75, TrafficSimulatorApp.defaultQueueSize);
+			}
+		}
+		parent = null;
+	}
+
+	/*
+	 * hang sources off the network as dead ends.  on the outside first, a band a block wide
+	 * at a time, in no order within a band, then round again if more are needed.  the bands
+	 * are rings on a ring city and squares on anything laid out on a lattice
+	 *		@param ratio the sources wanted per switching intersection
+	 *		@param spread true to pick the vertices at random instead
+	 *		@param round true to measure the distance out as a circle
+	 */
+	private void addSources(double ratio, boolean spread, boolean round) {
+		int core = vertexCount;
+		int[] kinds = countKinds();
+		int wanted = (int) Math.round(ratio * kinds[2]) - kinds[0];
+		if (wanted <= 0 || core == 0) {
+			return;
+		}
+
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (int v = 0; v < core; v++) {
+			minX = Math.min(minX, x[v]);
+			minY = Math.min(minY, y[v]);
+			maxX = Math.max(maxX, x[v]);
+			maxY = Math.max(maxY, y[v]);
+		}
+		double centerX = (minX + maxX) / 2, centerY = (minY + maxY) / 2;
+
+		// the order the vertices take a source in, furthest out first, or shuffled
+		int[] order = new int[core];
+		if (spread) {
+			for (int v = 0; v < core; v++) {
+				order[v] = v;
+			}
+			for (int v = core - 1; v > 0; v--) {
+				int k = (int) (random.nextDouble() * (v + 1));
+				int t = order[v];
+				order[v] = order[k];
+				order[k] = t;
+			}
+		} else {
+			// sort on the band, then 16 random bits, then the vertex, and read it backwards
+			long[] keys = new long[core];
+			for (int v = 0; v < core; v++) {
+				double dx = Math.abs(x[v] - centerX), dy = Math.abs(y[v] - centerY);
+				long band = (long) ((round ? Math.hypot(dx, dy) : Math.max(dx, dy)) / spacing + 0.5);
+				keys[v] = (band << 40) | ((random.nextLong() & 0xffffL) << 24) | v;
+			}
+			Arrays.sort(keys);
+			for (int k = 0; k < core; k++) {
+				order[k] = (int) (keys[core - 1 - k] & (maxVertices - 1));
+			}
+		}
+
+		for (int k = 0; k < wanted && vertexCount < maxVertices; k++) {
+			int host = order[k % core];
+			int lap = k / core;
+
+			// away from the middle, turned off the line of any road that way
+			double dx = x[host] - centerX, dy = y[host] - centerY;
+			double length = Math.hypot(dx, dy);
+			double angle = (length > 0 ? Math.atan2(dy, dx) : 0) + Math.PI / 4 + lap * Math.PI / 2;
+			int source = addVertex(x[host] + 0.5 * spacing * Math.cos(angle), y[host] + 0.5 * spacing * Math.sin(angle));
+			link(host, source, TrafficSimulatorApp.defaultQueueSize);
+		}
+	}
+
+	/*
+	 * count the vertices of each kind, by the roads in, which are the roads out
+	 *		@return the number of sources, bends and switching intersections
+	 */
+	private int[] countKinds() {
+		int[] kinds = new int[3];
+		for (int v = 0; v < vertexCount; v++) {
+			if (degree[v] == 1) {
+				kinds[0]++;
+			} else if (degree[v] == 2) {
+				kinds[1]++;
+			} else if (degree[v] > 2) {
+				kinds[2]++;
+			}
+		}
+		return kinds;
+	}
+
+	/*
+	 * draw a value from a range
+	 */
+	private double draw(double[] range) {
+		return range[0] == range[1] ? range[0] : range[0] + (range[1] - range[0]) * random.nextDouble();
+	}
+
+	/*
+	 * append a coordinate to one decimal place, which is all the text format needs
+	 */
+	private static void appendTenths(StringBuilder b, double value) {
+		long tenths = Math.round(value * 10);
+		if (tenths < 0) {
+			b.append('-');
+			tenths = -tenths;
+		}
+		b.append(tenths / 10).append('.').append(tenths % 10);
+	}
+
+	/*
+	 * write the network in the text format, moved so every vertex is on screen.  sources get
+	 * an arrival rate, switching intersections a light interval, and bends 0
+	 *		@param filename the file to write
+	 *		@param rate the range of arrival rates
+	 *		@param interval the range of light intervals, before the weight of each vertex
+	 *		@param comment written at the top of the file
+	 */
+	private void write(String filename, double[] rate, double[] interval, String comment) throws IOException {
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (int v = 0; v < vertexCount; v++) {
+			minX = Math.min(minX, x[v]);
+			minY = Math.min(minY, y[v]);
+			maxX = Math.max(maxX, x[v]);
+			maxY = Math.max(maxY, y[v]);
+		}
+		double shiftX = spacing - minX, shiftY = spacing - minY;
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), "US-ASCII"), 1 << 16);
+		try {
+			StringBuilder b = new StringBuilder(64);
+			writer.write("# " + comment + "\n");
+			writer.write(vertexCount + "," + edgeCount + "," + (int) Math.ceil(maxX + shiftX + spacing) + "," + (int) Math.ceil(maxY + shiftY + spacing) + "\n");
+			for (int v = 0; v < vertexCount; v++) {
+				double n = 0;
+				if (degree[v] == 1) {
+					n = draw(rate);
+				} else if (degree[v] > 2) {
+					n = Math.max(1, Math.round(draw(interval) * weight[v]));
+				}
+				b.setLength(0);
+				appendTenths(b, x[v] + shiftX);
+				b.append(',');
+				appendTenths(b, y[v] + shiftY);
+				b.append(',');
+				appendTenths(b, n);
+				b.append('\n');
+				writer.append(b);
+			}
+			for (int e = 0; e < edgeCount; e++) {
+				b.setLength(0);
+				b.append(from[e]).append(',').append(to[e]);
+				if (capacity[e] != TrafficSimulatorApp.defaultQueueSize) {
+					b.append(',').append(capacity[e]);
+				}
+				b.append('\n');
+				writer.append(b);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,437 @@
+package trafficsim;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Class NetworkParser reads the text network format straight from a memory mapped file.
+ * numbers are parsed from the bytes in place, with no String made per line or field.
+ * lines are trimmed, and blank lines and lines starting with # are skipped, the same as
+ * the old line reader.  the header and vertices are read in order, since each vertex takes
+ * the next intersection seed, and the edge section is cut at line breaks into pieces that
+ * are parsed by separate threads and joined back in file order
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class NetworkParser {
+
+	private static final int minChunkBytes = 1 << 20;	// edge sections smaller than this are not worth splitting
+	private static final double[] powersOfTen = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	/**
+	 * Class Tokenizer walks the lines and comma separated fields of a range of the buffer
+	 */
+	private static class Tokenizer {
+
+		private MappedByteBuffer buffer;
+		private int pos;	// start of the next line
+		private int end;	// end of the range
+		private int fieldPos, fieldEnd;	// what is left of the current line, trimmed
+		private int fieldStart;	// start of the field takeField just found
+		private int line = 0;	// lines started in this range
+		private char[] scratch = new char[32];	// for the rare numbers the fast path does not take
+
+		/*
+		 * Tokenizer constructor
+		 *		@param buffer the mapped file
+		 *		@param start the first byte of the range, at the start of a line
+		 *		@param end the byte after the range
+		 */
+		Tokenizer(MappedByteBuffer buffer, int start, int end) {
+			this.buffer = buffer;
+			this.pos = start;
+			this.end = end;
+		}
+
+		/*
+		 * move to the next line that is not blank or a comment
+		 *		@return false at the end of the range
+		 */
+		boolean nextLine() {
+			while (pos < end) {
+				int lineEnd = pos;
+				while (lineEnd < end && buffer.get(lineEnd) != '\n') {
+					lineEnd++;
+				}
+				line++;
+
+				// remove leading/trailing spaces, as String.trim does
+				int s = pos, e = lineEnd;
+				while (s < e && buffer.get(s) <= ' ') {
+					s++;
+				}
+				while (e > s && buffer.get(e - 1) <= ' ') {
+					e--;
+				}
+				pos = lineEnd + 1;
+
+				// skip blank lines and comments
+				if (s == e || buffer.get(s) == '#') {
+					continue;
+				}
+				fieldPos = s;
+				fieldEnd = e;
+				return true;
+			}
+			return false;
+		}
+
+		/*
+		 * return whether the current line has another field
+		 */
+		boolean hasField() {
+			return fieldPos < fieldEnd;
+		}
+
+		/*
+		 * find the next field, trimmed, and move past its comma
+		 *		@param what what the field holds, for the error message
+		 *		@return the end of the field, its start is left in fieldStart
+		 */
+		private int takeField(String what) throws ParseError {
+			if (fieldPos >= fieldEnd) {
+				throw new ParseError(line, "expected " + what + ", found end of line");
+			}
+			int s = fieldPos;
+			while (s < fieldEnd && buffer.get(s) <= ' ') {
+				s++;
+			}
+			int comma = s;
+			while (comma < fieldEnd && buffer.get(comma) != ',') {
+				comma++;
+			}
+			int e = comma;
+			while (e > s && buffer.get(e - 1) <= ' ') {
+				e--;
+			}
+			fieldPos = comma < fieldEnd ? comma + 1 : fieldEnd;
+			fieldStart = s;
+			return e;
+		}
+
+		/*
+		 * return the bytes of a field as text, only used for error messages and the slow path
+		 */
+		private String text(int s, int e) {
+			if (scratch.length < e - s) {
+				scratch = new char[e - s];
+			}
+			for (int i = s; i < e; i++) {
+				scratch[i - s] = (char) (buffer.get(i) & 0xff);
+			}
+			return new String(scratch, 0, e - s);
+		}
+
+		/*
+		 * parse the next field as an int
+		 *		@param what what the field holds, for the error message
+		 */
+		int nextInt(String what) throws ParseError {
+			int e = takeField(what);
+			int s = fieldStart;
+			int i = s;
+			boolean negative = false;
+			if (i < e && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+				negative = buffer.get(i) == '-';
+				i++;
+			}
+			if (i == e) {
+				throw new ParseError(line, "expected " + what + ", found '" + text(s, e) + "'");
+			}
+			long value = 0;
+			for (; i < e; i++) {
+				int digit = buffer.get(i) - '0';
+				if (digit < 0 || digit > 9) {
+					throw new ParseError(line, "expected " + what + ", found '" + text(s, e) + "'");
+				}
+				value = value * 10 + digit;
+				if (value > (long) Integer.MAX_VALUE + 1) {
+					throw new ParseError(line, what + " '" + text(s, e) + "' is out of range");
+				}
+			}
+			if (negative) {
+				value = -value;
+			}
+			if (value > Integer.MAX_VALUE) {
+				throw new ParseError(line, what + " '" + text(s, e) + "' is out of range");
+			}
+			return (int) value;
+		}
+
+		/*
+		 * parse the next field as a double.  plain decimals with up to 18 significant digits and
+		 * a small exponent are exact as one multiply or divide of two exact doubles, which gives
+		 * the same result as Double.parseDouble.  anything else goes to Double.parseDouble
+		 *		@param what what the field holds, for the error message
+		 */
+		double nextDouble(String what) throws ParseError {
+			int e = takeField(what);
+			int s = fieldStart;
+			int i = s;
+			boolean negative = false;
+			if (i < e && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+				negative = buffer.get(i) == '-';
+				i++;
+			}
+			long mantissa = 0;
+			int digits = 0;	// significant digits taken into the mantissa
+			int scale = 0;	// power of ten the mantissa is multiplied by
+			boolean anyDigits = false;
+			boolean fast = true;
+			for (; i < e; i++) {
+				int digit = buffer.get(i) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				anyDigits = true;
+				if (mantissa != 0 || digit != 0) {
+					if (++digits > 18) {
+						fast = false;
+					}
+					mantissa = mantissa * 10 + digit;
+				}
+			}
+			if (i < e && buffer.get(i) == '.') {
+				for (i++; i < e; i++) {
+					int digit = buffer.get(i) - '0';
+					if (digit < 0 || digit > 9) {
+						break;
+					}
+					anyDigits = true;
+					if (mantissa != 0 || digit != 0) {
+						if (++digits > 18) {
+							fast = false;
+						}
+						mantissa = mantissa * 10 + digit;
+					}
+					scale--;
+				}
+			}
+			if (anyDigits && i < e && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+				i++;
+				boolean negativeExponent = false;
+				if (i < e && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+					negativeExponent = buffer.get(i) == '-';
+					i++;
+				}
+				int exponent = 0;
+				int start = i;
+				for (; i < e; i++) {
+					int digit = buffer.get(i) - '0';
+					if (digit < 0 || digit > 9 || exponent > 100000) {
+						break;
+					}
+					exponent = exponent * 10 + digit;
+				}
+				if (i == start) {
+					fast = false;
+				}
+				scale += negativeExponent ? -exponent : exponent;
+			}
+
+			if (fast && anyDigits && i == e) {
+				double value;
+				if (mantissa == 0) {
+					value = 0;
+				} else if (mantissa < (1l << 53) && scale >= -22 && scale <= 22) {
+					value = scale < 0 ? mantissa / powersOfTen[-scale] : mantissa * powersOfTen[scale];
+				} else {
+					return slowDouble(s, e, what);
+				}
+				return negative ? -value : value;
+			}
+			return slowDouble(s, e, what);
+		}
+
+		/*
+		 * parse a field Double.parseDouble's way, for long, huge, tiny or odd numbers
+		 */
+		private double slowDouble(int s, int e, String what) throws ParseError {
+			String field = text(s, e);
+			try {
+				return Double.parseDouble(field);
+			} catch (NumberFormatException nfe) {
+				throw new ParseError(line, "expected " + what + ", found '" + field + "'");
+			}
+		}
+	}
+
+	/**
+	 * Class ParseError is a problem found by a Tokenizer, with the line counted from the
+	 * start of its range.  it becomes a NetworkFormatException once the line is known in
+	 * the whole file
+	 */
+	private static class ParseError extends Exception {
+
+		private static final long serialVersionUID = 1L;
+		private int line;
+
+		ParseError(int line, String message) {
+			super(message);
+			this.line = line;
+		}
+	}
+
+	/**
+	 * Class EdgeChunk parses the edges in one piece of the edge section
+	 */
+	private static class EdgeChunk implements Runnable {
+
+		private Tokenizer tokenizer;
+		private int numVertices;
+		private Road[] roads = new Road[64];
+		private int count = 0;
+		private ParseError error;
+
+		EdgeChunk(MappedByteBuffer buffer, int start, int end, int numVertices) {
+			this.tokenizer = new Tokenizer(buffer, start, end);
+			this.numVertices = numVertices;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (tokenizer.nextLine()) {
+					int from = tokenizer.nextInt("from vertex");
+					int to = tokenizer.nextInt("to vertex");
+					int capacity = tokenizer.hasField() ? tokenizer.nextInt("queue capacity") : TrafficSimulatorApp.defaultQueueSize;
+					if (from < 0 || from >= numVertices || to < 0 || to >= numVertices) {
+						throw new ParseError(tokenizer.line, "edge " + from + "," + to + " does not join two of the " + numVertices + " vertices");
+					}
+					if (capacity <= 0) {
+						throw new ParseError(tokenizer.line, "queue capacity " + capacity + " is not positive");
+					}
+					if (count == roads.length) {
+						Road[] larger = new Road[roads.length * 2];
+						System.arraycopy(roads, 0, larger, 0, count);
+						roads = larger;
+					}
+					roads[count++] = new Road(from, to, capacity);
+				}
+			} catch (ParseError pe) {
+				error = pe;
+			}
+		}
+	}
+
+	/*
+	 * read a text network
+	 *		@param filename the name of the file to read
+	 *		@return the network read
+	 *		@throws NetworkFormatException if the file cannot be read or a line cannot be parsed
+	 */
+	protected static NetworkData read(String filename) throws NetworkFormatException {
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(filename, "r");
+			long length = file.length();
+			if (length > Integer.MAX_VALUE) {
+				throw new NetworkFormatException(filename, 0, "text networks over 2GB are not supported, convert to " + NetworkFile.extension);
+			}
+			MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+			return parse(filename, buffer, (int) length);
+		} catch (IOException ioe) {
+			throw new NetworkFormatException(filename, 0, ioe.getMessage() + " (cwd:" + System.getProperty("user.dir") + ")");
+		} finally {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException ioe) {
+				}
+			}
+		}
+	}
+
+	/*
+	 * parse the mapped file
+	 */
+	private static NetworkData parse(String filename, MappedByteBuffer buffer, int length) throws NetworkFormatException {
+		NetworkData network = new NetworkData();
+		Tokenizer t = new Tokenizer(buffer, 0, length);
+		int numVertices, numEdges;
+
+		try {
+			// here we are on the information line. we want to extract the number of
+			// vertices, edges, and the screen dimensions
+			if (!t.nextLine()) {
+				throw new ParseError(t.line, "no header line");
+			}
+			numVertices = t.nextInt("vertex count");
+			numEdges = t.nextInt("edge count");
+			network.screenWidth = t.nextInt("screen width");
+			network.screenHeight = t.nextInt("screen height");
+			if (numVertices < 0 || numEdges < 0) {
+				throw new ParseError(t.line, "negative vertex or edge count");
+			}
+
+			// the vertices come next, one per line.  they are made in file order so each
+			// gets the same intersection seed as always
+			network.intersections.ensureCapacity(numVertices);
+			for (int i = 0; i < numVertices; i++) {
+				if (!t.nextLine()) {
+					throw new ParseError(t.line, "found " + i + " of the " + numVertices + " vertices in the header");
+				}
+				double x = t.nextDouble("x");
+				double y = t.nextDouble("y");
+				double n = t.nextDouble("arrival rate");
+				network.intersections.add(new SimpleIntersection(x, y, n));
+			}
+		} catch (ParseError pe) {
+			throw new NetworkFormatException(filename, pe.line, pe.getMessage());
+		}
+
+		// the rest is edges, cut into pieces at line breaks
+		int start = t.pos;
+		int pieces = Math.max(1, Math.min(Integer.getInteger("trafficsim.parseThreads", Runtime.getRuntime().availableProcessors()),
+			(length - start) / minChunkBytes));
+		EdgeChunk[] chunks = new EdgeChunk[pieces];
+		int chunkStart = start;
+		for (int k = 0; k < pieces; k++) {
+			int chunkEnd = k == pieces - 1 ? length : (int) (start + (long) (length - start) * (k + 1) / pieces);
+			while (chunkEnd < length && chunkEnd > chunkStart && buffer.get(chunkEnd - 1) != '\n') {
+				chunkEnd++;
+			}
+			chunks[k] = new EdgeChunk(buffer, chunkStart, Math.max(chunkEnd, chunkStart), numVertices);
+			chunkStart = Math.max(chunkEnd, chunkStart);
+		}
+
+		// the first piece is parsed on this thread while the others run
+		Thread[] threads = new Thread[pieces];
+		for (int k = 1; k < pieces; k++) {
+			threads[k] = new Thread(chunks[k], "parser-" + k);
+			threads[k].setDaemon(true);
+			threads[k].start();
+		}
+		chunks[0].run();
+		for (int k = 1; k < pieces; k++) {
+			try {
+				threads[k].join();
+			} catch (InterruptedException ie) {
+				throw new NetworkFormatException(filename, 0, "interrupted while parsing");
+			}
+		}
+
+		// report the first error in the file, and join the pieces in order
+		int linesBefore = t.line;
+		int total = 0;
+		for (int k = 0; k < pieces; k++) {
+			if (chunks[k].error != null) {
+				throw new NetworkFormatException(filename, linesBefore + chunks[k].error.line, chunks[k].error.getMessage());
+			}
+			linesBefore += chunks[k].tokenizer.line;
+			total += chunks[k].count;
+		}
+		network.roads.ensureCapacity(total);
+		for (int k = 0; k < pieces; k++) {
+			for (int i = 0; i < chunks[k].count; i++) {
+				network.roads.add(chunks[k].roads[i]);
+			}
+		}
+
+		SimFileHandler.printSettings(numVertices, numEdges, network.screenWidth, network.screenHeight);
+		return network;
+	}
+}
@@ -0,0 +1,101 @@
+package trafficsim;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Class NetworkPartitioner splits the intersections of the loaded network into a number of
+ * connected, similarly sized regions.  regions are grown breadth first from seed vertices
+ * taken in order of x coordinate, so each region is a compact patch of the map and few
+ * roads cross between regions
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class NetworkPartitioner {
+
+	/*
+	 * partition the current network
+	 *		@param parts the number of regions to make
+	 *		@return an array holding the region of every vertex, 0..parts-1
+	 */
+	public static int[] partition(int parts) {
+		int numVertices = TrafficSimulatorApp.intersections.size();
+		int[] part = new int[numVertices];
+		Arrays.fill(part, -1);
+
+		// seeds are taken left to right, then bottom to top
+		Integer[] order = new Integer[numVertices];
+		for (int v = 0; v < numVertices; v++) {
+			order[v] = v;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				Intersection ia = TrafficSimulatorApp.intersections.get(a);
+				Intersection ib = TrafficSimulatorApp.intersections.get(b);
+				if (ia.getX() != ib.getX()) {
+					return Double.compare(ia.getX(), ib.getX());
+				}
+				if (ia.getY() != ib.getY()) {
+					return Double.compare(ia.getY(), ib.getY());
+				}
+				return a - b;
+			}
+		});
+
+		int target = (numVertices + parts - 1) / Math.max(parts, 1);
+		int[] bfs = new int[numVertices];
+		int current = 0;
+		int currentSize = 0;
+		int nextSeed = 0;
+
+		while (true) {
+			// find the next unassigned seed
+			while (nextSeed < numVertices && part[order[nextSeed]] >= 0) {
+				nextSeed++;
+			}
+			if (nextSeed == numVertices) {
+				break;
+			}
+
+			// grow the current region from the seed
+			int head = 0;
+			int tail = 0;
+			bfs[tail++] = order[nextSeed];
+			part[order[nextSeed]] = current;
+			currentSize++;
+			while (head < tail && currentSize < target) {
+				int v = bfs[head++];
+				int inDegree = AdjacencyIndex.getInDegree(v);
+				int outDegree = AdjacencyIndex.getOutDegree(v);
+				for (int k = 0; k < inDegree + outDegree && currentSize < target; k++) {
+					int w = k < inDegree
+						? TrafficSimulatorApp.roads.get(AdjacencyIndex.getInRoad(v, k)).getFromVertex()
+						: TrafficSimulatorApp.roads.get(AdjacencyIndex.getOutRoad(v, k - inDegree)).getToVertex();
+					if (part[w] < 0) {
+						part[w] = current;
+						currentSize++;
+						bfs[tail++] = w;
+					}
+				}
+			}
+
+			// move on to the next region once this one is full
+			if (currentSize >= target && current < parts - 1) {
+				current++;
+				currentSize = 0;
+			}
+		}
+		return part;
+	}
+
+	/*
+	 * return the region owning a road.  a road belongs to the region of the vertex it leads
+	 * to, since that is where its queue is emptied
+	 *		@param part the vertex regions returned by partition()
+	 *		@param edge the index of the road
+	 *		@return the region of the road
+	 */
+	public static int getRoadPartition(int[] part, int edge) {
+		return part[TrafficSimulatorApp.roads.get(edge).getToVertex()];
+	}
+}
@@ -0,0 +1,22 @@
+package trafficsim;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Class NullOutputStream throws away everything written to it, for silencing System.out
+ * where the chatter of the loader or a worker would get in the way
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class NullOutputStream extends OutputStream {
+
+	protected final static PrintStream printStream = new PrintStream(new NullOutputStream());
+
+	@Override
+	public void write(int b) {
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+	}
+}
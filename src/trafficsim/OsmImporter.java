@@ -0,0 +1,675 @@
+package trafficsim;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Class OsmImporter builds a road network from an OpenStreetMap XML extract (.osm).  the
+ * file is streamed twice with a StAX reader and never held in memory.  the first pass
+ * keeps the highway ways a car can drive on, numbering the nodes they use; the second
+ * picks up the coordinates of just those nodes.  nodes used by only one way in the middle
+ * of it are then collapsed into the road through them, the rest become intersections, and
+ * each road is given a queue capacity from its length.  as the simulator runs a vertex by
+ * its in degree, one-way streets passing through a vertex are merged into one road and the
+ * roads are made two-way at any junction it could not run, like a one-way merge.  lat/lon
+ * is projected onto the screen with north at the top
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class OsmImporter {
+
+	private static final double earthRadius = 6371008.8;	// metres
+	private static final double vehicleSpacing = 7.5;	// metres of lane per queued vehicle
+	private static final int margin = 10;	// pixels left clear around the network
+	private static final byte forward = 1, backward = 2;	// the directions a way can be driven
+	private static final HashSet<String> drivable = new HashSet<String>();
+
+	static {
+		String[] highways = {"motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
+			"residential", "living_street", "service", "road", "motorway_link", "trunk_link",
+			"primary_link", "secondary_link", "tertiary_link"};
+		for (String highway : highways) {
+			drivable.add(highway);
+		}
+	}
+
+	private String filename;
+	private LongIntMap nodeIndex = new LongIntMap(1 << 16);	// osm node id -> node number
+	private byte[] uses = new byte[1 << 16];	// how many times each node is used, stopping at 3
+	private int[] lat = new int[1 << 16], lon = new int[1 << 16];	// in 1e-7 degrees, as osm stores them
+	private boolean[] located = new boolean[1 << 16];	// whether the extract has the node
+	private int[] wayNodes = new int[1 << 16];	// node numbers of every kept way, one after another
+	private int wayNodeCount = 0;
+	private int[] wayStart = new int[1 << 10];	// the nodes of way w are wayNodes[wayStart[w]..wayStart[w+1]-1]
+	private byte[] wayDirections = new byte[1 << 10];
+	private byte[] wayLanes = new byte[1 << 10];	// lanes each way, per direction
+	private int wayCount = 0;
+
+	// the vertices and roads built from the ways, with the roads in and out of each vertex in linked lists
+	private double[] vertexX = new double[0], vertexY = new double[0];
+	private int[] firstIn = new int[0], firstOut = new int[0];	// a road into and out of each vertex, -1 for none
+	private int[] inDegree = new int[0], outDegree = new int[0];
+	private int vertexCount = 0;
+	private int[] roadFrom = new int[0], roadTo = new int[0], roadCapacity = new int[0];
+	private int[] nextIn = new int[0], nextOut = new int[0];	// the next road into the vertex a road goes to, and out of the one it comes from
+	private boolean[] removed = new boolean[0];
+	private int roadCount = 0;
+	private LongIntMap edges = new LongIntMap();	// from << 32 | to, so parallel ways give one road
+
+	// the way being read in the first pass
+	private long[] refs = new long[256];
+	private int refCount;
+	private boolean highway;
+	private byte directions;
+	private int lanes;
+
+	private OsmImporter(String filename) {
+		this.filename = filename;
+	}
+
+	/*
+	 * print the usage message and quit
+	 */
+	private static void usage() {
+		System.out.println(""
+			+ "incorrect usage\n"
+			+ "expected: java OsmImporter input_file.osm output_file [width [arrivalRate]]\n"
+			+ "  output_file ending in " + NetworkFile.extension + " is written in the binary format, otherwise as text\n"
+			+ "  width is the screen width in pixels the network is scaled to, 1000 if not given\n"
+			+ "  arrivalRate is the vehicles per hour entering at each intersection, 30 if not given");
+		System.exit(-1);
+	}
+
+	/**
+	 * main method for the importer.
+	 * @param args the input and output file names, then the optional width and arrival rate
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2 || args.length > 4) {
+			usage();
+		}
+		int width = 1000;
+		double arrivalRate = 30.0;
+		try {
+			if (args.length > 2) {
+				width = Integer.parseInt(args[2]);
+			}
+			if (args.length > 3) {
+				arrivalRate = Double.parseDouble(args[3]);
+			}
+		} catch (NumberFormatException nfe) {
+			usage();
+		}
+		if (width <= 2 * margin) {
+			usage();
+		}
+
+		TrafficSimulatorApp.initialize();
+		long start = System.nanoTime();
+		NetworkData network;
+		try {
+			network = read(args[0], width, arrivalRate);
+		} catch (NetworkFormatException nfe) {
+			System.out.println(nfe.getMessage());
+			System.exit(-1);
+			return;
+		}
+		network.install();
+		SimFileHandler.writeToOutput(args[1]);
+		System.out.println("wrote " + TrafficSimulatorApp.intersections.size() + " vertices and "
+			+ TrafficSimulatorApp.roads.size() + " edges to " + args[1]
+			+ String.format(" in %.1fs", (System.nanoTime() - start) / 1e9));
+	}
+
+	/*
+	 * read an OpenStreetMap extract into a network
+	 *		@param filename the name of the .osm file
+	 *		@param width the screen width to scale the network to
+	 *		@param arrivalRate the arrival rate given to every intersection
+	 *		@return the network read
+	 *		@throws NetworkFormatException if the file cannot be read or is not well formed
+	 */
+	protected static NetworkData read(String filename, int width, double arrivalRate) throws NetworkFormatException {
+		OsmImporter importer = new OsmImporter(filename);
+		importer.readWays();
+		importer.readNodes();
+		return importer.build(width, arrivalRate);
+	}
+
+	/*
+	 * open a streaming reader over the file, with DTDs and external entities turned off
+	 */
+	private XMLStreamReader open(InputStream in) throws XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		return factory.createXMLStreamReader(in);
+	}
+
+	/*
+	 * turn a failure of the reader into a format error at the line it got to
+	 */
+	private NetworkFormatException failure(XMLStreamReader reader, String message) {
+		int at = message == null ? -1 : message.indexOf("Message: ");
+		if (at >= 0) {
+			message = message.substring(at + "Message: ".length());	// the line is given already
+		}
+		int line = reader == null ? 0 : reader.getLocation().getLineNumber();
+		return new NetworkFormatException(filename, Math.max(line, 0), message);
+	}
+
+	/*
+	 * first pass, keep the drivable ways and number the nodes they use
+	 */
+	private void readWays() throws NetworkFormatException {
+		InputStream in = null;
+		XMLStreamReader reader = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+			reader = open(in);
+			boolean inWay = false;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = reader.getLocalName();
+					if (name.equals("way")) {
+						inWay = true;
+						refCount = 0;
+						highway = false;
+						directions = forward | backward;
+						lanes = 0;
+					} else if (inWay && name.equals("nd")) {
+						addRef(Long.parseLong(reader.getAttributeValue(null, "ref")));
+					} else if (inWay && name.equals("tag")) {
+						readWayTag(reader.getAttributeValue(null, "k"), reader.getAttributeValue(null, "v"));
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT && inWay && reader.getLocalName().equals("way")) {
+					inWay = false;
+					if (highway) {
+						addWay();
+					}
+				}
+			}
+		} catch (XMLStreamException xse) {
+			throw failure(reader, xse.getMessage());
+		} catch (NumberFormatException nfe) {
+			throw failure(reader, "bad node reference, " + nfe.getMessage());
+		} catch (IOException ioe) {
+			throw new NetworkFormatException(filename, 0, ioe.getMessage());
+		} finally {
+			close(reader, in);
+		}
+	}
+
+	/*
+	 * add a node reference to the way being read, dropping a node repeated in place
+	 */
+	private void addRef(long ref) {
+		if (refCount > 0 && refs[refCount - 1] == ref) {
+			return;
+		}
+		if (refCount == refs.length) {
+			long[] larger = new long[refs.length * 2];
+			System.arraycopy(refs, 0, larger, 0, refCount);
+			refs = larger;
+		}
+		refs[refCount++] = ref;
+	}
+
+	/*
+	 * note what a tag says about the way being read
+	 */
+	private void readWayTag(String key, String value) {
+		if (key == null || value == null) {
+			return;
+		}
+		if (key.equals("highway")) {
+			highway = drivable.contains(value);
+			if (value.equals("motorway")) {
+				directions = forward;
+			}
+		} else if (key.equals("oneway")) {
+			if (value.equals("yes") || value.equals("true") || value.equals("1")) {
+				directions = forward;
+			} else if (value.equals("-1") || value.equals("reverse")) {
+				directions = backward;
+			} else if (value.equals("no") || value.equals("false") || value.equals("0")) {
+				directions = forward | backward;
+			}
+		} else if (key.equals("junction") && value.equals("roundabout")) {
+			directions = forward;
+		} else if (key.equals("lanes")) {
+			try {
+				lanes = Integer.parseInt(value.trim());
+			} catch (NumberFormatException nfe) {
+				lanes = 0;
+			}
+		}
+	}
+
+	/*
+	 * keep the way just read, numbering its nodes and counting their uses.  the two ends
+	 * count twice so they are always kept, as does the node half way round a closed way,
+	 * so a loop does not collapse to a single vertex
+	 */
+	private void addWay() {
+		if (refCount < 2) {
+			return;
+		}
+		if (wayCount + 1 >= wayStart.length) {
+			int[] larger = new int[wayStart.length * 2];
+			System.arraycopy(wayStart, 0, larger, 0, wayStart.length);
+			wayStart = larger;
+			byte[] largerBytes = new byte[larger.length];
+			System.arraycopy(wayDirections, 0, largerBytes, 0, wayCount);
+			wayDirections = largerBytes;
+			largerBytes = new byte[larger.length];
+			System.arraycopy(wayLanes, 0, largerBytes, 0, wayCount);
+			wayLanes = largerBytes;
+		}
+		if (wayNodeCount + refCount > wayNodes.length) {
+			int[] larger = new int[Math.max(wayNodes.length * 2, wayNodeCount + refCount)];
+			System.arraycopy(wayNodes, 0, larger, 0, wayNodeCount);
+			wayNodes = larger;
+		}
+
+		int perDirection = directions == (forward | backward) ? lanes / 2 : lanes;
+		wayStart[wayCount] = wayNodeCount;
+		wayDirections[wayCount] = directions;
+		wayLanes[wayCount] = (byte) Math.max(1, Math.min(perDirection, 8));
+		wayCount++;
+		for (int i = 0; i < refCount; i++) {
+			int node = nodeIndex.number(refs[i]);
+			if (node == uses.length) {
+				growNodes();
+			}
+			use(node);
+			wayNodes[wayNodeCount++] = node;
+		}
+		use(wayNodes[wayStart[wayCount - 1]]);
+		use(wayNodes[wayNodeCount - 1]);
+		if (refs[0] == refs[refCount - 1] && refCount > 2) {
+			use(wayNodes[wayStart[wayCount - 1] + refCount / 2]);
+		}
+		wayStart[wayCount] = wayNodeCount;
+	}
+
+	/*
+	 * count a use of a node, stopping at 3 so the count fits a byte
+	 */
+	private void use(int node) {
+		if (uses[node] < 3) {
+			uses[node]++;
+		}
+	}
+
+	/*
+	 * double the per node arrays
+	 */
+	private void growNodes() {
+		int length = uses.length * 2;
+		byte[] largerUses = new byte[length];
+		System.arraycopy(uses, 0, largerUses, 0, uses.length);
+		uses = largerUses;
+		int[] larger = new int[length];
+		System.arraycopy(lat, 0, larger, 0, lat.length);
+		lat = larger;
+		larger = new int[length];
+		System.arraycopy(lon, 0, larger, 0, lon.length);
+		lon = larger;
+		boolean[] largerLocated = new boolean[length];
+		System.arraycopy(located, 0, largerLocated, 0, located.length);
+		located = largerLocated;
+	}
+
+	/*
+	 * second pass, pick up the coordinates of the nodes the kept ways use
+	 */
+	private void readNodes() throws NetworkFormatException {
+		InputStream in = null;
+		XMLStreamReader reader = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+			reader = open(in);
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("node")) {
+					int node = nodeIndex.get(Long.parseLong(reader.getAttributeValue(null, "id")), -1);
+					if (node >= 0) {
+						lat[node] = (int) Math.round(Double.parseDouble(reader.getAttributeValue(null, "lat")) * 1e7);
+						lon[node] = (int) Math.round(Double.parseDouble(reader.getAttributeValue(null, "lon")) * 1e7);
+						located[node] = true;
+					}
+				}
+			}
+		} catch (XMLStreamException xse) {
+			throw failure(reader, xse.getMessage());
+		} catch (NumberFormatException nfe) {
+			throw failure(reader, "bad node, " + nfe.getMessage());
+		} catch (NullPointerException npe) {
+			throw failure(reader, "node without an id, lat or lon");
+		} catch (IOException ioe) {
+			throw new NetworkFormatException(filename, 0, ioe.getMessage());
+		} finally {
+			close(reader, in);
+		}
+	}
+
+	/*
+	 * close the reader and the stream under it, ignoring any failure to
+	 */
+	private void close(XMLStreamReader reader, InputStream in) {
+		try {
+			if (reader != null) {
+				reader.close();
+			}
+			if (in != null) {
+				in.close();
+			}
+		} catch (XMLStreamException xse) {
+		} catch (IOException ioe) {
+		}
+	}
+
+	/*
+	 * collapse the kept ways into intersections and roads
+	 */
+	private NetworkData build(int width, double arrivalRate) throws NetworkFormatException {
+		int nodes = nodeIndex.size();
+
+		// a way running off the edge of the extract ends at the last node it has
+		for (int w = 0; w < wayCount; w++) {
+			for (int i = wayStart[w]; i < wayStart[w + 1]; i++) {
+				int node = wayNodes[i];
+				if (located[node] && ((i > wayStart[w] && !located[wayNodes[i - 1]])
+					|| (i + 1 < wayStart[w + 1] && !located[wayNodes[i + 1]]))) {
+					uses[node] = 3;
+				}
+			}
+		}
+
+		// project around the middle of the nodes that are there
+		int minLat = Integer.MAX_VALUE, maxLat = Integer.MIN_VALUE;
+		int minLon = Integer.MAX_VALUE, maxLon = Integer.MIN_VALUE;
+		for (int node = 0; node < nodes; node++) {
+			if (located[node]) {
+				minLat = Math.min(minLat, lat[node]);
+				maxLat = Math.max(maxLat, lat[node]);
+				minLon = Math.min(minLon, lon[node]);
+				maxLon = Math.max(maxLon, lon[node]);
+			}
+		}
+		if (minLat > maxLat) {
+			throw new NetworkFormatException(filename, 0, "no drivable roads found");
+		}
+		double metresPerUnit = Math.toRadians(1e-7) * earthRadius;	// per 1e-7 degree of latitude
+		double lonFactor = Math.cos(Math.toRadians((minLat + (double) maxLat) / 2 * 1e-7));
+		double extentX = (maxLon - (double) minLon) * metresPerUnit * lonFactor;
+		double extentY = (maxLat - (double) minLat) * metresPerUnit;
+		double scale = (width - 2 * margin) / Math.max(extentX > 0 ? extentX : extentY, 1.0);	// pixels per metre
+		int height = (int) Math.ceil(extentY * scale) + 2 * margin;
+
+		// lay out the vertices and roads, then make sure every vertex is one the simulator can run
+		int[] vertex = new int[nodes];
+		for (int node = 0; node < nodes; node++) {
+			vertex[node] = -1;
+		}
+		for (int w = 0; w < wayCount; w++) {
+			int last = -1;	// the last vertex passed
+			double length = 0;	// metres since it
+			for (int i = wayStart[w]; i < wayStart[w + 1]; i++) {
+				int node = wayNodes[i];
+				if (!located[node]) {
+					last = -1;
+					continue;
+				}
+				if (last >= 0) {
+					int previous = wayNodes[i - 1];
+					double dx = (lon[node] - (double) lon[previous]) * metresPerUnit * lonFactor;
+					double dy = (lat[node] - (double) lat[previous]) * metresPerUnit;
+					length += Math.sqrt(dx * dx + dy * dy);
+				}
+				if (uses[node] < 2) {
+					continue;
+				}
+				if (vertex[node] < 0) {
+					double x = margin + (lon[node] - (double) minLon) * metresPerUnit * lonFactor * scale;
+					double y = margin + (maxLat - (double) lat[node]) * metresPerUnit * scale;
+					vertex[node] = addVertex(Math.round(x * 10) / 10.0, Math.round(y * 10) / 10.0);
+				}
+				if (last >= 0 && last != vertex[node]) {
+					int capacity = (int) Math.max(1, Math.round(length * wayLanes[w] / vehicleSpacing));
+					if ((wayDirections[w] & forward) != 0) {
+						addRoad(last, vertex[node], capacity);
+					}
+					if ((wayDirections[w] & backward) != 0) {
+						addRoad(vertex[node], last, capacity);
+					}
+				}
+				last = vertex[node];
+				length = 0;
+			}
+		}
+		int merged = mergeOneWayThroughs();
+		int reversed = repairJunctions();
+		if (merged > 0 || reversed > 0) {
+			System.out.println("merged " + merged + " one-way through nodes into the roads across them, added "
+				+ reversed + " reverse roads at junctions the simulator cannot run one-way");
+		}
+
+		// number the vertices left with roads in the order they were made
+		NetworkData network = new NetworkData();
+		network.screenWidth = width;
+		network.screenHeight = height;
+		int[] number = new int[vertexCount];
+		for (int v = 0; v < vertexCount; v++) {
+			number[v] = -1;
+			if (inDegree[v] + outDegree[v] > 0) {
+				number[v] = network.intersections.size();
+				network.intersections.add(new SimpleIntersection(vertexX[v], vertexY[v], arrivalRate));
+			}
+		}
+		for (int r = 0; r < roadCount; r++) {
+			if (!removed[r]) {
+				network.roads.add(new Road(number[roadFrom[r]], number[roadTo[r]], roadCapacity[r]));
+			}
+		}
+		if (network.roads.isEmpty()) {
+			throw new NetworkFormatException(filename, 0, "no drivable roads found");
+		}
+		SimFileHandler.printSettings(network.intersections.size(), network.roads.size(), width, height);
+		return network;
+	}
+
+	/*
+	 * add a vertex at a point on the screen
+	 *		@return the number of the vertex
+	 */
+	private int addVertex(double x, double y) {
+		if (vertexCount == vertexX.length) {
+			int length = Math.max(16, vertexCount * 2);
+			vertexX = Arrays.copyOf(vertexX, length);
+			vertexY = Arrays.copyOf(vertexY, length);
+			firstIn = Arrays.copyOf(firstIn, length);
+			firstOut = Arrays.copyOf(firstOut, length);
+			inDegree = Arrays.copyOf(inDegree, length);
+			outDegree = Arrays.copyOf(outDegree, length);
+		}
+		vertexX[vertexCount] = x;
+		vertexY[vertexCount] = y;
+		firstIn[vertexCount] = -1;
+		firstOut[vertexCount] = -1;
+		return vertexCount++;
+	}
+
+	/*
+	 * add a road unless there already is one between the same two vertices
+	 *		@return true if the road was added
+	 */
+	private boolean addRoad(int from, int to, int capacity) {
+		long key = ((long) from << 32) | to;
+		int existing = edges.get(key, -1);
+		if (existing >= 0 && !removed[existing]) {
+			return false;
+		}
+		if (roadCount == roadFrom.length) {
+			int length = Math.max(16, roadCount * 2);
+			roadFrom = Arrays.copyOf(roadFrom, length);
+			roadTo = Arrays.copyOf(roadTo, length);
+			roadCapacity = Arrays.copyOf(roadCapacity, length);
+			nextIn = Arrays.copyOf(nextIn, length);
+			nextOut = Arrays.copyOf(nextOut, length);
+			removed = Arrays.copyOf(removed, length);
+		}
+		int r = roadCount++;
+		edges.put(key, r);
+		roadFrom[r] = from;
+		roadTo[r] = to;
+		roadCapacity[r] = capacity;
+		nextOut[r] = firstOut[from];
+		firstOut[from] = r;
+		outDegree[from]++;
+		nextIn[r] = firstIn[to];
+		firstIn[to] = r;
+		inDegree[to]++;
+		return true;
+	}
+
+	/*
+	 * take a road out of the lists of the vertices at its ends
+	 */
+	private void removeRoad(int r) {
+		int from = roadFrom[r], to = roadTo[r];
+		if (firstOut[from] == r) {
+			firstOut[from] = nextOut[r];
+		} else {
+			int k = firstOut[from];
+			while (nextOut[k] != r) {
+				k = nextOut[k];
+			}
+			nextOut[k] = nextOut[r];
+		}
+		if (firstIn[to] == r) {
+			firstIn[to] = nextIn[r];
+		} else {
+			int k = firstIn[to];
+			while (nextIn[k] != r) {
+				k = nextIn[k];
+			}
+			nextIn[k] = nextIn[r];
+		}
+		outDegree[from]--;
+		inDegree[to]--;
+		removed[r] = true;
+	}
+
+	/*
+	 * a vertex with one road in and one out to somewhere else is a one-way street passing
+	 * through, where two one-way ways meet end to end.  with in degree 1 the simulator would
+	 * take it for a sink and remove every car reaching it, so replace the two roads with one
+	 * across it, or drop them if that road is there already
+	 *		@return the number of vertices merged away
+	 */
+	private int mergeOneWayThroughs() {
+		int[] work = new int[vertexCount];
+		int workCount = 0;
+		for (int v = 0; v < vertexCount; v++) {
+			work[workCount++] = v;
+		}
+		boolean[] queued = new boolean[vertexCount];
+		Arrays.fill(queued, true);
+		int merged = 0;
+		while (workCount > 0) {
+			int v = work[--workCount];
+			queued[v] = false;
+			if (inDegree[v] != 1 || outDegree[v] != 1) {
+				continue;
+			}
+			int in = firstIn[v], out = firstOut[v];
+			int from = roadFrom[in], to = roadTo[out];
+			if (from == to) {
+				continue;	// the end of a two-way road, a source
+			}
+			removeRoad(in);
+			removeRoad(out);
+			addRoad(from, to, roadCapacity[in] + roadCapacity[out]);
+			merged++;
+			// dropping a road that was there already changes the ends
+			if (!queued[from]) {
+				queued[from] = true;
+				work[workCount++] = from;
+			}
+			if (!queued[to]) {
+				queued[to] = true;
+				work[workCount++] = to;
+			}
+		}
+		return merged;
+	}
+
+	/*
+	 * return whether the simulator can run a vertex: a source and sink takes one road in and
+	 * sends one back, a bend takes two in and two out, and a switching intersection needs
+	 * more than two in and at least two ways out.  a vertex without roads is dropped anyway
+	 */
+	private boolean isRunnable(int v) {
+		int in = inDegree[v], out = outDegree[v];
+		if (in == 0) {
+			return out == 0;
+		}
+		if (in == 1) {
+			return out == 1 && roadTo[firstOut[v]] == roadFrom[firstIn[v]];
+		}
+		if (in == 2) {
+			return out == 2;
+		}
+		return out >= 2;
+	}
+
+	/*
+	 * make every road at a vertex the simulator cannot run two-way, which leaves it a source,
+	 * a bend or a switching intersection by its number of neighbours.  the reverse roads change
+	 * the degrees of the neighbours, so they are looked at again
+	 *		@return the number of reverse roads added
+	 */
+	private int repairJunctions() {
+		int[] work = new int[vertexCount];
+		int workCount = 0;
+		for (int v = vertexCount - 1; v >= 0; v--) {
+			work[workCount++] = v;
+		}
+		boolean[] queued = new boolean[vertexCount];
+		Arrays.fill(queued, true);
+		int added = 0;
+		while (workCount > 0) {
+			int v = work[--workCount];
+			queued[v] = false;
+			if (isRunnable(v)) {
+				continue;
+			}
+			int outs = firstOut[v], ins = firstIn[v];	// new roads go on the front, so these lists are what was there
+			for (int r = outs; r >= 0; r = nextOut[r]) {
+				if (addRoad(roadTo[r], v, roadCapacity[r])) {
+					added++;
+				}
+			}
+			for (int r = ins; r >= 0; r = nextIn[r]) {
+				if (addRoad(v, roadFrom[r], roadCapacity[r])) {
+					added++;
+				}
+			}
+			for (int r = firstOut[v]; r >= 0; r = nextOut[r]) {
+				int neighbour = roadTo[r];
+				if (!queued[neighbour]) {
+					queued[neighbour] = true;
+					work[workCount++] = neighbour;
+				}
+			}
+		}
+		return added;
+	}
+}
@@ -0,0 +1,296 @@
+package trafficsim;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class ParallelEngine advances the model on a fork/join pool in two phases.
+ *
+ * phase one moves the vehicles, partitioned by road.  a vehicle only ever looks at the
+ * queue on its own road, so each road is handled start to finish by one task, walking its
+ * vehicles in table order.  instead of joining queues the task records join intents,
+ * counting the pending joins per road so later vehicles see the queue as it will be.
+ * the intents are then applied in road order.
+ *
+ * phase two updates the intersections in parallel.  an intersection only pops from the roads
+ * ending at it, so the intersections are independent once the changes to the vehicle
+ * table are deferred.  spawns and removals are buffered per intersection and applied in
+ * intersection order, which leaves the table exactly as the sequential engine would
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class ParallelEngine extends SimulationEngine {
+
+	private static final int chunksPerThread = 4;
+	private final ForkJoinPool pool;
+	private final int threads;
+	// vehicle slots bucketed by road: roadVehicles[roadStart[r] .. roadStart[r + 1]) ride road r
+	private int[] roadStart = new int[1];
+	private int[] roadFill = new int[0];
+	private int[] roadVehicles = new int[0];
+	// chunk c covers roads chunkRoadStart[c] .. chunkRoadStart[c + 1]
+	private int[] chunkRoadStart = new int[1];
+	private int chunks = 0;
+	// join intents, each chunk writes to the front of its own range of bucket positions
+	private int[] joinIntents = new int[0];
+	private int[] chunkIntentCount = new int[0];
+	// changes to the vehicle table deferred during phase two, per intersection
+	private boolean deferring = false;
+	private int[][] spawnEdges = new int[0][];
+	private long[][] spawnSeeds = new long[0][];
+	private int[] spawnCount = new int[0];
+	private Vehicle[][] retired = new Vehicle[0][];
+	private int[] retiredCount = new int[0];
+
+	/*
+	 * ParallelEngine constructor
+	 *		@param threads the number of worker threads to use
+	 */
+	public ParallelEngine(int threads) {
+		this.threads = threads;
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	/*
+	 * let the pool threads go
+	 */
+	@Override
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/*
+	 * advance the simulation by a single tick
+	 */
+	@Override
+	public void tick() {
+		long started = TickProfiler.start();
+		TrafficSimulatorApp.simTime++;
+		countVehicleTime();
+
+		moveVehicles();
+		long moved = TickProfiler.phase(TickProfiler.vehicles, started);
+		updateIntersections();
+		TickProfiler.tickDone(started, TickProfiler.phase(TickProfiler.intersections, moved));
+	}
+
+	/*
+	 * phase one: move all vehicles in parallel, then apply the queue joins
+	 */
+	private void moveVehicles() {
+		VehicleTable vehicles = TrafficSimulatorApp.vehicles;
+		int numVehicles = vehicles.size();
+		int numRoads = TrafficSimulatorApp.roads.size();
+
+		if (numVehicles == 0) {
+			return;
+		}
+
+		// bucket the vehicles by road, a counting sort keeps table order within each road
+		if (roadStart.length < numRoads + 1) {
+			roadStart = new int[numRoads + 1];
+			roadFill = new int[numRoads];
+		}
+		if (roadVehicles.length < numVehicles) {
+			roadVehicles = new int[vehicles.onEdge.length];
+			joinIntents = new int[vehicles.onEdge.length];
+		}
+		for (int r = 0; r <= numRoads; r++) {
+			roadStart[r] = 0;
+		}
+		for (int slot = 0; slot < numVehicles; slot++) {
+			roadStart[vehicles.onEdge[slot] + 1]++;
+		}
+		for (int r = 0; r < numRoads; r++) {
+			roadStart[r + 1] += roadStart[r];
+			roadFill[r] = roadStart[r];
+		}
+		for (int slot = 0; slot < numVehicles; slot++) {
+			roadVehicles[roadFill[vehicles.onEdge[slot]]++] = slot;
+		}
+
+		// cut the roads into chunks holding roughly the same number of vehicles
+		int maxChunks = threads * chunksPerThread;
+		if (chunkRoadStart.length < maxChunks + 1) {
+			chunkRoadStart = new int[maxChunks + 1];
+			chunkIntentCount = new int[maxChunks];
+		}
+		int target = (numVehicles + maxChunks - 1) / maxChunks;
+		chunks = 0;
+		chunkRoadStart[0] = 0;
+		for (int r = 0; r < numRoads; r++) {
+			if (roadStart[r + 1] - roadStart[chunkRoadStart[chunks]] >= target && chunks < maxChunks - 1) {
+				chunkRoadStart[++chunks] = r + 1;
+			}
+		}
+		if (chunkRoadStart[chunks] < numRoads) {
+			chunkRoadStart[++chunks] = numRoads;
+		}
+
+		pool.invoke(new VehicleTask(0, chunks));
+
+		// apply the joins, road by road in table order
+		for (int c = 0; c < chunks; c++) {
+			int base = roadStart[chunkRoadStart[c]];
+			for (int k = 0; k < chunkIntentCount[c]; k++) {
+				int slot = joinIntents[base + k];
+				TrafficSimulatorApp.roads.get(vehicles.onEdge[slot]).joinQueue(vehicles.get(slot));
+			}
+		}
+	}
+
+	/*
+	 * move the vehicles on one chunk of roads, recording who wants to join a queue
+	 *		@param c the chunk to process
+	 */
+	private void moveChunk(int c) {
+		VehicleTable vehicles = TrafficSimulatorApp.vehicles;
+		int base = roadStart[chunkRoadStart[c]];
+		int intents = 0;
+
+		for (int r = chunkRoadStart[c]; r < chunkRoadStart[c + 1]; r++) {
+			Road road = TrafficSimulatorApp.roads.get(r);
+			int pending = 0;
+			for (int k = roadStart[r]; k < roadStart[r + 1]; k++) {
+				int slot = roadVehicles[k];
+				int queueSize = road.getQueueSize() + pending;
+				if (vehicles.updatePosition(slot, queueSize) && queueSize < road.getQueueCapacity()) {
+					joinIntents[base + intents++] = slot;
+					pending++;
+				}
+			}
+		}
+		chunkIntentCount[c] = intents;
+	}
+
+	/*
+	 * phase two: update all intersections in parallel, then apply their spawns and removals
+	 */
+	private void updateIntersections() {
+		int numIntersections = TrafficSimulatorApp.intersections.size();
+
+		if (spawnCount.length < numIntersections) {
+			spawnEdges = new int[numIntersections][];
+			spawnSeeds = new long[numIntersections][];
+			spawnCount = new int[numIntersections];
+			retired = new Vehicle[numIntersections][];
+			retiredCount = new int[numIntersections];
+		}
+
+		deferring = true;
+		pool.invoke(new IntersectionTask(0, numIntersections, Math.max(1, numIntersections / (threads * chunksPerThread))));
+		deferring = false;
+
+		// apply in intersection order, as the sequential engine would have
+		for (int i = 0; i < numIntersections; i++) {
+			for (int k = 0; k < retiredCount[i]; k++) {
+				super.retireVehicle(TrafficSimulatorApp.intersections.get(i), retired[i][k]);
+				retired[i][k] = null;
+			}
+			retiredCount[i] = 0;
+			for (int k = 0; k < spawnCount[i]; k++) {
+				super.spawnVehicle(null, spawnEdges[i][k], spawnSeeds[i][k]);
+			}
+			spawnCount[i] = 0;
+		}
+	}
+
+	/*
+	 * buffer the new vehicle while the intersections are being updated
+	 */
+	@Override
+	protected void spawnVehicle(Intersection at, int edge, long seed) {
+		if (!deferring) {
+			super.spawnVehicle(at, edge, seed);
+			return;
+		}
+		int i = at.getIndex();
+		if (spawnEdges[i] == null || spawnCount[i] == spawnEdges[i].length) {
+			int[] grown = new int[Math.max(4, spawnCount[i] * 2)];
+			long[] grownSeeds = new long[grown.length];
+			if (spawnEdges[i] != null) {
+				System.arraycopy(spawnEdges[i], 0, grown, 0, spawnCount[i]);
+				System.arraycopy(spawnSeeds[i], 0, grownSeeds, 0, spawnCount[i]);
+			}
+			spawnEdges[i] = grown;
+			spawnSeeds[i] = grownSeeds;
+		}
+		spawnSeeds[i][spawnCount[i]] = seed;
+		spawnEdges[i][spawnCount[i]++] = edge;
+	}
+
+	/*
+	 * buffer the removal while the intersections are being updated
+	 */
+	@Override
+	protected void retireVehicle(Intersection at, Vehicle v) {
+		if (!deferring) {
+			super.retireVehicle(at, v);
+			return;
+		}
+		int i = at.getIndex();
+		if (retired[i] == null || retiredCount[i] == retired[i].length) {
+			Vehicle[] grown = new Vehicle[Math.max(4, retiredCount[i] * 2)];
+			if (retired[i] != null) {
+				System.arraycopy(retired[i], 0, grown, 0, retiredCount[i]);
+			}
+			retired[i] = grown;
+		}
+		retired[i][retiredCount[i]++] = v;
+	}
+
+	/*
+	 * fork/join task moving the vehicles of a range of chunks
+	 */
+	private class VehicleTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+
+		VehicleTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				if (to > from) {
+					moveChunk(from);
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new VehicleTask(from, mid), new VehicleTask(mid, to));
+		}
+	}
+
+	/*
+	 * fork/join task updating a range of intersections
+	 */
+	private class IntersectionTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+		private final int grain;
+
+		IntersectionTask(int from, int to, int grain) {
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				for (int i = from; i < to; i++) {
+					TrafficSimulatorApp.intersections.get(i).updateIntersection();
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new IntersectionTask(from, mid, grain), new IntersectionTask(mid, to, grain));
+		}
+	}
+}
@@ -0,0 +1,384 @@
+package trafficsim;
+
+import java.io.PrintStream;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Class PartitionedEngine splits the network into regions with the NetworkPartitioner and
+ * gives each region to its own worker thread.  a worker owns the intersections of its region,
+ * the roads leading into them, and the vehicles riding those roads, which live in a
+ * VehicleTable of its own.  nothing owned by one worker is touched by another.
+ *
+ * when an intersection sends a vehicle onto a road owned by another region, the vehicle is
+ * taken out of the local table and written to a HandoffQueue for that region.  the workers
+ * meet at a barrier at the end of every tick, and each starts the next tick by draining what
+ * was handed to it, in region order.  a road takes at most one new vehicle per tick, so the
+ * roads crossing between two regions bound what is handed over in a tick.  a producer may
+ * start writing the next tick's records before its consumer has drained the last tick's, so
+ * each queue holds twice that and can never fill up.
+ *
+ * the engine is meant for headless runs, it does not fill the global vehicle table
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class PartitionedEngine extends SimulationEngine {
+
+	private final int parts;
+	private int preparedVersion = -1;
+	private int[] vertexPartition;
+	private int[] roadPartition;
+	private Partition[] partitions;
+	private HandoffQueue[][] queues;	// [from][to], null if no road crosses that way
+	private long[][] drainLimit;	// records each queue held when the last tick ended
+	private CyclicBarrier startBarrier;
+	private CyclicBarrier tickBarrier;
+	private CyclicBarrier endBarrier;
+	private int ticksToRun;
+	private int ticksDone;
+	private long tickStarted;	// for the TickProfiler, when the tick the workers are on began
+	private volatile Throwable failure;
+
+	/*
+	 * the state owned by one worker
+	 */
+	private static class Partition {
+
+		int id;
+		int[] intersections;	// indices of the intersections in the region, in index order
+		int roads;	// roads owned by the region
+		VehicleTable vehicles = new VehicleTable();
+		TripStatistics trips = new TripStatistics();	// merged into the global statistics after each run
+		long busyNanos;
+		long vehicleTicks;
+		long handoffs;
+	}
+
+	/*
+	 * PartitionedEngine constructor
+	 *		@param parts the number of regions, and worker threads
+	 */
+	public PartitionedEngine(int parts) {
+		this.parts = Math.max(1, parts);
+	}
+
+	/*
+	 * partition the network and start the workers, if the network changed since last time
+	 */
+	private void prepare() {
+		if (preparedVersion == AdjacencyIndex.getVersion()) {
+			return;
+		}
+		if (TrafficSimulatorApp.vehicles.size() > 0 || getVehicleCount() > 0) {
+			throw new IllegalStateException("the partitioned engine must start from an empty network");
+		}
+
+		int numVertices = TrafficSimulatorApp.intersections.size();
+		int numRoads = TrafficSimulatorApp.roads.size();
+		vertexPartition = NetworkPartitioner.partition(parts);
+		roadPartition = new int[numRoads];
+
+		// work out which region owns each road, and how many roads cross each way
+		int[][] crossing = new int[parts][parts];
+		int[] vertexCount = new int[parts];
+		partitions = new Partition[parts];
+		for (int p = 0; p < parts; p++) {
+			partitions[p] = new Partition();
+			partitions[p].id = p;
+		}
+		for (int r = 0; r < numRoads; r++) {
+			Road road = TrafficSimulatorApp.roads.get(r);
+			roadPartition[r] = vertexPartition[road.getToVertex()];
+			partitions[roadPartition[r]].roads++;
+			crossing[vertexPartition[road.getFromVertex()]][roadPartition[r]]++;
+		}
+		for (int v = 0; v < numVertices; v++) {
+			vertexCount[vertexPartition[v]]++;
+		}
+		for (int p = 0; p < parts; p++) {
+			partitions[p].intersections = new int[vertexCount[p]];
+			vertexCount[p] = 0;
+		}
+		for (int v = 0; v < numVertices; v++) {
+			Partition p = partitions[vertexPartition[v]];
+			p.intersections[vertexCount[p.id]++] = v;
+		}
+
+		queues = new HandoffQueue[parts][parts];
+		drainLimit = new long[parts][parts];
+		for (int from = 0; from < parts; from++) {
+			for (int to = 0; to < parts; to++) {
+				if (from != to && crossing[from][to] > 0) {
+					// room for this tick's records and the last tick's, which may not be drained yet
+					queues[from][to] = new HandoffQueue(2 * crossing[from][to]);
+				}
+			}
+		}
+
+		startWorkers();
+		preparedVersion = AdjacencyIndex.getVersion();
+	}
+
+	/*
+	 * start one daemon thread per region, waiting for work at the start barrier
+	 */
+	private void startWorkers() {
+		startBarrier = new CyclicBarrier(parts + 1);
+		endBarrier = new CyclicBarrier(parts + 1);
+		tickBarrier = new CyclicBarrier(parts, new Runnable() {
+			@Override
+			public void run() {
+				endOfTick();
+			}
+		});
+
+		for (int p = 0; p < parts; p++) {
+			final Partition partition = partitions[p];
+			final CyclicBarrier start = startBarrier;
+			final CyclicBarrier end = endBarrier;
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work(partition, start, end);
+				}
+			}, "partition-" + p);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/*
+	 * the worker loop, runs as many ticks as asked each time it is released
+	 */
+	private void work(Partition partition, CyclicBarrier start, CyclicBarrier end) {
+		try {
+			while (true) {
+				start.await();
+				int ticks = ticksToRun;
+				for (int t = 0; t < ticks; t++) {
+					runTick(partition);
+					tickBarrier.await();
+				}
+				end.await();
+			}
+		} catch (BrokenBarrierException bbe) {
+			// another worker failed, or the network was repartitioned
+		} catch (InterruptedException ie) {
+			// shutting down
+		} catch (Throwable t) {
+			failure = t;
+			start.reset();
+			tickBarrier.reset();
+			end.reset();
+		}
+	}
+
+	/*
+	 * run one tick of one region
+	 */
+	private void runTick(Partition partition) {
+		long started = System.nanoTime();
+		VehicleTable vehicles = partition.vehicles;
+
+		// take in the vehicles handed over during the last tick
+		for (int from = 0; from < parts; from++) {
+			HandoffQueue q = queues[from][partition.id];
+			if (q == null) {
+				continue;
+			}
+			long limit = drainLimit[from][partition.id];
+			while (q.getReadCount() < limit) {
+				vehicles.add((int) q.peek(0), (int) q.peek(1), (int) q.peek(2), (int) q.peek(3), (int) q.peek(4), q.peek(5));
+				q.advance();
+			}
+		}
+
+		// the counters are striped, so the workers can all add to them without meeting
+		TrafficSimulatorApp.timeInSim.add(vehicles.size());
+		TrafficSimulatorApp.waitTime.add(vehicles.getQueuedCount());
+		partition.vehicleTicks += vehicles.size();
+
+		// move our vehicles, all of them ride roads we own
+		for (int slot = 0; slot < vehicles.size(); slot++) {
+			Road r = TrafficSimulatorApp.roads.get(vehicles.onEdge[slot]);
+			if (vehicles.updatePosition(slot, r.getQueueSize())) {
+				r.joinQueue(vehicles.get(slot));
+			}
+		}
+		long moved = TickProfiler.phase(TickProfiler.vehicles, started);
+
+		// then our intersections
+		for (int i : partition.intersections) {
+			TrafficSimulatorApp.intersections.get(i).updateIntersection();
+		}
+		TickProfiler.phase(TickProfiler.intersections, moved);
+
+		partition.busyNanos += System.nanoTime() - started;
+	}
+
+	/*
+	 * run by the last worker to reach the tick barrier, while the others wait
+	 */
+	private void endOfTick() {
+		for (int from = 0; from < parts; from++) {
+			for (int to = 0; to < parts; to++) {
+				if (queues[from][to] != null) {
+					drainLimit[from][to] = queues[from][to].getWriteCount();
+				}
+			}
+		}
+		ticksDone++;
+		tickStarted = TickProfiler.tickDone(tickStarted);
+		if (ticksDone < ticksToRun) {
+			TrafficSimulatorApp.simTime++;
+		}
+	}
+
+	/*
+	 * advance the simulation by a single tick
+	 */
+	@Override
+	public void tick() {
+		run(1);
+	}
+
+	/*
+	 * advance the simulation by a number of ticks, the workers only meet each other in between
+	 *		@param ticks the number of ticks to run
+	 */
+	@Override
+	public void run(int ticks) {
+		prepare();
+		if (ticks <= 0) {
+			return;
+		}
+		ticksToRun = ticks;
+		ticksDone = 0;
+		tickStarted = TickProfiler.start();
+		TrafficSimulatorApp.simTime++;
+		try {
+			startBarrier.await();
+			endBarrier.await();
+		} catch (BrokenBarrierException bbe) {
+			throw new IllegalStateException("partition worker failed", failure);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+
+		// the workers are waiting at the start barrier, their trips can be taken in
+		for (Partition p : partitions) {
+			TrafficSimulatorApp.trips.merge(p.trips);
+			p.trips.reset();
+		}
+	}
+
+	/*
+	 * break the start barrier, the workers waiting at it give up and end
+	 */
+	@Override
+	public void shutdown() {
+		if (startBarrier != null) {
+			startBarrier.reset();
+			startBarrier = null;
+			preparedVersion = -1;
+		}
+	}
+
+	/*
+	 * return the region of an intersection
+	 */
+	private Partition getPartition(Intersection at) {
+		return partitions[vertexPartition[at.getIndex()]];
+	}
+
+	/*
+	 * write a vehicle to the queue of the region owning its next road
+	 */
+	private void handOff(Partition from, int edge, int createTime, int waitTime, int color, int origin, long randomState) {
+		if (!queues[from.id][roadPartition[edge]].offer(edge, createTime, waitTime, color, origin, randomState)) {
+			throw new IllegalStateException("hand-off queue from partition " + from.id + " is full");
+		}
+		from.handoffs++;
+	}
+
+	@Override
+	protected void spawnVehicle(Intersection at, int edge, long seed) {
+		Partition p = getPartition(at);
+		if (roadPartition[edge] == p.id) {
+			p.vehicles.add(edge, seed);
+		} else {
+			handOff(p, edge, TrafficSimulatorApp.simTime, 0, ColorChooser.getColorIndex(seed), at.getIndex(), seed);
+		}
+	}
+
+	@Override
+	protected void routeVehicle(Intersection at, Vehicle v, int edge) {
+		Partition p = getPartition(at);
+		if (roadPartition[edge] == p.id) {
+			v.setEdge(edge);
+		} else {
+			handOff(p, edge, v.getCreateTime(), v.getWaitTime(), v.getColorIndex(), v.getOrigin(), v.getRandomState());
+			p.vehicles.remove(v);
+		}
+	}
+
+	@Override
+	protected void retireVehicle(Intersection at, Vehicle v) {
+		Partition p = getPartition(at);
+		TrafficSimulatorApp.throughput.increment();
+		p.trips.record(v.getOrigin(), at.getIndex(), TrafficSimulatorApp.simTime - v.getCreateTime(), v.getWaitTime());
+		p.vehicles.remove(v);
+	}
+
+	/*
+	 * the vehicles live in the regions' own tables and the hand-off queues
+	 */
+	@Override
+	public boolean canCheckpoint() {
+		return false;
+	}
+
+	/*
+	 * return the number of vehicles in the simulation, including any in transit between regions
+	 */
+	@Override
+	public int getVehicleCount() {
+		if (partitions == null) {
+			return 0;
+		}
+		int count = 0;
+		for (Partition p : partitions) {
+			count += p.vehicles.size();
+		}
+		for (int from = 0; from < parts; from++) {
+			for (int to = 0; to < parts; to++) {
+				if (queues[from][to] != null) {
+					count += (int) (queues[from][to].getWriteCount() - queues[from][to].getReadCount());
+				}
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * print the load carried by each region, so imbalance shows up
+	 *		@param out the stream to print to
+	 */
+	@Override
+	public void printStatistics(PrintStream out) {
+		if (partitions == null) {
+			return;
+		}
+		long totalBusy = 0;
+		long maxBusy = 0;
+		for (Partition p : partitions) {
+			totalBusy += p.busyNanos;
+			maxBusy = Math.max(maxBusy, p.busyNanos);
+		}
+		out.println("Per Partition: vertices roads vehicle-ticks busy handoffs");
+		for (Partition p : partitions) {
+			out.format("P%d = %d %d %d %.1fms %d\n", p.id, p.intersections.length, p.roads, p.vehicleTicks, p.busyNanos / 1e6, p.handoffs);
+		}
+		double mean = totalBusy / (double) parts;
+		out.format("imbalance (max/mean busy) = %.2f\n", mean > 0 ? maxBusy / mean : 1.0);
+	}
+}
@@ -0,0 +1,91 @@
+package trafficsim;
+
+/**
+ * Class RandomStream is a small splittable random number generator (SplitMix64).  its whole
+ * state is one long, so a stream can be stored in a primitive column, sent with a vehicle
+ * record or written to a checkpoint, and picked up again exactly where it left off.
+ * every intersection and every vehicle has a stream of its own, split off the master seed,
+ * so no random draw touches shared state and a run repeats bit for bit in any engine
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class RandomStream {
+
+	protected final static long gamma = 0x9e3779b97f4a7c15L;	// the golden ratio step of SplitMix64
+	private final static double doubleUnit = 1.0 / (1L << 53);
+	private long state;
+
+	/*
+	 * RandomStream constructor
+	 *		@param seed the starting state of the stream
+	 */
+	public RandomStream(long seed) {
+		state = seed;
+	}
+
+	/*
+	 * the SplitMix64 finalizer, scrambles a state into an output
+	 *		@param z the state
+	 *		@return the mixed value
+	 */
+	protected static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/*
+	 * turn an already advanced state into a double in [0, 1).  lets the VehicleTable keep
+	 * its streams in a long column and draw from them without making objects
+	 *		@param state the state, already advanced by gamma
+	 *		@return a uniform double
+	 */
+	protected static double toDouble(long state) {
+		return (mix(state) >>> 11) * doubleUnit;
+	}
+
+	/*
+	 * return the next 64 random bits
+	 */
+	public long nextLong() {
+		state += gamma;
+		return mix(state);
+	}
+
+	/*
+	 * return a uniform double in [0, 1)
+	 */
+	public double nextDouble() {
+		state += gamma;
+		return toDouble(state);
+	}
+
+	/*
+	 * return the seed for a new, independent stream, advancing this one
+	 *		@return a seed for the child stream
+	 */
+	public long nextSeed() {
+		return mix(nextLong());
+	}
+
+	/*
+	 * split off a new, independent stream, advancing this one
+	 *		@return the child stream
+	 */
+	public RandomStream split() {
+		return new RandomStream(nextSeed());
+	}
+
+	/*
+	 * return the current state, enough to recreate the stream
+	 */
+	public long getState() {
+		return state;
+	}
+
+	/*
+	 * restore a state returned by getState
+	 */
+	public void setState(long state) {
+		this.state = state;
+	}
+}
@@ -0,0 +1,145 @@
+package trafficsim;
+
+import java.io.IOException;
+
+/**
+ * Class ReplayPlayer plays a TrajectoryLog back in the simulator window.  the network of
+ * the log becomes the live network but is never stepped, instead the simulation thread
+ * moves through the log and copies each record it lands on into the snapshot the display
+ * paints.  it plays forward or in reverse at any number of ticks a step, and can jump to
+ * any tick, which costs at most one keyframe interval of decoding
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class ReplayPlayer {
+
+	protected final static int maxSpeed = 1024;	// ticks a step at the fastest
+	private final TrajectoryLog log;
+	private boolean playing = false;
+	private boolean reverse = false;
+	private int speed = 1;	// ticks moved each step
+
+	private ReplayPlayer(TrajectoryLog log) {
+		this.log = log;
+	}
+
+	/*
+	 * open a log for playing, without touching the network in place
+	 *		@param filename the name of the log
+	 *		@return the player, to install()
+	 *		@throws NetworkFormatException if the file is not a log that can be read
+	 */
+	protected static ReplayPlayer open(String filename) throws NetworkFormatException {
+		return new ReplayPlayer(TrajectoryLog.open(filename));
+	}
+
+	/*
+	 * make the network of the log the live network, at the first tick of the log.  the
+	 * caller must hold the simLock
+	 */
+	protected void install() {
+		log.getNetwork().install();
+		TrafficSimulatorApp.simTime = log.getTick();
+		TrafficSimulatorApp.setCounters(log.waitTime, log.timeInSim, log.throughput);
+		TrafficSimulatorApp.trips.reset();
+		System.out.println("replaying " + log.getFilename() + " from time = " + log.getFirstTick() + " to " + log.getLastTick());
+	}
+
+	/*
+	 * take one step if playing, called by the simulation thread in place of a tick.  play
+	 * stops at either end of the log
+	 */
+	protected synchronized void advance() {
+		if (!playing) {
+			return;
+		}
+		step(reverse ? -speed : speed);
+		if (log.getTick() <= log.getFirstTick() && reverse || log.getTick() >= log.getLastTick() && !reverse) {
+			playing = false;
+		}
+	}
+
+	/*
+	 * move a number of ticks through the log
+	 *		@param ticks how far to move, back if negative
+	 */
+	protected synchronized void step(int ticks) {
+		seek((int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, (long) log.getTick() + ticks)));
+	}
+
+	/*
+	 * jump to a tick.  a failure to read the log stops play, and leaves the last good state
+	 *		@param tick the tick to go to, clamped to the ticks in the log
+	 */
+	protected synchronized void seek(int tick) {
+		try {
+			log.seek(tick);
+		} catch (IOException ioe) {
+			playing = false;
+			System.out.println(log.getFilename() + ": " + ioe.getMessage());
+		}
+	}
+
+	protected synchronized boolean isPlaying() {
+		return playing;
+	}
+
+	/*
+	 * start or stop play.  starting at the end plays from the other end again
+	 */
+	protected synchronized void togglePlaying() {
+		playing = !playing;
+		if (playing && !reverse && log.getTick() >= log.getLastTick()) {
+			seek(log.getFirstTick());
+		} else if (playing && reverse && log.getTick() <= log.getFirstTick()) {
+			seek(log.getLastTick());
+		}
+	}
+
+	protected synchronized void toggleReverse() {
+		reverse = !reverse;
+	}
+
+	protected synchronized boolean isReverse() {
+		return reverse;
+	}
+
+	protected synchronized void faster() {
+		speed = Math.min(maxSpeed, speed * 2);
+	}
+
+	protected synchronized void slower() {
+		speed = Math.max(1, speed / 2);
+	}
+
+	protected synchronized int getSpeed() {
+		return speed;
+	}
+
+	protected synchronized int getTick() {
+		return log.getTick();
+	}
+
+	protected int getFirstTick() {
+		return log.getFirstTick();
+	}
+
+	protected int getLastTick() {
+		return log.getLastTick();
+	}
+
+	/*
+	 * copy the state at the current tick into a snapshot for display
+	 *		@param frame the snapshot to fill
+	 */
+	protected synchronized void fill(SimSnapshot frame) {
+		frame.capture(log);
+	}
+
+	/*
+	 * stop playing and close the log
+	 */
+	protected synchronized void close() {
+		playing = false;
+		log.close();
+	}
+}
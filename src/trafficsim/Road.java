@@ -1,6 +1,7 @@
 package trafficsim;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class Road used to represent an edge in the graph, or a "road".  additionally each
@@ -9,10 +10,23 @@ import java.util.ArrayList;
  */
 public class Road {
 
-	private ArrayList<Vehicle> queue;
+	private Vehicle[] queue;	// circular buffer holding the waiting line, allocated when the first car joins
+	private int queueHead;	// slot of the first car in line
+	private int queueSize;	// number of cars in line
+	private int popCount;	// cars popped so far, a car's place in line is its queueIndex minus this
+	private int peakQueueSize;	// the most cars that have waited at once, for the TickProfiler
+	private double geometryFromX, geometryFromY, geometryToX, geometryToY;	// endpoints the unit vector was cached for
+	private double unitX, unitY;	// cached unit vector pointing along the road
+	private double length;	// cached length of the road
+	private static final Vehicle[] noVehicles = new Vehicle[0];
+	private Vehicle[] moving = noVehicles;	// free flowing cars in order of entry, only used by the FreeFlowEngine
+	private int movingHead;
+	private int movingSize;
+	private boolean geometryValid = false;
 	private int fromVertex;
 	private int toVertex;
 	private int queueCapacity;
+	private int index = -1;	// position in the road list, kept by the AdjacencyIndex
 
 	/*
 	 * simple constructor for the Road class
@@ -24,7 +38,6 @@ public class Road {
 		this.fromVertex = fromVertex;
 		this.toVertex = toVertex;
 		this.queueCapacity = queueCapacity;
-		this.queue = new ArrayList<Vehicle>();
 	}
 
 	/*
@@ -48,7 +61,7 @@ public class Road {
 	 *		@return the current size of the queue
 	 */
 	public int getQueueSize() {
-		return queue.size();
+		return queueSize;
 	}
 
 	/*
@@ -59,8 +72,20 @@ public class Road {
 		return toVertex;
 	}
 
+	/*
+	 * return the index of the road
+	 *		@return the position of the road in the TrafficSimulatorApp list of roads
+	 */
 	public int getIndex() {
-		return TrafficSimulatorApp.roads.indexOf(this);
+		return index;
+	}
+
+	/*
+	 * set the cached index for the road, only the AdjacencyIndex should do this
+	 *		@param index the position of the road in the TrafficSimulatorApp list of roads
+	 */
+	protected void setIndex(int index) {
+		this.index = index;
 	}
 
 	/*
@@ -90,58 +115,290 @@ public class Road {
 	 */
 	public int joinQueue(Vehicle v) {
 		// if the queue is full
-		if (queue.size() == queueCapacity) {
+		if (queueSize == queueCapacity) {
 			return -1; // return -1 on full queue
 		}
 
+		// most roads of a large network never see a car, so they cost no buffer until one does
+		if (queue == null) {
+			queue = new Vehicle[queueCapacity];
+		}
+
 		// get the value of the index for the newly added item.
 		// since the size counts from 1 we do not need to increment the value
-		int newIndex = queue.size();
+		int newIndex = queueSize;
+
+		// add the vehicle at the back of the circular buffer
+		int slot = queueHead + queueSize;
+		if (slot >= queueCapacity) {
+			slot -= queueCapacity;
+		}
+		queue[slot] = v;
+		queueSize++;
+		if (queueSize > peakQueueSize) {
+			peakQueueSize = queueSize;
+		}
 
-		// add the vehicle
-		queue.add(v);
+		// update the queued flag, and remember the ticket so the vehicle can find its place later
+		v.setQueued(true);
+		v.setQueueIndex(popCount + newIndex);
 
-		// update the queued flag
-		v.isQueued = true;
-		setQueuePositions();
 		// return the position in the queue of the newly added vehicle
 		return newIndex;
 	}
 
+	/*
+	 * return the most cars that have waited in the queue at once
+	 *		@return the peak queue size since the road was made or last reset
+	 */
+	public int getPeakQueueSize() {
+		return peakQueueSize;
+	}
+
+	public void resetPeakQueueSize() {
+		peakQueueSize = queueSize;
+	}
+
 	/*
 	 * popVehicle() - remove the first car in line and return it
 	 *		@return the Vehicle object for the first car in the queue, null on error
 	 */
 	public Vehicle popVehicle() {
 		// if there are no vehicles
-		if (queue.size() <= 0) {
+		if (queueSize <= 0) {
 			return null;
 		}
 
 		// pop the first vehicle off and return it
-		Vehicle ret = queue.remove(0);
+		Vehicle ret = queue[queueHead];
+		queue[queueHead] = null;
+		queueHead++;
+		if (queueHead == queueCapacity) {
+			queueHead = 0;
+		}
+		queueSize--;
+		popCount++;
 
 		// make sure to update the queued flag
-		ret.isQueued = false;
-		setQueuePositions();
+		ret.setQueued(false);
 		return ret;
 	}
 
 	/*
-	 * set queue positions
+	 * return the place in line of a queued vehicle
+	 *		@param v the queued vehicle
+	 *		@return the position in the queue, 0 being the front
 	 */
-	public void setQueuePositions() {
+	public int getQueuePosition(Vehicle v) {
+		return v.getQueueIndex() - popCount;
+	}
+
+	/*
+	 * the unit vector is only worked out again when an endpoint has moved
+	 */
+	private void updateGeometry() {
 		double fromX = TrafficSimulatorApp.intersections.get(getFromVertex()).getX();
 		double fromY = TrafficSimulatorApp.intersections.get(getFromVertex()).getY();
 		double toX = TrafficSimulatorApp.intersections.get(getToVertex()).getX();
 		double toY = TrafficSimulatorApp.intersections.get(getToVertex()).getY();
+		if (geometryValid && fromX == geometryFromX && fromY == geometryFromY && toX == geometryToX && toY == geometryToY) {
+			return;
+		}
 		double dX = toX - fromX;
 		double dY = toY - fromY;
 		double hyp = Math.hypot(dX, dY);
-		dX = dX / hyp;
-		dY = dY / hyp;
-		for (int i = 0; i < queue.size(); i++) {
-			queue.get(i).setPosition(toX - dX * (16 + 9 * i), toY - dY * (16 + 9 * i));
+		unitX = dX / hyp;
+		unitY = dY / hyp;
+		length = hyp;
+		geometryFromX = fromX;
+		geometryFromY = fromY;
+		geometryToX = toX;
+		geometryToY = toY;
+		geometryValid = true;
+	}
+
+	/*
+	 * return the x part of the unit vector pointing along the road
+	 */
+	public double getUnitX() {
+		updateGeometry();
+		return unitX;
+	}
+
+	/*
+	 * return the y part of the unit vector pointing along the road
+	 */
+	public double getUnitY() {
+		updateGeometry();
+		return unitY;
+	}
+
+	/*
+	 * return the distance a car covers in a tick.  cars step one unit along the major axis
+	 * and a fraction along the other, so diagonal roads are covered faster
+	 *		@return the distance travelled per tick
+	 */
+	public double getStepLength() {
+		updateGeometry();
+		return 1 / Math.max(Math.abs(unitX), Math.abs(unitY));
+	}
+
+	/*
+	 * return the number of ticks a free flowing car takes from the start of the road to the
+	 * back of the line.  the car stops once it is within 16 + 9 * queueSize of the end, like
+	 * the stop early check in VehicleTable.updatePosition, and always takes at least one tick
+	 *		@param queueSize the number of cars waiting in the line
+	 *		@return the number of ticks
+	 */
+	public int getArrivalSteps(int queueSize) {
+		double step = getStepLength();
+		double free = length - (16 + 9 * queueSize + 0.1 * step);
+		if (free < 0) {
+			return 1;
+		}
+		return (int) (free / step) + 1;
+	}
+
+	/*
+	 * return the x coordinate of a free flowing car some ticks after it entered the road
+	 *		@param steps the number of ticks the car has been travelling
+	 *		@return the x coordinate the car is drawn at
+	 */
+	public double getTravelX(int steps) {
+		updateGeometry();
+		return geometryFromX + unitX * Math.min(steps * getStepLength(), length);
+	}
+
+	/*
+	 * return the y coordinate of a free flowing car some ticks after it entered the road
+	 *		@param steps the number of ticks the car has been travelling
+	 *		@return the y coordinate the car is drawn at
+	 */
+	public double getTravelY(int steps) {
+		updateGeometry();
+		return geometryFromY + unitY * Math.min(steps * getStepLength(), length);
+	}
+
+	/*
+	 * add a car to the back of the free flowing cars on the road
+	 *		@param v the car, just put on the road
+	 */
+	public void enterMoving(Vehicle v) {
+		if (movingSize == moving.length) {
+			Vehicle[] larger = new Vehicle[Math.max(4, moving.length * 2)];
+			for (int k = 0; k < movingSize; k++) {
+				larger[k] = moving[(movingHead + k) % moving.length];
+			}
+			moving = larger;
+			movingHead = 0;
 		}
+		moving[(movingHead + movingSize) % moving.length] = v;
+		movingSize++;
+	}
+
+	/*
+	 * return the free flowing car nearest the end of the road
+	 *		@return the car, or null if there are none
+	 */
+	public Vehicle peekMoving() {
+		return movingSize > 0 ? moving[movingHead] : null;
+	}
+
+	/*
+	 * remove the free flowing car nearest the end of the road, once it has joined the line
+	 */
+	public void popMoving() {
+		moving[movingHead] = null;
+		movingHead = (movingHead + 1) % moving.length;
+		movingSize--;
+	}
+
+	/*
+	 * return the number of free flowing cars on the road
+	 */
+	public int getMovingCount() {
+		return movingSize;
+	}
+
+	/*
+	 * return the size of the state written by writeState
+	 *		@return the number of bytes
+	 */
+	protected int getStateBytes() {
+		return 3 * 4 + 4 * (queueSize + movingSize);
+	}
+
+	/*
+	 * write the cars on the road for a checkpoint, as their slots in the vehicle table.  the
+	 * line is written front to back and the free flowing cars in order of entry
+	 *		@param out the buffer to write to
+	 */
+	protected void writeState(ByteBuffer out) {
+		out.putInt(popCount);
+		out.putInt(queueSize);
+		out.putInt(movingSize);
+		for (int k = 0; k < queueSize; k++) {
+			out.putInt(queue[(queueHead + k) % queueCapacity].slot);
+		}
+		for (int k = 0; k < movingSize; k++) {
+			out.putInt(moving[(movingHead + k) % moving.length].slot);
+		}
+	}
+
+	/*
+	 * read back the cars written by writeState, onto a road with none
+	 *		@param in the buffer to read from
+	 *		@param vehicles the table the slots refer to, already read
+	 *		@throws IOException if the state does not fit the road or the table
+	 */
+	protected void readState(ByteBuffer in, VehicleTable vehicles) throws IOException {
+		popCount = in.getInt();
+		int queued = in.getInt();
+		int movingCount = in.getInt();
+		if (queued < 0 || queued > queueCapacity || movingCount < 0 || movingCount > vehicles.size()) {
+			throw new IOException("road " + fromVertex + "," + toVertex + " holds " + queued + " queued and " + movingCount + " moving cars");
+		}
+		queueHead = 0;
+		queueSize = queued;
+		queue = queued > 0 ? new Vehicle[queueCapacity] : null;
+		for (int k = 0; k < queued; k++) {
+			queue[k] = getVehicle(in.getInt(), vehicles);
+		}
+		movingHead = 0;
+		movingSize = movingCount;
+		moving = movingCount > 0 ? new Vehicle[Math.max(4, movingCount)] : noVehicles;
+		for (int k = 0; k < movingCount; k++) {
+			moving[k] = getVehicle(in.getInt(), vehicles);
+		}
+	}
+
+	/*
+	 * return the handle for a slot read from a checkpoint
+	 */
+	private static Vehicle getVehicle(int slot, VehicleTable vehicles) throws IOException {
+		if (slot < 0 || slot >= vehicles.size()) {
+			throw new IOException("vehicle slot " + slot + " is out of range");
+		}
+		return vehicles.get(slot);
+	}
+
+	/*
+	 * return the x coordinate of a place in the queue
+	 *		@param position the place in line, 0 being the front
+	 *		@return the x coordinate a car waiting there is drawn at
+	 */
+	public double getQueueX(int position) {
+		updateGeometry();
+		return geometryToX - unitX * (16 + 9 * position);
+	}
+
+	/*
+	 * return the y coordinate of a place in the queue
+	 *		@param position the place in line, 0 being the front
+	 *		@return the y coordinate a car waiting there is drawn at
+	 */
+	public double getQueueY(int position) {
+		updateGeometry();
+		return geometryToY - unitY * (16 + 9 * position);
 	}
 }
@@ -0,0 +1,426 @@
+package trafficsim;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class ScalingBenchmark sweeps network size, vehicle density and worker threads, and
+ * measures each point headless.  the networks come from NetworkGenerator with a fixed
+ * seed, and each point loads its network fresh, puts the cars on the roads, runs some
+ * ticks to warm up, then times a fixed number of ticks.  every run is a row in the CSV
+ * file; the summary table printed at the end has the median run of each point.
+ *
+ * the heap peak is the sum of the peaks of the heap pools since the network was loaded,
+ * so it is an upper bound.  the GC count and time are what the collector beans report
+ * over the timed ticks, and the allocation rate is over the threads alive at the end of
+ * them, which for the default engines is all the threads doing the work
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class ScalingBenchmark {
+
+	private static String layout = "grid";
+	private static int[] sizes = {1000, 10000, 100000};
+	private static double[] densities = {0, 2};
+	private static int[] threadCounts;
+	private static int warmup = 200;
+	private static int ticks = 1000;
+	private static int repeats = 3;
+	private static double sources = 0.1;
+	private static String reportFilename;
+
+	/*
+	 * the measurements of one run
+	 */
+	private static class Run {
+		int size, vertices, roads, threads, run;
+		double density;
+		double seconds, vehicles, updates;
+		long peakHeap, gcCount, gcMillis, allocated, throughput;
+
+		double ticksPerSecond() {
+			return ticks / Math.max(seconds, 1e-9);
+		}
+
+		double updatesPerSecond() {
+			return updates / Math.max(seconds, 1e-9);
+		}
+
+		double allocatedPerSecond() {
+			return allocated < 0 ? -1 : allocated / Math.max(seconds, 1e-9);
+		}
+	}
+
+	/*
+	 * print the usage message and quit
+	 */
+	private static void usage() {
+		System.out.println(""
+			+ "incorrect usage\n"
+			+ "expected: java ScalingBenchmark [options] report.csv\n"
+			+ "options:\n"
+			+ "  -layout name    grid, radial, planar or arterial (default grid)\n"
+			+ "  -sizes a,b,..   switching intersections in each network (default 1000,10000,100000)\n"
+			+ "  -densities a,.. cars per road put on the network before the warm up (default 0,2)\n"
+			+ "  -threads a,b,.. worker threads (default 1 and each doubling up to the processors)\n"
+			+ "  -warmup n       ticks run before timing (default 200)\n"
+			+ "  -ticks n        ticks timed (default 1000)\n"
+			+ "  -repeats n      runs of each point, the summary has the median (default 3)\n"
+			+ "  -sources r      sources per switching intersection (default 0.1)\n"
+			+ "  -seed n         seed for the networks and the runs (default " + TrafficSimulatorApp.randomSeed + ")");
+		System.exit(-1);
+	}
+
+	/*
+	 * read a comma separated list of whole numbers
+	 */
+	private static int[] parseInts(String arg) {
+		String[] parts = arg.split(",");
+		int[] values = new int[parts.length];
+		for (int k = 0; k < parts.length; k++) {
+			values[k] = Integer.parseInt(parts[k].trim());
+		}
+		return values;
+	}
+
+	/*
+	 * read a comma separated list of numbers
+	 */
+	private static double[] parseDoubles(String arg) {
+		String[] parts = arg.split(",");
+		double[] values = new double[parts.length];
+		for (int k = 0; k < parts.length; k++) {
+			values[k] = Double.parseDouble(parts[k].trim());
+		}
+		return values;
+	}
+
+	/*
+	 * check for proper caller usage and read the options
+	 *		@param args the arguments array passed to the program
+	 */
+	private static void parseArgs(String[] args) {
+		int i = 0;
+		try {
+			// options come first, each with a value
+			while (i < args.length && args[i].startsWith("-")) {
+				if (i + 1 >= args.length) {
+					usage();
+				} else if (args[i].equals("-layout")) {
+					layout = args[i + 1];
+				} else if (args[i].equals("-sizes")) {
+					sizes = parseInts(args[i + 1]);
+				} else if (args[i].equals("-densities")) {
+					densities = parseDoubles(args[i + 1]);
+				} else if (args[i].equals("-threads")) {
+					threadCounts = parseInts(args[i + 1]);
+				} else if (args[i].equals("-warmup")) {
+					warmup = Integer.parseInt(args[i + 1]);
+				} else if (args[i].equals("-ticks")) {
+					ticks = Integer.parseInt(args[i + 1]);
+				} else if (args[i].equals("-repeats")) {
+					repeats = Integer.parseInt(args[i + 1]);
+				} else if (args[i].equals("-sources")) {
+					sources = Double.parseDouble(args[i + 1]);
+				} else if (args[i].equals("-seed")) {
+					TrafficSimulatorApp.randomSeed = Long.parseLong(args[i + 1]);
+				} else {
+					usage();
+				}
+				i += 2;
+			}
+
+			// then the report file
+			if (args.length - i != 1) {
+				usage();
+			}
+			reportFilename = args[i];
+		} catch (NumberFormatException nfe) {
+			usage();
+		}
+
+		if (threadCounts == null) {
+			int processors = Runtime.getRuntime().availableProcessors();
+			int count = 1;
+			for (int t = 2; t <= processors; t *= 2) {
+				count++;
+			}
+			threadCounts = new int[count];
+			for (int k = 0, t = 1; k < count; k++, t *= 2) {
+				threadCounts[k] = t;
+			}
+		}
+		if (warmup < 0 || ticks < 1 || repeats < 1 || sources < 0) {
+			usage();
+		}
+		for (int size : sizes) {
+			if (size < 1) {
+				usage();
+			}
+		}
+		for (double density : densities) {
+			if (density < 0) {
+				usage();
+			}
+		}
+		for (int threads : threadCounts) {
+			if (threads < 1) {
+				usage();
+			}
+		}
+	}
+
+	/*
+	 * load a network with the settings line silenced, replacing the one being simulated
+	 */
+	private static void load(String filename) {
+		PrintStream out = System.out;
+		System.setOut(NullOutputStream.printStream);
+		boolean loaded;
+		try {
+			loaded = SimFileHandler.readAndParseFile(filename);
+		} finally {
+			System.setOut(out);
+		}
+		if (!loaded) {
+			System.out.println(SimFileHandler.getLastError());
+			System.exit(-1);
+		}
+	}
+
+	/*
+	 * put cars on the roads, round the roads in turn, spaced evenly along each one
+	 *		@param density the cars per road
+	 */
+	private static void placeVehicles(double density) {
+		int numRoads = TrafficSimulatorApp.roads.size();
+		int count = (int) Math.round(density * numRoads);
+		int laps = (count + numRoads - 1) / Math.max(1, numRoads);
+		RandomStream seeds = new RandomStream(TrafficSimulatorApp.randomSeed);
+		for (int k = 0; k < count; k++) {
+			int edge = k % numRoads;
+			double fraction = (double) (k / numRoads + 1) / (laps + 1);
+			Road r = TrafficSimulatorApp.roads.get(edge);
+			Intersection from = TrafficSimulatorApp.intersections.get(r.getFromVertex());
+			Intersection to = TrafficSimulatorApp.intersections.get(r.getToVertex());
+			Vehicle v = TrafficSimulatorApp.vehicles.add(edge, seeds.nextSeed());
+			v.setPosition(from.getX() + (to.getX() - from.getX()) * fraction, from.getY() + (to.getY() - from.getY()) * fraction);
+		}
+	}
+
+	/*
+	 * return the bytes allocated so far by each live thread, by thread id
+	 *		@return the counts, or null if the JVM does not keep them
+	 */
+	private static Map<Long, Long> allocatedByThread() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return null;
+		}
+		com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+		if (!counting.isThreadAllocatedMemorySupported() || !counting.isThreadAllocatedMemoryEnabled()) {
+			return null;
+		}
+		long[] ids = counting.getAllThreadIds();
+		long[] bytes = counting.getThreadAllocatedBytes(ids);
+		Map<Long, Long> allocated = new HashMap<Long, Long>();
+		for (int k = 0; k < ids.length; k++) {
+			if (bytes[k] >= 0) {
+				allocated.put(ids[k], bytes[k]);
+			}
+		}
+		return allocated;
+	}
+
+	/*
+	 * run one point of the sweep
+	 *		@param network the network file
+	 *		@param run the measurements, with the point filled in
+	 */
+	private static void measure(String network, Run run) {
+		List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+
+		// start each run from a collected heap, so one does not pay for the garbage of the last
+		System.gc();
+		for (MemoryPoolMXBean pool : pools) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+
+		SimulationEngine engine = SimulationEngine.create(run.threads);
+		TrafficSimulatorApp.engine = engine;
+		TrafficSimulatorApp.initialize();
+		load(network);
+		placeVehicles(run.density);
+		run.vertices = TrafficSimulatorApp.intersections.size();
+		run.roads = TrafficSimulatorApp.roads.size();
+
+		engine.run(warmup);
+
+		long gcCount = 0, gcMillis = 0;
+		for (GarbageCollectorMXBean gc : collectors) {
+			gcCount -= gc.getCollectionCount();
+			gcMillis -= gc.getCollectionTime();
+		}
+		long throughput = TrafficSimulatorApp.throughput.sum();
+		Map<Long, Long> allocatedBefore = allocatedByThread();
+
+		// tick by tick so the cars moved in each can be counted
+		double updates = 0;
+		long start = System.nanoTime();
+		for (int t = 0; t < ticks; t++) {
+			updates += engine.getVehicleCount();
+			engine.tick();
+		}
+		run.seconds = (System.nanoTime() - start) / 1e9;
+
+		Map<Long, Long> allocatedAfter = allocatedByThread();
+		for (GarbageCollectorMXBean gc : collectors) {
+			gcCount += gc.getCollectionCount();
+			gcMillis += gc.getCollectionTime();
+		}
+		run.gcCount = gcCount;
+		run.gcMillis = gcMillis;
+		run.updates = updates;
+		run.vehicles = updates / ticks;
+		run.throughput = TrafficSimulatorApp.throughput.sum() - throughput;
+		run.allocated = -1;
+		if (allocatedBefore != null && allocatedAfter != null) {
+			run.allocated = 0;
+			for (Map.Entry<Long, Long> entry : allocatedAfter.entrySet()) {
+				Long before = allocatedBefore.get(entry.getKey());
+				run.allocated += entry.getValue() - (before == null ? 0 : before);
+			}
+		}
+		run.peakHeap = 0;
+		for (MemoryPoolMXBean pool : pools) {
+			if (pool.getType() == MemoryType.HEAP) {
+				run.peakHeap += pool.getPeakUsage().getUsed();
+			}
+		}
+
+		engine.shutdown();
+		TrafficSimulatorApp.engine = null;
+	}
+
+	/*
+	 * write a run as a line of the report
+	 */
+	private static void writeRow(PrintWriter report, Run r) {
+		report.format("%s,%d,%d,%d,%s,%d,%d,%d,%d,%.6f,%.2f,%.1f,%.0f,%.2f,%d,%d,%.2f,%d\n",
+			layout, r.size, r.vertices, r.roads, formatDensity(r.density), r.threads, r.run, warmup, ticks,
+			r.seconds, r.ticksPerSecond(), r.vehicles, r.updatesPerSecond(), r.peakHeap / 1048576.0,
+			r.gcCount, r.gcMillis, r.allocatedPerSecond() < 0 ? -1 : r.allocatedPerSecond() / 1048576.0, r.throughput);
+	}
+
+	private static String formatDensity(double density) {
+		return density == (long) density ? Long.toString((long) density) : Double.toString(density);
+	}
+
+	/*
+	 * print the median run of each point, with its speedup over the fewest threads tried
+	 */
+	private static void printSummary(List<Run[]> points) {
+		System.out.format("\n%9s %8s %7s %10s %11s %14s %10s %9s %8s %11s %7s\n", "size", "density", "threads",
+			"vehicles", "ticks/sec", "updates/sec", "heap MB", "GC count", "GC ms", "alloc MB/s", "speedup");
+		double baseline = 0;
+		int lastSize = -1;
+		double lastDensity = -1;
+		for (Run[] point : points) {
+			Run[] sorted = point.clone();
+			Arrays.sort(sorted, new Comparator<Run>() {
+				@Override
+				public int compare(Run a, Run b) {
+					return Double.compare(a.ticksPerSecond(), b.ticksPerSecond());
+				}
+			});
+			Run median = sorted[sorted.length / 2];
+			if (median.size != lastSize || median.density != lastDensity) {
+				baseline = median.ticksPerSecond();
+				lastSize = median.size;
+				lastDensity = median.density;
+			}
+			System.out.format("%9d %8s %7d %10.0f %11.1f %14.0f %10.1f %9d %8d %11s %6.2fx\n", median.size,
+				formatDensity(median.density), median.threads, median.vehicles, median.ticksPerSecond(),
+				median.updatesPerSecond(), median.peakHeap / 1048576.0, median.gcCount, median.gcMillis,
+				median.allocated < 0 ? "-" : String.format("%.1f", median.allocatedPerSecond() / 1048576.0),
+				median.ticksPerSecond() / baseline);
+		}
+	}
+
+	/**
+	 * main method for the scaling benchmark.
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		parseArgs(args);
+		System.setProperty("java.awt.headless", "true");
+		TrafficSimulatorApp.initialize();
+		new ColorChooser();
+
+		List<Run[]> points = new ArrayList<Run[]>();
+		PrintWriter report = null;
+		try {
+			report = new PrintWriter(new BufferedWriter(new FileWriter(reportFilename)));
+			report.println("layout,size,vertices,roads,density,threads,run,warmup_ticks,ticks,seconds,ticks_per_sec,"
+				+ "vehicles_mean,vehicle_updates_per_sec,peak_heap_mb,gc_count,gc_ms,alloc_mb_per_sec,throughput");
+
+			double[] rate = {30, 30};
+			double[] interval = {TrafficSimulatorApp.defaultSwitchingInterval, TrafficSimulatorApp.defaultSwitchingInterval};
+			for (int size : sizes) {
+				File network = File.createTempFile("scaling", ".net");
+				network.deleteOnExit();
+				if (NetworkGenerator.generate(layout, size, TrafficSimulatorApp.randomSeed, sources, false, rate, interval, network.getPath()) == null) {
+					usage();
+				}
+
+				for (double density : densities) {
+					for (int threads : threadCounts) {
+						Run[] point = new Run[repeats];
+						for (int k = 0; k < repeats; k++) {
+							Run run = new Run();
+							run.size = size;
+							run.density = density;
+							run.threads = threads;
+							run.run = k + 1;
+							measure(network.getPath(), run);
+							writeRow(report, run);
+							report.flush();
+							System.out.format("size %d density %s threads %d run %d: %.1f ticks/sec, %.0f vehicles\n",
+								size, formatDensity(density), threads, k + 1, run.ticksPerSecond(), run.vehicles);
+							point[k] = run;
+						}
+						points.add(point);
+					}
+				}
+				network.delete();
+			}
+		} catch (IOException ioe) {
+			System.out.println(ioe.getMessage());
+			System.exit(-1);
+		} finally {
+			if (report != null) {
+				report.close();
+			}
+		}
+
+		printSummary(points);
+		System.out.println("wrote " + reportFilename);
+	}
+}
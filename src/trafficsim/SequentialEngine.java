@@ -0,0 +1,38 @@
+package trafficsim;
+
+/**
+ * Class SequentialEngine is the original single threaded main loop: move every vehicle in
+ * table order, then process every intersection in index order
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class SequentialEngine extends SimulationEngine {
+
+	/*
+	 * advance the simulation by a single tick
+	 */
+	@Override
+	public void tick() {
+		VehicleTable vehicles = TrafficSimulatorApp.vehicles;
+		long started = TickProfiler.start();
+
+		// since we are currently simulating increment the tick/frame count
+		TrafficSimulatorApp.simTime++;
+		countVehicleTime();
+
+		// for each vehicle, walking the table in slot order
+		for (int slot = 0; slot < vehicles.size(); slot++) {
+			Road r = TrafficSimulatorApp.roads.get(vehicles.onEdge[slot]);
+			if (vehicles.updatePosition(slot, r.getQueueSize())) {
+				r.joinQueue(vehicles.get(slot));
+			}
+		}
+
+		long moved = TickProfiler.phase(TickProfiler.vehicles, started);
+
+		// for each intersection
+		for (Intersection i : TrafficSimulatorApp.intersections) {
+			i.updateIntersection(); // process the intersection
+		}
+		TickProfiler.tickDone(started, TickProfiler.phase(TickProfiler.intersections, moved));
+	}
+}
@@ -8,55 +8,16 @@ import java.io.*;
  */
 public class SimFileHandler {
 
-	private static BufferedReader fileInput;
-	private static int numVertices = 0;
-	private static int numEdges = 0;
-	private static int linesRead = 0;
+	private static String lastError;
 	private static TrafficSimulatorApp tsa;
 
 	/*
 	 * SimFileHandler constructor, simply initialize some things
 	 */
 	public SimFileHandler(TrafficSimulatorApp theTSA) {
-		fileInput = null;
-		linesRead = 0;
 		tsa = theTSA;
 	}
 
-	/*
-	 * read one line from the input configuration file, skipping blank lines, comments, and the end of file (EOF)
-	 *		@param fileReader the BufferedReader to read from
-	 *		@return the string read, or blank string/null in the oddball cases
-	 */
-	private static String readFileLine(BufferedReader fileReader) {
-		String line = new String();
-		try {
-			line = fileReader.readLine();
-		} catch (IOException ioe) {
-			System.out.println("IOException:" + ioe.getMessage());
-		}
-
-		// see if we reached the end of the file
-		if (line == null) {
-			return null;
-		}
-
-		// if we read a blank line
-		if (line.length() == 0) {
-			return ""; // skip the blank line
-		}
-
-		// remove leading/trailing spaces
-		line = line.trim();
-
-		// if we have a comment
-		if (line.toCharArray()[0] == '#') {
-			return ""; // skip comment lines
-		}
-
-		return line;
-	}
-
 	/*
 	 * prints the simulation settings from the split input string array
 	 * @param s the string array containing the setting information
@@ -64,10 +25,10 @@ public class SimFileHandler {
 	private static void printSettingsFromString(String[] s) {
 		// print formatted setting info
 		System.out.format(""
-			+ "|V|:%0$-8s"
-			+ "|E|:%0$-8s"
-			+ "width:%0$-8s"
-			+ "height:%0$-8s\n",
+			+ "|V|:%-8s"
+			+ "|E|:%-8s"
+			+ "width:%-8s"
+			+ "height:%-8s\n",
 						  s[0],
 						  s[1],
 						  s[2],
@@ -75,103 +36,107 @@ public class SimFileHandler {
 	}
 
 	/*
-	 * parse one line from the input file, adding vertices and edges as dictated
-	 *		@param line the raw string read from the file
-	 */
-	private static void parseFileLine(String line) {
-		if (line == null) {
-			return;
-		}
-		if (line.length() == 0) {
-			return;
-		}
-		linesRead++; // increment the count of read lines
-		if (linesRead == 1) {
-			// here we are on the information line. we want to extract the number of 
-			// vertices, edges, and the screen dimensions
-
-			// split the line on token "," (comma separated values)
-			String[] parts = line.split(",");
-
-			// parse the data from the info line
-			numVertices = Integer.parseInt(parts[0]);
-			numEdges = Integer.parseInt(parts[1]);
-
-			// get the screen width/height from the file
-			DisplayPanel.screenWidth = Integer.parseInt(parts[2]);
-			DisplayPanel.screenHeight = Integer.parseInt(parts[3]);
-
-			printSettingsFromString(parts);
-
-		} else {
-			// here we know we have either a line describing either a vertex or an edge
-			String[] parts = line.split(",");
-
-			if (linesRead < numVertices + 2) {
-				// in this case we should still be reading vertices
-
-				TrafficSimulatorApp.intersections.add(new SimpleIntersection(
-					Double.parseDouble(parts[0].trim()),
-					Double.parseDouble(parts[1].trim()),
-					Double.parseDouble(parts[2].trim())));
-			} else {
-				// here we should be reading an edge
-				//System.out.println("Adding" + parts[0].trim() + "," + parts[1].trim());
-				TrafficSimulatorApp.roads.add(new Road(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()), TrafficSimulatorApp.defaultQueueSize));
-			}
-		}
-	}
-
-	/*
-	 * closes the input file (called after completely reading file or before exiting)
-	 *		@param fi the BufferedReader object which has been reading from the file
+	 * prints the simulation settings of a network as it is loaded
 	 */
-	private static void closeInputFile(BufferedReader fi) {
-		try {
-			fi.close();
-		} catch (IOException ioe) {
-			System.out.println(ioe.getMessage());
-		}
+	protected static void printSettings(int vertices, int edges, int width, int height) {
+		printSettingsFromString(new String[] {Integer.toString(vertices), Integer.toString(edges), Integer.toString(width), Integer.toString(height)});
 	}
 
 	/*
 	 * read and parse the input file, handle everything, load all values.
 	 * if the user had made some changes to the current simulation, they will
-	 * be discarded
+	 * be discarded.  a checkpoint brings back the run it was saved from as well
+	 * as its network.  if the file cannot be loaded the current network is kept,
+	 * and the reason is printed and left in getLastError()
 	 *		@param filename the name of the file to open and parse
+	 *		@return true if the network was loaded
 	 */
-	protected static void readAndParseFile(String filename) {
-		String line; // temporary holder
+	protected static boolean readAndParseFile(String filename) {
+		NetworkData network = null;
+		Checkpoint checkpoint = null;
 
 		if (TrafficSimulatorApp.debugOutput) {
 			System.out.println("loading from input file:" + filename);
 		}
 
-		TrafficSimulatorApp.setInputFilename(filename);
-
-		// reset as necessary to get ready to reload input
-		TrafficSimulatorApp.intersections.clear();
-		TrafficSimulatorApp.roads.clear();
-		TrafficSimulatorApp.vehicles.clear();
-		linesRead = 0;
-
-		// open the road network description file
-		fileInput = openFile(filename);
+		// the same file always gets the same random sources
+		TrafficSimulatorApp.resetIntersectionSeeds();
 
-		// read input file, parse parameters and initialize data
-		do {
-			// grab an input line
-			line = readFileLine(fileInput);
+		try {
+			// a binary network is mapped and copied straight in, text is parsed in place
+			if (TrajectoryLog.isLog(filename)) {
+				throw new NetworkFormatException(filename, 0, "a trajectory log can only be replayed in the simulator window");
+			} else if (Checkpoint.isCheckpoint(filename)) {
+				checkpoint = Checkpoint.read(filename);
+			} else if (NetworkFile.isBinary(filename)) {
+				network = NetworkFile.read(filename);
+			} else {
+				network = NetworkParser.read(filename);
+			}
+		} catch (NetworkFormatException nfe) {
+			lastError = nfe.getMessage();
+			System.out.println(lastError);
+			return false;
+		}
 
-			// do something with it
-			parseFileLine(line);
+		TrafficSimulatorApp.setInputFilename(filename);
+		if (checkpoint != null) {
+			checkpoint.install();
+		} else {
+			network.install();
+		}
+		lastError = null;
+		return true;
+	}
 
-		} while (line != null);
+	/*
+	 * open a file in the simulator window.  a trajectory log is replayed, anything else is
+	 * loaded by readAndParseFile.  a recording in progress is finished first, and a replay in
+	 * progress ends once something else is loaded.  the caller must hold the simLock
+	 *		@param filename the name of the file to open
+	 *		@return true if the file was opened, otherwise the reason is left in getLastError()
+	 */
+	protected static boolean openFile(String filename) {
+		if (TrafficSimulatorApp.recorder != null) {
+			TrafficSimulatorApp.recorder.stop();
+			TrafficSimulatorApp.recorder = null;
+		}
+		if (!TrajectoryLog.isLog(filename)) {
+			if (!readAndParseFile(filename)) {
+				return false;
+			}
+			if (TrafficSimulatorApp.replay != null) {
+				TrafficSimulatorApp.replay.close();
+				TrafficSimulatorApp.replay = null;
+			}
+			return true;
+		}
 
-		//tsa.setWSize(DisplayPanel.screenWidth + ControlPanel.controlPanelWidth, DisplayPanel.screenHeight);
+		ReplayPlayer player;
+		try {
+			player = ReplayPlayer.open(filename);
+		} catch (NetworkFormatException nfe) {
+			lastError = nfe.getMessage();
+			System.out.println(lastError);
+			return false;
+		}
+		if (TrafficSimulatorApp.replay != null) {
+			TrafficSimulatorApp.replay.close();
+		}
+		TrafficSimulatorApp.setSimulating(false);
+		TrafficSimulatorApp.setInputFilename(filename);
+		player.install();
+		TrafficSimulatorApp.replay = player;
+		lastError = null;
+		return true;
+	}
 
-		// close the file after we are done
-		closeInputFile(fileInput);
+	/*
+	 * return why the last load failed
+	 *		@return the error message, or null if the last load worked
+	 */
+	protected static String getLastError() {
+		return lastError;
 	}
 
 	/*
@@ -180,6 +145,17 @@ public class SimFileHandler {
 	 */
 	protected static void writeToOutput(String filename) {
 		BufferedWriter writer;
+
+		// the extension picks the binary format
+		if (filename.endsWith(NetworkFile.extension)) {
+			try {
+				NetworkFile.write(filename);
+			} catch (IOException ioe) {
+				System.out.println(ioe.getMessage());
+			}
+			return;
+		}
+
 		try {
 			writer = new BufferedWriter(new FileWriter(filename));
 
@@ -198,35 +174,20 @@ public class SimFileHandler {
 					+ Double.toString(TrafficSimulatorApp.intersections.get(i).getN()) + "\n");
 			}
 
-			// write out each edge
+			// write out each edge, with its queue capacity if that is not the default
 			for (int i = 0; i < TrafficSimulatorApp.roads.size(); i++) {
-				writer.write(
-					TrafficSimulatorApp.roads.get(i).getFromVertex() + ","
-					+ TrafficSimulatorApp.roads.get(i).getToVertex() + "\n");
+				Road r = TrafficSimulatorApp.roads.get(i);
+				if (r.getQueueCapacity() == TrafficSimulatorApp.defaultQueueSize) {
+					writer.write(r.getFromVertex() + "," + r.getToVertex() + "\n");
+				} else {
+					writer.write(r.getFromVertex() + "," + r.getToVertex() + "," + r.getQueueCapacity() + "\n");
+				}
 			}
 
 			writer.flush();
+			writer.close();
 		} catch (IOException ioe) {
 			System.out.println(ioe.getMessage());
 		}
 	}
-
-	/*
-	 * opens the input file for reading
-	 *		@param filename the name of the file to open, relative to current directory
-	 */
-	private static BufferedReader openFile(String filename) {
-		try {
-			// create a BufferedReader to read the file
-			return new BufferedReader(new FileReader(filename));
-		} catch (IOException ioe) {
-			// print the exception message
-			System.out.println("IOException:" + ioe.getMessage());
-
-			// print the cwd to assist with file placement
-			System.out.println("cwd:" + System.getProperty("user.dir"));
-			System.exit(-1);
-		}
-		return null;
-	}
 }
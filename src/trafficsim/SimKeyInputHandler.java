@@ -5,7 +5,9 @@
 package trafficsim;
 
 import java.awt.event.*;
+import java.io.IOException;
 import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
 
 /*
  * class used to handle key inputs to the form
@@ -29,16 +31,28 @@ public class SimKeyInputHandler extends KeyAdapter {
 	 */
 	@Override
 	public void keyPressed(KeyEvent e) {
+		ReplayPlayer player = TrafficSimulatorApp.replay;
+		if (player != null && replayKeyPressed(e, player)) {
+			return;
+		}
+
 		if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+			// finish a recording in progress, so its log has an index
+			synchronized (TrafficSimulatorApp.simLock) {
+				if (TrafficSimulatorApp.recorder != null) {
+					TrafficSimulatorApp.recorder.stop();
+				}
+			}
 			System.exit(0);
 		} else if (e.getKeyCode() == KeyEvent.VK_C) {
 			// Key C -- "clear" -- clears the selected node
 
 			SimMouseInputHandler.selectedVertex = -1;
+			SimMouseInputHandler.selectedVehicle = -1;
 		} else if (e.getKeyCode() == KeyEvent.VK_F) {
-			// Key + -- "faster" -- increase simulation speed -- decrease frame interval
+			// Key + -- "faster" -- increase simulation speed -- decrease frame interval, down to 0 for flat out
 
-			if (TrafficSimulatorApp.getFrameInterval() >= 2) {
+			if (TrafficSimulatorApp.getFrameInterval() >= 1) {
 				TrafficSimulatorApp.setFrameInterval(TrafficSimulatorApp.getFrameInterval() >> 1);
 				if (TrafficSimulatorApp.debugOutput) {
 					System.out.println("Interval:" + TrafficSimulatorApp.getFrameInterval());
@@ -48,7 +62,7 @@ public class SimKeyInputHandler extends KeyAdapter {
 		} else if (e.getKeyCode() == KeyEvent.VK_S) {
 			// Key - -- "slower" -- increase frame interval
 
-			TrafficSimulatorApp.setFrameInterval(TrafficSimulatorApp.getFrameInterval() << 1);
+			TrafficSimulatorApp.setFrameInterval(Math.max(TrafficSimulatorApp.getFrameInterval() << 1, 1));
 			if (TrafficSimulatorApp.debugOutput) {
 				System.out.println("Interval:" + TrafficSimulatorApp.getFrameInterval());
 			}
@@ -59,12 +73,50 @@ public class SimKeyInputHandler extends KeyAdapter {
 				if (TrafficSimulatorApp.debugOutput) {
 					System.out.println("Writing to:" + fileChooser.getSelectedFile().getName());
 				}
-				SimFileHandler.writeToOutput(fileChooser.getSelectedFile().getName());
+				synchronized (TrafficSimulatorApp.simLock) {
+					SimFileHandler.writeToOutput(fileChooser.getSelectedFile().getName());
+				}
+			}
+		} else if (e.getKeyCode() == KeyEvent.VK_K) {
+			// Key K -- "keep" -- save a checkpoint of the run, open it again to carry on from there
+
+			if (fileChooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) {
+				try {
+					synchronized (TrafficSimulatorApp.simLock) {
+						Checkpoint.save(fileChooser.getSelectedFile().getPath());
+					}
+				} catch (IllegalStateException ise) {
+					JOptionPane.showMessageDialog(tsa, ise.getMessage(), "Checkpoint failed", JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		} else if (e.getKeyCode() == KeyEvent.VK_T) {
+			// Key T -- "trace" -- start recording every tick to a log, or finish the recording
+
+			synchronized (TrafficSimulatorApp.simLock) {
+				if (TrafficSimulatorApp.recorder != null) {
+					TrafficSimulatorApp.recorder.stop();
+					TrafficSimulatorApp.recorder = null;
+					return;
+				}
+			}
+			if (fileChooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) {
+				try {
+					synchronized (TrafficSimulatorApp.simLock) {
+						TrafficSimulatorApp.recorder = TrajectoryRecorder.start(fileChooser.getSelectedFile().getPath());
+					}
+				} catch (IOException ioe) {
+					JOptionPane.showMessageDialog(tsa, ioe.getMessage(), "Recording failed", JOptionPane.ERROR_MESSAGE);
+				} catch (IllegalStateException ise) {
+					JOptionPane.showMessageDialog(tsa, ise.getMessage(), "Recording failed", JOptionPane.ERROR_MESSAGE);
+				}
 			}
 		} else if (e.getKeyCode() == KeyEvent.VK_D) {
 			// Key D -- "delete" -- delete the selected vertex, and remove its edges
 
-			TrafficSimulatorApp.intersections.get(SimMouseInputHandler.selectedVertex).delete();
+			synchronized (TrafficSimulatorApp.simLock) {
+				VertexIndex.remove(SimMouseInputHandler.selectedVertex);
+				TrafficSimulatorApp.intersections.get(SimMouseInputHandler.selectedVertex).delete();
+			}
 		} else if (e.getKeyCode() == KeyEvent.VK_O) {
 			// Key O -- "open" -- show open file dialog and laod file
 
@@ -72,14 +124,34 @@ public class SimKeyInputHandler extends KeyAdapter {
 				if (TrafficSimulatorApp.debugOutput) {
 					System.out.println("Opening : " + fileChooser.getSelectedFile().getName());
 				}
-				SimFileHandler.readAndParseFile(fileChooser.getSelectedFile().getName());
+				boolean loaded;
+				synchronized (TrafficSimulatorApp.simLock) {
+					loaded = SimFileHandler.openFile(fileChooser.getSelectedFile().getName());
+				}
+				if (!loaded) {
+					// the old network is still loaded
+					JOptionPane.showMessageDialog(tsa, SimFileHandler.getLastError(), "Open failed", JOptionPane.ERROR_MESSAGE);
+					return;
+				}
 
 				tsa.updateWSize();
 			}
 		} else if (e.getKeyCode() == KeyEvent.VK_R) {
 			// Key R -- "reload" -- reload the original starting file
 
-			SimFileHandler.readAndParseFile(TrafficSimulatorApp.getInputFilename());
+			boolean loaded;
+			synchronized (TrafficSimulatorApp.simLock) {
+				loaded = SimFileHandler.openFile(TrafficSimulatorApp.getInputFilename());
+			}
+			if (!loaded) {
+				JOptionPane.showMessageDialog(tsa, SimFileHandler.getLastError(), "Reload failed", JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+			tsa.updateWSize();
+		} else if (e.getKeyCode() == KeyEvent.VK_H) {
+			// Key H -- "home" -- fit the whole network in the view again
+
+			DisplayPanel.resetView();
 		} else if (e.getKeyCode() == KeyEvent.VK_SPACE) {
 			// Key space -- "start/stop" -- start the simulation
 
@@ -106,4 +178,48 @@ public class SimKeyInputHandler extends KeyAdapter {
 			tsa.setLocation(tsa.getX() + 10, tsa.getY());
 		}
 	}
+
+	/*
+	 * handle the keys that work the replay of a log, in place of the simulation controls
+	 *		@param e the KeyEvent object to handle
+	 *		@param player the replay in progress
+	 *		@return true if the key was a replay key
+	 */
+	private boolean replayKeyPressed(KeyEvent e, ReplayPlayer player) {
+		if (e.getKeyCode() == KeyEvent.VK_SPACE) {
+			// Key space -- play/pause
+			player.togglePlaying();
+		} else if (e.getKeyCode() == KeyEvent.VK_F) {
+			// Key F -- "faster" -- move more ticks each step
+			player.faster();
+		} else if (e.getKeyCode() == KeyEvent.VK_S) {
+			// Key S -- "slower" -- move fewer ticks each step, down to one
+			player.slower();
+		} else if (e.getKeyCode() == KeyEvent.VK_B) {
+			// Key B -- "backwards" -- play in reverse, or forward again
+			player.toggleReverse();
+		} else if (e.getKeyCode() == KeyEvent.VK_PERIOD) {
+			// Key . -- step a tick forward
+			player.step(1);
+		} else if (e.getKeyCode() == KeyEvent.VK_COMMA) {
+			// Key , -- step a tick back
+			player.step(-1);
+		} else if (e.getKeyCode() == KeyEvent.VK_G) {
+			// Key G -- "go to" -- jump to a tick
+
+			String answer = JOptionPane.showInputDialog(tsa, "Go to time (" + player.getFirstTick() + " - " + player.getLastTick() + ")", Integer.toString(player.getTick()));
+			if (answer != null) {
+				try {
+					player.seek(Integer.parseInt(answer.trim()));
+				} catch (NumberFormatException nfe) {
+					JOptionPane.showMessageDialog(tsa, "not a time: " + answer, "Go to failed", JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		} else if (e.getKeyCode() == KeyEvent.VK_T || e.getKeyCode() == KeyEvent.VK_K) {
+			// nothing is simulated, so there is nothing to record or save
+		} else {
+			return false;
+		}
+		return true;
+	}
 }
@@ -1,7 +1,6 @@
 package trafficsim;
 
 import java.awt.event.*;
-import java.awt.geom.Point2D;
 import java.awt.Point;
 
 /**
@@ -11,10 +10,15 @@ import java.awt.Point;
 public class SimMouseInputHandler extends MouseAdapter {
 
 	protected static int selectedVertex = -1;
+	protected static volatile int selectedVehicle = -1;	// id of the picked car, read by the simulation thread
+	protected static volatile int selectedCreated = -1;	// when the picked car was created, so a car given its id later is not taken for it, -1 if not known
+	protected static volatile boolean selectedLeft = false;	// set when a log being replayed shows the picked car's id handed on
 	protected static boolean mouseButtonDown = false;
 	protected static boolean isVertexPressed = false;
 	protected static boolean isControlPanelPressed = false;
+	protected static boolean isPanning = false;
 	private Point cplClick;
+	private Point panFrom;
 	private TrafficSimulatorApp tsa;
 
 	/*
@@ -25,6 +29,7 @@ public class SimMouseInputHandler extends MouseAdapter {
 	public SimMouseInputHandler(TrafficSimulatorApp theTSA) {
 		this.tsa = theTSA;
 		cplClick = new Point();  // initialize the control panel click point
+		panFrom = new Point();
 	}
 
 	/*
@@ -33,8 +38,6 @@ public class SimMouseInputHandler extends MouseAdapter {
 	 */
 	public void handleLeftClick(MouseEvent e) {
 		int mouseX = e.getX();
-		int mouseY = e.getY();
-		double circleX, circleY, dist;
 
 		// this should always be the case but here we go anyway, since mosuerelease
 		//	will reset this flag
@@ -43,28 +46,58 @@ public class SimMouseInputHandler extends MouseAdapter {
 		}
 
 		// see if we are in the control panel
-		if (mouseX > DisplayPanel.screenWidth) {
+		if (mouseX > DisplayPanel.viewWidth) {
 			isControlPanelPressed = true;
 			cplClick = e.getPoint();
+			return;
 		}
 
 		// see if we are selecting a vertex
-		// for each intersection
-		for (Intersection i : TrafficSimulatorApp.intersections) {
-			// process the intersection
-			circleX = i.getX(); // for convenience
-			circleY = (DisplayPanel.screenHeight - 1) - i.getY();
-
-			// determine the distance between the center of the circle and the mouse click
-			dist = Point2D.distance(mouseX, mouseY, circleX, circleY);
-
-			// if the click was inside the current vertex
-			if (dist <= DisplayPanel.vertexRadius) {
-				// "select" the vertex
-				isVertexPressed = true;
-				selectedVertex = i.getIndex();
-			}
+		int found = findVertex(e);
+		if (found >= 0) {
+			// "select" the vertex
+			isVertexPressed = true;
+			selectedVertex = found;
+			return;
+		}
+
+		// a click on a car picks it, a click on empty space starts moving the view
+		if (!pickVehicle(e)) {
+			isPanning = true;
+			panFrom = e.getPoint();
+		}
+	}
+
+	/*
+	 * find the vertex under the mouse
+	 *		@param e the mouse event
+	 *		@return the index of the nearest vertex within its drawn radius, -1 if there is none
+	 */
+	private int findVertex(MouseEvent e) {
+		double radius = Math.max(DisplayPanel.vertexRadius, 2 / DisplayPanel.getZoom());
+		return VertexIndex.findNearest(DisplayPanel.toWorldX(e.getX()), DisplayPanel.toWorldY(e.getY()), radius);
+	}
+
+	/*
+	 * pick the car under the mouse, in the frame being shown, so the control panel follows it
+	 *		@param e the mouse event
+	 *		@return true if there was a car to pick
+	 */
+	private boolean pickVehicle(MouseEvent e) {
+		if (DisplayPanel.getZoom() < DisplayPanel.densityZoom) {
+			// the cars are not drawn
+			return false;
 		}
+		SimSnapshot frame = TrafficSimulatorApp.frames.getShowing();
+		double radius = Math.max(DisplayPanel.vehicleRadius, 3 / DisplayPanel.getZoom());
+		int k = frame.findVehicle(DisplayPanel.toWorldX(e.getX()), DisplayPanel.toWorldY(e.getY()), radius);
+		if (k < 0) {
+			return false;
+		}
+		selectedCreated = frame.vehicleCreated[k];
+		selectedLeft = false;
+		selectedVehicle = frame.vehicleId[k];
+		return true;
 	}
 
 	/*
@@ -72,13 +105,12 @@ public class SimMouseInputHandler extends MouseAdapter {
 	 * @param e the mouse event
 	 */
 	public void handleMiddleClick(MouseEvent e) {
-		int mouseX = e.getX();
-		int mouseY = e.getY();
-
 		TrafficSimulatorApp.intersections.add(new SimpleIntersection(
-			(double) mouseX,
-			(double) (DisplayPanel.screenHeight - 1) - mouseY,
+			DisplayPanel.toWorldX(e.getX()),
+			DisplayPanel.toWorldY(e.getY()),
 			(double) TrafficSimulatorApp.defaultSwitchingInterval));
+		AdjacencyIndex.rebuild();
+		VertexIndex.add(TrafficSimulatorApp.intersections.size() - 1);
 		selectedVertex = TrafficSimulatorApp.intersections.get(TrafficSimulatorApp.intersections.size() - 1).getIndex();
 
 	}
@@ -88,10 +120,6 @@ public class SimMouseInputHandler extends MouseAdapter {
 	 * @param e the mouse event
 	 */
 	public void handleRightClick(MouseEvent e) {
-		int mouseX = e.getX();
-		int mouseY = e.getY();
-		double circleX, circleY, dist;
-
 		// quit if no vertex selected
 		if (selectedVertex < 0) {
 			// if there is no selected vertex
@@ -99,22 +127,16 @@ public class SimMouseInputHandler extends MouseAdapter {
 		}
 
 		// check to see if the right click was in a vertex
-		for (int i = 0; i < TrafficSimulatorApp.intersections.size(); i++) {
-			// for convenience
-			circleX = TrafficSimulatorApp.intersections.get(i).getX();
-			circleY = (DisplayPanel.screenHeight - 1) - TrafficSimulatorApp.intersections.get(i).getY();
-
-			// determine the distance between the center of the circle and the mouse click
-			dist = Point2D.distance(mouseX, mouseY, circleX, circleY);
+		int i = findVertex(e);
 
-			// if the click was inside the current vertex being checked
-			if (dist <= DisplayPanel.vertexRadius && i != selectedVertex) {
-				// add an edge from the selected vertex to this one
-				TrafficSimulatorApp.roads.add(new Road(selectedVertex, i, TrafficSimulatorApp.defaultQueueSize));
+		// if the click was inside a vertex other than the selected one
+		if (i >= 0 && i != selectedVertex) {
+			// add an edge from the selected vertex to this one
+			TrafficSimulatorApp.roads.add(new Road(selectedVertex, i, TrafficSimulatorApp.defaultQueueSize));
 
-				// additionally add the opposite direction edge
-				TrafficSimulatorApp.roads.add(new Road(i, selectedVertex, TrafficSimulatorApp.defaultQueueSize));
-			}
+			// additionally add the opposite direction edge
+			TrafficSimulatorApp.roads.add(new Road(i, selectedVertex, TrafficSimulatorApp.defaultQueueSize));
+			AdjacencyIndex.rebuild();
 		}
 	}
 
@@ -125,18 +147,31 @@ public class SimMouseInputHandler extends MouseAdapter {
 	@Override
 	public void mousePressed(MouseEvent e) {
 		if (TrafficSimulatorApp.isSimulating()) {
-			// do nothing if we are simulating.. stop messing around you
+			// only move the window or the view if we are simulating.. stop messing around you
+			if (e.getButton() == MouseEvent.BUTTON1) {
+				mouseButtonDown = true;
+				if (e.getX() > DisplayPanel.viewWidth) {
+					isControlPanelPressed = true;
+					cplClick = e.getPoint();
+				} else if (!pickVehicle(e)) {
+					isPanning = true;
+					panFrom = e.getPoint();
+				}
+			}
 			return;
 		}
-		if (e.getButton() == MouseEvent.BUTTON1) {
-			// handle left click
-			handleLeftClick(e);
-		} else if (e.getButton() == MouseEvent.BUTTON2) {
-			// this is actually for the middle click
-			handleMiddleClick(e);
-		} else if (e.getButton() == MouseEvent.BUTTON3) {
-			// right click
-			handleRightClick(e);
+		// the simulation thread may still be finishing a tick
+		synchronized (TrafficSimulatorApp.simLock) {
+			if (e.getButton() == MouseEvent.BUTTON1) {
+				// handle left click
+				handleLeftClick(e);
+			} else if (e.getButton() == MouseEvent.BUTTON2) {
+				// this is actually for the middle click
+				handleMiddleClick(e);
+			} else if (e.getButton() == MouseEvent.BUTTON3) {
+				// right click
+				handleRightClick(e);
+			}
 		}
 	}
 
@@ -151,6 +186,7 @@ public class SimMouseInputHandler extends MouseAdapter {
 			mouseButtonDown = false;
 			isVertexPressed = false;
 			isControlPanelPressed = false;
+			isPanning = false;
 		}
 	}
 
@@ -164,9 +200,19 @@ public class SimMouseInputHandler extends MouseAdapter {
 			tsa.setLocation(tsa.getX() + (me.getX() - cplClick.x), tsa.getY() + (me.getY() - cplClick.y));
 			return;
 		}
+		if (isPanning) {
+			DisplayPanel.panBy(me.getX() - panFrom.x, me.getY() - panFrom.y);
+			panFrom = me.getPoint();
+			return;
+		}
 		if (isVertexPressed) {
-			TrafficSimulatorApp.intersections.get(selectedVertex).setX((double) me.getX());
-			TrafficSimulatorApp.intersections.get(selectedVertex).setY((DisplayPanel.screenHeight - 1) - ((double) me.getY()));
+			// vertices can be dragged while simulating, so keep the move out of the middle of a tick
+			synchronized (TrafficSimulatorApp.simLock) {
+				TrafficSimulatorApp.intersections.get(selectedVertex).setX(DisplayPanel.toWorldX(me.getX()));
+				TrafficSimulatorApp.intersections.get(selectedVertex).setY(DisplayPanel.toWorldY(me.getY()));
+				VertexIndex.move(selectedVertex);
+			}
+			DisplayPanel.invalidateBackground();
 		}
 	}
 
@@ -176,6 +222,12 @@ public class SimMouseInputHandler extends MouseAdapter {
 	 */
 	@Override
 	public void mouseWheelMoved(MouseWheelEvent mwe) {
+		if (mwe.isControlDown()) {
+			// zoom about the mouse, a notch at a time
+			DisplayPanel.zoomAt(mwe.getX(), mwe.getY(), Math.pow(1.25, -mwe.getWheelRotation()));
+			return;
+		}
+
 		if (TrafficSimulatorApp.isSimulating()) {
 			// do nothing if we are simulating.. stop messing around you
 			return;
@@ -201,6 +253,9 @@ public class SimMouseInputHandler extends MouseAdapter {
 		}
 
 		// if we got past all the checks, we change the value
-		TrafficSimulatorApp.intersections.get(selectedVertex).setN(TrafficSimulatorApp.intersections.get(selectedVertex).getN() - mwe.getWheelRotation());
+		synchronized (TrafficSimulatorApp.simLock) {
+			TrafficSimulatorApp.intersections.get(selectedVertex).setN(TrafficSimulatorApp.intersections.get(selectedVertex).getN() - mwe.getWheelRotation());
+		}
+		DisplayPanel.invalidateBackground();
 	}
 }
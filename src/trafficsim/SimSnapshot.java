@@ -0,0 +1,213 @@
+package trafficsim;
+
+/**
+ * Class SimSnapshot holds a copy of everything the display shows that the simulation
+ * changes: vehicle positions and colors, the lights, the global counters and trip times,
+ * and the per vertex stats.  the simulation thread fills one in between ticks, or from a log when
+ * replaying, and the display paints from it without touching the live model
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class SimSnapshot {
+
+	protected int simTime;
+	protected long waitTime;
+	protected long timeInSim;
+	protected long throughput;
+	protected long tripP50, tripP99;	// trip times of the cars that reached a sink, -1 when replaying
+	protected long waitP50, waitP99;
+	protected int vehicleCount;
+	protected float[] vehicleX = new float[0];
+	protected float[] vehicleY = new float[0];
+	protected int[] vehicleColor = new int[0];
+	protected int[] vehicleId = new int[0];
+	protected int[] vehicleCreated = new int[0];	// -1 when replaying
+	protected int[] vehicleEdge = new int[0];
+	protected int pickedSlot = -1;	// where the car picked in the editor is, -1 if it has left
+	protected int pickedEdge;
+	protected int pickedCreated;
+	protected int pickedWaited;
+	protected SpatialGrid vehicleGrid = new SpatialGrid();	// vehicles by where they are, for drawing only what is visible
+	protected int roadCount;
+	protected int[] roadVehicles = new int[0];	// number of vehicles on each road, for drawing density when zoomed out
+	protected int vertexCount;
+	protected long[] vertexWait = new long[0];
+	protected long[] vertexThroughput = new long[0];
+	protected int[] vertexGreen = new int[0];	// the road with a green light at each vertex, -1 for none
+
+	/*
+	 * copy the live state.  called by the simulation thread holding the simLock, so
+	 * nothing changes under us
+	 */
+	public void capture() {
+		VehicleTable vehicles = TrafficSimulatorApp.vehicles;
+
+		simTime = TrafficSimulatorApp.simTime;
+		waitTime = TrafficSimulatorApp.waitTime.sum();
+		timeInSim = TrafficSimulatorApp.timeInSim.sum();
+		throughput = TrafficSimulatorApp.throughput.sum();
+		TripHistogram trip = TrafficSimulatorApp.trips.getTripTime();
+		TripHistogram wait = TrafficSimulatorApp.trips.getWaitTime();
+		tripP50 = trip.getPercentile(0.5);
+		tripP99 = trip.getPercentile(0.99);
+		waitP50 = wait.getPercentile(0.5);
+		waitP99 = wait.getPercentile(0.99);
+
+		vehicleCount = vehicles.size();
+		growVehicles(vehicleCount);
+		// ids are handed on, the picked car is the one with its id created when it was
+		int picked = SimMouseInputHandler.selectedVehicle;
+		int created = SimMouseInputHandler.selectedCreated;
+		pickedSlot = -1;
+		for (int slot = 0; slot < vehicleCount; slot++) {
+			Vehicle v = vehicles.get(slot);
+			vehicleX[slot] = (float) v.getVehicleX();
+			vehicleY[slot] = (float) v.getVehicleY();
+			vehicleColor[slot] = vehicles.color[slot];
+			vehicleId[slot] = vehicles.id[slot];
+			vehicleCreated[slot] = vehicles.createTime[slot];
+			vehicleEdge[slot] = vehicles.onEdge[slot];
+			if (vehicles.id[slot] == picked && (created < 0 || vehicles.createTime[slot] == created)) {
+				pickedSlot = slot;
+				pickedEdge = vehicles.onEdge[slot];
+				pickedCreated = vehicles.createTime[slot];
+				pickedWaited = vehicles.waitTime[slot];
+			}
+		}
+
+		vertexCount = TrafficSimulatorApp.intersections.size();
+		growVertices(vertexCount);
+		for (int i = 0; i < vertexCount; i++) {
+			Intersection intersection = TrafficSimulatorApp.intersections.get(i);
+			vertexWait[i] = intersection.getWaitTime();
+			vertexThroughput[i] = intersection.getThroughput();
+			vertexGreen[i] = intersection.getGreenRoad();
+		}
+		finish();
+	}
+
+	/*
+	 * copy the state of a log being replayed.  the network of the log is the live network,
+	 * which is not stepped while replaying.  the log keeps no per vertex stats or car history
+	 *		@param log the log, as of the record decoded last
+	 */
+	public void capture(TrajectoryLog log) {
+		simTime = log.tick;
+		waitTime = log.waitTime;
+		timeInSim = log.timeInSim;
+		throughput = log.throughput;
+		tripP50 = tripP99 = waitP50 = waitP99 = -1;
+
+		vehicleCount = log.count;
+		growVehicles(vehicleCount);
+		// the log keeps no creation times, but marks a car whose id was handed on as new
+		int picked = SimMouseInputHandler.selectedVehicle;
+		pickedSlot = -1;
+		for (int slot = 0; slot < vehicleCount; slot++) {
+			int id = log.ids[slot];
+			vehicleX[slot] = (float) (log.x[id] / TrajectoryLog.positionScale);
+			vehicleY[slot] = (float) (log.y[id] / TrajectoryLog.positionScale);
+			vehicleColor[slot] = log.color[id];
+			vehicleId[slot] = id;
+			vehicleCreated[slot] = -1;
+			vehicleEdge[slot] = log.edge[id];
+			if (id == picked && log.replaced[id]) {
+				SimMouseInputHandler.selectedLeft = true;
+			}
+			if (id == picked && !SimMouseInputHandler.selectedLeft) {
+				pickedSlot = slot;
+				pickedEdge = log.edge[id];
+				pickedCreated = -1;
+				pickedWaited = -1;
+			}
+		}
+
+		vertexCount = Math.min(TrafficSimulatorApp.intersections.size(), log.green.length);
+		growVertices(vertexCount);
+		for (int i = 0; i < vertexCount; i++) {
+			vertexWait[i] = 0;
+			vertexThroughput[i] = 0;
+			vertexGreen[i] = log.green[i];
+		}
+		finish();
+	}
+
+	private void growVehicles(int count) {
+		if (vehicleX.length < count) {
+			int capacity = Math.max(count, vehicleX.length * 2);
+			vehicleX = new float[capacity];
+			vehicleY = new float[capacity];
+			vehicleColor = new int[capacity];
+			vehicleId = new int[capacity];
+			vehicleCreated = new int[capacity];
+			vehicleEdge = new int[capacity];
+		}
+	}
+
+	private void growVertices(int count) {
+		if (vertexWait.length < count) {
+			vertexWait = new long[count];
+			vertexThroughput = new long[count];
+			vertexGreen = new int[count];
+		}
+	}
+
+	/*
+	 * sort the copied vehicles into the grid and count them by road
+	 */
+	private void finish() {
+		// sort the vehicles into cells over the extent of the network
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (Intersection intersection : TrafficSimulatorApp.intersections) {
+			minX = Math.min(minX, intersection.getX());
+			minY = Math.min(minY, intersection.getY());
+			maxX = Math.max(maxX, intersection.getX());
+			maxY = Math.max(maxY, intersection.getY());
+		}
+		if (minX > maxX) {
+			minX = minY = maxX = maxY = 0;
+		}
+		vehicleGrid.setBounds(minX, minY, maxX, maxY, 32);
+		vehicleGrid.fillPoints(vehicleCount, vehicleX, vehicleY);
+
+		roadCount = TrafficSimulatorApp.roads.size();
+		if (roadVehicles.length < roadCount) {
+			roadVehicles = new int[roadCount];
+		}
+		for (int k = 0; k < roadCount; k++) {
+			roadVehicles[k] = 0;
+		}
+		for (int slot = 0; slot < vehicleCount; slot++) {
+			if (vehicleEdge[slot] < roadCount) {
+				roadVehicles[vehicleEdge[slot]]++;
+			}
+		}
+	}
+
+	/*
+	 * find the car nearest a point
+	 *		@param x the x coordinate, in network units
+	 *		@param y the y coordinate, in network units
+	 *		@param radius how far from the point to look
+	 *		@return the position of the car in the snapshot, or -1 if there is none that close
+	 */
+	public int findVehicle(double x, double y, double radius) {
+		int c0 = vehicleGrid.getColumn(x - radius), c1 = vehicleGrid.getColumn(x + radius);
+		int r0 = vehicleGrid.getRow(y - radius), r1 = vehicleGrid.getRow(y + radius);
+		int[] items = vehicleGrid.getItems();
+		int best = -1;
+		double bestDistance = radius * radius;
+		for (int r = r0; r <= r1; r++) {
+			int end = vehicleGrid.getCellEnd(c1, r);
+			for (int i = vehicleGrid.getCellStart(c0, r); i < end; i++) {
+				int k = items[i];
+				double dx = vehicleX[k] - x;
+				double dy = vehicleY[k] - y;
+				if (dx * dx + dy * dy <= bestDistance) {
+					best = k;
+					bestDistance = dx * dx + dy * dy;
+				}
+			}
+		}
+		return best;
+	}
+}
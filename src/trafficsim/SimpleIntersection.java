@@ -4,6 +4,8 @@
  */
 package trafficsim;
 
+import java.nio.ByteBuffer;
+
 /**
  * SimpleIntersection
  * @author Will, Michael
@@ -13,114 +15,224 @@ public class SimpleIntersection extends Intersection {
 	private int ticksTillNext = -1;
 	private int activeRoad;
 	private int[][] roadConnections;
+	private int roadConnectionsVersion = -1;	// topology version roadConnections was built for
 	private boolean delaying = false;
+	private final RandomStream random;	// this intersection's own random stream, so updates can run in any order
+	private int updatedAt;	// the last tick this intersection was updated for
 
 	public SimpleIntersection(double x, double y, double n) {
 		super(x, y, n);
+		random = new RandomStream(TrafficSimulatorApp.nextIntersectionSeed());
+		updatedAt = TrafficSimulatorApp.simTime;
 		if (n > 0) {
 			ticksTillNext = getArrivalDelay(getN() / 3600);
 		}
 	}
 
 	public int getArrivalDelay(double averageArrivalRate) {
-		return (int) ((-1 / (averageArrivalRate)) * Math.log(1 - Math.random()));
+		return (int) ((-1 / (averageArrivalRate)) * Math.log(1 - random.nextDouble()));
+	}
+
+	/*
+	 * build the turning table for a switching intersection.  row i holds in road i in
+	 * column 0, followed by every out road except the one leading back where it came from
+	 *		@param index the index of this intersection
+	 *		@param inDegree the in degree of this intersection
+	 *		@param outDegree the out degree of this intersection
+	 */
+	private void buildRoadConnections(int index, int inDegree, int outDegree) {
+		roadConnections = new int[inDegree][outDegree];
+		for (int i = 0; i < inDegree; i++) {
+			int inEdge = AdjacencyIndex.getInRoad(index, i);
+			int fromVertex = TrafficSimulatorApp.roads.get(inEdge).getFromVertex();
+			roadConnections[i][0] = inEdge;
+			int outSpot = 1;
+			for (int k = 0; k < outDegree && outSpot < outDegree; k++) {
+				int outEdge = AdjacencyIndex.getOutRoad(index, k);
+				if (TrafficSimulatorApp.roads.get(outEdge).getToVertex() != fromVertex) {
+					roadConnections[i][outSpot] = outEdge;
+					outSpot++;
+				}
+			}
+		}
+		roadConnectionsVersion = AdjacencyIndex.getVersion();
+
+		// the number of roads may have changed under the active light
+		if (activeRoad >= inDegree) {
+			activeRoad = 0;
+		}
+	}
+
+	/*
+	 * we are idle while every queue into us is empty.  all that happens to an idle
+	 * intersection until a vehicle arrives is that its timers run down
+	 */
+	@Override
+	public boolean isIdle() {
+		int index = getIndex();
+		int inDegree = AdjacencyIndex.getInDegree(index);
+		for (int k = 0; k < inDegree; k++) {
+			if (TrafficSimulatorApp.roads.get(AdjacencyIndex.getInRoad(index, k)).getQueueSize() > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * the only timer with an effect while we are idle is the arrival timer of a source
+	 */
+	@Override
+	public int getNextTimerTick() {
+		if (AdjacencyIndex.getInDegree(getIndex()) == 1 && ticksTillNext >= 0) {
+			return updatedAt + ticksTillNext + 1;
+		}
+		return -1;
+	}
+
+	/*
+	 * run the timers down over the ticks we were idle, in as many steps as there were
+	 * phase changes rather than one step a tick
+	 */
+	@Override
+	public void skipTo(int tick) {
+		int ticks = tick - updatedAt;
+		if (ticks <= 0) {
+			return;
+		}
+		updatedAt = tick;
+
+		int inDegree = AdjacencyIndex.getInDegree(getIndex());
+		if (inDegree == 1) {
+			// the caller wakes us before the timer runs out
+			ticksTillNext -= ticks;
+		} else if (inDegree > 2) {
+			while (ticks > 0) {
+				if (ticksTillNext >= 1) {
+					int step = Math.min(ticksTillNext, ticks);
+					ticksTillNext -= step;
+					ticks -= step;
+				} else {
+					if (delaying) {
+						ticksTillNext = (int) getN();
+						activeRoad = (activeRoad + 1) % inDegree;
+						delaying = false;
+					} else {
+						delaying = true;
+						ticksTillNext = 5;
+					}
+					TickProfiler.switched(this);
+					ticks--;
+				}
+			}
+		}
+	}
+
+	/*
+	 * only switching intersections have lights, and none is green while they change over
+	 */
+	@Override
+	public int getGreenRoad() {
+		int index = getIndex();
+		int inDegree = AdjacencyIndex.getInDegree(index);
+		if (inDegree <= 2 || delaying || activeRoad >= inDegree) {
+			return -1;
+		}
+		return AdjacencyIndex.getInRoad(index, activeRoad);
+	}
+
+	@Override
+	protected int getStateBytes() {
+		return super.getStateBytes() + 4 + 4 + 1 + 8 + 4;
+	}
+
+	/*
+	 * the light, the timer, our random stream and how far we are brought up to date.  the
+	 * turning table is worked out again from the network
+	 */
+	@Override
+	protected void writeState(ByteBuffer out) {
+		super.writeState(out);
+		out.putInt(ticksTillNext);
+		out.putInt(activeRoad);
+		out.put((byte) (delaying ? 1 : 0));
+		out.putLong(random.getState());
+		out.putInt(updatedAt);
+	}
+
+	@Override
+	protected void readState(ByteBuffer in) {
+		super.readState(in);
+		ticksTillNext = in.getInt();
+		activeRoad = in.getInt();
+		delaying = in.get() != 0;
+		random.setState(in.getLong());
+		updatedAt = in.getInt();
 	}
 
 	@Override
 	public void updateIntersection() {
+		updatedAt = TrafficSimulatorApp.simTime;
+		int index = getIndex();
+		int inDegree = AdjacencyIndex.getInDegree(index);
+		int outDegree = AdjacencyIndex.getOutDegree(index);
 
-		if (getInDegree() == 1) {
+		if (inDegree == 1) {
 			// if we are a sink/source node
 			if (ticksTillNext == 0) {
-				for (Road r : TrafficSimulatorApp.roads) {
-					if (r.getFromVertex() == getIndex()) {
-						TrafficSimulatorApp.vehicles.add(new Vehicle(r.getIndex()));
-					}
+				long started = TickProfiler.start();
+				for (int k = 0; k < outDegree; k++) {
+					TrafficSimulatorApp.engine.spawnVehicle(this, AdjacencyIndex.getOutRoad(index, k), random.nextSeed());
 				}
+				TickProfiler.spawned(started, outDegree);
 				ticksTillNext = getArrivalDelay(getN() / 3600);
 				return;
 			}
 			ticksTillNext--;
 			//TODO pop vehicles off and destroy them
-			for (Road r : TrafficSimulatorApp.roads) {
-				if (r.getToVertex() == getIndex() && r.getQueueSize() > 0) {
-					TrafficSimulatorApp.throughput++;
-					TrafficSimulatorApp.vehicles.remove(r.popVehicle());
+			for (int k = 0; k < inDegree; k++) {
+				Road r = TrafficSimulatorApp.roads.get(AdjacencyIndex.getInRoad(index, k));
+				if (r.getQueueSize() > 0) {
+					long started = TickProfiler.start();
+					TrafficSimulatorApp.engine.retireVehicle(this, r.popVehicle());
+					TickProfiler.removed(started);
 				}
 			}
 			return;
 		}
 
-		if (getInDegree() == 2) {
+		if (inDegree == 2) {
 			// if we are a non-switching node, a bend in the road, or something else
-			int firstInRoad = -1;
-			int secondInRoad = -1;
-			int firstOutRoad = -1;
-			int secondOutRoad = -1;
-			for (int i = 0; i < TrafficSimulatorApp.roads.size(); i++) {
-				if (TrafficSimulatorApp.roads.get(i).getToVertex() == getIndex()) {
-					if (firstInRoad == -1) {
-						firstInRoad = i;
-					} else {
-						secondInRoad = i;
-					}
-				}
-				if (TrafficSimulatorApp.roads.get(i).getFromVertex() == getIndex()) {
-					if (firstOutRoad == -1) {
-						firstOutRoad = i;
-					} else {
-						secondOutRoad = i;
-					}
-				}
-			}
+			int firstInRoad = AdjacencyIndex.getInRoad(index, 0);
+			int secondInRoad = AdjacencyIndex.getInRoad(index, 1);
+			int firstOutRoad = outDegree > 0 ? AdjacencyIndex.getOutRoad(index, 0) : -1;
+			int secondOutRoad = outDegree > 1 ? AdjacencyIndex.getOutRoad(index, outDegree - 1) : -1;
 			Vehicle v = TrafficSimulatorApp.roads.get(firstInRoad).popVehicle();
 			if (v != null) {
-				v.setEdge(secondOutRoad);
-				v.isQueued = false;
+				TrafficSimulatorApp.engine.routeVehicle(this, v, secondOutRoad);
 			}
 			v = null;
 			v = TrafficSimulatorApp.roads.get(secondInRoad).popVehicle();
 			if (v != null) {
-				v.setEdge(firstOutRoad);
-				v.isQueued = false;
+				TrafficSimulatorApp.engine.routeVehicle(this, v, firstOutRoad);
 			}
 			return;
 		}
 
-		if (getInDegree() > 2) {
+		if (inDegree > 2) {
 			// for "real" (switching) intersections
-			for (int i = 0; i < TrafficSimulatorApp.roads.size(); i++) {
-				if (TrafficSimulatorApp.roads.get(i).getToVertex() == getIndex()) {
-					setWaitTime(getWaitTime() + TrafficSimulatorApp.roads.get(i).getQueueSize());
-				}
+			for (int k = 0; k < inDegree; k++) {
+				setWaitTime(getWaitTime() + TrafficSimulatorApp.roads.get(AdjacencyIndex.getInRoad(index, k)).getQueueSize());
 			}
-			roadConnections = new int[getInDegree()][getOutDegree()];
-			int inEdge = 0;
-			for (int i = 0; i < getInDegree(); i++) {
-				int fromVertex = -1;
-				while (fromVertex < 0) {
-					if (TrafficSimulatorApp.roads.get(inEdge).getToVertex() == getIndex()) {
-						roadConnections[i][0] = inEdge;
-						fromVertex = TrafficSimulatorApp.roads.get(inEdge).getFromVertex();
-					}
-					inEdge++;
-				}
-				int outEdge = 0;
-				int outSpot = 1;
-				while (outEdge < TrafficSimulatorApp.roads.size() && outSpot <= getOutDegree()) {
-					if (TrafficSimulatorApp.roads.get(outEdge).getFromVertex() == getIndex() && TrafficSimulatorApp.roads.get(outEdge).getToVertex() != fromVertex) {
-						roadConnections[i][outSpot] = outEdge;
-						outSpot++;
-					}
-					outEdge++;
-				}
+			if (roadConnectionsVersion != AdjacencyIndex.getVersion()) {
+				// the network was edited since we last looked, work out the turns again
+				buildRoadConnections(index, inDegree, outDegree);
 			}
 			if (ticksTillNext >= 1) {
 				if (ticksTillNext % 10 == 0 && !delaying) {
 					Vehicle v = TrafficSimulatorApp.roads.get(roadConnections[activeRoad][0]).popVehicle();
 					if (v != null) {
-						v.setEdge(roadConnections[activeRoad][v.chooseDirection(getOutDegree() - 1)]);
-						v.isQueued = false;
+						TrafficSimulatorApp.engine.routeVehicle(this, v, roadConnections[activeRoad][v.chooseDirection(outDegree - 1)]);
 						setThroughput(getThroughput() + 1);
 					}
 				}
@@ -128,12 +240,13 @@ public class SimpleIntersection extends Intersection {
 			} else {
 				if (delaying) {
 					ticksTillNext = (int) getN();
-					activeRoad = (activeRoad + 1) % getInDegree();
+					activeRoad = (activeRoad + 1) % inDegree;
 					delaying = false;
 				} else {
 					delaying = true;
 					ticksTillNext = 5;
 				}
+				TickProfiler.switched(this);
 			}
 		}
 		return;
@@ -0,0 +1,109 @@
+package trafficsim;
+
+import java.io.PrintStream;
+
+/**
+ * Class SimulationEngine is the base for the different ways of advancing the model by a tick.
+ * the intersections never add or remove vehicles directly, they ask the engine, so an
+ * engine that updates intersections concurrently can defer the changes to the table
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public abstract class SimulationEngine {
+
+	/*
+	 * create an engine for the given number of worker threads
+	 *		@param threads the number of threads, 1 or less gives the single threaded engine
+	 *		@return the engine
+	 */
+	public static SimulationEngine create(int threads) {
+		if (threads <= 1) {
+			return new SequentialEngine();
+		}
+		return new ParallelEngine(threads);
+	}
+
+	/*
+	 * add the per tick totals to the global time counters.  every live vehicle spends the
+	 * tick in the simulation, and every queued one spends it waiting
+	 */
+	protected static void countVehicleTime() {
+		TrafficSimulatorApp.timeInSim.add(TrafficSimulatorApp.vehicles.size());
+		TrafficSimulatorApp.waitTime.add(TrafficSimulatorApp.vehicles.getQueuedCount());
+	}
+
+	/*
+	 * advance the simulation by a single tick, updating simTime
+	 */
+	public abstract void tick();
+
+	/*
+	 * advance the simulation by a number of ticks.  engines with per run setup override this
+	 *		@param ticks the number of ticks to run
+	 */
+	public void run(int ticks) {
+		for (int t = 0; t < ticks; t++) {
+			tick();
+		}
+	}
+
+	/*
+	 * return the number of vehicles in the simulation
+	 *		@return the live vehicle count
+	 */
+	public int getVehicleCount() {
+		return TrafficSimulatorApp.vehicles.size();
+	}
+
+	/*
+	 * return whether the whole state of a run is in the shared model, so a checkpoint of
+	 * the model captures it.  engines that keep vehicles of their own say no
+	 *		@return true if the run can be checkpointed
+	 */
+	public boolean canCheckpoint() {
+		return true;
+	}
+
+	/*
+	 * stop any threads the engine keeps between runs.  it is not run again afterwards
+	 */
+	public void shutdown() {
+	}
+
+	/*
+	 * print any engine specific statistics, the default engines have none
+	 *		@param out the stream to print to
+	 */
+	public void printStatistics(PrintStream out) {
+	}
+
+	/*
+	 * create a new vehicle on a road leaving an intersection
+	 *		@param at the intersection the vehicle leaves from
+	 *		@param edge the road the vehicle will ride
+	 *		@param seed the seed of the vehicle's random stream
+	 */
+	protected void spawnVehicle(Intersection at, int edge, long seed) {
+		TrafficSimulatorApp.vehicles.add(edge, seed);
+	}
+
+	/*
+	 * send a vehicle popped from a queue at an intersection along its next road
+	 *		@param at the intersection the vehicle is crossing
+	 *		@param v the vehicle
+	 *		@param edge the road the vehicle will ride next
+	 */
+	protected void routeVehicle(Intersection at, Vehicle v, int edge) {
+		v.setEdge(edge);
+	}
+
+	/*
+	 * take a vehicle that reached its destination out of the simulation, counting its trip
+	 *		@param at the intersection the vehicle arrived at
+	 *		@param v the vehicle
+	 */
+	protected void retireVehicle(Intersection at, Vehicle v) {
+		TrafficSimulatorApp.throughput.increment();
+		TrafficSimulatorApp.trips.record(v.getOrigin(), at.getIndex(), TrafficSimulatorApp.simTime - v.getCreateTime(), v.getWaitTime());
+		TrafficSimulatorApp.vehicles.remove(v);
+	}
+}
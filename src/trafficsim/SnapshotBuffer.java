@@ -0,0 +1,55 @@
+package trafficsim;
+
+/**
+ * Class SnapshotBuffer passes SimSnapshots from the simulation thread to the display with
+ * three buffers.  the simulation fills one, the display paints another, and the third holds
+ * the newest finished frame.  neither side ever waits for the other to finish with a frame,
+ * only for the swap itself
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class SnapshotBuffer {
+
+	private SimSnapshot writing = new SimSnapshot();	// owned by the simulation thread
+	private SimSnapshot ready = new SimSnapshot();	// the newest finished frame
+	private SimSnapshot showing = new SimSnapshot();	// owned by the event dispatch thread
+	private boolean fresh = false;	// whether ready is newer than showing
+
+	/*
+	 * return the snapshot to fill, called by the simulation thread
+	 */
+	public SimSnapshot getWriteBuffer() {
+		return writing;
+	}
+
+	/*
+	 * hand the filled snapshot over as the newest frame, called by the simulation thread
+	 */
+	public synchronized void publish() {
+		SimSnapshot t = ready;
+		ready = writing;
+		writing = t;
+		fresh = true;
+	}
+
+	/*
+	 * take the newest frame for display, if there is one, called on the event dispatch thread
+	 *		@return true if the frame shown has changed
+	 */
+	public synchronized boolean acquire() {
+		if (!fresh) {
+			return false;
+		}
+		SimSnapshot t = showing;
+		showing = ready;
+		ready = t;
+		fresh = false;
+		return true;
+	}
+
+	/*
+	 * return the frame being displayed, called on the event dispatch thread
+	 */
+	public SimSnapshot getShowing() {
+		return showing;
+	}
+}
@@ -0,0 +1,159 @@
+package trafficsim;
+
+/**
+ * Class SpatialGrid is a uniform grid over a rectangle of the network, used to find what
+ * lies in the visible part of it without looking at everything else.  items are ints
+ * (vehicle slots, road or vertex indices) stored sorted by cell in one array, with the
+ * start of each cell in another, so a lookup is a walk over a few ranges of an int array.
+ * the grid is filled in one go with a counting sort, and filled again when things move
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class SpatialGrid {
+
+	private static final int maxCellsPerSide = 256;
+	private double originX, originY;	// world coordinates of the lower left corner
+	private double cellSize;
+	private int columns = 1, rows = 1;
+	private int[] cellStart = new int[2];	// items of cell c are items[cellStart[c]..cellStart[c+1]-1]
+	private int[] items = new int[0];
+	private int itemCount = 0;
+	private int[] fill = new int[1];	// scratch, the next free place in each cell while filling
+
+	/*
+	 * set the area covered, and pick a cell size giving at most maxCellsPerSide cells a side
+	 *		@param minX the lowest x coordinate
+	 *		@param minY the lowest y coordinate
+	 *		@param maxX the highest x coordinate
+	 *		@param maxY the highest y coordinate
+	 *		@param minCellSize the smallest cell size worth using
+	 */
+	public void setBounds(double minX, double minY, double maxX, double maxY, double minCellSize) {
+		double extent = Math.max(maxX - minX, maxY - minY);
+		originX = minX;
+		originY = minY;
+		cellSize = Math.max(minCellSize, extent / maxCellsPerSide);
+		columns = (int) ((maxX - minX) / cellSize) + 1;
+		rows = (int) ((maxY - minY) / cellSize) + 1;
+		if (cellStart.length < columns * rows + 1) {
+			cellStart = new int[columns * rows + 1];
+			fill = new int[columns * rows];
+		}
+	}
+
+	/*
+	 * return the column an x coordinate falls in, clamped to the grid
+	 */
+	public int getColumn(double x) {
+		int c = (int) Math.floor((x - originX) / cellSize);
+		return c < 0 ? 0 : (c >= columns ? columns - 1 : c);
+	}
+
+	/*
+	 * return the row a y coordinate falls in, clamped to the grid
+	 */
+	public int getRow(double y) {
+		int r = (int) Math.floor((y - originY) / cellSize);
+		return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	/*
+	 * fill the grid with points, item k being at (x[k], y[k])
+	 *		@param count the number of points
+	 *		@param x the x coordinates
+	 *		@param y the y coordinates
+	 */
+	public void fillPoints(int count, float[] x, float[] y) {
+		int cells = columns * rows;
+		for (int c = 0; c <= cells; c++) {
+			cellStart[c] = 0;
+		}
+		for (int k = 0; k < count; k++) {
+			cellStart[getRow(y[k]) * columns + getColumn(x[k]) + 1]++;
+		}
+		place(count);
+		for (int k = 0; k < count; k++) {
+			items[fill[getRow(y[k]) * columns + getColumn(x[k])]++] = k;
+		}
+	}
+
+	/*
+	 * fill the grid with boxes, item k covering (minX[k], minY[k]) to (maxX[k], maxY[k]).
+	 * a box is put in every cell it touches, so a lookup may see it more than once
+	 *		@param count the number of boxes
+	 */
+	public void fillBoxes(int count, double[] minX, double[] minY, double[] maxX, double[] maxY) {
+		int cells = columns * rows;
+		for (int c = 0; c <= cells; c++) {
+			cellStart[c] = 0;
+		}
+		int total = 0;
+		for (int k = 0; k < count; k++) {
+			int c0 = getColumn(minX[k]), c1 = getColumn(maxX[k]);
+			int r0 = getRow(minY[k]), r1 = getRow(maxY[k]);
+			for (int r = r0; r <= r1; r++) {
+				for (int c = c0; c <= c1; c++) {
+					cellStart[r * columns + c + 1]++;
+				}
+			}
+			total += (c1 - c0 + 1) * (r1 - r0 + 1);
+		}
+		place(total);
+		for (int k = 0; k < count; k++) {
+			int c0 = getColumn(minX[k]), c1 = getColumn(maxX[k]);
+			int r0 = getRow(minY[k]), r1 = getRow(maxY[k]);
+			for (int r = r0; r <= r1; r++) {
+				for (int c = c0; c <= c1; c++) {
+					items[fill[r * columns + c]++] = k;
+				}
+			}
+		}
+	}
+
+	/*
+	 * turn the per cell counts in cellStart[c+1] into starting places, and size the item array
+	 */
+	private void place(int total) {
+		int cells = columns * rows;
+		for (int c = 0; c < cells; c++) {
+			cellStart[c + 1] += cellStart[c];
+			fill[c] = cellStart[c];
+		}
+		if (items.length < total) {
+			items = new int[Math.max(total, items.length * 2)];
+		}
+		itemCount = total;
+	}
+
+	/*
+	 * return where the items of a cell start in getItems()
+	 */
+	public int getCellStart(int column, int row) {
+		return cellStart[row * columns + column];
+	}
+
+	/*
+	 * return where the items of a cell end in getItems(), exclusive
+	 */
+	public int getCellEnd(int column, int row) {
+		return cellStart[row * columns + column + 1];
+	}
+
+	/*
+	 * return the items sorted by cell, only the first getItemCount() are in use
+	 */
+	public int[] getItems() {
+		return items;
+	}
+
+	public int getItemCount() {
+		return itemCount;
+	}
+}
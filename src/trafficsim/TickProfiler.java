@@ -0,0 +1,316 @@
+package trafficsim;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Class TickProfiler times where each tick goes: the whole tick, the vehicle phase, the
+ * intersection phase, and handing a frame to the display, as well as each source firing
+ * and each car leaving at a sink.  signal switches are counted by each intersection, and
+ * the peak queue by each road, so neither costs a shared write.  it is turned on with
+ * -Dtrafficsim.profile=true, otherwise every call is a test of a constant the compiler
+ * takes out.  while on it is registered as the platform MBean trafficsim:type=TickProfiler,
+ * so a run can be watched from JConsole or anything else that speaks JMX
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class TickProfiler implements TickProfilerMBean {
+
+	protected final static boolean enabled = Boolean.getBoolean("trafficsim.profile");
+	protected final static int tick = 0, vehicles = 1, intersections = 2, render = 3, spawn = 4, removal = 5;
+	private final static String[] phaseNames = {"tick", "vehicles", "intersections", "render", "spawn", "removal"};
+	private final static String objectName = "trafficsim:type=TickProfiler";
+	private final static int fullestRoadCount = 10;
+	private final static long rateWindow = 1000000000l;	// ns the tick rate is measured over
+
+	private final static LatencyHistogram[] phases = new LatencyHistogram[phaseNames.length];
+	private final static LongAdder spawns = new LongAdder();
+	private final static LongAdder removals = new LongAdder();
+
+	// only the thread stepping the model writes these
+	private static volatile long ticks = 0;
+	private static volatile long windowStart = System.nanoTime();
+	private static volatile long windowTicks = 0;
+	private static volatile double ticksPerSecond = 0;
+	private static boolean registered = false;
+
+	static {
+		for (int k = 0; k < phases.length; k++) {
+			phases[k] = new LatencyHistogram();
+		}
+	}
+
+	/*
+	 * register the profiler with the platform MBean server, if it is on
+	 */
+	protected static synchronized void register() {
+		if (!enabled || registered) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new TickProfiler(), new ObjectName(objectName));
+			registered = true;
+		} catch (JMException jme) {
+			System.out.println("could not register " + objectName + ": " + jme.getMessage());
+		}
+	}
+
+	/*
+	 * return the time to measure a phase from
+	 *		@return the current time in ns, or 0 if the profiler is off
+	 */
+	protected static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/*
+	 * count the time since a start as one pass through a phase
+	 *		@param phase the phase, one of the constants above
+	 *		@param since when the phase began, from start() or the end of the phase before
+	 *		@return the current time, for the phase that follows
+	 */
+	protected static long phase(int phase, long since) {
+		if (!enabled) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		phases[phase].record(now - since);
+		return now;
+	}
+
+	/*
+	 * count a tick, taking the time since it began as its latency.  called by the thread
+	 * stepping the model, once a tick
+	 *		@param since when the tick began, from start()
+	 *		@return the current time, for the tick that follows
+	 */
+	protected static long tickDone(long since) {
+		return tickDone(since, start());
+	}
+
+	/*
+	 * count a tick that ended at the end of its last phase
+	 *		@param since when the tick began, from start()
+	 *		@param now when it ended, from phase()
+	 *		@return now, for the tick that follows
+	 */
+	protected static long tickDone(long since, long now) {
+		if (!enabled) {
+			return 0;
+		}
+		phases[tick].record(now - since);
+		ticks++;
+		if (now - windowStart >= rateWindow) {
+			ticksPerSecond = (ticks - windowTicks) * 1e9 / (now - windowStart);
+			windowStart = now;
+			windowTicks = ticks;
+		}
+		return now;
+	}
+
+	/*
+	 * count ticks that were passed over rather than run, so the tick rate includes them
+	 *		@param skipped the number of ticks
+	 */
+	protected static void ticksSkipped(int skipped) {
+		if (enabled) {
+			ticks += skipped;
+		}
+	}
+
+	/*
+	 * count a source firing, from start() when it began
+	 */
+	protected static void spawned(long since, int cars) {
+		if (enabled) {
+			phase(spawn, since);
+			spawns.add(cars);
+		}
+	}
+
+	/*
+	 * count a car leaving at a sink, from start() when it began
+	 */
+	protected static void removed(long since) {
+		if (enabled) {
+			phase(removal, since);
+			removals.increment();
+		}
+	}
+
+	/*
+	 * count a signal changing phase at an intersection
+	 *		@param at the intersection
+	 */
+	protected static void switched(Intersection at) {
+		if (enabled) {
+			at.countSignalSwitch();
+		}
+	}
+
+	/*
+	 * print the phase times and counts, for the end of a run
+	 *		@param out the stream to print to
+	 */
+	protected static void print(PrintStream out) {
+		if (!enabled) {
+			return;
+		}
+		TickProfiler profiler = new TickProfiler();
+		for (String line : profiler.getPhaseSummary()) {
+			out.println(line);
+		}
+		for (String line : profiler.getFullestRoads()) {
+			out.println(line);
+		}
+	}
+
+	@Override
+	public long getTicks() {
+		return ticks;
+	}
+
+	/*
+	 * the rate over the last second or so.  if the model has not been stepped for longer
+	 * than that, the rate since the last measure, so a paused run falls towards 0
+	 */
+	@Override
+	public double getTicksPerSecond() {
+		long start = windowStart;
+		long elapsed = System.nanoTime() - start;
+		if (elapsed >= 2 * rateWindow) {
+			return (ticks - windowTicks) * 1e9 / elapsed;
+		}
+		return ticksPerSecond;
+	}
+
+	@Override
+	public double getTickLatencyP50() {
+		return phases[tick].getPercentile(0.5) / 1e3;
+	}
+
+	@Override
+	public double getTickLatencyP99() {
+		return phases[tick].getPercentile(0.99) / 1e3;
+	}
+
+	@Override
+	public double getTickLatencyP999() {
+		return phases[tick].getPercentile(0.999) / 1e3;
+	}
+
+	@Override
+	public int getVehicleCount() {
+		SimulationEngine engine = TrafficSimulatorApp.engine;
+		return engine == null ? 0 : engine.getVehicleCount();
+	}
+
+	@Override
+	public long getSpawns() {
+		return spawns.sum();
+	}
+
+	@Override
+	public long getRemovals() {
+		return removals.sum();
+	}
+
+	@Override
+	public long getSignalSwitches() {
+		synchronized (TrafficSimulatorApp.simLock) {
+			long count = 0;
+			if (TrafficSimulatorApp.intersections != null) {
+				for (Intersection intersection : TrafficSimulatorApp.intersections) {
+					count += intersection.getSignalSwitches();
+				}
+			}
+			return count;
+		}
+	}
+
+	/*
+	 * the most cars each road has had waiting at once, by road index.  read holding the
+	 * simLock, so the network is not swapped out part way through
+	 */
+	@Override
+	public int[] getMaxQueueOccupancy() {
+		synchronized (TrafficSimulatorApp.simLock) {
+			ArrayList<Road> roads = TrafficSimulatorApp.roads;
+			if (roads == null) {
+				return new int[0];
+			}
+			int[] peaks = new int[roads.size()];
+			for (int k = 0; k < peaks.length; k++) {
+				peaks[k] = roads.get(k).getPeakQueueSize();
+			}
+			return peaks;
+		}
+	}
+
+	/*
+	 * the roads whose queues have come closest to full
+	 */
+	@Override
+	public String[] getFullestRoads() {
+		synchronized (TrafficSimulatorApp.simLock) {
+			ArrayList<Road> roads = TrafficSimulatorApp.roads;
+			if (roads == null) {
+				return new String[0];
+			}
+			// sort the roads by peak occupancy, in parts per thousand of capacity, fullest first
+			long[] keys = new long[roads.size()];
+			for (int k = 0; k < keys.length; k++) {
+				Road r = roads.get(k);
+				long occupancy = r.getPeakQueueSize() * 1000l / Math.max(1, r.getQueueCapacity());
+				keys[k] = (occupancy << 32) | (0xffffffffl - k);
+			}
+			Arrays.sort(keys);
+			int n = Math.min(fullestRoadCount, keys.length);
+			String[] lines = new String[n];
+			for (int k = 0; k < n; k++) {
+				int index = (int) (0xffffffffl - (keys[keys.length - 1 - k] & 0xffffffffl));
+				Road r = roads.get(index);
+				lines[k] = "E" + index + " (" + r.getFromVertex() + "->" + r.getToVertex() + ") peak queue " + r.getPeakQueueSize() + "/" + r.getQueueCapacity();
+			}
+			return lines;
+		}
+	}
+
+	@Override
+	public String[] getPhaseSummary() {
+		String[] lines = new String[phases.length + 1];
+		for (int k = 0; k < phases.length; k++) {
+			lines[k] = phaseNames[k] + ": " + phases[k].summary();
+		}
+		lines[phases.length] = "spawns=" + getSpawns() + " removals=" + getRemovals() + " signal switches=" + getSignalSwitches();
+		return lines;
+	}
+
+	/*
+	 * forget everything counted so far, including what the roads and intersections count
+	 */
+	@Override
+	public void reset() {
+		for (LatencyHistogram histogram : phases) {
+			histogram.reset();
+		}
+		spawns.reset();
+		removals.reset();
+		synchronized (TrafficSimulatorApp.simLock) {
+			if (TrafficSimulatorApp.roads != null) {
+				for (Road r : TrafficSimulatorApp.roads) {
+					r.resetPeakQueueSize();
+				}
+			}
+			if (TrafficSimulatorApp.intersections != null) {
+				for (Intersection intersection : TrafficSimulatorApp.intersections) {
+					intersection.resetSignalSwitches();
+				}
+			}
+		}
+	}
+}
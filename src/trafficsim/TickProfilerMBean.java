@@ -0,0 +1,35 @@
+package trafficsim;
+
+/**
+ * Interface TickProfilerMBean is what the TickProfiler shows through JMX.  times are in
+ * microseconds
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public interface TickProfilerMBean {
+
+	public long getTicks();
+
+	public double getTicksPerSecond();
+
+	public double getTickLatencyP50();
+
+	public double getTickLatencyP99();
+
+	public double getTickLatencyP999();
+
+	public int getVehicleCount();
+
+	public long getSpawns();
+
+	public long getRemovals();
+
+	public long getSignalSwitches();
+
+	public int[] getMaxQueueOccupancy();
+
+	public String[] getFullestRoads();
+
+	public String[] getPhaseSummary();
+
+	public void reset();
+}
@@ -1,7 +1,11 @@
 package trafficsim;
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.awt.Dimension;
 import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import javax.swing.*;
 
 /**
@@ -12,8 +16,15 @@ public class TrafficSimulatorApp extends JFrame implements Runnable {
 
 	protected static ArrayList<Intersection> intersections;	// list of intersections
 	protected static ArrayList<Road> roads;
-	protected static ArrayList<Vehicle> vehicles;	// list of vehicle objects
-	private static Thread displayer;
+	protected static VehicleTable vehicles;	// table of vehicle state
+	protected static SimulationEngine engine;	// advances the model each tick
+	protected static long randomSeed = 621062106210l;	// master seed, every random stream is split off it
+	private static RandomStream intersectionSeeds;
+	private static Thread simulator;	// steps the model and publishes frames, the display only paints them
+	protected final static Object simLock = new Object();	// held while the model is stepped or edited
+	protected final static SnapshotBuffer frames = new SnapshotBuffer();
+	protected static TrajectoryRecorder recorder;	// records every tick while set, only changed holding the simLock
+	protected static volatile ReplayPlayer replay;	// set while a log is played back instead of simulating
 	private static String inputFilename;
 	private static String outputFilename;
 	public static int simTime;
@@ -22,12 +33,15 @@ public class TrafficSimulatorApp extends JFrame implements Runnable {
 	protected final static double defaultSwitchingInterval = 30.0f;
 	protected final static boolean debugOutput = false;
 	protected final static boolean centerScreen = true;
-	public static int waitTime = 0;
-	public static int timeInSim = 0;
-	public static int throughput = 0;
+	// striped 64 bit counters, any number of threads may add to them at once without contending
+	public final static LongAdder waitTime = new LongAdder();	// vehicle ticks spent in lines
+	public final static LongAdder timeInSim = new LongAdder();	// vehicle ticks spent in the network
+	public final static LongAdder throughput = new LongAdder();	// vehicles that reached a sink
+	protected final static TripStatistics trips = new TripStatistics();	// trip and wait times of the vehicles that reached a sink
 	JPanel displayPanel;
 	JPanel controlPanel;
-	private static int frameInterval = 32;
+	private static int frameInterval = 32;	// ms between ticks, 0 runs flat out
+	private static int renderInterval = Integer.getInteger("trafficsim.renderInterval", 16);	// ms between frames
 
 	/*
 	 * simulator constructor, called after main instantiates a simulation
@@ -76,7 +90,17 @@ public class TrafficSimulatorApp extends JFrame implements Runnable {
 
 		// show the window and start
 		setVisible(true);
-		displayer = new Thread(this);
+		simulator = new Thread(this, "simulator");
+		simulator.setDaemon(true);
+
+		// repaint at the render rate, from whatever frame the simulation last published
+		new Timer(renderInterval, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				frames.acquire();
+				repaint();
+			}
+		}).start();
 	}
 
 	/*
@@ -93,8 +117,13 @@ public class TrafficSimulatorApp extends JFrame implements Runnable {
 	 *  only matters after a file other than the launch arguments have been opened
 	 */
 	public void updateWSize() {
-		displayPanel.setSize(DisplayPanel.screenWidth, DisplayPanel.screenHeight);
-		setSize(DisplayPanel.screenWidth + ControlPanel.controlPanelWidth, DisplayPanel.screenHeight);
+		// the file may ask for more than the desktop has, the view can be zoomed and panned instead
+		Dimension desktop = Toolkit.getDefaultToolkit().getScreenSize();
+		DisplayPanel.setViewSize(Math.min(DisplayPanel.screenWidth, desktop.width - ControlPanel.controlPanelWidth),
+			Math.min(DisplayPanel.screenHeight, desktop.height));
+		DisplayPanel.resetView();
+		displayPanel.setSize(DisplayPanel.viewWidth, DisplayPanel.viewHeight);
+		setSize(DisplayPanel.viewWidth + ControlPanel.controlPanelWidth, DisplayPanel.viewHeight);
 	}
 
 	/*
@@ -148,59 +177,159 @@ public class TrafficSimulatorApp extends JFrame implements Runnable {
 	}
 
 	/*
-	 * check for proper caller usage
+	 * print the usage message and quit
+	 */
+	private static void usage() {
+		System.out.println(""
+			+ "incorrect usage\n"
+			+ "expected: java TrafficSimulatorApp roaddesc_file output_file [seed]");
+		System.exit(-1);
+	}
+
+	/*
+	 * check for proper caller usage, and take the master seed if one is given
 	 *		@param args the arguments array passed to the program
 	 */
 	private static void checkArgs(String[] args) {
 		// check for proper call usage
-		if (args.length != 2) {
-			System.out.println(""
-				+ "incorrect usage\n"
-				+ "expected: java TrafficSimulatorApp roaddesc_file output_file");
-			System.exit(-1);
+		if (args.length != 2 && args.length != 3) {
+			usage();
+		}
+		if (args.length == 3) {
+			try {
+				randomSeed = Long.parseLong(args[2]);
+			} catch (NumberFormatException nfe) {
+				usage();
+			}
+		}
+	}
+
+	/*
+	 * advance the simulation by a single tick.  this is shared by the windowed
+	 * simulator and the headless BatchSimulator, and touches no display state
+	 */
+	protected static void stepSimulation() {
+		engine.tick();
+		if (recorder != null) {
+			recorder.record();
+		}
+	}
+
+	/*
+	 * restart the sequence of intersection seeds from the master seed.  called before
+	 * a network is loaded, so the same file always gets the same random sources
+	 */
+	protected static void resetIntersectionSeeds() {
+		intersectionSeeds = new RandomStream(randomSeed);
+	}
+
+	/*
+	 * return the seed for the next intersection created
+	 *		@return a seed derived from the master seed
+	 */
+	protected static long nextIntersectionSeed() {
+		if (intersectionSeeds == null) {
+			resetIntersectionSeeds();
 		}
+		return intersectionSeeds.nextSeed();
 	}
 
 	/*
-	 * run the simulation
+	 * return the state of the intersection seed sequence, for a checkpoint
+	 */
+	protected static long getIntersectionSeedState() {
+		if (intersectionSeeds == null) {
+			resetIntersectionSeeds();
+		}
+		return intersectionSeeds.getState();
+	}
+
+	/*
+	 * carry on the intersection seed sequence from a checkpoint
+	 */
+	protected static void setIntersectionSeedState(long state) {
+		if (intersectionSeeds == null) {
+			resetIntersectionSeeds();
+		}
+		intersectionSeeds.setState(state);
+	}
+
+	/*
+	 * run the simulation.  this thread owns the model: it steps it under the simLock and copies
+	 * what the display needs into a snapshot at most once per render interval, so painting
+	 * never walks the live lists and the tick rate does not depend on the frame rate.  while a
+	 * log is replayed it steps through the log instead, and the frames come from there
 	 */
 	@Override
 	public void run() {
+		long nextFrame = 0;
 		while (true) {
-			if (simulating) {
-				// since we are currently simulating increment the tick/frame count
-				simTime++;
-
-				// for each vehicle
-				for (Vehicle v : vehicles) {
-					v.updatePosition();  // update the position
+			ReplayPlayer player = replay;
+			if (player != null) {
+				player.advance();
+			} else if (simulating) {
+				synchronized (simLock) {
+					stepSimulation();
 				}
+			}
 
-				// for each intersection
-				for (Intersection i : intersections) {
-					i.updateIntersection(); // process the intersection
+			// publish a frame if the last one is old enough
+			long now = System.nanoTime();
+			if (now - nextFrame >= 0) {
+				long started = TickProfiler.start();
+				synchronized (simLock) {
+					if (player != null) {
+						player.fill(frames.getWriteBuffer());
+					} else {
+						frames.getWriteBuffer().capture();
+					}
 				}
+				frames.publish();
+				TickProfiler.phase(TickProfiler.render, started);
+				nextFrame = now + renderInterval * 1000000l;
 			}
 
-			// wait a frame interval 32,16,8 ... just pick something
+			// wait a frame interval 32,16,8 ... or not at all, when paused just poll for edits
 			try {
-				Thread.sleep(frameInterval);
+				if (player != null ? !player.isPlaying() : !simulating) {
+					Thread.sleep(renderInterval);
+				} else if (frameInterval > 0) {
+					Thread.sleep(frameInterval);
+				}
 			} catch (InterruptedException ie) {
 				break;
 			}
-
-			// udpate the display
-			this.repaint();
 		}
 	}
 
 	/*
 	 * helper routine to initialize some of the simulation objects
 	 */
-	private static void initialize() {
+	protected static void initialize() {
 		intersections = new ArrayList<Intersection>();
 		roads = new ArrayList<Road>();
-		vehicles = new ArrayList<Vehicle>();
+		vehicles = new VehicleTable();
+		if (engine == null) {
+			engine = SimulationEngine.create(Integer.getInteger("trafficsim.threads", 1));
+		}
+		AdjacencyIndex.rebuild();
+		VertexIndex.invalidate();
+		resetIntersectionSeeds();
+		simTime = 0;
+		setCounters(0, 0, 0);
+		trips.reset();
+	}
+
+	/*
+	 * set the global counters, as when restoring a run
+	 */
+	protected static void setCounters(long wait, long inSim, long through) {
+		waitTime.reset();
+		waitTime.add(wait);
+		timeInSim.reset();
+		timeInSim.add(inSim);
+		throughput.reset();
+		throughput.add(through);
 	}
 
 	/**
@@ -217,12 +346,15 @@ public class TrafficSimulatorApp extends JFrame implements Runnable {
 		inputFilename = args[0];
 		outputFilename = args[1];
 
-		// open our input file, load all its settings and set up the simulation
-		SimFileHandler.readAndParseFile(inputFilename);
+		// open our input file, load all its settings and set up the simulation, or the log to replay
+		if (!SimFileHandler.openFile(inputFilename)) {
+			System.exit(-1);
+		}
 
 		// at this point we are initialized just fire up the simulator
+		TickProfiler.register();
 		new TrafficSimulatorApp();
 		new ColorChooser();
-		TrafficSimulatorApp.displayer.start();
+		TrafficSimulatorApp.simulator.start();
 	}
 }
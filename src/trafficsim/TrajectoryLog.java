@@ -0,0 +1,495 @@
+package trafficsim;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Class TrajectoryLog reads the logs written by the TrajectoryRecorder.  a log starts with
+ * the network, followed by one record a tick.  every keyframeInterval records there is a
+ * keyframe holding the whole state, the records in between hold only what changed since
+ * the record before: car ids as gaps, positions as steps, the road only when it changes,
+ * the color only for a new car, and the lights that changed.  an index of the keyframes
+ * is written at the end, so a seek decodes at most one keyframe interval of records.  a
+ * log cut short has no index and is scanned for its keyframes instead.  all values are
+ * little endian, varints are unsigned LEB128 and zigzag values are signed varints
+ *
+ *	header		int magic ("TSTR"), int formatVersion, int keyframeInterval, int |V|, int |E|,
+ *				int screenWidth, int screenHeight, |V| x (double x, double y), |E| x (int from, int to, int queueCapacity)
+ *	records		byte type, int tick, int length, then length bytes of
+ *				varint cars, long zigzag waitTime, long zigzag timeInSim, long zigzag throughput,
+ *				cars x (varint id gap, byte flags, [varint edge], zigzag x, zigzag y, [varint color]),
+ *				varint lights, lights x (varint vertex gap, varint green road + 1)
+ *	index		a record of type index holding int count, count x (int tick, long offset),
+ *				followed by long index offset, int magic
+ * positions are in 1/16 of a network unit.  a new car has its road, position and color in
+ * full, a known car its road if it changed and its position as a step
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class TrajectoryLog {
+
+	protected final static int magic = 0x52545354;	// "TSTR" read as a little endian int
+	protected final static int formatVersion = 2;
+	protected final static String extension = ".trj";
+	protected final static byte keyframe = 1, delta = 2, index = 3;	// record types
+	protected final static int queuedFlag = 1, newFlag = 2, edgeFlag = 4;	// car flags
+	protected final static double positionScale = 16;
+	protected final static int recordHeaderBytes = 1 + 4 + 4;
+	private final static int headerBytes = 7 * 4;
+	private final static int trailerBytes = 8 + 4;
+
+	private String filename;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private int keyframeInterval;
+	private NetworkData network = new NetworkData();
+	private long dataStart;	// offset of the first record
+	private int[] keyTicks = new int[0];
+	private long[] keyOffsets = new long[0];
+	private int keyCount = 0;
+	private int lastTick;
+	private long dataEnd;	// offset after the last record
+
+	// the record read last
+	private ByteBuffer record = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+	private ByteBuffer recordHeader = ByteBuffer.allocate(recordHeaderBytes).order(ByteOrder.LITTLE_ENDIAN);
+	private byte recordType;
+	private int recordTick;
+	private long nextOffset;	// offset of the record after the one decoded last
+
+	// the state as of the record decoded last, by car id
+	protected int tick = -1;
+	protected int count;
+	protected int[] ids = new int[0];	// the ids of the cars present, in increasing order
+	protected int[] edge = new int[0];
+	protected int[] x = new int[0], y = new int[0];
+	protected int[] color = new int[0];
+	protected boolean[] queued = new boolean[0];
+	protected boolean[] replaced = new boolean[0];	// new in a record that is not a keyframe, so any car that had the id before has left
+	protected int[] green;	// the road with a green light at each vertex, -1 for none
+	protected long waitTime, timeInSim, throughput;
+
+	/*
+	 * check whether a file is a trajectory log, by its first four bytes
+	 *		@param filename the name of the file
+	 *		@return true if the file starts with the log magic number
+	 */
+	protected static boolean isLog(String filename) {
+		return NetworkFile.readMagic(filename) == magic;
+	}
+
+	/*
+	 * open a log, read its network and index, and decode its first record
+	 *		@param filename the name of the file
+	 *		@return the log
+	 *		@throws NetworkFormatException if the file cannot be read or is not a log this version understands
+	 */
+	protected static TrajectoryLog open(String filename) throws NetworkFormatException {
+		TrajectoryLog log = new TrajectoryLog();
+		log.filename = filename;
+		try {
+			log.file = new RandomAccessFile(filename, "r");
+			log.channel = log.file.getChannel();
+			log.readHeader();
+			log.readIndex();
+			if (log.keyCount == 0) {
+				throw new IOException("no records");
+			}
+			log.seek(log.getFirstTick());
+		} catch (BufferUnderflowException bue) {
+			log.close();
+			throw new NetworkFormatException(filename, 0, "log header is truncated");
+		} catch (IOException ioe) {
+			log.close();
+			throw new NetworkFormatException(filename, 0, ioe.getMessage());
+		}
+		return log;
+	}
+
+	/*
+	 * read the network at the start of the log
+	 */
+	private void readHeader() throws IOException {
+		ByteBuffer header = read(0, headerBytes);
+		if (header.getInt() != magic) {
+			throw new IOException("not a trajectory log");
+		}
+		int version = header.getInt();
+		if (version != formatVersion) {
+			throw new IOException("unsupported log version " + version);
+		}
+		keyframeInterval = header.getInt();
+		int numVertices = header.getInt();
+		int numEdges = header.getInt();
+		network.screenWidth = header.getInt();
+		network.screenHeight = header.getInt();
+		if (numVertices < 0 || numEdges < 0) {
+			throw new IOException("bad counts of " + numVertices + " vertices and " + numEdges + " edges");
+		}
+
+		ByteBuffer vertices = read(headerBytes, numVertices * 16);
+		network.intersections.ensureCapacity(numVertices);
+		for (int i = 0; i < numVertices; i++) {
+			// no arrival rate, nothing is simulated
+			network.intersections.add(new SimpleIntersection(vertices.getDouble(), vertices.getDouble(), 0));
+		}
+		ByteBuffer edges = read(headerBytes + numVertices * 16l, numEdges * 12);
+		network.roads.ensureCapacity(numEdges);
+		for (int i = 0; i < numEdges; i++) {
+			int from = edges.getInt();
+			int to = edges.getInt();
+			int capacity = edges.getInt();
+			if (from < 0 || from >= numVertices || to < 0 || to >= numVertices || capacity <= 0) {
+				throw new IOException("edge " + i + " (" + from + "," + to + "," + capacity + ") is out of range");
+			}
+			network.roads.add(new Road(from, to, capacity));
+		}
+		dataStart = headerBytes + numVertices * 16l + numEdges * 12l;
+		green = new int[numVertices];
+	}
+
+	/*
+	 * read the keyframe index from the end of the log, or rebuild it if the log was cut short
+	 */
+	private void readIndex() throws IOException {
+		long size = channel.size();
+		if (size >= dataStart + trailerBytes) {
+			ByteBuffer trailer = read(size - trailerBytes, trailerBytes);
+			long indexOffset = trailer.getLong();
+			if (trailer.getInt() == magic && indexOffset >= dataStart && indexOffset < size - trailerBytes
+					&& readRecord(indexOffset) && recordType == index) {
+				int n = record.getInt();
+				if (n < 0 || n > record.remaining() / 12) {
+					throw new IOException("corrupt keyframe index");
+				}
+				keyTicks = new int[n];
+				keyOffsets = new long[n];
+				for (int k = 0; k < n; k++) {
+					keyTicks[k] = record.getInt();
+					keyOffsets[k] = record.getLong();
+				}
+				keyCount = n;
+				lastTick = recordTick;
+				dataEnd = indexOffset;
+				return;
+			}
+		}
+
+		// no index, walk the records
+		long offset = dataStart;
+		lastTick = -1;
+		while (readRecordHeader(offset)) {
+			int length = recordHeader.getInt(5);
+			if (offset + recordHeaderBytes + length > size) {
+				break;	// the last record was not finished
+			}
+			if (recordType == keyframe) {
+				addKey(recordTick, offset);
+			}
+			if (keyCount > 0) {
+				lastTick = recordTick;
+			}
+			offset += recordHeaderBytes + length;
+		}
+		dataEnd = offset;
+	}
+
+	private void addKey(int keyTick, long offset) {
+		if (keyCount == keyTicks.length) {
+			int[] largerTicks = new int[Math.max(16, keyCount * 2)];
+			System.arraycopy(keyTicks, 0, largerTicks, 0, keyCount);
+			keyTicks = largerTicks;
+			long[] largerOffsets = new long[largerTicks.length];
+			System.arraycopy(keyOffsets, 0, largerOffsets, 0, keyCount);
+			keyOffsets = largerOffsets;
+		}
+		keyTicks[keyCount] = keyTick;
+		keyOffsets[keyCount] = offset;
+		keyCount++;
+	}
+
+	/*
+	 * read some bytes of the file at an offset
+	 */
+	private ByteBuffer read(long offset, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		fill(buffer, offset);
+		return buffer;
+	}
+
+	/*
+	 * fill a buffer from the file at an offset
+	 *		@return false if the file ended first
+	 */
+	private boolean fill(ByteBuffer buffer, long offset) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, offset);
+			if (n < 0) {
+				return false;
+			}
+			offset += n;
+		}
+		buffer.flip();
+		return true;
+	}
+
+	/*
+	 * read the type, tick and length of the record at an offset
+	 *		@return false if there is no whole record header there
+	 */
+	private boolean readRecordHeader(long offset) throws IOException {
+		recordHeader.clear();
+		if (!fill(recordHeader, offset)) {
+			return false;
+		}
+		recordType = recordHeader.get(0);
+		recordTick = recordHeader.getInt(1);
+		return true;
+	}
+
+	/*
+	 * read the record at an offset into the record buffer
+	 *		@return false if there is no whole record there
+	 */
+	private boolean readRecord(long offset) throws IOException {
+		if (!readRecordHeader(offset)) {
+			return false;
+		}
+		int length = recordHeader.getInt(5);
+		if (length < 0) {
+			throw new IOException("corrupt record at offset " + offset);
+		}
+		if (record.capacity() < length) {
+			record = ByteBuffer.allocate(Math.max(length, record.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		record.clear();
+		record.limit(length);
+		if (!fill(record, offset + recordHeaderBytes)) {
+			return false;
+		}
+		nextOffset = offset + recordHeaderBytes + length;
+		return true;
+	}
+
+	/*
+	 * decode the record in the record buffer on top of the state of the record before it
+	 */
+	private void decode() throws IOException {
+		try {
+			boolean key = recordType == keyframe;
+			int cars = getVarint(record);
+			waitTime = getZigzagLong(record);
+			timeInSim = getZigzagLong(record);
+			throughput = getZigzagLong(record);
+			if (ids.length < cars) {
+				ids = new int[Math.max(cars, ids.length * 2)];
+			}
+			int id = -1;
+			for (int k = 0; k < cars; k++) {
+				id += getVarint(record) + 1;
+				if (id >= edge.length) {
+					growCars(id + 1);
+				}
+				int flags = record.get();
+				if ((flags & edgeFlag) != 0) {
+					edge[id] = getVarint(record);
+				}
+				if ((flags & newFlag) != 0) {
+					x[id] = getZigzag(record);
+					y[id] = getZigzag(record);
+					color[id] = getVarint(record);
+				} else {
+					x[id] += getZigzag(record);
+					y[id] += getZigzag(record);
+				}
+				queued[id] = (flags & queuedFlag) != 0;
+				replaced[id] = !key && (flags & newFlag) != 0;
+				ids[k] = id;
+			}
+			count = cars;
+
+			if (key) {
+				for (int i = 0; i < green.length; i++) {
+					green[i] = -1;
+				}
+			}
+			int lights = getVarint(record);
+			int vertex = -1;
+			for (int k = 0; k < lights; k++) {
+				vertex += getVarint(record) + 1;
+				green[vertex] = getVarint(record) - 1;
+			}
+			tick = recordTick;
+		} catch (BufferUnderflowException bue) {
+			throw new IOException("corrupt record for tick " + recordTick);
+		} catch (ArrayIndexOutOfBoundsException aioobe) {
+			throw new IOException("corrupt record for tick " + recordTick);
+		}
+	}
+
+	/*
+	 * make room for car ids up to a size
+	 */
+	private void growCars(int size) {
+		int length = Math.max(size, edge.length * 2);
+		int[] larger = new int[length];
+		System.arraycopy(edge, 0, larger, 0, edge.length);
+		edge = larger;
+		larger = new int[length];
+		System.arraycopy(x, 0, larger, 0, x.length);
+		x = larger;
+		larger = new int[length];
+		System.arraycopy(y, 0, larger, 0, y.length);
+		y = larger;
+		larger = new int[length];
+		System.arraycopy(color, 0, larger, 0, color.length);
+		color = larger;
+		boolean[] largerQueued = new boolean[length];
+		System.arraycopy(queued, 0, largerQueued, 0, queued.length);
+		queued = largerQueued;
+		boolean[] largerReplaced = new boolean[length];
+		System.arraycopy(replaced, 0, largerReplaced, 0, replaced.length);
+		replaced = largerReplaced;
+	}
+
+	/*
+	 * decode the next record
+	 *		@return false if there are no more
+	 *		@throws IOException if the record cannot be read
+	 */
+	protected boolean next() throws IOException {
+		if (nextOffset >= dataEnd || !readRecord(nextOffset) || recordType == index) {
+			return false;
+		}
+		decode();
+		return true;
+	}
+
+	/*
+	 * decode the state as of a tick, starting from the last keyframe at or before it
+	 *		@param target the tick, clamped to the ticks in the log
+	 *		@throws IOException if a record cannot be read
+	 */
+	protected void seek(int target) throws IOException {
+		target = Math.max(getFirstTick(), Math.min(target, lastTick));
+		if (target < tick || target > tick + keyframeInterval || tick < 0) {
+			// binary search for the last keyframe at or before the target
+			int lo = 0, hi = keyCount - 1;
+			while (lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+				if (keyTicks[mid] <= target) {
+					lo = mid;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			if (!readRecord(keyOffsets[lo])) {
+				throw new IOException("keyframe for tick " + keyTicks[lo] + " is missing");
+			}
+			decode();
+		}
+		while (tick < target) {
+			long offset = nextOffset;
+			if (offset >= dataEnd || !readRecordHeader(offset) || recordTick > target || !next()) {
+				return;
+			}
+		}
+	}
+
+	protected NetworkData getNetwork() {
+		return network;
+	}
+
+	protected int getTick() {
+		return tick;
+	}
+
+	protected int getFirstTick() {
+		return keyCount > 0 ? keyTicks[0] : 0;
+	}
+
+	protected int getLastTick() {
+		return lastTick;
+	}
+
+	protected int getKeyframeInterval() {
+		return keyframeInterval;
+	}
+
+	protected String getFilename() {
+		return filename;
+	}
+
+	/*
+	 * close the file, ignoring any failure to
+	 */
+	protected void close() {
+		try {
+			if (file != null) {
+				file.close();
+			}
+		} catch (IOException ioe) {
+		}
+	}
+
+	/*
+	 * write an unsigned varint, seven bits a byte, low bits first
+	 */
+	protected static void putVarint(ByteBuffer out, int value) {
+		while ((value & ~0x7f) != 0) {
+			out.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	/*
+	 * write a signed varint, zigzag encoded so small steps either way take one byte
+	 */
+	protected static void putZigzag(ByteBuffer out, int value) {
+		putVarint(out, (value << 1) ^ (value >> 31));
+	}
+
+	protected static int getVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.get();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new BufferUnderflowException();
+	}
+
+	protected static int getZigzag(ByteBuffer in) {
+		int value = getVarint(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/*
+	 * write a signed 64 bit varint, for the counters, up to ten bytes
+	 */
+	protected static void putZigzagLong(ByteBuffer out, long value) {
+		value = (value << 1) ^ (value >> 63);
+		while ((value & ~0x7fl) != 0) {
+			out.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	protected static long getZigzagLong(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			long b = in.get();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return (value >>> 1) ^ -(value & 1);
+			}
+		}
+		throw new BufferUnderflowException();
+	}
+}
@@ -0,0 +1,459 @@
+package trafficsim;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Class TrajectoryRecorder writes a TrajectoryLog of a run, one record a tick.  the
+ * simulation thread only copies each car's id, road, position and flags and each light
+ * into a frame from a small pool.  a writer thread of its own sorts the frame by car id,
+ * encodes it against the frame before, and appends it through a large buffer.  if the
+ * writer falls behind, the pool runs dry and the simulation waits for it, so no tick is
+ * ever dropped.  the log holds the network as it was when recording started, editing its
+ * roads stops the recording, and vertices moved while recording are not followed
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class TrajectoryRecorder implements Runnable {
+
+	private static final int poolSize = 4;
+	private static final int writeBufferBytes = 4 << 20;
+	private static final int maxCarBytes = 5 + 1 + 5 + 5 + 5 + 5;	// id gap, flags, edge, x, y, color
+	private static final int maxLightBytes = 5 + 5;
+
+	private final String filename;
+	private final int keyframeInterval;
+	private final int networkVersion;	// the recording stops if the network is edited
+	private final ArrayBlockingQueue<Frame> free = new ArrayBlockingQueue<Frame>(poolSize);
+	private final ArrayBlockingQueue<Frame> filled = new ArrayBlockingQueue<Frame>(poolSize + 1);
+	private final Frame end = new Frame();	// put after the last frame to stop the writer
+	private final Thread writer;
+	private volatile boolean stopped = false;
+
+	// the end and direction of each road, as the network is in the log, for placing queued cars
+	private final double[] roadEndX, roadEndY;
+	private final double[] roadUnitX, roadUnitY;
+
+	// owned by the writer thread
+	private FileOutputStream out;
+	private FileChannel channel;
+	private long offset;	// where the next record goes
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(writeBufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+	private ByteBuffer encoded = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+	private int framesSinceKey = 0;
+	private int[] keyTicks = new int[16];
+	private long[] keyOffsets = new long[16];
+	private int keyCount = 0;
+	private int lastTick = -1;
+	private int[] slotOfId = new int[0];	// scratch, -1 or the place of each id in the frame
+	private int[] lastSeen = new int[0];	// by car id, the record the car was last in
+	private int[] lastEdge = new int[0], lastX = new int[0], lastY = new int[0], lastCreated = new int[0];
+	private int[] lastGreen;
+	private int records = 0;
+	private boolean failed = false;
+
+	/*
+	 * the state of a tick as the simulation thread copied it, in table order
+	 */
+	private static class Frame {
+
+		int tick;
+		int count;
+		int maxId;
+		int[] id = new int[0];
+		int[] edge = new int[0];
+		int[] x = new int[0], y = new int[0];
+		int[] color = new int[0];
+		int[] created = new int[0];
+		boolean[] queued = new boolean[0];
+		int[] green = new int[0];
+		long waitTime, timeInSim, throughput;
+	}
+
+	/*
+	 * start recording the current run, writing its network and its state now
+	 *		@param filename the name of the log to write
+	 *		@return the recorder, to call record() on after every tick
+	 *		@throws IOException if the log cannot be created
+	 *		@throws IllegalStateException if the engine keeps cars outside the shared model
+	 */
+	protected static TrajectoryRecorder start(String filename) throws IOException {
+		SimulationEngine engine = TrafficSimulatorApp.engine;
+		if (!engine.canCheckpoint()) {
+			// the same condition as for a checkpoint, the cars must be in the shared table
+			throw new IllegalStateException("the " + engine.getClass().getSimpleName() + " keeps vehicles of its own and cannot be recorded");
+		}
+		TrajectoryRecorder recorder = new TrajectoryRecorder(filename);
+		recorder.record();
+		return recorder;
+	}
+
+	private TrajectoryRecorder(String filename) throws IOException {
+		this.filename = filename;
+		keyframeInterval = Math.max(1, Integer.getInteger("trafficsim.keyframeInterval", 100));
+		networkVersion = AdjacencyIndex.getVersion();
+		for (int k = 0; k < poolSize; k++) {
+			free.add(new Frame());
+		}
+		lastGreen = new int[TrafficSimulatorApp.intersections.size()];
+		int numRoads = TrafficSimulatorApp.roads.size();
+		roadEndX = new double[numRoads];
+		roadEndY = new double[numRoads];
+		roadUnitX = new double[numRoads];
+		roadUnitY = new double[numRoads];
+		for (int k = 0; k < numRoads; k++) {
+			Road r = TrafficSimulatorApp.roads.get(k);
+			roadEndX[k] = TrafficSimulatorApp.intersections.get(r.getToVertex()).getX();
+			roadEndY[k] = TrafficSimulatorApp.intersections.get(r.getToVertex()).getY();
+			roadUnitX[k] = r.getUnitX();
+			roadUnitY[k] = r.getUnitY();
+		}
+		out = new FileOutputStream(filename);
+		channel = out.getChannel();
+		writeHeader();
+		writer = new Thread(this, "recorder");
+		writer.start();
+	}
+
+	/*
+	 * write the network at the start of the log
+	 */
+	private void writeHeader() throws IOException {
+		buffer.putInt(TrajectoryLog.magic);
+		buffer.putInt(TrajectoryLog.formatVersion);
+		buffer.putInt(keyframeInterval);
+		buffer.putInt(TrafficSimulatorApp.intersections.size());
+		buffer.putInt(TrafficSimulatorApp.roads.size());
+		buffer.putInt(DisplayPanel.screenWidth);
+		buffer.putInt(DisplayPanel.screenHeight);
+		for (Intersection intersection : TrafficSimulatorApp.intersections) {
+			room(16);
+			buffer.putDouble(intersection.getX());
+			buffer.putDouble(intersection.getY());
+		}
+		for (Road r : TrafficSimulatorApp.roads) {
+			room(12);
+			buffer.putInt(r.getFromVertex());
+			buffer.putInt(r.getToVertex());
+			buffer.putInt(r.getQueueCapacity());
+		}
+	}
+
+	/*
+	 * copy the state of the tick just run into a frame for the writer.  called by the
+	 * thread that steps the model, after every tick
+	 */
+	protected void record() {
+		if (stopped) {
+			return;
+		}
+		if (AdjacencyIndex.getVersion() != networkVersion) {
+			System.out.println(filename + ": the network was edited, recording stopped");
+			stop();
+			return;
+		}
+		Frame frame;
+		try {
+			frame = free.take();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		VehicleTable vehicles = TrafficSimulatorApp.vehicles;
+		int count = vehicles.size();
+		if (frame.id.length < count) {
+			int capacity = Math.max(count, frame.id.length * 2);
+			frame.id = new int[capacity];
+			frame.edge = new int[capacity];
+			frame.x = new int[capacity];
+			frame.y = new int[capacity];
+			frame.color = new int[capacity];
+			frame.created = new int[capacity];
+			frame.queued = new boolean[capacity];
+		}
+		int maxId = -1;
+		for (int slot = 0; slot < count; slot++) {
+			int edge = vehicles.onEdge[slot];
+			double x, y;
+			if (vehicles.isQueued(slot)) {
+				// as Road.getQueueX and Y work it out, without checking the road has not moved for every car
+				int place = TrafficSimulatorApp.roads.get(edge).getQueuePosition(vehicles.get(slot));
+				x = roadEndX[edge] - roadUnitX[edge] * (16 + 9 * place);
+				y = roadEndY[edge] - roadUnitY[edge] * (16 + 9 * place);
+			} else {
+				x = vehicles.getMovingX(slot);
+				y = vehicles.getMovingY(slot);
+			}
+			frame.id[slot] = vehicles.id[slot];
+			frame.edge[slot] = edge;
+			frame.x[slot] = (int) Math.round(x * TrajectoryLog.positionScale);
+			frame.y[slot] = (int) Math.round(y * TrajectoryLog.positionScale);
+			frame.color[slot] = vehicles.color[slot];
+			frame.created[slot] = vehicles.createTime[slot];
+			frame.queued[slot] = vehicles.isQueued(slot);
+			maxId = Math.max(maxId, vehicles.id[slot]);
+		}
+		frame.count = count;
+		frame.maxId = maxId;
+
+		int numVertices = TrafficSimulatorApp.intersections.size();
+		if (frame.green.length < numVertices) {
+			frame.green = new int[numVertices];
+		}
+		for (int i = 0; i < numVertices; i++) {
+			frame.green[i] = TrafficSimulatorApp.intersections.get(i).getGreenRoad();
+		}
+		frame.tick = TrafficSimulatorApp.simTime;
+		frame.waitTime = TrafficSimulatorApp.waitTime.sum();
+		frame.timeInSim = TrafficSimulatorApp.timeInSim.sum();
+		frame.throughput = TrafficSimulatorApp.throughput.sum();
+		filled.add(frame);
+	}
+
+	/*
+	 * stop recording, and wait for the writer to finish the log
+	 */
+	protected void stop() {
+		if (stopped) {
+			return;
+		}
+		stopped = true;
+		filled.add(end);
+		try {
+			writer.join();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	protected boolean isRecording() {
+		return !stopped;
+	}
+
+	protected String getFilename() {
+		return filename;
+	}
+
+	/*
+	 * the writer loop, encodes frames until the end marker and then writes the index.  if
+	 * the log cannot be written the frames are still taken, so the simulation never waits
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			Frame frame;
+			try {
+				frame = filled.take();
+			} catch (InterruptedException ie) {
+				break;
+			}
+			if (frame == end) {
+				break;
+			}
+			if (!failed) {
+				try {
+					write(frame);
+				} catch (IOException ioe) {
+					fail(ioe);
+				}
+			}
+			free.add(frame);
+		}
+		try {
+			if (!failed) {
+				writeIndex();
+				flush();
+			}
+			out.close();
+		} catch (IOException ioe) {
+			fail(ioe);
+		}
+		if (!failed) {
+			System.out.println("recorded " + records + " ticks to " + filename + " (" + offset + " bytes)");
+		}
+	}
+
+	private void fail(IOException ioe) {
+		failed = true;
+		System.out.println(filename + ": " + ioe.getMessage() + ", recording stopped");
+	}
+
+	/*
+	 * make sure the write buffer has room for some bytes, writing it out if not
+	 */
+	private void room(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	/*
+	 * write out what is in the write buffer
+	 */
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			offset += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/*
+	 * append a record from the encoded buffer
+	 */
+	private void append(byte type, int tick) throws IOException {
+		long recordOffset = offset + buffer.position();
+		encoded.flip();
+		room(TrajectoryLog.recordHeaderBytes);
+		buffer.put(type);
+		buffer.putInt(tick);
+		buffer.putInt(encoded.remaining());
+		if (encoded.remaining() > buffer.remaining()) {
+			flush();
+		}
+		if (encoded.remaining() > buffer.remaining()) {
+			// larger than the whole write buffer, write it straight out
+			while (encoded.hasRemaining()) {
+				offset += channel.write(encoded);
+			}
+		} else {
+			buffer.put(encoded);
+		}
+		if (type == TrajectoryLog.keyframe) {
+			if (keyCount == keyTicks.length) {
+				int[] largerTicks = new int[keyCount * 2];
+				System.arraycopy(keyTicks, 0, largerTicks, 0, keyCount);
+				keyTicks = largerTicks;
+				long[] largerOffsets = new long[keyCount * 2];
+				System.arraycopy(keyOffsets, 0, largerOffsets, 0, keyCount);
+				keyOffsets = largerOffsets;
+			}
+			keyTicks[keyCount] = tick;
+			keyOffsets[keyCount] = recordOffset;
+			keyCount++;
+		}
+	}
+
+	/*
+	 * encode a frame against the one before it and append it
+	 */
+	private void write(Frame frame) throws IOException {
+		boolean key = records == 0 || framesSinceKey >= keyframeInterval;
+		framesSinceKey = key ? 1 : framesSinceKey + 1;
+		int previous = records;	// the record number the last frame was written as
+		records++;
+
+		// put the cars in id order, ids are small so a table indexed by id does it
+		if (slotOfId.length <= frame.maxId) {
+			int length = Math.max(frame.maxId + 1, slotOfId.length * 2);
+			int[] larger = new int[length];
+			for (int k = 0; k < length; k++) {
+				larger[k] = -1;
+			}
+			slotOfId = larger;
+			lastSeen = grow(lastSeen, length);
+			lastEdge = grow(lastEdge, length);
+			lastX = grow(lastX, length);
+			lastY = grow(lastY, length);
+			lastCreated = grow(lastCreated, length);
+		}
+		for (int slot = 0; slot < frame.count; slot++) {
+			slotOfId[frame.id[slot]] = slot;
+		}
+
+		int needed = 5 + 3 * 10 + frame.count * maxCarBytes + 5 + frame.green.length * maxLightBytes;
+		if (encoded.capacity() < needed) {
+			encoded = ByteBuffer.allocate(Math.max(needed, encoded.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		encoded.clear();
+		TrajectoryLog.putVarint(encoded, frame.count);
+		TrajectoryLog.putZigzagLong(encoded, frame.waitTime);
+		TrajectoryLog.putZigzagLong(encoded, frame.timeInSim);
+		TrajectoryLog.putZigzagLong(encoded, frame.throughput);
+
+		int lastId = -1;
+		for (int id = 0; id <= frame.maxId; id++) {
+			int slot = slotOfId[id];
+			if (slot < 0) {
+				continue;
+			}
+			slotOfId[id] = -1;
+
+			// a car is new if it was not in the last record, or its id has been handed on
+			boolean isNew = key || lastSeen[id] != previous || lastCreated[id] != frame.created[slot];
+			boolean edgeChanged = isNew || lastEdge[id] != frame.edge[slot];
+			int flags = (frame.queued[slot] ? TrajectoryLog.queuedFlag : 0)
+				| (isNew ? TrajectoryLog.newFlag : 0)
+				| (edgeChanged ? TrajectoryLog.edgeFlag : 0);
+			TrajectoryLog.putVarint(encoded, id - lastId - 1);
+			encoded.put((byte) flags);
+			if (edgeChanged) {
+				TrajectoryLog.putVarint(encoded, frame.edge[slot]);
+			}
+			if (isNew) {
+				TrajectoryLog.putZigzag(encoded, frame.x[slot]);
+				TrajectoryLog.putZigzag(encoded, frame.y[slot]);
+				TrajectoryLog.putVarint(encoded, frame.color[slot]);
+			} else {
+				TrajectoryLog.putZigzag(encoded, frame.x[slot] - lastX[id]);
+				TrajectoryLog.putZigzag(encoded, frame.y[slot] - lastY[id]);
+			}
+			lastSeen[id] = records;
+			lastEdge[id] = frame.edge[slot];
+			lastX[id] = frame.x[slot];
+			lastY[id] = frame.y[slot];
+			lastCreated[id] = frame.created[slot];
+			lastId = id;
+		}
+
+		// the lights, all those on in a keyframe, otherwise those that changed
+		int lights = 0;
+		for (int i = 0; i < lastGreen.length; i++) {
+			if (key ? frame.green[i] >= 0 : frame.green[i] != lastGreen[i]) {
+				lights++;
+			}
+		}
+		TrajectoryLog.putVarint(encoded, lights);
+		int lastVertex = -1;
+		for (int i = 0; i < lastGreen.length; i++) {
+			if (key ? frame.green[i] >= 0 : frame.green[i] != lastGreen[i]) {
+				TrajectoryLog.putVarint(encoded, i - lastVertex - 1);
+				TrajectoryLog.putVarint(encoded, frame.green[i] + 1);
+				lastVertex = i;
+			}
+			lastGreen[i] = frame.green[i];
+		}
+
+		append(key ? TrajectoryLog.keyframe : TrajectoryLog.delta, frame.tick);
+		lastTick = frame.tick;
+	}
+
+	private static int[] grow(int[] a, int length) {
+		int[] b = new int[length];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+
+	/*
+	 * append the keyframe index, and the trailer pointing at it
+	 */
+	private void writeIndex() throws IOException {
+		if (encoded.capacity() < 4 + keyCount * 12) {
+			encoded = ByteBuffer.allocate(4 + keyCount * 12).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		encoded.clear();
+		encoded.putInt(keyCount);
+		for (int k = 0; k < keyCount; k++) {
+			encoded.putInt(keyTicks[k]);
+			encoded.putLong(keyOffsets[k]);
+		}
+		long indexOffset = offset + buffer.position();
+		append(TrajectoryLog.index, lastTick);
+		room(12);
+		buffer.putLong(indexOffset);
+		buffer.putInt(TrajectoryLog.magic);
+	}
+}
@@ -0,0 +1,179 @@
+package trafficsim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Class TripHistogram counts trip and wait times in ticks, in buckets that grow with the
+ * value, 16 to each power of two, so every value is kept to within about 6%.  unlike the
+ * LatencyHistogram it belongs to one thread at a time: recording is a plain increment, and
+ * histograms filled by different threads are added together afterwards.  the buckets are
+ * only allocated as far as the largest value seen, so one kept per source stays small
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class TripHistogram {
+
+	private static final int subBits = 4;
+	private static final int maxBucketCount = HistogramBuckets.bucketCount(63, subBits);
+
+	private long[] counts = new long[0];
+	private long count = 0;
+	private long total = 0;	// sum of every value, for the mean
+	private long max = 0;
+
+	/*
+	 * make room for buckets up to and including one
+	 */
+	private void grow(int bucket) {
+		if (bucket >= counts.length) {
+			long[] grown = new long[Math.min(maxBucketCount, Math.max(bucket + 1, counts.length * 2))];
+			System.arraycopy(counts, 0, grown, 0, counts.length);
+			counts = grown;
+		}
+	}
+
+	/*
+	 * count a value
+	 *		@param value the time in ticks, negative values count as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		int b = HistogramBuckets.bucket(value, subBits);
+		grow(b);
+		counts[b]++;
+		count++;
+		total += value;
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	/*
+	 * add in the values counted by another histogram, which is left as it was
+	 *		@param other the histogram to add, not being recorded to while this runs
+	 */
+	public void add(TripHistogram other) {
+		grow(other.counts.length - 1);
+		for (int k = 0; k < other.counts.length; k++) {
+			counts[k] += other.counts[k];
+		}
+		count += other.count;
+		total += other.total;
+		max = Math.max(max, other.max);
+	}
+
+	/*
+	 * return the number of values counted
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/*
+	 * return the mean of the values counted, 0 if there are none
+	 */
+	public double getMean() {
+		return count == 0 ? 0 : total / (double) count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	/*
+	 * return the value a fraction of the values counted are at or below
+	 *		@param fraction the fraction, 0.99 for the 99th percentile
+	 *		@return the top of the bucket the value falls in, 0 if nothing was counted
+	 */
+	public long getPercentile(double fraction) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int k = 0; k < counts.length; k++) {
+			seen += counts[k];
+			if (seen >= rank) {
+				return Math.min(HistogramBuckets.bucketTop(k, subBits), max);
+			}
+		}
+		return max;
+	}
+
+	/*
+	 * forget every value counted, keeping the buckets
+	 */
+	public void reset() {
+		for (int k = 0; k < counts.length; k++) {
+			counts[k] = 0;
+		}
+		count = 0;
+		total = 0;
+		max = 0;
+	}
+
+	/*
+	 * describe the values counted
+	 *		@return the count, mean, 50th, 90th and 99th percentiles and the largest value, in ticks
+	 */
+	public String summary() {
+		return String.format("n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d",
+			count, getMean(), getPercentile(0.5), getPercentile(0.9), getPercentile(0.99), max);
+	}
+
+	/*
+	 * return the size of the state written by writeState
+	 *		@return the number of bytes
+	 */
+	protected int getStateBytes() {
+		int used = counts.length;
+		while (used > 0 && counts[used - 1] == 0) {
+			used--;
+		}
+		return 4 + 3 * 8 + 8 * used;
+	}
+
+	/*
+	 * write the counts, without the empty buckets at the top
+	 *		@param out the buffer to write to
+	 */
+	protected void writeState(ByteBuffer out) {
+		int used = counts.length;
+		while (used > 0 && counts[used - 1] == 0) {
+			used--;
+		}
+		out.putInt(used);
+		out.putLong(count);
+		out.putLong(total);
+		out.putLong(max);
+		for (int k = 0; k < used; k++) {
+			out.putLong(counts[k]);
+		}
+	}
+
+	/*
+	 * read back the counts written by writeState, in place of any counted here
+	 *		@param in the buffer to read from
+	 *		@throws IOException if the counts do not make sense
+	 */
+	protected void readState(ByteBuffer in) throws IOException {
+		int used = in.getInt();
+		if (used < 0 || used > maxBucketCount) {
+			throw new IOException("histogram of " + used + " buckets");
+		}
+		count = in.getLong();
+		total = in.getLong();
+		max = in.getLong();
+		counts = new long[used];
+		long sum = 0;
+		for (int k = 0; k < used; k++) {
+			counts[k] = in.getLong();
+			sum += counts[k];
+		}
+		if (sum != count) {
+			throw new IOException("histogram buckets add up to " + sum + " not " + count);
+		}
+	}
+}
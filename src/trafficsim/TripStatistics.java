@@ -0,0 +1,200 @@
+package trafficsim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Class TripStatistics keeps the trip time, from entering the network to reaching a sink,
+ * and the time spent waiting in lines of every car that finished its trip, in TripHistograms:
+ * one pair over all the trips, and a pair for the trips starting and for the trips ending at
+ * each source.  the histograms of a source are only made once a trip starts or ends there.
+ * like the histograms it is written by one thread at a time, an engine running on several
+ * threads keeps one per thread and merges them into the global one between runs
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class TripStatistics {
+
+	private final TripHistogram tripTime = new TripHistogram();
+	private final TripHistogram waitTime = new TripHistogram();
+	private Endpoint[] endpoints = new Endpoint[0];	// by intersection index, null where no trip started or ended
+	private int[] used = new int[16];	// the intersection indices with an endpoint, in the order they were made
+	private int usedCount = 0;
+
+	/*
+	 * the trips starting and ending at one intersection
+	 */
+	private static class Endpoint {
+
+		final TripHistogram fromTrip = new TripHistogram();
+		final TripHistogram fromWait = new TripHistogram();
+		final TripHistogram toTrip = new TripHistogram();
+		final TripHistogram toWait = new TripHistogram();
+	}
+
+	/*
+	 * return the endpoint of an intersection, making it if there is none
+	 */
+	private Endpoint endpoint(int index) {
+		if (index >= endpoints.length) {
+			endpoints = Arrays.copyOf(endpoints, Math.max(index + 1, endpoints.length * 2));
+		}
+		Endpoint e = endpoints[index];
+		if (e == null) {
+			e = new Endpoint();
+			endpoints[index] = e;
+			if (usedCount == used.length) {
+				used = Arrays.copyOf(used, usedCount * 2);
+			}
+			used[usedCount++] = index;
+		}
+		return e;
+	}
+
+	/*
+	 * count a finished trip
+	 *		@param origin the intersection the car entered the network at
+	 *		@param destination the intersection the car left it at
+	 *		@param trip the ticks from entering to leaving
+	 *		@param wait the ticks of those spent waiting in lines
+	 */
+	public void record(int origin, int destination, long trip, long wait) {
+		tripTime.record(trip);
+		waitTime.record(wait);
+		Endpoint from = endpoint(origin);
+		from.fromTrip.record(trip);
+		from.fromWait.record(wait);
+		Endpoint to = endpoint(destination);
+		to.toTrip.record(trip);
+		to.toWait.record(wait);
+	}
+
+	/*
+	 * add in the trips counted by another, which is left as it was
+	 *		@param other the statistics to add, not being recorded to while this runs
+	 */
+	public void merge(TripStatistics other) {
+		tripTime.add(other.tripTime);
+		waitTime.add(other.waitTime);
+		for (int k = 0; k < other.usedCount; k++) {
+			int index = other.used[k];
+			Endpoint theirs = other.endpoints[index];
+			Endpoint ours = endpoint(index);
+			ours.fromTrip.add(theirs.fromTrip);
+			ours.fromWait.add(theirs.fromWait);
+			ours.toTrip.add(theirs.toTrip);
+			ours.toWait.add(theirs.toWait);
+		}
+	}
+
+	/*
+	 * forget every trip counted
+	 */
+	public void reset() {
+		tripTime.reset();
+		waitTime.reset();
+		for (int k = 0; k < usedCount; k++) {
+			endpoints[used[k]] = null;
+		}
+		usedCount = 0;
+	}
+
+	public TripHistogram getTripTime() {
+		return tripTime;
+	}
+
+	public TripHistogram getWaitTime() {
+		return waitTime;
+	}
+
+	/*
+	 * return the intersections where trips started or ended, in index order
+	 */
+	public int[] getEndpoints() {
+		int[] sorted = Arrays.copyOf(used, usedCount);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/*
+	 * return the trip times of the trips starting at an intersection
+	 *		@return the histogram, null if no trip started or ended there
+	 */
+	public TripHistogram getTripTimeFrom(int index) {
+		return index < endpoints.length && endpoints[index] != null ? endpoints[index].fromTrip : null;
+	}
+
+	public TripHistogram getWaitTimeFrom(int index) {
+		return index < endpoints.length && endpoints[index] != null ? endpoints[index].fromWait : null;
+	}
+
+	/*
+	 * return the trip times of the trips ending at an intersection
+	 *		@return the histogram, null if no trip started or ended there
+	 */
+	public TripHistogram getTripTimeTo(int index) {
+		return index < endpoints.length && endpoints[index] != null ? endpoints[index].toTrip : null;
+	}
+
+	public TripHistogram getWaitTimeTo(int index) {
+		return index < endpoints.length && endpoints[index] != null ? endpoints[index].toWait : null;
+	}
+
+	/*
+	 * return the size of the state written by writeState
+	 *		@return the number of bytes
+	 */
+	protected long getStateBytes() {
+		long length = tripTime.getStateBytes() + waitTime.getStateBytes() + 4;
+		for (int k = 0; k < usedCount; k++) {
+			Endpoint e = endpoints[used[k]];
+			length += 4 + e.fromTrip.getStateBytes() + e.fromWait.getStateBytes() + e.toTrip.getStateBytes() + e.toWait.getStateBytes();
+		}
+		return length;
+	}
+
+	/*
+	 * write every histogram, for a checkpoint or to send to another process
+	 *		@param out the buffer to write to
+	 */
+	protected void writeState(ByteBuffer out) {
+		tripTime.writeState(out);
+		waitTime.writeState(out);
+		out.putInt(usedCount);
+		for (int k = 0; k < usedCount; k++) {
+			Endpoint e = endpoints[used[k]];
+			out.putInt(used[k]);
+			e.fromTrip.writeState(out);
+			e.fromWait.writeState(out);
+			e.toTrip.writeState(out);
+			e.toWait.writeState(out);
+		}
+	}
+
+	/*
+	 * read back the histograms written by writeState, in place of any counted here
+	 *		@param in the buffer to read from
+	 *		@param numVertices the number of intersections the trips may start or end at
+	 *		@throws IOException if the histograms do not make sense
+	 */
+	protected void readState(ByteBuffer in, int numVertices) throws IOException {
+		reset();
+		tripTime.readState(in);
+		waitTime.readState(in);
+		int count = in.getInt();
+		if (count < 0 || count > numVertices) {
+			throw new IOException(count + " trip endpoints in a network of " + numVertices + " vertices");
+		}
+		for (int k = 0; k < count; k++) {
+			int index = in.getInt();
+			if (index < 0 || index >= numVertices || (index < endpoints.length && endpoints[index] != null)) {
+				throw new IOException("trip endpoint " + index + " is out of range or repeated");
+			}
+			Endpoint e = endpoint(index);
+			e.fromTrip.readState(in);
+			e.fromWait.readState(in);
+			e.toTrip.readState(in);
+			e.toWait.readState(in);
+		}
+	}
+}
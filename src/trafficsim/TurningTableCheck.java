@@ -0,0 +1,149 @@
+package trafficsim;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+
+/**
+ * Class TurningTableCheck makes sure the switching intersections allocate nothing once a run
+ * has settled.  it runs a network for a warm-up so every turning table is built and the
+ * queues have grown, then keeps ticking it, counting the bytes this thread allocates while
+ * just the switching intersections are updated.  it passes once a round of ticks allocates
+ * nothing beyond the cost of reading the counter, and fails with a non-zero exit status if
+ * none of five rounds does
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class TurningTableCheck {
+
+	/*
+	 * print the usage message and quit
+	 */
+	private static void usage() {
+		System.out.println(""
+			+ "incorrect usage\n"
+			+ "expected: java TurningTableCheck roaddesc_file [warmup [ticks]]\n"
+			+ "  warmup is the ticks run before counting, 5000 if not given\n"
+			+ "  ticks is the ticks counted in each round, 20000 if not given");
+		System.exit(-1);
+	}
+
+	/**
+	 * main method for the check.
+	 * @param args the network file, then the optional warm-up ticks and ticks a round
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1 || args.length > 3) {
+			usage();
+		}
+		int warmup = 5000;
+		int ticks = 20000;
+		int rounds = 5;
+		try {
+			if (args.length > 1) {
+				warmup = Integer.parseInt(args[1]);
+			}
+			if (args.length > 2) {
+				ticks = Integer.parseInt(args[2]);
+			}
+		} catch (NumberFormatException nfe) {
+			usage();
+		}
+		if (warmup < 0 || ticks <= 0) {
+			usage();
+		}
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)
+			|| !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+			System.out.println("this JVM does not count the bytes each thread allocates");
+			System.exit(2);
+		}
+		com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+		counting.setThreadAllocatedMemoryEnabled(true);
+
+		TrafficSimulatorApp.initialize();
+		new ColorChooser();
+		if (!SimFileHandler.readAndParseFile(args[0])) {
+			System.exit(-1);
+		}
+		ArrayList<Intersection> switching = new ArrayList<Intersection>();
+		ArrayList<Intersection> others = new ArrayList<Intersection>();
+		for (Intersection intersection : TrafficSimulatorApp.intersections) {
+			if (AdjacencyIndex.getInDegree(intersection.getIndex()) > 2) {
+				switching.add(intersection);
+			} else {
+				others.add(intersection);
+			}
+		}
+		if (switching.isEmpty()) {
+			System.out.println(args[0] + " has no switching intersections to check");
+			System.exit(2);
+		}
+
+		TrafficSimulatorApp.engine = new SequentialEngine();
+		TrafficSimulatorApp.engine.run(warmup);
+
+		// the JIT swapping in newly compiled code can allocate a few bytes now and then, a
+		// table made every tick allocates in every round
+		for (int round = 1; round <= rounds; round++) {
+			long throughput = 0;
+			for (Intersection intersection : switching) {
+				throughput -= intersection.getThroughput();
+			}
+			long allocated = countTicks(counting, switching, others, ticks);
+			for (Intersection intersection : switching) {
+				throughput += intersection.getThroughput();
+			}
+			System.out.println("round " + round + ": " + switching.size() + " switching intersections passed "
+				+ throughput + " vehicles in " + ticks + " ticks, allocating " + allocated + " bytes");
+			if (throughput == 0) {
+				System.out.println("FAILED: no vehicle went through a switching intersection, nothing was checked");
+				System.exit(1);
+			}
+			if (allocated == 0) {
+				System.out.println("passed");
+				return;
+			}
+		}
+		System.out.println("FAILED: the switching intersections allocate in the steady state");
+		System.exit(1);
+	}
+
+	/*
+	 * run ticks the way the sequential engine does, except the switching intersections are
+	 * updated last, and count what they allocate
+	 *		@param counting the thread bean counting allocated bytes
+	 *		@param switching the intersections with more than two roads in
+	 *		@param others every other intersection
+	 *		@param ticks the number of ticks to run
+	 *		@return the bytes allocated while the switching intersections were updated
+	 */
+	private static long countTicks(com.sun.management.ThreadMXBean counting, ArrayList<Intersection> switching,
+		ArrayList<Intersection> others, int ticks) {
+		VehicleTable vehicles = TrafficSimulatorApp.vehicles;
+		long allocated = 0;
+		for (int t = 0; t < ticks; t++) {
+			TrafficSimulatorApp.simTime++;
+			SimulationEngine.countVehicleTime();
+			for (int slot = 0; slot < vehicles.size(); slot++) {
+				Road r = TrafficSimulatorApp.roads.get(vehicles.onEdge[slot]);
+				if (vehicles.updatePosition(slot, r.getQueueSize())) {
+					r.joinQueue(vehicles.get(slot));
+				}
+			}
+			for (int k = 0; k < others.size(); k++) {
+				others.get(k).updateIntersection();
+			}
+
+			// what reading the counter costs is taken off what the updates are counted at
+			long before = counting.getCurrentThreadAllocatedBytes();
+			long overhead = counting.getCurrentThreadAllocatedBytes() - before;
+			before = counting.getCurrentThreadAllocatedBytes();
+			for (int k = 0; k < switching.size(); k++) {
+				switching.get(k).updateIntersection();
+			}
+			allocated += Math.max(0, counting.getCurrentThreadAllocatedBytes() - before - overhead);
+		}
+		return allocated;
+	}
+}
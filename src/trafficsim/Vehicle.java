@@ -3,54 +3,38 @@ package trafficsim;
 import java.awt.Color;
 
 /**
- * class to represent a vehicle in the simulation
+ * class to represent a vehicle in the simulation.  the vehicle state itself lives in a row
+ * of the VehicleTable, this is only a handle onto that row
  * @author Michael Scott <mkdsctt@gmail.com>
  */
 public class Vehicle {
 
-	private static final double speed = 1.0;
-	protected double vehicleX;
-	protected double vehicleY;
-	public double finalX;
-	public double finalY;
-	protected double dX;
-	protected double dY;
-	protected int onEdge;
-	protected boolean isQueued;
-	protected int queueIndex;
-	private Color vehicleColor;
-	public int createTime;
-	public int waitTime;
-
+	private final VehicleTable table;
+	protected int slot;	// row in the table, kept up to date by the table, -1 once removed
 
 	/*
-	 * constructor for Vehicle, simply takes as parameter the edge the car is on, this will be used to guide it towards
-	 * the destination of the edge.
-	 *		@param edge the edge the car will "ride", this edge is directed so it's all we need to know
+	 * constructor for Vehicle, only the VehicleTable creates handles
+	 *		@param table the table holding the vehicle state
+	 *		@param slot the row of the vehicle in the table
 	 */
-	public Vehicle(int edge) {
-		setEdge(edge);
-		isQueued = false;
-		//vehicleColor = palette[(int)(Math.random()*palette.length)];
-		vehicleColor = ColorChooser.getRandomColor();
-		createTime = TrafficSimulatorApp.simTime;
+	protected Vehicle(VehicleTable table, int slot) {
+		this.table = table;
+		this.slot = slot;
 	}
 
 	/*
 	 * set the edge to a new edge, reset dX,dY etc
 	 */
 	public void setEdge(int edge) {
-		onEdge = edge;
-		vehicleX = TrafficSimulatorApp.intersections.get(TrafficSimulatorApp.roads.get(edge).getFromVertex()).getX();
-		vehicleY = TrafficSimulatorApp.intersections.get(TrafficSimulatorApp.roads.get(edge).getFromVertex()).getY();
-		finalX = TrafficSimulatorApp.intersections.get(TrafficSimulatorApp.roads.get(edge).getToVertex()).getX();
-		finalY = TrafficSimulatorApp.intersections.get(TrafficSimulatorApp.roads.get(edge).getToVertex()).getY();
-		dX = finalX - vehicleX;
-		dY = finalY - vehicleY;
-		double hyp = Math.hypot(dX, dY);
-		dX = dX / hyp * speed;
-		dY = dY / hyp * speed;
-		isQueued = false;
+		table.setEdge(slot, edge);
+	}
+
+	/*
+	 * return the id of the vehicle.  ids are reused once a vehicle leaves the simulation
+	 *		@return the vehicle id
+	 */
+	public int getId() {
+		return table.id[slot];
 	}
 
 	/*
@@ -58,7 +42,15 @@ public class Vehicle {
 	 *		@return Color object for the car
 	 */
 	public Color getVehicleColor() {
-		return vehicleColor;
+		return ColorChooser.getColor(table.color[slot]);
+	}
+
+	/*
+	 * return the palette index of the car color
+	 *		@return index into the ColorChooser palette
+	 */
+	public int getColorIndex() {
+		return table.color[slot];
 	}
 
 	/*
@@ -66,7 +58,12 @@ public class Vehicle {
 	 *		@return x coordinate as a double value
 	 */
 	public double getVehicleX() {
-		return vehicleX;
+		if (isQueued()) {
+			// waiting cars are not moved, their place is worked out from the queue
+			Road r = TrafficSimulatorApp.roads.get(getOnEdge());
+			return r.getQueueX(r.getQueuePosition(this));
+		}
+		return table.getMovingX(slot);
 	}
 
 	/*
@@ -74,7 +71,11 @@ public class Vehicle {
 	 *		@return y coordinate as a double value
 	 */
 	public double getVehicleY() {
-		return vehicleY;
+		if (isQueued()) {
+			Road r = TrafficSimulatorApp.roads.get(getOnEdge());
+			return r.getQueueY(r.getQueuePosition(this));
+		}
+		return table.getMovingY(slot);
 	}
 
 	/*
@@ -82,150 +83,88 @@ public class Vehicle {
 	 *		@return the id of the edge/road the vehicle is on
 	 */
 	public int getOnEdge() {
-		return onEdge;
+		return table.onEdge[slot];
+	}
+
+	/*
+	 * return whether the vehicle is waiting in a queue
+	 *		@return true if queued
+	 */
+	public boolean isQueued() {
+		return table.isQueued(slot);
+	}
+
+	/*
+	 * set the queued flag, used by the roads when the vehicle joins or leaves the line
+	 *		@param queued the new value of the flag
+	 */
+	public void setQueued(boolean queued) {
+		table.setQueued(slot, queued);
+	}
+
+	/*
+	 * return the queue ticket handed out by the road when the vehicle joined its queue
+	 */
+	protected int getQueueIndex() {
+		return table.queueIndex[slot];
+	}
+
+	protected void setQueueIndex(int queueIndex) {
+		table.queueIndex[slot] = queueIndex;
+	}
+
+	/*
+	 * return the tick the vehicle entered the simulation
+	 *		@return the creation time
+	 */
+	public int getCreateTime() {
+		return table.createTime[slot];
+	}
+
+	/*
+	 * return the intersection the vehicle entered the simulation at
+	 *		@return the index of the source
+	 */
+	public int getOrigin() {
+		return table.origin[slot];
+	}
+
+	/*
+	 * return the number of ticks the vehicle has spent waiting in queues
+	 *		@return the wait time
+	 */
+	public int getWaitTime() {
+		return table.waitTime[slot];
+	}
+
+	/*
+	 * return the state of the vehicle's own random stream
+	 *		@return the stream state
+	 */
+	public long getRandomState() {
+		return table.rngState[slot];
 	}
 
 	/*
 	 * make the driving decisions, let the roads be numbered some way and try to go along them
+	 *		@param choices the number of roads to choose from
 	 */
 	public int chooseDirection(int choices) {
-		return (int) (choices * Math.random() + 1);
+		return (int) (choices * table.nextDouble(slot) + 1);
 	}
 
 	public void setPosition(double x, double y) {
-		vehicleX = x;
-		vehicleY = y;
+		table.vehicleX[slot] = x;
+		table.vehicleY[slot] = y;
 	}
 
 	/*
-	 * method will increment the position of a car in such a way that it
-	 * "rides" along the edges of the graph... literally just a naive line drawing algo.
+	 * advance the vehicle one tick along its road, joining the queue if it reaches it
 	 */
-	// change 11/14/11 -- when stepping by x, make the y checks in the possible dY = 0 case "soft" i.e. inclusive
-	//						when stepping by y, make the x			...			dX = 0 case ..
-	// this was to fix the dX = 0 and/or dY = 0 cases
 	public void updatePosition() {
-		TrafficSimulatorApp.timeInSim++;
-		if (isQueued) {
-			TrafficSimulatorApp.waitTime++;
-		}
-		if (!isQueued) {
-			if (Math.abs(dY) > Math.abs(dX)) {
-				// step by y
-				double ratio = Math.abs(dX) / Math.abs(dY);
-				if (dY > 0) {
-					// dY > 0
-					if (dX > 0) {
-						// dY > 0, dX > 0
-						// with this if statement we will stop 1 iteration short
-						if (vehicleX + ratio < finalX && vehicleY + 1 < finalY) {
-							vehicleX += ratio;
-							vehicleY += 1;
-						} else {
-							// join the queue
-							TrafficSimulatorApp.roads.get(onEdge).joinQueue(this);
-						}
-					} else {
-						// dY > 0, dX <= 0
-						// with this if statement we will stop 1 iteration short
-						if (vehicleX - ratio >= finalX && vehicleY + 1 < finalY) {
-							vehicleX -= ratio;
-							vehicleY += 1;
-						} else {
-							// join the queue
-							TrafficSimulatorApp.roads.get(onEdge).joinQueue(this);
-						}
-					}
-
-				} else {
-					// dY <= 0
-					if (dX > 0) {
-						// dY <= 0, dX > 0
-						// with this if statement we will stop 1 iteration short
-						if (vehicleX + ratio < finalX && vehicleY - 1 > finalY) {
-							vehicleX += ratio;
-							vehicleY -= 1;
-						} else {
-							// join the queue
-							TrafficSimulatorApp.roads.get(onEdge).joinQueue(this);
-						}
-					} else {
-						// dY <= 0, dX <= 0
-						// with this if statement we will stop 1 iteration short
-						if (vehicleX - ratio >= finalX && vehicleY - 1 > finalY) {
-							vehicleX -= ratio;
-							vehicleY -= 1;
-						} else {
-							// join the queue
-							TrafficSimulatorApp.roads.get(onEdge).joinQueue(this);
-						}
-					}
-				}
-
-			} else {
-				// here Math.abs(dY) <= Math.abs(dX)
-				// step by x
-				double ratio = Math.abs(dY) / Math.abs(dX);
-				if (dY > 0) {
-					// dY > 0
-					if (dX > 0) {
-						// dY > 0, dX > 0
-						// with this if statement we will stop 1 iteration short
-						if (vehicleX + 1 < finalX && vehicleY + ratio < finalY) {
-							vehicleX += 1;
-							vehicleY += ratio;
-						} else {
-							// join the queue
-							TrafficSimulatorApp.roads.get(onEdge).joinQueue(this);
-						}
-					} else {
-						// dY > 0, dX <= 0
-						// with this if statement we will stop 1 iteration short
-						if (vehicleX - 1 > finalX && vehicleY + ratio < finalY) {
-							vehicleX -= 1;
-							vehicleY += ratio;
-						} else {
-							// join the queue
-							TrafficSimulatorApp.roads.get(onEdge).joinQueue(this);
-						}
-					}
-
-				} else {
-					// dY <= 0
-					if (dX > 0) {
-						// dY <= 0, dX > 0
-						// with this if statement we will stop 1 iteration short
-						if (vehicleX + 1 < finalX && vehicleY - ratio >= finalY) {
-							vehicleX += 1;
-							vehicleY -= ratio;
-						} else {
-							// join the queue
-							TrafficSimulatorApp.roads.get(onEdge).joinQueue(this);
-						}
-					} else {
-						// dY <= 0, dX <= 0
-						// with this if statement we will stop 1 iteration short
-						if (vehicleX - 1 > finalX && vehicleY - ratio >= finalY) {
-							vehicleX -= 1;
-							vehicleY -= ratio;
-						} else {
-							// join the queue
-							TrafficSimulatorApp.roads.get(onEdge).joinQueue(this);
-						}
-					}
-				}
-			}
-		} else {
-			// we are queued
-
-			// increment waitTime by one tick
-			waitTime++;
-		}
-
-		// check to see if the driver should stop early (due to the line of cars)
-		if (Math.abs(vehicleX - finalX) < 0.1 + Math.abs(dX) * (16 + 9 * TrafficSimulatorApp.roads.get(onEdge).getQueueSize())
-			&& Math.abs(vehicleY - finalY) < 0.1 + Math.abs(dY) * (16 + 9 * TrafficSimulatorApp.roads.get(onEdge).getQueueSize()) && !isQueued) {
-			TrafficSimulatorApp.roads.get(onEdge).joinQueue(this);
+		Road r = TrafficSimulatorApp.roads.get(getOnEdge());
+		if (table.updatePosition(slot, r.getQueueSize())) {
+			r.joinQueue(this);
 		}
 	}
 }
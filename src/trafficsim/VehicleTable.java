@@ -0,0 +1,552 @@
+package trafficsim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class VehicleTable stores every vehicle in the simulation as a row of parallel primitive
+ * arrays.  live vehicles always occupy slots 0..size-1, so the update loop walks the
+ * arrays front to back.  removing a vehicle moves the last row into the hole.
+ * Vehicle objects are just handles onto a row, for the display and older callers
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class VehicleTable implements Iterable<Vehicle> {
+
+	private static final int initialCapacity = 64;
+	private static final double speed = 1.0;
+	private static final int rowBytes = 6 * 8 + 7 * 4 + 8 + 4 + 1;	// bytes per row in a checkpoint
+	private int size = 0;
+	// per slot columns
+	protected double[] vehicleX;
+	protected double[] vehicleY;
+	protected double[] finalX;
+	protected double[] finalY;
+	protected double[] dX;
+	protected double[] dY;
+	protected int[] onEdge;
+	protected int[] queueIndex;	// ticket handed out by the road when joining its queue
+	protected int[] createTime;
+	protected int[] origin;	// the intersection the vehicle entered at
+	protected int[] waitTime;
+	protected int[] color;	// index into the ColorChooser palette
+	protected int[] id;
+	protected long[] rngState;	// the vehicle's own RandomStream state
+	protected int[] stateTime;	// tick the vehicle entered its road, or joined its queue once queued
+	// one bit per slot, set while the vehicle waits in a queue.  neighbouring slots share a
+	// word and may be flipped from different threads, so the words are updated with compare-and-set
+	private AtomicLongArray queuedBits;
+	private Vehicle[] handles;
+	// vehicle ids are recycled through a free list so they stay small and stable
+	private int[] freeIds;
+	private int freeIdCount = 0;
+	private int nextId = 0;
+	// set by the FreeFlowEngine, positions of moving vehicles are then worked out from stateTime
+	protected boolean freeFlow = false;
+
+	/*
+	 * VehicleTable constructor, allocate the columns at a small starting capacity
+	 */
+	public VehicleTable() {
+		allocate(initialCapacity);
+	}
+
+	/*
+	 * (re)allocate every column, keeping the existing rows
+	 *		@param capacity the number of rows to make room for
+	 */
+	private void allocate(int capacity) {
+		vehicleX = grow(vehicleX, capacity);
+		vehicleY = grow(vehicleY, capacity);
+		finalX = grow(finalX, capacity);
+		finalY = grow(finalY, capacity);
+		dX = grow(dX, capacity);
+		dY = grow(dY, capacity);
+		onEdge = grow(onEdge, capacity);
+		queueIndex = grow(queueIndex, capacity);
+		createTime = grow(createTime, capacity);
+		origin = grow(origin, capacity);
+		waitTime = grow(waitTime, capacity);
+		color = grow(color, capacity);
+		id = grow(id, capacity);
+		rngState = grow(rngState, capacity);
+		stateTime = grow(stateTime, capacity);
+		freeIds = grow(freeIds, capacity);
+
+		AtomicLongArray newBits = new AtomicLongArray((capacity + 63) >> 6);
+		if (queuedBits != null) {
+			for (int i = 0; i < queuedBits.length(); i++) {
+				newBits.set(i, queuedBits.get(i));
+			}
+		}
+		queuedBits = newBits;
+
+		Vehicle[] newHandles = new Vehicle[capacity];
+		if (handles != null) {
+			System.arraycopy(handles, 0, newHandles, 0, size);
+		}
+		handles = newHandles;
+	}
+
+	private static double[] grow(double[] a, int capacity) {
+		double[] b = new double[capacity];
+		if (a != null) {
+			System.arraycopy(a, 0, b, 0, a.length);
+		}
+		return b;
+	}
+
+	private static long[] grow(long[] a, int capacity) {
+		long[] b = new long[capacity];
+		if (a != null) {
+			System.arraycopy(a, 0, b, 0, a.length);
+		}
+		return b;
+	}
+
+	private static int[] grow(int[] a, int capacity) {
+		int[] b = new int[capacity];
+		if (a != null) {
+			System.arraycopy(a, 0, b, 0, a.length);
+		}
+		return b;
+	}
+
+	/*
+	 * return the number of live vehicles
+	 *		@return the vehicle count
+	 */
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * return the handle for a slot
+	 *		@param slot the row, 0..size-1
+	 *		@return the Vehicle handle currently stored in that row
+	 */
+	public Vehicle get(int slot) {
+		return handles[slot];
+	}
+
+	/*
+	 * create a vehicle at the start of a road, entering the simulation at the road's first vertex
+	 *		@param edge the road the new vehicle will ride
+	 *		@param seed the seed of the vehicle's random stream, split off the intersection creating it
+	 *		@return the handle for the new vehicle
+	 */
+	public Vehicle add(int edge, long seed) {
+		return add(edge, TrafficSimulatorApp.simTime, 0, ColorChooser.getColorIndex(seed),
+			TrafficSimulatorApp.roads.get(edge).getFromVertex(), seed);
+	}
+
+	/*
+	 * add a vehicle that already has some history, at the start of a road.  used when
+	 * a vehicle is handed over from another table
+	 *		@param edge the road the vehicle will ride
+	 *		@param created the tick the vehicle entered the simulation
+	 *		@param waited the ticks the vehicle has spent in queues so far
+	 *		@param colorIndex the palette index of the vehicle color
+	 *		@param entered the intersection the vehicle entered the simulation at
+	 *		@param randomState the state of the vehicle's random stream
+	 *		@return the handle for the vehicle
+	 */
+	public Vehicle add(int edge, int created, int waited, int colorIndex, int entered, long randomState) {
+		if (size == handles.length) {
+			allocate(size * 2);
+		}
+
+		int slot = size++;
+		int newId = freeIdCount > 0 ? freeIds[--freeIdCount] : nextId++;
+		Vehicle v = new Vehicle(this, slot);
+		handles[slot] = v;
+		id[slot] = newId;
+		waitTime[slot] = waited;
+		queueIndex[slot] = 0;
+		setEdge(slot, edge);
+		color[slot] = colorIndex;
+		createTime[slot] = created;
+		origin[slot] = entered;
+		rngState[slot] = randomState;
+		stateTime[slot] = TrafficSimulatorApp.simTime;
+		return v;
+	}
+
+	/*
+	 * remove a vehicle in O(1) by moving the last row into its slot
+	 *		@param v the handle of the vehicle to remove, ignored if null
+	 */
+	public void remove(Vehicle v) {
+		if (v == null || v.slot < 0) {
+			return;
+		}
+		int slot = v.slot;
+		int last = size - 1;
+
+		// hand the id back
+		freeIds[freeIdCount++] = id[slot];
+
+		if (slot != last) {
+			vehicleX[slot] = vehicleX[last];
+			vehicleY[slot] = vehicleY[last];
+			finalX[slot] = finalX[last];
+			finalY[slot] = finalY[last];
+			dX[slot] = dX[last];
+			dY[slot] = dY[last];
+			onEdge[slot] = onEdge[last];
+			queueIndex[slot] = queueIndex[last];
+			createTime[slot] = createTime[last];
+			origin[slot] = origin[last];
+			waitTime[slot] = waitTime[last];
+			color[slot] = color[last];
+			id[slot] = id[last];
+			rngState[slot] = rngState[last];
+			stateTime[slot] = stateTime[last];
+			setQueued(slot, isQueued(last));
+			handles[slot] = handles[last];
+			handles[slot].slot = slot;
+		}
+		setQueued(last, false);
+		handles[last] = null;
+		size--;
+		v.slot = -1;
+	}
+
+	/*
+	 * remove every vehicle
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			handles[i].slot = -1;
+			handles[i] = null;
+		}
+		for (int i = 0; i < queuedBits.length(); i++) {
+			queuedBits.set(i, 0);
+		}
+		size = 0;
+		freeIdCount = 0;
+		nextId = 0;
+	}
+
+	/*
+	 * return the size of the state written by writeState
+	 *		@return the number of bytes
+	 */
+	protected long getStateBytes() {
+		return 4 * 3 + 1 + 4l * freeIdCount + (long) rowBytes * size;
+	}
+
+	/*
+	 * write every row for a checkpoint, in slot order since the engines update in that order,
+	 * along with the free ids so the ids handed out next are the same
+	 *		@param out the buffer to write to
+	 */
+	protected void writeState(ByteBuffer out) {
+		out.putInt(size);
+		out.putInt(nextId);
+		out.putInt(freeIdCount);
+		out.put((byte) (freeFlow ? 1 : 0));
+		for (int i = 0; i < freeIdCount; i++) {
+			out.putInt(freeIds[i]);
+		}
+		for (int slot = 0; slot < size; slot++) {
+			out.putDouble(vehicleX[slot]);
+			out.putDouble(vehicleY[slot]);
+			out.putDouble(finalX[slot]);
+			out.putDouble(finalY[slot]);
+			out.putDouble(dX[slot]);
+			out.putDouble(dY[slot]);
+			out.putInt(onEdge[slot]);
+			out.putInt(queueIndex[slot]);
+			out.putInt(createTime[slot]);
+			out.putInt(origin[slot]);
+			out.putInt(waitTime[slot]);
+			out.putInt(color[slot]);
+			out.putInt(id[slot]);
+			out.putLong(rngState[slot]);
+			out.putInt(stateTime[slot]);
+			out.put((byte) (isQueued(slot) ? 1 : 0));
+		}
+	}
+
+	/*
+	 * read back the rows written by writeState into an empty table
+	 *		@param in the buffer to read from
+	 *		@param numVertices the number of intersections the vehicles may have entered at
+	 *		@param numRoads the number of roads the vehicles may be on
+	 *		@throws IOException if the rows do not make sense
+	 */
+	protected void readState(ByteBuffer in, int numVertices, int numRoads) throws IOException {
+		int rows = in.getInt();
+		int ids = in.getInt();
+		int free = in.getInt();
+		if (rows < 0 || free < 0 || ids < rows + free) {
+			throw new IOException("vehicle table of " + rows + " rows with " + free + " of " + ids + " ids free");
+		}
+		freeFlow = in.get() != 0;
+		allocate(Math.max(initialCapacity, ids));
+		nextId = ids;
+		freeIdCount = free;
+		for (int i = 0; i < free; i++) {
+			freeIds[i] = in.getInt();
+		}
+		for (int slot = 0; slot < rows; slot++) {
+			vehicleX[slot] = in.getDouble();
+			vehicleY[slot] = in.getDouble();
+			finalX[slot] = in.getDouble();
+			finalY[slot] = in.getDouble();
+			dX[slot] = in.getDouble();
+			dY[slot] = in.getDouble();
+			onEdge[slot] = in.getInt();
+			queueIndex[slot] = in.getInt();
+			createTime[slot] = in.getInt();
+			origin[slot] = in.getInt();
+			waitTime[slot] = in.getInt();
+			color[slot] = in.getInt();
+			id[slot] = in.getInt();
+			rngState[slot] = in.getLong();
+			stateTime[slot] = in.getInt();
+			setQueued(slot, in.get() != 0);
+			if (onEdge[slot] < 0 || onEdge[slot] >= numRoads) {
+				throw new IOException("vehicle " + id[slot] + " is on road " + onEdge[slot] + " of " + numRoads);
+			}
+			if (origin[slot] < 0 || origin[slot] >= numVertices) {
+				throw new IOException("vehicle " + id[slot] + " entered at vertex " + origin[slot] + " of " + numVertices);
+			}
+			handles[slot] = new Vehicle(this, slot);
+		}
+		size = rows;
+	}
+
+	/*
+	 * return the x coordinate of a vehicle that is not queued
+	 *		@param slot the row of the vehicle
+	 */
+	public double getMovingX(int slot) {
+		if (freeFlow) {
+			return TrafficSimulatorApp.roads.get(onEdge[slot]).getTravelX(TrafficSimulatorApp.simTime - stateTime[slot]);
+		}
+		return vehicleX[slot];
+	}
+
+	/*
+	 * return the y coordinate of a vehicle that is not queued
+	 *		@param slot the row of the vehicle
+	 */
+	public double getMovingY(int slot) {
+		if (freeFlow) {
+			return TrafficSimulatorApp.roads.get(onEdge[slot]).getTravelY(TrafficSimulatorApp.simTime - stateTime[slot]);
+		}
+		return vehicleY[slot];
+	}
+
+	/*
+	 * draw the next double in [0, 1) from a vehicle's own random stream
+	 *		@param slot the row of the vehicle
+	 *		@return a uniform double
+	 */
+	public double nextDouble(int slot) {
+		rngState[slot] += RandomStream.gamma;
+		return RandomStream.toDouble(rngState[slot]);
+	}
+
+	/*
+	 * return whether the vehicle in a slot is waiting in a queue
+	 *		@param slot the row to check
+	 */
+	public boolean isQueued(int slot) {
+		return (queuedBits.get(slot >> 6) & (1L << slot)) != 0;
+	}
+
+	/*
+	 * return the number of vehicles waiting in queues
+	 *		@return the number of queued flags set
+	 */
+	public int getQueuedCount() {
+		int count = 0;
+		int words = (size + 63) >> 6;
+		for (int i = 0; i < words; i++) {
+			count += Long.bitCount(queuedBits.get(i));
+		}
+		return count;
+	}
+
+	/*
+	 * set or clear the queued flag for a slot
+	 *		@param slot the row to change
+	 *		@param queued the new value of the flag
+	 */
+	public void setQueued(int slot, boolean queued) {
+		int word = slot >> 6;
+		long bit = 1L << slot;
+		long old;
+		long updated;
+		do {
+			old = queuedBits.get(word);
+			updated = queued ? old | bit : old & ~bit;
+		} while (old != updated && !queuedBits.compareAndSet(word, old, updated));
+	}
+
+	/*
+	 * put a vehicle at the start of a road, reset dX,dY etc
+	 *		@param slot the row of the vehicle
+	 *		@param edge the road to ride
+	 */
+	public void setEdge(int slot, int edge) {
+		Road r = TrafficSimulatorApp.roads.get(edge);
+		onEdge[slot] = edge;
+		vehicleX[slot] = TrafficSimulatorApp.intersections.get(r.getFromVertex()).getX();
+		vehicleY[slot] = TrafficSimulatorApp.intersections.get(r.getFromVertex()).getY();
+		finalX[slot] = TrafficSimulatorApp.intersections.get(r.getToVertex()).getX();
+		finalY[slot] = TrafficSimulatorApp.intersections.get(r.getToVertex()).getY();
+		dX[slot] = r.getUnitX() * speed;
+		dY[slot] = r.getUnitY() * speed;
+		setQueued(slot, false);
+	}
+
+	/*
+	 * method will increment the position of a car in such a way that it
+	 * "rides" along the edges of the graph... literally just a naive line drawing algo.
+	 * the vehicle does not join the queue itself, it only reports that it wants to, so the
+	 * caller decides when the road is touched.  the global time counters are kept by the engine
+	 *		@param slot the row of the vehicle to move
+	 *		@param queueSize the size of the queue at the end of the vehicle's road, as the vehicle sees it
+	 *		@return true if the vehicle should now join the queue on its road
+	 */
+	// change 11/14/11 -- when stepping by x, make the y checks in the possible dY = 0 case "soft" i.e. inclusive
+	//						when stepping by y, make the x			...			dX = 0 case ..
+	// this was to fix the dX = 0 and/or dY = 0 cases
+	public boolean updatePosition(int slot, int queueSize) {
+		if (isQueued(slot)) {
+			// we are queued
+
+			// increment waitTime by one tick
+			waitTime[slot]++;
+			return false;
+		}
+
+		double x = vehicleX[slot];
+		double y = vehicleY[slot];
+		double fx = finalX[slot];
+		double fy = finalY[slot];
+		double deltaX = dX[slot];
+		double deltaY = dY[slot];
+		boolean join = false;
+
+		if (Math.abs(deltaY) > Math.abs(deltaX)) {
+			// step by y
+			double ratio = Math.abs(deltaX) / Math.abs(deltaY);
+			if (deltaY > 0) {
+				if (deltaX > 0) {
+					// dY > 0, dX > 0
+					// with this if statement we will stop 1 iteration short
+					if (x + ratio < fx && y + 1 < fy) {
+						x += ratio;
+						y += 1;
+					} else {
+						join = true;
+					}
+				} else {
+					// dY > 0, dX <= 0
+					if (x - ratio >= fx && y + 1 < fy) {
+						x -= ratio;
+						y += 1;
+					} else {
+						join = true;
+					}
+				}
+			} else {
+				if (deltaX > 0) {
+					// dY <= 0, dX > 0
+					if (x + ratio < fx && y - 1 > fy) {
+						x += ratio;
+						y -= 1;
+					} else {
+						join = true;
+					}
+				} else {
+					// dY <= 0, dX <= 0
+					if (x - ratio >= fx && y - 1 > fy) {
+						x -= ratio;
+						y -= 1;
+					} else {
+						join = true;
+					}
+				}
+			}
+		} else {
+			// here Math.abs(dY) <= Math.abs(dX)
+			// step by x
+			double ratio = Math.abs(deltaY) / Math.abs(deltaX);
+			if (deltaY > 0) {
+				if (deltaX > 0) {
+					// dY > 0, dX > 0
+					if (x + 1 < fx && y + ratio < fy) {
+						x += 1;
+						y += ratio;
+					} else {
+						join = true;
+					}
+				} else {
+					// dY > 0, dX <= 0
+					if (x - 1 > fx && y + ratio < fy) {
+						x -= 1;
+						y += ratio;
+					} else {
+						join = true;
+					}
+				}
+			} else {
+				if (deltaX > 0) {
+					// dY <= 0, dX > 0
+					if (x + 1 < fx && y - ratio >= fy) {
+						x += 1;
+						y -= ratio;
+					} else {
+						join = true;
+					}
+				} else {
+					// dY <= 0, dX <= 0
+					if (x - 1 > fx && y - ratio >= fy) {
+						x -= 1;
+						y -= ratio;
+					} else {
+						join = true;
+					}
+				}
+			}
+		}
+		vehicleX[slot] = x;
+		vehicleY[slot] = y;
+
+		// check to see if the driver should stop early (due to the line of cars)
+		return join
+			|| (Math.abs(x - fx) < 0.1 + Math.abs(deltaX) * (16 + 9 * queueSize)
+			&& Math.abs(y - fy) < 0.1 + Math.abs(deltaY) * (16 + 9 * queueSize));
+	}
+
+	/*
+	 * iterate over the handles of the live vehicles, in slot order
+	 */
+	@Override
+	public Iterator<Vehicle> iterator() {
+		return new Iterator<Vehicle>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public Vehicle next() {
+				if (next >= size) {
+					throw new NoSuchElementException();
+				}
+				return handles[next++];
+			}
+		};
+	}
+}
@@ -0,0 +1,239 @@
+package trafficsim;
+
+/**
+ * Class VertexIndex is a hashed grid over the intersection coordinates, so the editor can
+ * find the vertex under the mouse without measuring the distance to every one of them.
+ * each occupied cell holds a linked list of the vertices in it, threaded through an array
+ * indexed by vertex.  adding, moving and deleting a vertex update the grid in place, and
+ * anything else that changes the vertex list (loading a file) makes it rebuild on next use
+ * @author Michael Scott <mkdsctt@gmail.com>
+ */
+public class VertexIndex {
+
+	private static final double cellSize = 2 * DisplayPanel.vertexRadius + 2;	// a pick never spans more than 2x2 cells
+	private static final long emptyKey = Long.MIN_VALUE;
+	private static long[] cellKeys = new long[0];	// open addressing table of occupied cells
+	private static int[] cellHeads = new int[0];	// first vertex in each cell, -1 if none
+	private static int cellsUsed = 0;
+	private static int[] next = new int[0];	// next vertex in the same cell, -1 at the end
+	private static int[] vertexCell = new int[0];	// table slot of the cell each vertex is in
+	private static int count = 0;	// vertices in the grid
+	private static boolean valid = false;
+
+	/*
+	 * throw the grid away, it is rebuilt from the intersection list on next use
+	 */
+	protected static void invalidate() {
+		valid = false;
+	}
+
+	/*
+	 * rebuild the grid if it no longer matches the intersection list
+	 */
+	private static void ensure() {
+		if (!valid || count != TrafficSimulatorApp.intersections.size()) {
+			rebuild();
+		}
+	}
+
+	/*
+	 * put every intersection in the grid from scratch
+	 */
+	private static void rebuild() {
+		int vertices = TrafficSimulatorApp.intersections.size();
+		int capacity = 16;
+		while (capacity < vertices * 2) {
+			capacity <<= 1;
+		}
+		cellKeys = new long[capacity];
+		cellHeads = new int[capacity];
+		for (int k = 0; k < capacity; k++) {
+			cellKeys[k] = emptyKey;
+			cellHeads[k] = -1;
+		}
+		cellsUsed = 0;
+		next = new int[Math.max(vertices, 16)];
+		vertexCell = new int[next.length];
+		count = 0;
+		for (int i = 0; i < vertices; i++) {
+			insert(i);
+			count++;
+		}
+		valid = true;
+	}
+
+	/*
+	 * return the key of the cell a point falls in
+	 */
+	private static long getKey(double x, double y) {
+		long cx = (long) Math.floor(x / cellSize);
+		long cy = (long) Math.floor(y / cellSize);
+		return (cx << 32) ^ (cy & 0xffffffffl);
+	}
+
+	/*
+	 * return the table slot of a cell
+	 *		@param key the cell key
+	 *		@param create whether to add the cell if it is not there
+	 *		@return the slot, or -1 if the cell is not there and create is false
+	 */
+	private static int findCell(long key, boolean create) {
+		int mask = cellKeys.length - 1;
+		int slot = (int) RandomStream.mix(key) & mask;
+		while (cellKeys[slot] != emptyKey) {
+			if (cellKeys[slot] == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (!create) {
+			return -1;
+		}
+		cellKeys[slot] = key;
+		cellsUsed++;
+		return slot;
+	}
+
+	/*
+	 * double the cell table once it is half full, keeping the vertex lists
+	 */
+	private static void growCells() {
+		long[] oldKeys = cellKeys;
+		int[] oldHeads = cellHeads;
+		cellKeys = new long[oldKeys.length * 2];
+		cellHeads = new int[cellKeys.length];
+		for (int k = 0; k < cellKeys.length; k++) {
+			cellKeys[k] = emptyKey;
+			cellHeads[k] = -1;
+		}
+		cellsUsed = 0;
+		for (int k = 0; k < oldKeys.length; k++) {
+			if (oldKeys[k] != emptyKey && oldHeads[k] >= 0) {
+				int slot = findCell(oldKeys[k], true);
+				cellHeads[slot] = oldHeads[k];
+				for (int v = oldHeads[k]; v >= 0; v = next[v]) {
+					vertexCell[v] = slot;
+				}
+			}
+		}
+	}
+
+	/*
+	 * link a vertex into the cell at its current coordinates
+	 */
+	private static void insert(int index) {
+		if (index >= next.length) {
+			int[] larger = new int[next.length * 2];
+			System.arraycopy(next, 0, larger, 0, next.length);
+			next = larger;
+			larger = new int[vertexCell.length * 2];
+			System.arraycopy(vertexCell, 0, larger, 0, vertexCell.length);
+			vertexCell = larger;
+		}
+		if (cellsUsed * 2 >= cellKeys.length) {
+			growCells();
+		}
+		Intersection intersection = TrafficSimulatorApp.intersections.get(index);
+		int slot = findCell(getKey(intersection.getX(), intersection.getY()), true);
+		next[index] = cellHeads[slot];
+		cellHeads[slot] = index;
+		vertexCell[index] = slot;
+	}
+
+	/*
+	 * unlink a vertex from the cell it was put in
+	 */
+	private static void unlink(int index) {
+		int slot = vertexCell[index];
+		if (cellHeads[slot] == index) {
+			cellHeads[slot] = next[index];
+			return;
+		}
+		for (int v = cellHeads[slot]; v >= 0; v = next[v]) {
+			if (next[v] == index) {
+				next[v] = next[index];
+				return;
+			}
+		}
+	}
+
+	/*
+	 * add the vertex just appended to the intersection list
+	 *		@param index the index of the new vertex
+	 */
+	protected static void add(int index) {
+		if (!valid || count != index) {
+			rebuild();
+			return;
+		}
+		insert(index);
+		count++;
+	}
+
+	/*
+	 * move a vertex to the cell for its current coordinates, after it has been dragged
+	 *		@param index the index of the vertex
+	 */
+	protected static void move(int index) {
+		ensure();
+		unlink(index);
+		insert(index);
+	}
+
+	/*
+	 * take a vertex out, before it is removed from the intersection list.  every vertex after
+	 * it moves down one place in the list, so their entries are renumbered to match
+	 *		@param index the index of the vertex
+	 */
+	protected static void remove(int index) {
+		ensure();
+		unlink(index);
+		for (int k = 0; k < cellHeads.length; k++) {
+			if (cellHeads[k] > index) {
+				cellHeads[k]--;
+			}
+		}
+		for (int v = 0; v < count; v++) {
+			if (next[v] > index) {
+				next[v]--;
+			}
+		}
+		System.arraycopy(next, index + 1, next, index, count - index - 1);
+		System.arraycopy(vertexCell, index + 1, vertexCell, index, count - index - 1);
+		count--;
+	}
+
+	/*
+	 * find the vertex nearest a point
+	 *		@param x the x coordinate, in network units
+	 *		@param y the y coordinate, in network units
+	 *		@param radius how far from the point to look
+	 *		@return the index of the nearest vertex within the radius, or -1 if there is none
+	 */
+	protected static int findNearest(double x, double y, double radius) {
+		ensure();
+		long cx0 = (long) Math.floor((x - radius) / cellSize), cx1 = (long) Math.floor((x + radius) / cellSize);
+		long cy0 = (long) Math.floor((y - radius) / cellSize), cy1 = (long) Math.floor((y + radius) / cellSize);
+		int best = -1;
+		double bestDistance = radius * radius;
+		for (long cx = cx0; cx <= cx1; cx++) {
+			for (long cy = cy0; cy <= cy1; cy++) {
+				int slot = findCell((cx << 32) ^ (cy & 0xffffffffl), false);
+				if (slot < 0) {
+					continue;
+				}
+				for (int v = cellHeads[slot]; v >= 0; v = next[v]) {
+					Intersection intersection = TrafficSimulatorApp.intersections.get(v);
+					double dx = intersection.getX() - x;
+					double dy = intersection.getY() - y;
+					double distance = dx * dx + dy * dy;
+					if (distance <= bestDistance) {
+						best = v;
+						bestDistance = distance;
+					}
+				}
+			}
+		}
+		return best;
+	}
+}